@@ -52,6 +52,31 @@ public interface PersistentCacheStatsMBean extends CacheStatsMBean {
 
     CompositeData getUsedSpaceHistory();
 
+    /**
+     * @return the number of writes (puts and invalidates) currently queued
+     *          to be written to the persistent cache.
+     */
+    long getWriteQueueSize();
+
+    /**
+     * @return the number of queued puts that were coalesced with a later put
+     *          of the same key, or cancelled by an invalidate.
+     */
+    long getPutCoalescedCount();
+
+    /**
+     * @return the ratio of coalesced puts to all queued puts.
+     */
+    double getPutCoalesceRate();
+
+    /**
+     * @return the number of writes dropped because the write queue was full.
+     *          Only counted if rejected puts are counted.
+     */
+    long getPutRejectedQueueFullCount();
+
+    CompositeData getPutCoalescedRateHistory();
+
     String cacheInfoAsString();
 
 }
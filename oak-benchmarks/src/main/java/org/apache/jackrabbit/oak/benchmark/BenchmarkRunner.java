@@ -205,6 +205,7 @@ public class BenchmarkRunner {
             new SQL2SearchTest(),
             new DescendantSearchTest(),
             new SQL2DescendantSearchTest(),
+            new SQL2JoinTest(),
             new FlatTreeUpdateTest(),
             new CreateManyChildNodesTest(),
             new CompareManyChildNodesTest(),
@@ -32,6 +32,7 @@ import java.util.Random;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.jcr.Binary;
 import javax.jcr.Node;
@@ -49,12 +50,23 @@ import org.apache.jackrabbit.commons.cnd.ParseException;
 import org.apache.jackrabbit.oak.Oak;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.fixture.JcrCreator;
+import org.apache.jackrabbit.oak.fixture.OakFixture;
 import org.apache.jackrabbit.oak.fixture.OakRepositoryFixture;
 import org.apache.jackrabbit.oak.fixture.RepositoryFixture;
 import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.plugins.document.Collection;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStoreBuilder;
+import org.apache.jackrabbit.oak.plugins.document.bundlor.BundlingAnalyzer;
+import org.apache.jackrabbit.oak.plugins.document.util.Utils;
+import org.apache.jackrabbit.oak.plugins.nodetype.TypeEditorProvider;
+import org.apache.jackrabbit.oak.spi.commit.EditorHook;
 import org.apache.jackrabbit.oak.spi.nodetype.NodeTypeConstants;
 import org.apache.jackrabbit.oak.spi.lifecycle.RepositoryInitializer;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -63,6 +75,7 @@ import static org.apache.jackrabbit.JcrConstants.NT_FOLDER;
 import static org.apache.jackrabbit.JcrConstants.NT_RESOURCE;
 import static org.apache.jackrabbit.commons.JcrUtils.getOrAddNode;
 import static org.apache.jackrabbit.oak.api.Type.STRINGS;
+import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
 import static org.apache.jackrabbit.oak.plugins.document.bundlor.BundlingConfigHandler.BUNDLOR;
 import static org.apache.jackrabbit.oak.plugins.document.bundlor.BundlingConfigHandler.DOCUMENT_NODE_STORE;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.DECLARING_NODE_TYPES;
@@ -93,7 +106,7 @@ public class BundlingNodeTest extends AbstractTest<BundlingNodeTest.TestContext>
         }
     }
 
-    private enum BundlingMode {ALL, EXCLUDE_RENDITIONS}
+    private enum BundlingMode {ALL, EXCLUDE_RENDITIONS, NONE}
 
     private static final String NT_OAK_ASSET = "oak:Asset";
 
@@ -109,6 +122,7 @@ public class BundlingNodeTest extends AbstractTest<BundlingNodeTest.TestContext>
     private boolean oakResourceEnabled = Boolean.parseBoolean(System.getProperty("oakResourceEnabled", "false"));
     private boolean readerEnabled = Boolean.parseBoolean(System.getProperty("readerEnabled", "true"));
     private BundlingMode bundlingMode = BundlingMode.valueOf(System.getProperty("bundlingMode", "all").toUpperCase());
+    private BundlingAnalyzer.Mode adaptiveBundling = BundlingAnalyzer.Mode.fromString(System.getProperty("adaptiveBundling", "off"));
     private RepositoryInitializer bundlingInitializer = new BundlingConfigInitializer();
     private TestContext defaultContext;
     private Reader reader;
@@ -116,25 +130,57 @@ public class BundlingNodeTest extends AbstractTest<BundlingNodeTest.TestContext>
     private final AtomicInteger assetCount = new AtomicInteger();
     private List<TestContext> contexts = new ArrayList<>();
     private String contentNodeType = NT_RESOURCE;
+    private DocumentNodeStore documentNodeStore;
+    private final AtomicReference<String> firstAssetPath = new AtomicReference<>();
+    private volatile String lastAssetPath;
 
     @Override
     protected Repository[] createRepository(RepositoryFixture fixture) throws Exception {
+        if (adaptiveBundling != BundlingAnalyzer.Mode.OFF) {
+            return createAdaptiveBundlingRepository(fixture);
+        }
         if (fixture instanceof OakRepositoryFixture) {
             return ((OakRepositoryFixture) fixture).setUpCluster(1, new JcrCreator() {
                 @Override
                 public Jcr customize(Oak oak) {
-                    Jcr jcr = new Jcr(oak);
-                    if (bundlingEnabled) {
-                        jcr.with(bundlingInitializer);
-                    }
-                    jcr.with(FixNodeTypeIndexInitializer.INSTANCE);
-                    return jcr;
+                    return newJcr(oak);
                 }
             });
         }
         return super.createRepository(fixture);
     }
 
+    /**
+     * Creates a repository on a DocumentNodeStore with the analyzer for
+     * adaptive bundling. Use -DbundlingEnabled=true -DbundlingMode=none to
+     * start with an empty bundling configuration, which the analyzer fills.
+     */
+    private Repository[] createAdaptiveBundlingRepository(RepositoryFixture fixture) {
+        if (fixture instanceof OakRepositoryFixture) {
+            OakFixture oakFixture = ((OakRepositoryFixture) fixture).getOakFixture();
+            if (oakFixture instanceof OakFixture.MongoFixture) {
+                DocumentNodeStoreBuilder<?> builder = ((OakFixture.MongoFixture) oakFixture).getBuilder(1);
+                builder.setAdaptiveBundlingMode(adaptiveBundling);
+                // the configuration added by the analyzer is validated
+                // against the node types
+                builder.setAdaptiveBundlingCommitHook(new EditorHook(new TypeEditorProvider()));
+                documentNodeStore = builder.build();
+                return new Repository[] { newJcr(new Oak(documentNodeStore)).createRepository() };
+            }
+        }
+        throw new IllegalArgumentException("Fixture " + fixture + " not supported with adaptive bundling. " +
+                "Only Mongo Fixture is supported.");
+    }
+
+    private Jcr newJcr(Oak oak) {
+        Jcr jcr = new Jcr(oak);
+        if (bundlingEnabled) {
+            jcr.with(bundlingInitializer);
+        }
+        jcr.with(FixNodeTypeIndexInitializer.INSTANCE);
+        return jcr;
+    }
+
     @Override
     public void beforeSuite() throws Exception {
         if (oakResourceEnabled) {
@@ -177,6 +223,8 @@ public class BundlingNodeTest extends AbstractTest<BundlingNodeTest.TestContext>
 
             ctx.session.save();
             ctx.addAssetPath(asset.getPath());
+            firstAssetPath.compareAndSet(null, asset.getPath());
+            lastAssetPath = asset.getPath();
             assetCount.incrementAndGet();
             status.inc();
             status = status.next();
@@ -216,8 +264,31 @@ public class BundlingNodeTest extends AbstractTest<BundlingNodeTest.TestContext>
 
     @Override
     protected void afterSuite() throws Exception {
-        System.out.printf("bundlingEnabled: %s, oakResourceEnabled: %s, readerEnabled: %s, bundlingMode: %s%n",
-                bundlingEnabled, oakResourceEnabled, readerEnabled, bundlingMode);
+        System.out.printf("bundlingEnabled: %s, oakResourceEnabled: %s, readerEnabled: %s, bundlingMode: %s, adaptiveBundling: %s%n",
+                bundlingEnabled, oakResourceEnabled, readerEnabled, bundlingMode, adaptiveBundling);
+        if (documentNodeStore != null && firstAssetPath.get() != null) {
+            // the number of documents is the number of find calls needed to
+            // read the asset with empty caches
+            System.out.printf("Documents per asset: first asset %d, last asset %d%n",
+                    countDocuments(firstAssetPath.get()), countDocuments(lastAssetPath));
+            BundlingAnalyzer analyzer = documentNodeStore.getBundlingAnalyzer();
+            if (analyzer != null) {
+                System.out.printf("Bundling proposals: %s%n", analyzer.getProposals());
+            }
+        }
+    }
+
+    private int countDocuments(String assetPath) {
+        return countDocuments(assetPath, NodeStateUtils.getNode(documentNodeStore.getRoot(), assetPath));
+    }
+
+    private int countDocuments(String path, NodeState state) {
+        // bundled nodes are stored in the document of their parent
+        int count = documentNodeStore.getDocumentStore().find(Collection.NODES, Utils.getIdFromPath(path)) != null ? 1 : 0;
+        for (ChildNodeEntry e : state.getChildNodeEntries()) {
+            count += countDocuments(concat(path, e.getName()), e.getNodeState());
+        }
+        return count;
     }
 
     @Override
@@ -243,6 +314,9 @@ public class BundlingNodeTest extends AbstractTest<BundlingNodeTest.TestContext>
         }
         commentElements.add(contentNodeType);
         commentElements.add(bundlingMode.name());
+        if (adaptiveBundling != BundlingAnalyzer.Mode.OFF) {
+            commentElements.add("adaptive:" + adaptiveBundling.name());
+        }
         return Joiner.on(',').join(commentElements);
     }
 
@@ -311,7 +385,9 @@ public class BundlingNodeTest extends AbstractTest<BundlingNodeTest.TestContext>
                     NodeBuilder dns = jcrChild(system, DOCUMENT_NODE_STORE);
                     NodeBuilder bundlor = jcrChild(dns, BUNDLOR);
 
-                    addPattern(bundlor, "nt:file", "jcr:content");
+                    if (bundlingMode != BundlingMode.NONE) {
+                        addPattern(bundlor, "nt:file", "jcr:content");
+                    }
 
                     switch (bundlingMode) {
                         case ALL :
@@ -326,6 +402,9 @@ public class BundlingNodeTest extends AbstractTest<BundlingNodeTest.TestContext>
                                     "jcr:content/metadata"
                             );
                             break;
+                        case NONE:
+                            // left to the analyzer for adaptive bundling
+                            break;
                     }
                 }
             }
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.benchmark;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.RowIterator;
+
+/**
+ * Performance test for joins: an equi join and a descendant node join over
+ * synthetic data. Run with -Doak.query.joinStrategies=true to compare the
+ * hash join and merge join with the nested loop join.
+ */
+public class SQL2JoinTest extends AbstractTest {
+
+    private static final int NODE_COUNT = 100;
+
+    private static final int CHILD_COUNT = 20;
+
+    private Session session;
+
+    private Node root;
+
+    String testNodeName = "test" + TEST_ID;
+
+    @Override
+    public void beforeSuite() throws RepositoryException {
+        session = getRepository().login(getCredentials());
+        root = session.getRootNode().addNode(testNodeName, "nt:unstructured");
+        for (int i = 0; i < NODE_COUNT; i++) {
+            Node node = root.addNode("node" + i, "nt:unstructured");
+            node.setProperty("id", "id" + i);
+            for (int j = 0; j < CHILD_COUNT; j++) {
+                Node child = node.addNode("child" + j, "nt:unstructured");
+                child.setProperty("ref", "id" + ((i + j) % NODE_COUNT));
+            }
+            session.save();
+        }
+    }
+
+    @Override
+    public void runTest() throws Exception {
+        QueryManager manager = session.getWorkspace().getQueryManager();
+        String path = "/" + testNodeName;
+        long count = execute(manager, "select [c].[jcr:path], [p].[jcr:path] " +
+                "from [nt:unstructured] as [c] " +
+                "inner join [nt:unstructured] as [p] on [c].[ref] = [p].[id] " +
+                "where isdescendantnode([c], [" + path + "]) " +
+                "and isdescendantnode([p], [" + path + "])");
+        if (count != NODE_COUNT * CHILD_COUNT) {
+            throw new Exception("Invalid test result: " + count);
+        }
+        count = execute(manager, "select [a].[jcr:path], [b].[jcr:path] " +
+                "from [nt:unstructured] as [a] " +
+                "inner join [nt:unstructured] as [b] on isdescendantnode([b], [a]) " +
+                "where ischildnode([a], [" + path + "])");
+        if (count != NODE_COUNT * CHILD_COUNT) {
+            throw new Exception("Invalid test result: " + count);
+        }
+    }
+
+    private static long execute(QueryManager manager, String statement) throws RepositoryException {
+        Query query = manager.createQuery(statement, Query.JCR_SQL2);
+        RowIterator it = query.execute().getRows();
+        long count = 0;
+        while (it.hasNext()) {
+            it.nextRow();
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void afterSuite() throws RepositoryException {
+        for (int i = 0; i < NODE_COUNT; i++) {
+            root.getNode("node" + i).remove();
+            session.save();
+        }
+        root.remove();
+        session.save();
+        session.logout();
+    }
+}
@@ -574,6 +574,15 @@ public class Oak {
             newSettings.setFastQuerySize(queryEngineSettings.isFastQuerySize());
             newSettings.setLimitInMemory(queryEngineSettings.getLimitInMemory());
             newSettings.setLimitReads(queryEngineSettings.getLimitReads());
+            newSettings.setSortSpillThreshold(queryEngineSettings.settings.getSortSpillThreshold());
+            newSettings.setPlanCacheSize(queryEngineSettings.settings.getPlanCacheSize());
+            newSettings.setJoinStrategies(queryEngineSettings.settings.isJoinStrategies());
+            newSettings.setUnionParallelism(queryEngineSettings.settings.getUnionParallelism());
+            newSettings.setResultBatchSize(queryEngineSettings.settings.getResultBatchSize());
+            newSettings.setCostCalibration(queryEngineSettings.settings.isCostCalibration());
+            newSettings.setIndexIntersection(queryEngineSettings.settings.getIndexIntersection());
+            newSettings.setFacets(queryEngineSettings.settings.getFacets());
+            newSettings.setFacetSampleSize(queryEngineSettings.settings.getFacetSampleSize());
             queryEngineSettings = new AnnotatedQueryEngineSettings(newSettings);
         }
 
@@ -734,6 +743,7 @@ public class Oak {
         closer.register(repoStateCheckHook);
         final List<Registration> regs = new ArrayList<>();
         closer.register( () -> new CompositeRegistration(regs).unregister() );
+        closer.register(queryEngineSettings.unwrap()::closeUnionExecutor);
         regs.add(whiteboard.register(Executor.class, getExecutor(), Collections.emptyMap()));
 
         IndexEditorProvider indexEditors = CompositeIndexEditorProvider.compose(indexEditorProviders);
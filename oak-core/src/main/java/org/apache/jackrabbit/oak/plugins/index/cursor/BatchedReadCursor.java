@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index.cursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+import org.apache.jackrabbit.oak.api.Result.SizePrecision;
+import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.plugins.tree.TreeProvider;
+import org.apache.jackrabbit.oak.plugins.tree.impl.TreeProviderService;
+import org.apache.jackrabbit.oak.spi.query.Cursor;
+import org.apache.jackrabbit.oak.spi.query.IndexRow;
+import org.apache.jackrabbit.oak.spi.security.authorization.permission.PermissionProvider;
+import org.apache.jackrabbit.oak.spi.security.authorization.permission.TreePermission;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateUtils;
+import org.apache.jackrabbit.oak.spi.state.PrefetchNodeStore;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A cursor that reads the rows of another cursor in batches. For each batch,
+ * the node states are prefetched from the node store, and read access is
+ * checked for all rows of the batch at once: the tree permission of a common
+ * ancestor is only calculated once per batch, and not once per row. Rows
+ * that are known to be not readable are skipped.
+ * <p>
+ * Rows where the node does not exist in the given root state (for example
+ * because it was added in the current session) are returned as is, and need
+ * to be checked by the caller.
+ */
+public class BatchedReadCursor extends AbstractCursor {
+
+    private static final TreeProvider TREE_PROVIDER = new TreeProviderService();
+
+    private final Cursor cursor;
+    private final PrefetchNodeStore store;
+    private final int batchSize;
+    private final NodeState rootState;
+    private final PermissionProvider permissionProvider;
+
+    private Iterator<IndexRow> batch = Collections.emptyIterator();
+    private List<Boolean> readable = Collections.emptyList();
+    private IndexRow current;
+    private boolean currentReadable;
+    private boolean lastReadable;
+    private int index;
+
+    BatchedReadCursor(Cursor cursor, PrefetchNodeStore store, int batchSize,
+            NodeState rootState, @Nullable PermissionProvider permissionProvider) {
+        this.cursor = cursor;
+        this.store = store;
+        this.batchSize = Math.max(1, batchSize);
+        this.rootState = rootState;
+        this.permissionProvider = permissionProvider;
+    }
+
+    @Override
+    public long getSize(SizePrecision precision, long max) {
+        return cursor.getSize(precision, max);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (current == null) {
+            if (!batch.hasNext()) {
+                if (!cursor.hasNext()) {
+                    return false;
+                }
+                readBatch();
+                continue;
+            }
+            IndexRow row = batch.next();
+            Boolean r = readable.get(index++);
+            if (r == null || r) {
+                current = row;
+                currentReadable = r != null;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public IndexRow next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        IndexRow r = current;
+        current = null;
+        lastReadable = currentReadable;
+        return r;
+    }
+
+    /**
+     * Whether read access for the row that was last returned by
+     * {@link #next()} was checked, and the node exists and is readable.
+     *
+     * @return true if the node is known to be readable, false if unknown
+     */
+    public boolean isReadable() {
+        return lastReadable;
+    }
+
+    private void readBatch() {
+        ArrayList<IndexRow> rows = new ArrayList<>();
+        TreeSet<String> paths = new TreeSet<>();
+        for (int i = 0; i < batchSize && cursor.hasNext(); i++) {
+            IndexRow row = cursor.next();
+            rows.add(row);
+            if (row.isVirtualRow()) {
+                continue;
+            }
+            String p = row.getPath();
+            if (!PathUtils.isAbsolute(p)) {
+                continue;
+            }
+            while (!PathUtils.denotesRoot(p)) {
+                paths.add(p);
+                p = PathUtils.getParentPath(p);
+            }
+        }
+        store.prefetch(paths, rootState);
+        ArrayList<Boolean> list = new ArrayList<>(rows.size());
+        Map<String, Node> nodes = new HashMap<>();
+        for (IndexRow row : rows) {
+            list.add(isReadable(row, nodes));
+        }
+        batch = rows.iterator();
+        readable = list;
+        index = 0;
+    }
+
+    /**
+     * Check whether the node of a row is readable.
+     *
+     * @param row the row
+     * @param nodes the nodes of this batch that were already resolved
+     * @return true if readable, false if the node exists but is not readable,
+     *         and null if unknown
+     */
+    private Boolean isReadable(IndexRow row, Map<String, Node> nodes) {
+        if (permissionProvider == null || row.isVirtualRow()) {
+            return null;
+        }
+        String path = row.getPath();
+        if (!PathUtils.isAbsolute(path) || NodeStateUtils.isHiddenPath(path)) {
+            return null;
+        }
+        Node n = getNode(path, nodes);
+        if (n == null) {
+            return null;
+        }
+        return n.permission.canRead();
+    }
+
+    private Node getNode(String path, Map<String, Node> nodes) {
+        Node n = nodes.get(path);
+        if (n != null) {
+            return n;
+        }
+        if (PathUtils.denotesRoot(path)) {
+            TreePermission p = permissionProvider.getTreePermission(
+                    TREE_PROVIDER.createReadOnlyTree(rootState), TreePermission.EMPTY);
+            n = new Node(rootState, p);
+        } else {
+            Node parent = getNode(PathUtils.getParentPath(path), nodes);
+            if (parent == null) {
+                return null;
+            }
+            String name = PathUtils.getName(path);
+            NodeState state = parent.state.getChildNode(name);
+            if (!state.exists()) {
+                return null;
+            }
+            n = new Node(state, parent.permission.getChildPermission(name, state));
+        }
+        nodes.put(path, n);
+        return n;
+    }
+
+    /**
+     * A node state with its tree permission.
+     */
+    private static class Node {
+
+        final NodeState state;
+        final TreePermission permission;
+
+        Node(NodeState state, TreePermission permission) {
+            this.state = state;
+            this.permission = permission;
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index.cursor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.jackrabbit.oak.api.Result.SizePrecision;
+import org.apache.jackrabbit.oak.query.FilterIterators;
+import org.apache.jackrabbit.oak.spi.query.Cursor;
+import org.apache.jackrabbit.oak.spi.query.IndexRow;
+import org.apache.jackrabbit.oak.spi.query.QueryLimits;
+
+/**
+ * A cursor that intersects any number of cursors using bitmaps.
+ * <p>
+ * The rows of the first cursor, which should be the one with the fewest rows,
+ * are read into a dictionary that assigns each distinct path a number. For
+ * each of the other cursors, a bitmap of the numbers of the paths it contains
+ * is built (paths that are not in the dictionary can not be in the result,
+ * and are skipped), and the bitmaps are combined. As the numbers are
+ * assigned densely, a bitmap needs at most one bit per row of the first
+ * cursor. The remaining cursors are not read once the intersection is empty.
+ * <p>
+ * The rows are returned in the order of the first cursor, without
+ * duplicates.
+ */
+class BitmapIntersectionCursor extends AbstractCursor {
+
+    private final List<Cursor> cursors;
+    private final QueryLimits settings;
+
+    private ArrayList<IndexRow> rows;
+    private BitSet result;
+    private int next = -1;
+
+    BitmapIntersectionCursor(List<Cursor> cursors, QueryLimits settings) {
+        if (cursors.isEmpty()) {
+            throw new IllegalArgumentException("No cursors to intersect");
+        }
+        this.cursors = cursors;
+        this.settings = settings;
+    }
+
+    @Override
+    public boolean hasNext() {
+        init();
+        return next >= 0;
+    }
+
+    @Override
+    public IndexRow next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        IndexRow r = rows.set(next, null);
+        next = result.nextSetBit(next + 1);
+        return r;
+    }
+
+    @Override
+    public long getSize(SizePrecision precision, long max) {
+        init();
+        return result.cardinality();
+    }
+
+    private void init() {
+        if (rows != null) {
+            return;
+        }
+        HashMap<String, Integer> dictionary = new HashMap<>();
+        rows = new ArrayList<>();
+        Cursor first = cursors.get(0);
+        while (first.hasNext()) {
+            IndexRow r = first.next();
+            String p = r.getPath();
+            if (!dictionary.containsKey(p)) {
+                dictionary.put(p, rows.size());
+                rows.add(r);
+                FilterIterators.checkMemoryLimit(rows.size(), settings);
+            }
+        }
+        result = new BitSet(rows.size());
+        result.set(0, rows.size());
+        for (int i = 1; i < cursors.size() && !result.isEmpty(); i++) {
+            BitSet bitmap = new BitSet(rows.size());
+            Cursor c = cursors.get(i);
+            while (c.hasNext()) {
+                Integer id = dictionary.get(c.next().getPath());
+                if (id != null) {
+                    bitmap.set(id);
+                }
+            }
+            result.and(bitmap);
+        }
+        next = result.nextSetBit(0);
+    }
+
+}
@@ -17,13 +17,16 @@
 package org.apache.jackrabbit.oak.plugins.index.cursor;
 
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.apache.jackrabbit.oak.query.FilterIterators;
 import org.apache.jackrabbit.oak.spi.query.Cursor;
 import org.apache.jackrabbit.oak.spi.query.Filter;
 import org.apache.jackrabbit.oak.spi.query.QueryLimits;
+import org.apache.jackrabbit.oak.spi.security.authorization.permission.PermissionProvider;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.state.PrefetchNodeStore;
+import org.jetbrains.annotations.Nullable;
 
 import static java.util.Objects.requireNonNull;
 import static org.apache.jackrabbit.oak.commons.conditions.Validate.checkArgument;
@@ -49,6 +52,19 @@ public class Cursors {
         return new IntersectionCursor(a, b, settings);
     }
 
+    /**
+     * Creates a {@link Cursor} that returns the rows that are in all of the
+     * given cursors, using bitmaps. The first cursor should be the one with
+     * the fewest rows.
+     *
+     * @param cursors the cursors (at least one)
+     * @param settings the query limits
+     * @return the cursor
+     */
+    public static Cursor newBitmapIntersectionCursor(List<Cursor> cursors, QueryLimits settings) {
+        return new BitmapIntersectionCursor(cursors, settings);
+    }
+
     public static Cursor newConcatCursor(List<Cursor> cursors, QueryLimits settings) {
         return new ConcatCursor(cursors, settings);
     }
@@ -58,6 +74,36 @@ public class Cursors {
         return new PrefetchCursor(cursor, store, prefetchCount, rootState, prefetchRelative);
     }
 
+    /**
+     * Creates a {@link Cursor} that prefetches the nodes, and checks read
+     * access, for batches of rows.
+     *
+     * @param cursor the cursor to read from
+     * @param store the store to prefetch the nodes from
+     * @param batchSize the number of rows per batch
+     * @param rootState the root state
+     * @param permissionProvider the permission provider, or null to not
+     *            check read access
+     * @return the cursor
+     */
+    public static BatchedReadCursor newBatchedReadCursor(Cursor cursor, PrefetchNodeStore store,
+            int batchSize, NodeState rootState, @Nullable PermissionProvider permissionProvider) {
+        return new BatchedReadCursor(cursor, store, batchSize, rootState, permissionProvider);
+    }
+
+    /**
+     * Creates a {@link Cursor} that reads the rows of another cursor ahead,
+     * in a task of the given executor.
+     *
+     * @param cursor the cursor to read from
+     * @param executor the executor
+     * @param queueSize the maximum number of rows to read ahead
+     * @return the cursor
+     */
+    public static ReadAheadCursor newReadAheadCursor(Cursor cursor, Executor executor, int queueSize) {
+        return new ReadAheadCursor(cursor, executor, queueSize);
+    }
+
     /**
      * Creates a {@link Cursor} over paths.
      *
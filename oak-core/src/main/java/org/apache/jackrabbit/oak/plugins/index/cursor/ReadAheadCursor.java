@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index.cursor;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.jackrabbit.oak.api.Result.SizePrecision;
+import org.apache.jackrabbit.oak.spi.query.Cursor;
+import org.apache.jackrabbit.oak.spi.query.IndexRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cursor that reads the rows of another cursor ahead, in a task of an
+ * executor. The rows are passed to the reading thread using a bounded queue.
+ * <p>
+ * Only the index rows are read by the task: the nodes are read, and read
+ * access is checked, by the thread that reads this cursor, so that the
+ * session state is not used concurrently.
+ * <p>
+ * If the task did not start yet when the first row is needed (for example
+ * because all threads are busy), the reading thread reads the rows itself,
+ * so that a query never waits for a task that is queued. The task stops if
+ * this cursor is closed, for example because the query read enough rows, or
+ * if it is no longer referenced.
+ */
+public class ReadAheadCursor extends AbstractCursor implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReadAheadCursor.class);
+
+    private static final Object END = new Object();
+
+    private final Cursor cursor;
+    private final Producer producer;
+
+    private boolean direct;
+    private IndexRow current;
+    private boolean end;
+
+    ReadAheadCursor(Cursor cursor, Executor executor, int queueSize) {
+        this.cursor = cursor;
+        producer = new Producer(cursor, queueSize, this);
+        try {
+            executor.execute(producer);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Executor is not available, reading the cursor when needed", e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (current == null && !end) {
+            fetchNext();
+        }
+        return !end;
+    }
+
+    @Override
+    public IndexRow next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        IndexRow r = current;
+        current = null;
+        return r;
+    }
+
+    @Override
+    public long getSize(SizePrecision precision, long max) {
+        return cursor.getSize(precision, max);
+    }
+
+    /**
+     * Stop reading ahead, and discard the rows that were read. The task stops
+     * once the row it is reading (if any) was read, and does not start if it
+     * did not start yet.
+     */
+    @Override
+    public void close() {
+        end = true;
+        current = null;
+        producer.cancelled = true;
+        // so that the task doesn't wait for free space in the queue
+        producer.queue.clear();
+    }
+
+    private void fetchNext() {
+        if (!direct && producer.started.compareAndSet(false, true)) {
+            // the task did not start yet: read the rows in this thread
+            direct = true;
+        }
+        if (direct) {
+            try {
+                if (cursor.hasNext()) {
+                    current = cursor.next();
+                } else {
+                    end = true;
+                }
+            } catch (RuntimeException e) {
+                // the same as if the task read the rows
+                end = true;
+                throw e;
+            }
+            return;
+        }
+        Object o;
+        try {
+            o = producer.queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            producer.cancelled = true;
+            end = true;
+            throw new IllegalStateException("Interrupted while reading an index cursor", e);
+        }
+        if (o == END) {
+            end = true;
+        } else if (o instanceof Throwable) {
+            end = true;
+            Throwable t = (Throwable) o;
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new IllegalStateException(t);
+        } else {
+            current = (IndexRow) o;
+        }
+    }
+
+    /**
+     * The task that reads the rows. It does not reference the cursor that
+     * is read by the query directly, so that it can be garbage collected if
+     * the result is not fully read.
+     */
+    private static class Producer implements Runnable {
+
+        final Cursor cursor;
+        final BlockingQueue<Object> queue;
+        final AtomicBoolean started = new AtomicBoolean();
+        final WeakReference<ReadAheadCursor> consumer;
+        volatile boolean cancelled;
+
+        Producer(Cursor cursor, int queueSize, ReadAheadCursor consumer) {
+            this.cursor = cursor;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+            this.consumer = new WeakReference<>(consumer);
+        }
+
+        @Override
+        public void run() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                while (!cancelled && cursor.hasNext()) {
+                    if (!put(cursor.next())) {
+                        return;
+                    }
+                }
+                put(END);
+            } catch (Throwable t) {
+                put(t);
+            }
+        }
+
+        private boolean put(Object o) {
+            try {
+                while (!cancelled) {
+                    if (queue.offer(o, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                    if (consumer.get() == null) {
+                        LOG.debug("The index cursor is no longer read");
+                        cancelled = true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+            }
+            return false;
+        }
+    }
+
+}
@@ -20,6 +20,9 @@ import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_CONTE
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_DEFINITIONS_NAME;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.TYPE_PROPERTY_NAME;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.commons.PathUtils;
@@ -31,6 +34,7 @@ import org.apache.jackrabbit.oak.spi.query.Cursor;
 import org.apache.jackrabbit.oak.spi.query.Filter;
 import org.apache.jackrabbit.oak.spi.query.Filter.PropertyRestriction;
 import org.apache.jackrabbit.oak.spi.query.QueryIndex;
+import org.apache.jackrabbit.oak.spi.query.QueryLimits;
 import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.slf4j.Logger;
@@ -97,6 +101,11 @@ class PropertyIndex implements QueryIndex {
      */
     private PropertyIndexPlan cachedPlan;
 
+    /**
+     * Whether the cached plan may be an intersection of multiple indexes
+     */
+    private boolean cachedPlanIntersection;
+
     PropertyIndex(MountInfoProvider mountInfoProvider) {
         this.mountInfoProvider = mountInfoProvider;
     }
@@ -107,11 +116,14 @@ class PropertyIndex implements QueryIndex {
         // and creating a separate isSimilar method is not worth the effort since it would not be used anymore once the
         // PropertyIndex has been refactored to an AdvancedQueryIndex (which will make the plan cache obsolete).
         PropertyIndexPlan plan = this.cachedPlan;
-        if (plan != null && plan.getFilter().toString().equals(filter.toString())) {
+        boolean intersection = isIntersectionEnabled(filter);
+        if (plan != null && plan.getFilter().toString().equals(filter.toString())
+                && cachedPlanIntersection == intersection) {
             return plan;
         } else {
             plan = createPlan(root, filter, mountInfoProvider);
             this.cachedPlan = plan;
+            this.cachedPlanIntersection = intersection;
             return plan;
         }
     }
@@ -119,6 +131,7 @@ class PropertyIndex implements QueryIndex {
     private static PropertyIndexPlan createPlan(NodeState root, Filter filter,
                                                 MountInfoProvider mountInfoProvider) {
         PropertyIndexPlan bestPlan = null;
+        List<PropertyIndexPlan> plans = new ArrayList<>();
 
         // TODO support indexes on a path
         // currently, only indexes on the root node are supported
@@ -135,6 +148,7 @@ class PropertyIndex implements QueryIndex {
                 if (plan.getCost() != Double.POSITIVE_INFINITY) {
                     LOG.debug("property cost for {} is {}",
                             plan.getName(), plan.getCost());
+                    plans.add(plan);
                     if (bestPlan == null || plan.getCost() < bestPlan.getCost()) {
                         bestPlan = plan;
                         // Stop comparing if the costs are the minimum
@@ -146,9 +160,22 @@ class PropertyIndex implements QueryIndex {
             }
         }
 
+        if (bestPlan != null && isIntersectionEnabled(filter)) {
+            PropertyIndexPlan intersection = PropertyIndexPlan.intersect(plans, root, filter);
+            if (intersection != null) {
+                LOG.debug("property cost for the intersection of {} is {}",
+                        intersection.getName(), intersection.getCost());
+                bestPlan = intersection;
+            }
+        }
         return bestPlan;
     }
     
+    private static boolean isIntersectionEnabled(Filter filter) {
+        QueryLimits limits = filter.getQueryLimits();
+        return limits != null && limits.getIndexIntersection();
+    }
+
     private static boolean wrongIndex(ChildNodeEntry entry, Filter filter, NodeState root) {
         // REMARK: similar code is used in oak-lucene, IndexPlanner
         // skip index if "option(index ...)" doesn't match
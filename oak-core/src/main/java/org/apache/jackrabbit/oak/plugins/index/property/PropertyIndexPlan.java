@@ -22,6 +22,8 @@ import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_CONTE
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.PROPERTY_NAMES;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -29,6 +31,7 @@ import org.apache.jackrabbit.oak.commons.PathUtils;
 import org.apache.jackrabbit.oak.commons.collections.CollectionUtils;
 import org.apache.jackrabbit.oak.plugins.index.IndexConstants;
 import org.apache.jackrabbit.oak.plugins.index.IndexUtils;
+import org.apache.jackrabbit.oak.plugins.index.counter.jmx.NodeCounter;
 import org.apache.jackrabbit.oak.plugins.index.cursor.Cursors;
 import org.apache.jackrabbit.oak.plugins.index.property.strategy.IndexStoreStrategy;
 import org.apache.jackrabbit.oak.query.SQL2Parser;
@@ -62,6 +65,13 @@ public class PropertyIndexPlan {
      */
     static final int MAX_COST = 100;
 
+    /**
+     * The cost to read an index entry when intersecting the entries of
+     * multiple indexes, relative to the cost of an entry that is returned
+     * (the query engine then reads the node and evaluates the conditions).
+     */
+    static final double INTERSECTION_ENTRY_COST = 0.1;
+
     private final NodeState definition;
 
     private final String name;
@@ -88,6 +98,18 @@ public class PropertyIndexPlan {
 
     private final boolean deprecated;
 
+    /**
+     * The restricted property that is used to look up the entries (null if
+     * none).
+     */
+    private final String property;
+
+    /**
+     * The plans whose entries are intersected, or null if this is the plan
+     * of a single index.
+     */
+    private final List<PropertyIndexPlan> intersection;
+
     PropertyIndexPlan(String name, NodeState root, NodeState definition,
                       Filter filter){
         this(name, root, definition, filter, Mounts.defaultMountInfoProvider());
@@ -115,6 +137,7 @@ public class PropertyIndexPlan {
         double bestCost = Double.POSITIVE_INFINITY;
         Set<String> bestValues = emptySet();
         int bestDepth = 1;
+        String bestProperty = null;
 
         if (matchesNodeTypes &&
                 pathFilter.areAllDescendantsIncluded(filter.getPath())) {
@@ -179,6 +202,7 @@ public class PropertyIndexPlan {
                         cost = 0;
                     }
                     if (cost < bestCost) {
+                        bestProperty = restriction.propertyName;
                         bestDepth = depth;
                         bestValues = values;
                         bestCost = cost;
@@ -194,6 +218,95 @@ public class PropertyIndexPlan {
         this.depth = bestDepth;
         this.values = bestValues;
         this.cost = COST_OVERHEAD + bestCost;
+        this.property = bestProperty;
+        this.intersection = null;
+    }
+
+    private PropertyIndexPlan(List<PropertyIndexPlan> plans, double cost) {
+        PropertyIndexPlan first = plans.get(0);
+        StringBuilder buff = new StringBuilder();
+        for (PropertyIndexPlan p : plans) {
+            if (buff.length() > 0) {
+                buff.append(", ");
+            }
+            buff.append(p.name);
+        }
+        this.name = buff.toString();
+        this.definition = first.definition;
+        this.properties = first.properties;
+        this.strategies = first.strategies;
+        this.filter = first.filter;
+        this.pathFilter = first.pathFilter;
+        this.unique = false;
+        this.deprecated = false;
+        this.depth = 1;
+        this.values = first.values;
+        this.property = null;
+        this.cost = cost;
+        this.intersection = plans;
+    }
+
+    /**
+     * Get a plan that intersects the entries of multiple indexes, each for a
+     * different property, if that is expected to be cheaper than using the
+     * cheapest of the plans only. The number of returned rows is estimated
+     * assuming the conditions are independent.
+     *
+     * @param plans the plans of the indexes
+     * @param root the root node state
+     * @param filter the filter
+     * @return the plan, or null if not cheaper
+     */
+    static PropertyIndexPlan intersect(List<PropertyIndexPlan> plans, NodeState root, Filter filter) {
+        List<PropertyIndexPlan> candidates = new ArrayList<>();
+        for (PropertyIndexPlan p : plans) {
+            if (p.property != null && p.cost != Double.POSITIVE_INFINITY) {
+                candidates.add(p);
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(PropertyIndexPlan::getCost));
+        // only use the cheapest plan for each property
+        Set<String> seen = new HashSet<>();
+        candidates.removeIf(p -> !seen.add(p.property));
+        if (candidates.size() < 2) {
+            return null;
+        }
+        String path = filter.getPathRestriction() == Filter.PathRestriction.ALL_CHILDREN
+                ? filter.getPath() : "/";
+        double nodeCount = NodeCounter.getEstimatedNodeCount(root, path, true);
+        if (nodeCount < 0) {
+            // unknown: use the number of indexed nodes, which is the lowest
+            // possible number, so that the conditions are assumed to be
+            // not very selective
+            for (PropertyIndexPlan p : candidates) {
+                nodeCount = Math.max(nodeCount, p.getIndexedNodeCount(root));
+            }
+        }
+        for (PropertyIndexPlan p : candidates) {
+            nodeCount = Math.max(nodeCount, p.cost - COST_OVERHEAD);
+        }
+        nodeCount = Math.max(1, nodeCount);
+        PropertyIndexPlan first = candidates.get(0);
+        double rows = first.cost - COST_OVERHEAD;
+        double readCost = COST_OVERHEAD + rows * INTERSECTION_ENTRY_COST;
+        double bestCost = first.cost;
+        int bestCount = 1;
+        for (int i = 1; i < candidates.size(); i++) {
+            PropertyIndexPlan p = candidates.get(i);
+            double entries = p.cost - COST_OVERHEAD;
+            rows *= entries / nodeCount;
+            readCost += COST_OVERHEAD + entries * INTERSECTION_ENTRY_COST;
+            double c = readCost + rows;
+            if (c >= bestCost) {
+                break;
+            }
+            bestCost = c;
+            bestCount = i + 1;
+        }
+        if (bestCount < 2) {
+            return null;
+        }
+        return new PropertyIndexPlan(new ArrayList<>(candidates.subList(0, bestCount)), bestCost);
     }
 
     String getName() {
@@ -204,8 +317,29 @@ public class PropertyIndexPlan {
         return cost;
     }
 
+    /**
+     * Estimate the number of nodes in the index, for any value.
+     *
+     * @param root the root node state
+     * @return the estimated number of nodes
+     */
+    private double getIndexedNodeCount(NodeState root) {
+        double count = 0;
+        for (IndexStoreStrategy strategy : strategies) {
+            count += strategy.count(filter, root, definition, null, MAX_COST);
+        }
+        return count;
+    }
+
     Cursor execute() {
         QueryLimits settings = filter.getQueryLimits();
+        if (intersection != null) {
+            List<Cursor> cursors = new ArrayList<>();
+            for (PropertyIndexPlan p : intersection) {
+                cursors.add(p.execute());
+            }
+            return Cursors.newBitmapIntersectionCursor(cursors, settings);
+        }
         if (deprecated) {
             final String caller = IndexUtils.getCaller(settings.getIgnoredClassNamesInCallTrace());
             LOG.warn("This index is deprecated: {}; it is used for query {} called by {}. " +
@@ -238,6 +372,14 @@ public class PropertyIndexPlan {
     @Override
     public String toString() {
         StringBuilder buffer = new StringBuilder();
+        if (intersection != null) {
+            buffer.append("property intersection ").append(name).append("\n");
+            for (PropertyIndexPlan p : intersection) {
+                buffer.append(p);
+            }
+            buffer.append("    estimatedCost: ").append(cost).append("\n");
+            return buffer.toString();
+        }
         buffer.append("property ").append(name).append("\n");
         buffer.append("    indexDefinition: /");
         buffer.append(IndexConstants.INDEX_DEFINITIONS_NAME);
@@ -0,0 +1,382 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.jackrabbit.oak.commons.json.JsopBuilder;
+import org.apache.jackrabbit.oak.commons.json.JsopReader;
+import org.apache.jackrabbit.oak.commons.json.JsopTokenizer;
+import org.apache.jackrabbit.oak.query.ast.JoinConditionImpl;
+import org.apache.jackrabbit.oak.spi.query.Filter;
+import org.apache.jackrabbit.oak.spi.query.Filter.PathRestriction;
+import org.apache.jackrabbit.oak.spi.query.Filter.PropertyRestriction;
+import org.apache.jackrabbit.oak.spi.query.QueryIndex;
+import org.apache.jackrabbit.oak.spi.query.QueryIndex.IndexPlan;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Statistics about the estimated and the actual number of rows read from an
+ * index, per index and filter shape. The filter shape contains the node type,
+ * the path restriction, and the property names and operators of the
+ * conditions, but not the values, so that queries that only differ in the
+ * values share an entry.
+ * <p>
+ * The estimate is the entry count of the index plan, after it was scaled
+ * down to the path restriction. The ratio of actual to estimated rows is used
+ * to correct this estimate when the query engine chooses an index. Indexes
+ * without plans only return a cost, which is not comparable with a number of
+ * rows, so they are not calibrated. The correction is a moving average of the
+ * logarithm of the ratio, is only applied after a minimum number of samples,
+ * and is limited to a factor of 10 in each direction, so that a few unusual
+ * queries can not make an index unusable.
+ * <p>
+ * The statistics can be exported and imported as JSON, for example to keep
+ * them when the repository is restarted.
+ */
+public class CostCalibration {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CostCalibration.class);
+
+    /**
+     * The number of executions before the correction is applied.
+     */
+    static final int MIN_SAMPLES = 3;
+
+    /**
+     * The maximum correction factor (and the inverse is the minimum).
+     */
+    static final double MAX_FACTOR = 10;
+
+    /**
+     * The weight of a new sample in the moving average.
+     */
+    private static final double SAMPLE_WEIGHT = 0.2;
+
+    private static final int MAX_ENTRIES = 10000;
+
+    private final Map<String, Statistics> map =
+            new LinkedHashMap<String, Statistics>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Statistics> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Get the shape of a filter: the node type, the path restriction and its
+     * path, and the conditions without values.
+     *
+     * @param filter the filter
+     * @return the shape
+     */
+    public static String getFilterShape(Filter filter) {
+        StringBuilder buff = new StringBuilder();
+        buff.append(filter.getNodeType());
+        PathRestriction pathRestriction = filter.getPathRestriction();
+        buff.append(' ').append(pathRestriction.name().toLowerCase(Locale.ENGLISH));
+        if (pathRestriction != PathRestriction.NO_RESTRICTION) {
+            // the path is part of the shape, as the same condition can
+            // match a different share of the nodes in another subtree
+            String path = filter.getPath();
+            buff.append(' ').append(
+                    path.startsWith(JoinConditionImpl.SPECIAL_PATH_PREFIX) ? "?" : path);
+        }
+        List<String> conditions = new ArrayList<>();
+        for (PropertyRestriction r : filter.getPropertyRestrictions()) {
+            conditions.add(r.propertyName + " " + getOperator(r));
+        }
+        Collections.sort(conditions);
+        for (String c : conditions) {
+            buff.append(", ").append(c);
+        }
+        if (filter.getFullTextConstraint() != null) {
+            buff.append(", fulltext");
+        }
+        if (filter.containsNativeConstraint()) {
+            buff.append(", native");
+        }
+        return buff.toString();
+    }
+
+    /**
+     * Get the name of an index (and plan) as used for the statistics.
+     *
+     * @param index the index
+     * @param plan the plan, or null for indexes without plans
+     * @return the name
+     */
+    public static String getIndexName(QueryIndex index, @Nullable IndexPlan plan) {
+        String name = index.getIndexName();
+        if (plan == null || plan.getPlanName() == null) {
+            return name;
+        }
+        return name + " " + plan.getPlanName();
+    }
+
+    private static String getOperator(PropertyRestriction r) {
+        if (r.list != null) {
+            return "in";
+        } else if (r.isLike) {
+            return "like";
+        } else if (r.isNot) {
+            return "<>";
+        } else if (r.first == null && r.last == null) {
+            return "is not null";
+        } else if (r.first != null && r.first.equals(r.last)) {
+            return "=";
+        } else if (r.last == null) {
+            return ">";
+        } else if (r.first == null) {
+            return "<";
+        }
+        return "between";
+    }
+
+    /**
+     * Record the result of reading all rows of an index.
+     *
+     * @param indexName the index (and plan) name
+     * @param shape the filter shape
+     * @param estimated the estimated number of rows
+     * @param actual the number of rows read
+     * @param nanos the time needed to read the rows
+     */
+    public synchronized void record(String indexName, String shape, double estimated,
+            long actual, long nanos) {
+        if (Double.isNaN(estimated) || Double.isInfinite(estimated)) {
+            return;
+        }
+        String key = getKey(indexName, shape);
+        Statistics e = map.get(key);
+        if (e == null) {
+            e = new Statistics(indexName, shape);
+            map.put(key, e);
+        }
+        e.add(estimated, actual, nanos);
+    }
+
+    /**
+     * Get the factor to correct the estimate of an index.
+     *
+     * @param indexName the index (and plan) name
+     * @param shape the filter shape
+     * @return the factor, or 1 if there are not enough samples
+     */
+    public synchronized double getFactor(String indexName, String shape) {
+        Statistics e = map.get(getKey(indexName, shape));
+        return e == null ? 1 : e.getFactor();
+    }
+
+    /**
+     * Correct an estimated entry count.
+     *
+     * @param indexName the index (and plan) name
+     * @param shape the filter shape
+     * @param entryCount the estimated entry count
+     * @return the corrected entry count
+     */
+    long correct(String indexName, String shape, long entryCount) {
+        double factor = getFactor(indexName, shape);
+        if (factor == 1) {
+            return entryCount;
+        }
+        double x = entryCount * factor;
+        return x >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) Math.ceil(x);
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    /**
+     * Get the statistics as a JSON array. The factor of an entry is only
+     * applied once the entry has the minimum number of executions.
+     *
+     * @return the JSON array
+     */
+    public synchronized String toJson() {
+        JsopBuilder buff = new JsopBuilder().array();
+        for (Statistics e : map.values()) {
+            buff.object().
+                key("index").value(e.indexName).
+                key("filter").value(e.shape).
+                key("executeCount").value(e.count).
+                key("estimatedRows").encodedValue(Double.toString(e.estimated)).
+                key("actualRows").value(e.actual).
+                key("readNanos").value(e.nanos).
+                key("factor").encodedValue(Double.toString(limit(Math.exp(e.logFactor)))).
+            endObject();
+        }
+        return buff.endArray().toString();
+    }
+
+    /**
+     * Replace the statistics with the given JSON array, as returned by
+     * {@link #toJson()}. The correction of each entry is set to the given
+     * factor (limited to the allowed range).
+     *
+     * @param json the JSON array
+     * @throws IllegalArgumentException if the JSON is not valid
+     */
+    public synchronized void fromJson(String json) {
+        List<Statistics> list = new ArrayList<>();
+        try {
+            JsopTokenizer t = new JsopTokenizer(json);
+            t.read('[');
+            if (!t.matches(']')) {
+                do {
+                    list.add(readStatistics(t));
+                } while (t.matches(','));
+                t.read(']');
+            }
+            t.read(JsopReader.END);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cost calibration data: " + e.getMessage(), e);
+        }
+        map.clear();
+        for (Statistics e : list) {
+            map.put(getKey(e.indexName, e.shape), e);
+        }
+        LOG.info("Imported the cost calibration of {} entries", list.size());
+    }
+
+    private static Statistics readStatistics(JsopTokenizer t) {
+        t.read('{');
+        String indexName = null;
+        String shape = null;
+        long count = 0;
+        double estimated = 0;
+        long actual = 0;
+        long nanos = 0;
+        double factor = 1;
+        if (!t.matches('}')) {
+            do {
+                String key = t.readString();
+                t.read(':');
+                String value;
+                if (t.matches(JsopReader.STRING)) {
+                    value = t.getToken();
+                } else {
+                    value = t.read(JsopReader.NUMBER);
+                }
+                switch (key) {
+                case "index":
+                    indexName = value;
+                    break;
+                case "filter":
+                    shape = value;
+                    break;
+                case "executeCount":
+                    count = Long.parseLong(value);
+                    break;
+                case "estimatedRows":
+                    estimated = Double.parseDouble(value);
+                    break;
+                case "actualRows":
+                    actual = Long.parseLong(value);
+                    break;
+                case "readNanos":
+                    nanos = Long.parseLong(value);
+                    break;
+                case "factor":
+                    factor = Double.parseDouble(value);
+                    break;
+                default:
+                    // ignore, for compatibility
+                }
+            } while (t.matches(','));
+            t.read('}');
+        }
+        if (indexName == null || shape == null) {
+            throw new IllegalArgumentException("Missing index or filter");
+        }
+        Statistics e = new Statistics(indexName, shape);
+        e.count = count;
+        e.estimated = estimated;
+        e.actual = actual;
+        e.nanos = nanos;
+        e.logFactor = Math.log(limit(factor));
+        return e;
+    }
+
+    private static String getKey(String indexName, String shape) {
+        return indexName + " /* " + shape + " */";
+    }
+
+    private static double limit(double factor) {
+        if (Double.isNaN(factor)) {
+            return 1;
+        }
+        return Math.max(1 / MAX_FACTOR, Math.min(MAX_FACTOR, factor));
+    }
+
+    /**
+     * The statistics of an index and filter shape.
+     */
+    private static class Statistics {
+
+        final String indexName;
+        final String shape;
+        long count;
+        double estimated;
+        long actual;
+        long nanos;
+        double logFactor;
+
+        Statistics(String indexName, String shape) {
+            this.indexName = indexName;
+            this.shape = shape;
+        }
+
+        void add(double estimated, long actual, long nanos) {
+            // add one to both, so that small numbers don't result
+            // in large corrections
+            double ratio = Math.log((actual + 1) / (Math.max(0, estimated) + 1));
+            if (count == 0) {
+                logFactor = ratio;
+            } else {
+                logFactor += SAMPLE_WEIGHT * (ratio - logFactor);
+            }
+            count++;
+            this.estimated += estimated;
+            this.actual += actual;
+            this.nanos += nanos;
+        }
+
+        double getFactor() {
+            if (count < MIN_SAMPLES) {
+                return 1;
+            }
+            return limit(Math.exp(logFactor));
+        }
+    }
+
+}
@@ -0,0 +1,397 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of strings that only keeps a 64-bit hash of each entry in memory, in
+ * a primitive hash set. If the hash of an entry is already known, the entry
+ * may be a duplicate, or there is a hash collision: only then the entries
+ * are compared. For that, the entries are kept in memory up to a limit, and
+ * then written to a sorted temporary file. A sparse index of each file (the
+ * first entry of each block) is kept in memory, so that only one block needs
+ * to be read to find an entry.
+ */
+class DistinctKeySet implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DistinctKeySet.class);
+
+    /**
+     * The number of entries per block of a file.
+     */
+    private static final int BLOCK_SIZE = 64;
+
+    /**
+     * The maximum number of files; if there are more, they are merged.
+     */
+    private static final int MAX_FILES = 8;
+
+    private final int maxMemoryEntries;
+
+    private final LongHashSet hashes = new LongHashSet();
+
+    private final HashSet<String> memory = new HashSet<>();
+
+    private final List<SortedFile> files = new ArrayList<>();
+
+    private long size;
+
+    /**
+     * Create a set.
+     *
+     * @param maxMemoryEntries the maximum number of entries to keep in memory
+     */
+    DistinctKeySet(int maxMemoryEntries) {
+        this.maxMemoryEntries = Math.max(1, maxMemoryEntries);
+    }
+
+    /**
+     * Add an entry.
+     *
+     * @param key the entry
+     * @return true if the entry was added, false if it was already in the set
+     */
+    boolean add(String key) {
+        if (!hashes.add(hash64(key))) {
+            if (memory.contains(key)) {
+                return false;
+            }
+            for (SortedFile f : files) {
+                if (f.contains(key)) {
+                    return false;
+                }
+            }
+            // a hash collision
+        }
+        memory.add(key);
+        size++;
+        if (memory.size() > maxMemoryEntries) {
+            spill();
+        }
+        return true;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * The number of entries that are kept in memory.
+     *
+     * @return the number of entries
+     */
+    int getMemoryEntryCount() {
+        return memory.size();
+    }
+
+    int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * Delete the temporary files.
+     */
+    @Override
+    public void close() {
+        for (SortedFile f : files) {
+            f.close();
+        }
+        files.clear();
+    }
+
+    private void spill() {
+        ArrayList<String> list = new ArrayList<>(memory);
+        Collections.sort(list);
+        try {
+            SortedFile f = SortedFile.write(list);
+            files.add(f);
+            memory.clear();
+            if (files.size() > MAX_FILES) {
+                SortedFile merged = SortedFile.merge(files);
+                close();
+                files.add(merged);
+            }
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        }
+        LOG.debug("Wrote {} distinct entries to {} temporary files", size - memory.size(), files.size());
+    }
+
+    /**
+     * Calculate a 64-bit hash (FNV-1a, with the finalizer of MurmurHash3 to
+     * mix the bits).
+     *
+     * @param s the string
+     * @return the hash
+     */
+    static long hash64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * A hash set of long values (open addressing, linear probing).
+     */
+    static class LongHashSet {
+
+        private long[] keys = new long[16];
+        private boolean containsZero;
+        private int size;
+
+        boolean add(long x) {
+            if (x == 0) {
+                if (containsZero) {
+                    return false;
+                }
+                containsZero = true;
+                size++;
+                return true;
+            }
+            int mask = keys.length - 1;
+            int i = (int) (x ^ (x >>> 32)) & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == x) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = x;
+            size++;
+            if (size * 2 > keys.length) {
+                rehash();
+            }
+            return true;
+        }
+
+        private void rehash() {
+            long[] old = keys;
+            keys = new long[old.length * 2];
+            int mask = keys.length - 1;
+            for (long x : old) {
+                if (x != 0) {
+                    int i = (int) (x ^ (x >>> 32)) & mask;
+                    while (keys[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = x;
+                }
+            }
+        }
+    }
+
+    /**
+     * A temporary file with sorted entries, each stored as the length and
+     * the UTF-8 bytes.
+     */
+    private static class SortedFile {
+
+        private final File file;
+        private final List<String> firstKeys = new ArrayList<>();
+        private final List<Long> blockOffsets = new ArrayList<>();
+        private long length;
+        private RandomAccessFile reader;
+
+        private SortedFile(File file) {
+            this.file = file;
+        }
+
+        static SortedFile write(Iterable<String> sortedKeys) throws IOException {
+            // not deleted on exit, which would keep a reference to the
+            // file until the JVM stops; the set deletes it when closed
+            File file = Files.createTempFile("oak-distinct-", ".tmp").toFile();
+            SortedFile f = new SortedFile(file);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)))) {
+                int count = 0;
+                for (String key : sortedKeys) {
+                    if (count++ % BLOCK_SIZE == 0) {
+                        f.firstKeys.add(key);
+                        f.blockOffsets.add(f.length);
+                    }
+                    byte[] bytes = key.getBytes(UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                    f.length += 4 + bytes.length;
+                }
+            } catch (IOException e) {
+                f.close();
+                throw e;
+            }
+            return f;
+        }
+
+        static SortedFile merge(List<SortedFile> files) throws IOException {
+            PriorityQueue<FileCursor> queue = new PriorityQueue<>(
+                    (a, b) -> a.current.compareTo(b.current));
+            try {
+                for (SortedFile f : files) {
+                    FileCursor c = new FileCursor(f.file);
+                    if (c.advance()) {
+                        queue.add(c);
+                    }
+                }
+                return write(() -> new Iterator<String>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return !queue.isEmpty();
+                    }
+
+                    @Override
+                    public String next() {
+                        FileCursor c = queue.poll();
+                        String key = c.current;
+                        if (c.advance()) {
+                            queue.add(c);
+                        }
+                        return key;
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                for (FileCursor c : queue) {
+                    c.close();
+                }
+            }
+        }
+
+        boolean contains(String key) {
+            int index = Collections.binarySearch(firstKeys, key);
+            if (index >= 0) {
+                return true;
+            }
+            int block = -index - 2;
+            if (block < 0) {
+                return false;
+            }
+            long start = blockOffsets.get(block);
+            long end = block + 1 < blockOffsets.size() ? blockOffsets.get(block + 1) : length;
+            byte[] data = new byte[(int) (end - start)];
+            try {
+                if (reader == null) {
+                    reader = new RandomAccessFile(file, "r");
+                }
+                reader.seek(start);
+                reader.readFully(data);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+                while (in.available() > 0) {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    int comp = new String(bytes, UTF_8).compareTo(key);
+                    if (comp == 0) {
+                        return true;
+                    } else if (comp > 0) {
+                        return false;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return false;
+        }
+
+        void close() {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    LOG.debug("Failed to close {}", file, e);
+                }
+                reader = null;
+            }
+            if (file.exists() && !file.delete()) {
+                LOG.warn("Failed to delete temporary file {}", file);
+            }
+        }
+    }
+
+    /**
+     * Reads the entries of a file sequentially.
+     */
+    private static class FileCursor {
+
+        private final DataInputStream in;
+        private String current;
+
+        FileCursor(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        boolean advance() {
+            try {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException e) {
+                    close();
+                    return false;
+                }
+                byte[] bytes = new byte[len];
+                in.readFully(bytes);
+                current = new String(bytes, UTF_8);
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close file", e);
+            }
+        }
+    }
+
+}
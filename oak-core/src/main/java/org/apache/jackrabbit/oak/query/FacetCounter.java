@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jackrabbit.oak.api.PropertyValue;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.commons.json.JsopBuilder;
+import org.apache.jackrabbit.oak.query.facet.FacetResult;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Counts the facets of "rep:facet" columns in the query engine, for indexes
+ * that don't return facets. The labels are counted while the rows are read,
+ * so the rows don't need to be kept, and access rights are not checked
+ * again: only rows that the selector returned (after checking read access,
+ * possibly for a batch of rows at a time) are counted.
+ * <p>
+ * If not all rows were read yet, the counts are extrapolated to the
+ * estimated number of rows. The error bound of an extrapolated count is the
+ * 95% confidence interval, assuming the order of the rows does not depend on
+ * the facet values. Whether the counts are exact, and the error bound, are
+ * part of the JSON representation of the facets.
+ */
+public class FacetCounter {
+
+    /**
+     * The maximum number of labels returned per facet, the same as the
+     * default of the full-text indexes.
+     */
+    static final int MAX_LABELS = 10;
+
+    /**
+     * The quantile of the normal distribution for a 95% confidence interval.
+     */
+    private static final double Z = 1.96;
+
+    private final Map<String, Dimension> dimensions = new LinkedHashMap<>();
+
+    /**
+     * Count the labels of the current row.
+     *
+     * @param columnName the name of the facet column
+     * @param value the value of the property, or null if the row doesn't
+     *            have the property
+     */
+    public void add(String columnName, @Nullable PropertyValue value) {
+        Dimension d = dimensions.get(columnName);
+        if (d == null) {
+            d = new Dimension();
+            dimensions.put(columnName, d);
+        }
+        d.rows++;
+        if (value == null) {
+            return;
+        }
+        if (!value.isArray()) {
+            d.add(value.getValue(Type.STRING));
+            return;
+        }
+        // count each label once per row
+        Set<String> labels = new HashSet<>();
+        for (String label : value.getValue(Type.STRINGS)) {
+            if (labels.add(label)) {
+                d.add(label);
+            }
+        }
+    }
+
+    /**
+     * Whether no rows were counted, for example because the index returns
+     * the facets.
+     *
+     * @return true if no rows were counted
+     */
+    public boolean isEmpty() {
+        return dimensions.isEmpty();
+    }
+
+    /**
+     * Get the facets of the rows counted so far, as a map from column name
+     * to the JSON representation of the facets, with the labels sorted by
+     * count.
+     * <p>
+     * If not all rows were counted, the JSON object also contains the key
+     * {@link FacetResult#EXACT} with the value "false", and, if the counts
+     * were extrapolated, the key {@link FacetResult#ERROR_BOUND} with the
+     * largest error bound of the returned counts. These values are strings,
+     * so that readers that treat all numbers as counts ignore them.
+     *
+     * @param complete whether all rows were counted
+     * @param estimatedRows the estimated number of rows of the result, or
+     *            -1 if unknown; if not all rows were counted, and there are
+     *            more than were counted, the counts are extrapolated
+     * @return the map
+     */
+    public Map<String, String> getFacets(boolean complete, long estimatedRows) {
+        if (complete) {
+            estimatedRows = -1;
+        }
+        Map<String, String> map = new HashMap<>();
+        for (Map.Entry<String, Dimension> e : dimensions.entrySet()) {
+            Dimension d = e.getValue();
+            JsopBuilder buff = new JsopBuilder().object();
+            long errorBound = 0;
+            for (Map.Entry<String, int[]> c : d.getTopLabels()) {
+                int count = c.getValue()[0];
+                buff.key(c.getKey()).value(d.getCount(count, estimatedRows));
+                errorBound = Math.max(errorBound, d.getErrorBound(count, estimatedRows));
+            }
+            if (!complete) {
+                buff.key(FacetResult.EXACT).value("false");
+                if (errorBound > 0) {
+                    buff.key(FacetResult.ERROR_BOUND).value(Long.toString(errorBound));
+                }
+            }
+            map.put(e.getKey(), buff.endObject().toString());
+        }
+        return map;
+    }
+
+    /**
+     * Get the (extrapolated) count of a label.
+     *
+     * @param columnName the name of the facet column
+     * @param label the label
+     * @param estimatedRows the estimated number of rows, or -1 if unknown
+     * @return the count
+     */
+    public long getCount(String columnName, String label, long estimatedRows) {
+        Dimension d = dimensions.get(columnName);
+        int[] c = d == null ? null : d.counts.get(label);
+        return c == null ? 0 : d.getCount(c[0], estimatedRows);
+    }
+
+    /**
+     * Get the error bound of the (extrapolated) count of a label: the
+     * actual count is within the count plus or minus the error bound, with a
+     * confidence of 95%. The error bound is 0 if all rows were counted.
+     *
+     * @param columnName the name of the facet column
+     * @param label the label
+     * @param estimatedRows the estimated number of rows, or -1 if unknown
+     * @return the error bound
+     */
+    public long getErrorBound(String columnName, String label, long estimatedRows) {
+        Dimension d = dimensions.get(columnName);
+        if (d == null) {
+            return 0;
+        }
+        int[] c = d.counts.get(label);
+        return d.getErrorBound(c == null ? 0 : c[0], estimatedRows);
+    }
+
+    /**
+     * The labels and counts of a facet column.
+     */
+    private static class Dimension {
+
+        // the counters are mutable, to avoid boxing when incrementing
+        final HashMap<String, int[]> counts = new HashMap<>();
+        long rows;
+
+        void add(String label) {
+            int[] c = counts.get(label);
+            if (c == null) {
+                counts.put(label, new int[] { 1 });
+            } else {
+                c[0]++;
+            }
+        }
+
+        long getErrorBound(int count, long estimatedRows) {
+            if (estimatedRows <= rows) {
+                return 0;
+            }
+            double n = rows;
+            double total = estimatedRows;
+            // Agresti-Coull: add two successes and two failures, so that
+            // labels that are in none or all of the counted rows still have
+            // an error bound
+            double p = (count + 2) / (n + 4);
+            // with the finite population correction
+            double error = Z * Math.sqrt(p * (1 - p) / (n + 4)) *
+                    Math.sqrt((total - n) / (total - 1));
+            return (long) Math.ceil(error * total);
+        }
+
+        long getCount(int count, long estimatedRows) {
+            if (estimatedRows <= rows) {
+                return count;
+            }
+            // the count of the JSON representation is an int
+            return Math.min(Integer.MAX_VALUE,
+                    Math.round((double) count * estimatedRows / rows));
+        }
+
+        List<Map.Entry<String, int[]>> getTopLabels() {
+            List<Map.Entry<String, int[]>> list = new ArrayList<>(counts.entrySet());
+            list.sort((a, b) -> {
+                int comp = Integer.compare(b.getValue()[0], a.getValue()[0]);
+                return comp != 0 ? comp : a.getKey().compareTo(b.getKey());
+            });
+            return list.size() > MAX_LABELS ? list.subList(0, MAX_LABELS) : list;
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.LongSupplier;
+
+import org.apache.jackrabbit.oak.spi.query.QueryLimits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An iterator that sets the facet columns of the rows to the facets counted
+ * by a {@link FacetCounter}, while the rows are read from the source.
+ * <p>
+ * Before the first row is returned, the given number of rows (the sample) is
+ * read, so that the facets of the first rows are extrapolated from the
+ * sample. The following rows are returned while they are read, and the
+ * facets are refined each time the number of rows read doubled. One row is
+ * read ahead, so that the last row has the exact facets. Only the sample is
+ * kept in memory: to get the exact facets for all rows, the query engine
+ * counts them while reading all rows first, the same as when sorting.
+ */
+class FacetIterator implements Iterator<ResultRowImpl> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FacetIterator.class);
+
+    private final Iterator<ResultRowImpl> source;
+    private final FacetCounter counter;
+    private final int sampleSize;
+    private final LongSupplier estimatedRows;
+    private final QueryLimits settings;
+
+    private final ArrayDeque<ResultRowImpl> buffer = new ArrayDeque<>();
+    private Map<String, String> facets;
+    private long rowCount;
+    private long nextRefresh;
+    private boolean end;
+
+    /**
+     * Create a facet iterator.
+     *
+     * @param source the rows, which count the facets in the counter when
+     *            they are read
+     * @param counter the counter
+     * @param sampleSize the number of rows to read before the first row is
+     *            returned (at least 1)
+     * @param estimatedRows the estimated number of rows of the source, or
+     *            -1 if unknown
+     * @param settings the query limits
+     */
+    FacetIterator(Iterator<ResultRowImpl> source, FacetCounter counter, int sampleSize,
+            LongSupplier estimatedRows, QueryLimits settings) {
+        this.source = source;
+        this.counter = counter;
+        this.sampleSize = Math.max(1, sampleSize);
+        this.estimatedRows = estimatedRows;
+        this.settings = settings;
+    }
+
+    @Override
+    public boolean hasNext() {
+        init();
+        return !buffer.isEmpty();
+    }
+
+    @Override
+    public ResultRowImpl next() {
+        init();
+        ResultRowImpl r = buffer.poll();
+        if (r == null) {
+            throw new NoSuchElementException();
+        }
+        if (buffer.isEmpty() && !end) {
+            read();
+            if (end || rowCount >= nextRefresh) {
+                refresh();
+            }
+        }
+        return ResultRowImpl.getMappingResultRow(r, facets);
+    }
+
+    private void init() {
+        if (facets != null) {
+            return;
+        }
+        read();
+        if (!counter.isEmpty()) {
+            while (!end && rowCount <= sampleSize) {
+                read();
+            }
+        }
+        // else the index returned the facets: don't read ahead
+        refresh();
+    }
+
+    private void read() {
+        if (source.hasNext()) {
+            buffer.add(source.next());
+            rowCount++;
+            FilterIterators.checkMemoryLimit(buffer.size(), settings);
+        } else {
+            end = true;
+        }
+    }
+
+    private void refresh() {
+        if (counter.isEmpty()) {
+            facets = Map.of();
+            nextRefresh = Long.MAX_VALUE;
+            return;
+        }
+        long estimate = end ? rowCount : estimatedRows.getAsLong();
+        facets = counter.getFacets(end, estimate);
+        nextRefresh = rowCount * 2;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Facets after {} of {} rows{}: {}", rowCount, estimate,
+                    end ? "" : " (extrapolated)", facets);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -13,25 +13,56 @@
  */
 package org.apache.jackrabbit.oak.query;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 
+import org.apache.jackrabbit.guava.common.collect.Iterators;
 import org.apache.jackrabbit.oak.spi.query.QueryLimits;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Filtering iterators that are useful for queries with limit, offset, order by,
  * or distinct.
+ * <p>
+ * The iterators that write temporary files implement {@link Closeable}, and
+ * so do the iterators that wrap them. The files are deleted once all entries
+ * were read, when the iterator is closed, or when the iterator is no longer
+ * referenced, whichever happens first, so that results that are not fully
+ * read don't keep files and file handles.
  */
 public class FilterIterators {
     
     private static final Logger LOG = LoggerFactory.getLogger(FilterIterators.class);
 
+    /**
+     * Releases the temporary files of iterators that are no longer
+     * referenced.
+     */
+    static final Cleaner TEMP_FILE_CLEANER = Cleaner.create(r -> {
+        Thread t = new Thread(r, "Oak query temporary file cleaner");
+        t.setDaemon(true);
+        return t;
+    });
+
     private FilterIterators() {
     }
 
@@ -78,15 +109,40 @@ public class FilterIterators {
     public static <K> Iterator<K> newCombinedFilter(
             Iterator<K> it, boolean distinct, long limit, long offset, 
             Comparator<K> orderBy, QueryLimits settings) {
+        return newCombinedFilter(it, distinct, limit, offset, orderBy, settings,
+                null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Combine the distinct, sort, offset, and limit filters. If a codec is
+     * set, the sort writes entries to temporary files once the number of
+     * entries exceeds the spill threshold, and so does the distinct filter
+     * (with the keys of the entries).
+     *
+     * @param it the source iterator
+     * @param distinct whether to filter duplicate entries
+     * @param limit the maximum number of entries
+     * @param offset the number of entries to skip
+     * @param orderBy the comparator, or null if no sorting is needed
+     * @param settings the query limits
+     * @param codec the codec used when sorting on disk, or null
+     * @param spillThreshold the maximum number of entries the sort and the
+     *            distinct filter keep in memory if there is a codec
+     * @return the filtered iterator
+     */
+    public static <K> Iterator<K> newCombinedFilter(
+            Iterator<K> it, boolean distinct, long limit, long offset, 
+            Comparator<K> orderBy, QueryLimits settings,
+            @Nullable SpillCodec<K> codec, int spillThreshold) {
         if (distinct) {
-            it = FilterIterators.newDistinct(it, settings);
+            it = FilterIterators.newDistinct(it, settings, codec, spillThreshold);
         }
         if (orderBy != null) {
             // avoid overflow (both offset and limit could be Long.MAX_VALUE)
             int max = (int) Math.min(Integer.MAX_VALUE, 
                     Math.min(Integer.MAX_VALUE, offset) + 
                     Math.min(Integer.MAX_VALUE, limit));
-            it = FilterIterators.newSort(it, orderBy, max, settings);
+            it = FilterIterators.newSort(it, orderBy, max, settings, codec, spillThreshold);
         }
         if (offset != 0) {
             it = FilterIterators.newOffset(it, offset);
@@ -100,6 +156,15 @@ public class FilterIterators {
     public static <K> DistinctIterator<K> newDistinct(Iterator<K> it, QueryLimits settings) {
         return new DistinctIterator<K>(it, settings);
     }
+
+    public static <K> DistinctIterator<K> newDistinct(Iterator<K> it, QueryLimits settings,
+            @Nullable SpillCodec<K> codec, int spillThreshold) {
+        return new DistinctIterator<K>(it, settings, codec, spillThreshold);
+    }
+
+    public static <K> Iterator<K> newSortedDistinct(Iterator<K> it, Comparator<K> orderBy) {
+        return new SortedDistinctIterator<K>(it, orderBy);
+    }
     
     public static <K> Iterator<K> newLimit(Iterator<K> it, long limit) {
         return new LimitIterator<K>(it, limit);
@@ -113,25 +178,155 @@ public class FilterIterators {
         return new SortIterator<K>(it, orderBy, max, settings);
     }
 
+    public static <K> Iterator<K> newSort(Iterator<K> it, Comparator<K> orderBy, int max, QueryLimits settings,
+            @Nullable SpillCodec<K> codec, int spillThreshold) {
+        return new SortIterator<K>(it, orderBy, max, settings, codec, spillThreshold);
+    }
+
+    /**
+     * Close an iterator if it is {@link Closeable}, for example to delete
+     * the temporary files of a result that is not fully read.
+     *
+     * @param it the iterator
+     */
+    public static void close(Iterator<?> it) {
+        if (it instanceof Closeable) {
+            try {
+                ((Closeable) it).close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close {}", it, e);
+            }
+        }
+    }
+
     /**
      * An iterator that filters duplicate entries, that is, it only returns each
      * unique entry once. The internal set of unique entries is filled only when
      * needed (on demand).
+     * <p>
+     * If there is a codec, only the keys of the entries are kept, in a set
+     * that keeps a hash of each key in memory, and writes the keys to
+     * temporary files once there are more than the spill threshold. Entries
+     * without a key are kept in memory. The files are deleted when all
+     * entries were read, when the iterator is closed, or when it is no
+     * longer referenced.
      * 
      * @param <K> the entry type
      */
-    static class DistinctIterator<K> implements Iterator<K> {
+    static class DistinctIterator<K> implements Iterator<K>, Closeable {
 
         private final Iterator<K> source;
         private final QueryLimits settings;
         private final HashSet<K> distinctSet;
+        private final SpillCodec<K> codec;
+        private final DistinctKeySet keySet;
+        private final Cleaner.Cleanable cleanable;
         private K current;
         private boolean end;
 
         DistinctIterator(Iterator<K> source, QueryLimits settings) {
+            this(source, settings, null, Integer.MAX_VALUE);
+        }
+
+        DistinctIterator(Iterator<K> source, QueryLimits settings,
+                @Nullable SpillCodec<K> codec, int spillThreshold) {
             this.source = source;
             this.settings = settings;
+            this.codec = codec;
             distinctSet = new HashSet<K>();
+            keySet = codec == null ? null : new DistinctKeySet(spillThreshold);
+            // the cleanup action must not reference this iterator
+            cleanable = keySet == null ? null : TEMP_FILE_CLEANER.register(this, keySet::close);
+        }
+
+        private void fetchNext() {
+            if (end) {
+                return;
+            }
+            try {
+                while (source.hasNext()) {
+                    current = source.next();
+                    if (add(current)) {
+                        return;
+                    }
+                }
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+            current = null;
+            end = true;
+            close();
+        }
+
+        private boolean add(K entry) {
+            String key = codec == null ? null : codec.getKey(entry);
+            boolean added = key == null ? distinctSet.add(entry) : keySet.add(key);
+            if (added) {
+                long count = distinctSet.size();
+                if (keySet != null) {
+                    count += keySet.getMemoryEntryCount();
+                }
+                checkMemoryLimit(count, settings);
+            }
+            return added;
+        }
+
+        @Override
+        public void close() {
+            if (cleanable != null) {
+                cleanable.clean();
+            }
+            FilterIterators.close(source);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (current == null) {
+                fetchNext();
+            }
+            return !end;
+        }
+
+        @Override
+        public K next() {
+            if (end) {
+                throw new NoSuchElementException();
+            }
+            if (current == null) {
+                fetchNext();
+            }
+            K r = current;
+            current = null;
+            return r;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+    
+    /**
+     * An iterator that filters duplicate entries of a sorted source, where
+     * entries that are equal are also equal according to the comparator, so
+     * that duplicates are next to each other. Only the distinct entries that
+     * are equal to the current entry according to the comparator are kept.
+     *
+     * @param <K> the entry type
+     */
+    static class SortedDistinctIterator<K> implements Iterator<K> {
+
+        private final Iterator<K> source;
+        private final Comparator<K> orderBy;
+        private final ArrayList<K> group = new ArrayList<>();
+        private K current;
+        private boolean end;
+
+        SortedDistinctIterator(Iterator<K> source, Comparator<K> orderBy) {
+            this.source = source;
+            this.orderBy = orderBy;
         }
 
         private void fetchNext() {
@@ -140,12 +335,16 @@ public class FilterIterators {
             }
             while (source.hasNext()) {
                 current = source.next();
-                if (distinctSet.add(current)) {
-                    checkMemoryLimit(distinctSet.size(), settings);
+                if (!group.isEmpty() && orderBy.compare(group.get(0), current) != 0) {
+                    group.clear();
+                }
+                if (!group.contains(current)) {
+                    group.add(current);
                     return;
                 }
             }
             current = null;
+            group.clear();
             end = true;
         }
 
@@ -176,52 +375,171 @@ public class FilterIterators {
         }
 
     }
-    
+
     /**
-     * An iterator that returns entries in sorted order. The internal list of
-     * sorted entries can be limited to a given number of entries, and the
-     * entries are only read when needed (on demand).
+     * An iterator that returns entries in sorted order. The entries are only
+     * read when needed (on demand).
+     * <p>
+     * If the number of entries to return is limited, and the limit is at most
+     * the spill threshold (or there is no codec), only the first entries are
+     * kept in memory, in a heap whose head is the largest entry. Otherwise,
+     * if there is a codec, sorted runs of at most the spill threshold entries
+     * are written to temporary files, and merged when reading. Entries that
+     * can not be encoded are kept in memory. The sort is stable.
      * 
      * @param <K> the entry type
      */
-    static class SortIterator<K> implements Iterator<K> {
+    static class SortIterator<K> implements Iterator<K>, Closeable {
 
         private final Iterator<K> source;
         private final QueryLimits settings;
-        private final Comparator<K> orderBy;
-        private Iterator<K> result;
+        private final Comparator<SortEntry<K>> orderBy;
         private final int max;
+        private final SpillCodec<K> codec;
+        private final int spillThreshold;
+        private Iterator<K> result;
+        private long seq;
 
         SortIterator(Iterator<K> source, Comparator<K> orderBy, int max, QueryLimits settings) {
+            this(source, orderBy, max, settings, null, Integer.MAX_VALUE);
+        }
+
+        SortIterator(Iterator<K> source, Comparator<K> orderBy, int max, QueryLimits settings,
+                SpillCodec<K> codec, int spillThreshold) {
             this.source = source;
-            this.orderBy = orderBy;
+            this.orderBy = (a, b) -> {
+                int comp = orderBy.compare(a.value, b.value);
+                return comp != 0 ? comp : Long.compare(a.seq, b.seq);
+            };
             this.max = max;
             this.settings = settings;
+            this.codec = codec;
+            this.spillThreshold = Math.max(1, spillThreshold);
         }
         
         private void init() {
             if (result != null) {
                 return;
             }
-            ArrayList<K> list = new ArrayList<K>();
+            if (codec != null && max > spillThreshold) {
+                result = sortExternal();
+            } else {
+                result = sortInMemory();
+            }
+        }
+
+        private Iterator<K> sortInMemory() {
+            ArrayList<SortEntry<K>> list = new ArrayList<>();
+            PriorityQueue<SortEntry<K>> heap = null;
             while (source.hasNext()) {
-                K x = source.next();
+                SortEntry<K> x = new SortEntry<>(source.next(), seq++);
+                if (heap != null) {
+                    // only keep the first max entries: replace the
+                    // largest entry if the new entry is smaller
+                    if (orderBy.compare(x, heap.peek()) < 0) {
+                        heap.poll();
+                        heap.offer(x);
+                    }
+                    continue;
+                }
                 list.add(x);
                 checkMemoryLimit(list.size(), settings);
-                // from time to time, sort and truncate
-                // this should need less than O(n*log(3*keep)) operations,
-                // which is close to the optimum O(n*log(keep))
-                if (list.size() > (long) max * 2) {
-                    // remove tail entries right now, to save memory
-                    Collections.sort(list, orderBy);
-                    keepFirst(list, max);
+                if (list.size() > max) {
+                    // from now on, keep at most max entries; this needs
+                    // O(n*log(keep)) operations
+                    heap = new PriorityQueue<>(Math.max(1, max), orderBy.reversed());
+                    heap.addAll(list);
+                    list.clear();
+                    while (heap.size() > max) {
+                        heap.poll();
+                    }
+                    if (max == 0) {
+                        // read the remaining entries, so the size is known
+                        while (source.hasNext()) {
+                            source.next();
+                            seq++;
+                        }
+                        break;
+                    }
                 }
             }
+            if (heap != null) {
+                list.addAll(heap);
+            }
             Collections.sort(list, orderBy);
-            keepFirst(list, max);
-            result = list.iterator();
+            return Iterators.transform(list.iterator(), e -> e.value);
         }
-        
+
+        private Iterator<K> sortExternal() {
+            ArrayList<SortEntry<K>> list = new ArrayList<>();
+            List<File> runs = new ArrayList<>();
+            long spilled = 0;
+            boolean spill = true;
+            try {
+                while (source.hasNext()) {
+                    list.add(new SortEntry<>(source.next(), seq++));
+                    if (!spill) {
+                        checkMemoryLimit(list.size(), settings);
+                    } else if (list.size() >= spillThreshold) {
+                        if (encode(list)) {
+                            runs.add(writeRun(list));
+                            spilled += list.size();
+                            list.clear();
+                        } else {
+                            LOG.debug("Entry can not be encoded, sorting in memory");
+                            spill = false;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                deleteFiles(runs);
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                deleteFiles(runs);
+                throw e;
+            }
+            Collections.sort(list, orderBy);
+            if (runs.isEmpty()) {
+                keepFirst(list, max);
+                return Iterators.transform(list.iterator(), e -> e.value);
+            }
+            codec.spilled(spilled, runs.size());
+            return new MergeIterator<>(runs, list.iterator(), orderBy, codec, max);
+        }
+
+        /**
+         * Sort the entries and write them to a temporary file. The file is
+         * not deleted on exit, as this would keep a reference to the file
+         * until the JVM stops; it is deleted when the iterator is closed.
+         */
+        private File writeRun(List<SortEntry<K>> list) throws IOException {
+            Collections.sort(list, orderBy);
+            File file = Files.createTempFile("oak-sort-", ".tmp").toFile();
+            try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), UTF_8)) {
+                for (SortEntry<K> e : list) {
+                    writer.write(e.line);
+                    writer.newLine();
+                }
+            } catch (IOException e) {
+                deleteFiles(Collections.singletonList(file));
+                throw e;
+            }
+            return file;
+        }
+
+        private boolean encode(List<SortEntry<K>> list) {
+            for (SortEntry<K> e : list) {
+                if (e.line == null) {
+                    String s = codec.encode(e.value);
+                    if (s == null) {
+                        return false;
+                    }
+                    e.line = e.seq + " " + s;
+                }
+            }
+            return true;
+        }
+
         /**
          * Truncate a list.
          * 
@@ -248,12 +566,246 @@ public class FilterIterators {
             return result.next();
         }
 
+        @Override
+        public void close() {
+            if (result != null) {
+                FilterIterators.close(result);
+            }
+            FilterIterators.close(source);
+        }
+
         @Override
         public void remove() {
             throw new UnsupportedOperationException();
         }
         
     }
+
+    /**
+     * Converts entries to and from a line of text, so that they can be written
+     * to temporary files when sorting or filtering duplicates.
+     *
+     * @param <K> the entry type
+     */
+    public interface SpillCodec<K> {
+
+        /**
+         * Encode an entry.
+         *
+         * @param entry the entry
+         * @return the encoded entry (must not contain line breaks), or null
+         *         if the entry can not be encoded
+         */
+        @Nullable
+        String encode(@NotNull K entry);
+
+        /**
+         * Decode an entry.
+         *
+         * @param line the encoded entry
+         * @return the entry
+         */
+        @NotNull
+        K decode(@NotNull String line);
+
+        /**
+         * Called when entries were written to temporary files.
+         *
+         * @param count the number of entries written
+         * @param runs the number of files
+         */
+        default void spilled(long count, int runs) {
+        }
+
+        /**
+         * Get a string that identifies an entry for the distinct filter: two
+         * entries are equal exactly if their keys are equal.
+         *
+         * @param entry the entry
+         * @return the key, or null if the entry needs to be kept in memory
+         */
+        @Nullable
+        default String getKey(@NotNull K entry) {
+            return null;
+        }
+    }
+
+    /**
+     * An entry to sort, with its position in the source, so that entries
+     * that are equal keep their order.
+     */
+    private static final class SortEntry<K> {
+
+        final K value;
+        final long seq;
+        String line;
+
+        SortEntry(K value, long seq) {
+            this.value = value;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Merges sorted runs stored in temporary files, and the sorted entries
+     * kept in memory. A file is deleted once it was fully read, when the
+     * maximum number of entries was returned, when the iterator is closed,
+     * or when it is no longer referenced.
+     *
+     * @param <K> the entry type
+     */
+    private static class MergeIterator<K> implements Iterator<K>, Closeable {
+
+        private final PriorityQueue<Run<K>> queue;
+        private final Runs<K> runs = new Runs<>();
+        private final Cleaner.Cleanable cleanable;
+        private final long max;
+        private long count;
+
+        MergeIterator(List<File> files, Iterator<SortEntry<K>> memory,
+                Comparator<SortEntry<K>> orderBy, SpillCodec<K> codec, long max) {
+            this.max = max;
+            queue = new PriorityQueue<>(files.size() + 1, (a, b) -> orderBy.compare(a.current, b.current));
+            // the cleanup action must not reference this iterator
+            cleanable = TEMP_FILE_CLEANER.register(this, runs);
+            try {
+                for (File f : files) {
+                    runs.list.add(new FileRun<>(f, codec));
+                }
+            } catch (IOException e) {
+                close();
+                deleteFiles(files);
+                throw new UncheckedIOException(e);
+            }
+            runs.list.add(new Run<>(memory));
+            for (Run<K> r : runs.list) {
+                if (r.advance()) {
+                    queue.add(r);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (count >= max || queue.isEmpty()) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public K next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Run<K> r = queue.poll();
+            K value = r.current.value;
+            count++;
+            if (r.advance()) {
+                queue.add(r);
+            }
+            return value;
+        }
+
+        @Override
+        public void close() {
+            queue.clear();
+            cleanable.clean();
+        }
+    }
+
+    /**
+     * The runs of a merge iterator. Closing them is the cleanup action of
+     * the iterator.
+     */
+    private static class Runs<K> implements Runnable {
+
+        final List<Run<K>> list = new ArrayList<>();
+
+        @Override
+        public void run() {
+            for (Run<K> r : list) {
+                r.close();
+            }
+            list.clear();
+        }
+    }
+
+    /**
+     * A sorted run of entries kept in memory.
+     */
+    private static class Run<K> {
+
+        private final Iterator<SortEntry<K>> it;
+        SortEntry<K> current;
+
+        Run(Iterator<SortEntry<K>> it) {
+            this.it = it;
+        }
+
+        boolean advance() {
+            current = it.hasNext() ? it.next() : null;
+            return current != null;
+        }
+
+        void close() {
+        }
+    }
+
+    /**
+     * A sorted run of entries read from a temporary file.
+     */
+    private static class FileRun<K> extends Run<K> {
+
+        private final File file;
+        private final BufferedReader reader;
+        private final SpillCodec<K> codec;
+
+        FileRun(File file, SpillCodec<K> codec) throws IOException {
+            super(null);
+            this.file = file;
+            this.codec = codec;
+            this.reader = Files.newBufferedReader(file.toPath(), UTF_8);
+        }
+
+        @Override
+        boolean advance() {
+            String line;
+            try {
+                line = reader.readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (line == null) {
+                current = null;
+                close();
+                return false;
+            }
+            int sep = line.indexOf(' ');
+            long seq = Long.parseLong(line.substring(0, sep));
+            current = new SortEntry<>(codec.decode(line.substring(sep + 1)), seq);
+            return true;
+        }
+
+        @Override
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close {}", file, e);
+            }
+            deleteFiles(Collections.singletonList(file));
+        }
+    }
+
+    private static void deleteFiles(List<File> files) {
+        for (File f : files) {
+            if (f.exists() && !f.delete()) {
+                LOG.warn("Failed to delete temporary file {}", f);
+            }
+        }
+    }
     
     /**
      * An iterator that ignores the first number of entries. Entries are only
@@ -261,7 +813,7 @@ public class FilterIterators {
      * 
      * @param <K> the entry type
      */
-    static class OffsetIterator<K> implements Iterator<K> {
+    static class OffsetIterator<K> implements Iterator<K>, Closeable {
 
         private final Iterator<K> source;
         private final long offset;
@@ -294,6 +846,11 @@ public class FilterIterators {
             return source.next();
         }
 
+        @Override
+        public void close() {
+            FilterIterators.close(source);
+        }
+
         @Override
         public void remove() {
             throw new UnsupportedOperationException();
@@ -307,7 +864,7 @@ public class FilterIterators {
      * 
      * @param <K> the entry type
      */
-    static class LimitIterator<K> implements Iterator<K> {
+    static class LimitIterator<K> implements Iterator<K>, Closeable {
 
         private final Iterator<K> source;
         private final long limit;
@@ -320,7 +877,12 @@ public class FilterIterators {
         
         @Override
         public boolean hasNext() {
-            return count < limit && source.hasNext();
+            if (count >= limit) {
+                // the source is not read to the end
+                close();
+                return false;
+            }
+            return source.hasNext();
         }
 
         @Override
@@ -328,8 +890,17 @@ public class FilterIterators {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            count++;
-            return source.next();
+            K k = source.next();
+            if (++count >= limit) {
+                // the source is not read to the end
+                close();
+            }
+            return k;
+        }
+
+        @Override
+        public void close() {
+            FilterIterators.close(source);
         }
 
         @Override
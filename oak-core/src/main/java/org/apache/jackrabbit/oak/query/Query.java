@@ -85,6 +85,14 @@ public interface Query {
 
     void setMeasure(boolean measure);
 
+    /**
+     * Whether to run the query, and return the plan together with the
+     * measured row counts and times ("explain analyze").
+     *
+     * @param analyze true to analyze
+     */
+    void setAnalyze(boolean analyze);
+
     void setOrderings(OrderingImpl[] orderings);
     
     /**
@@ -19,9 +19,15 @@
 package org.apache.jackrabbit.oak.query;
 
 import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.jackrabbit.oak.api.StrictPathRestriction;
 import org.apache.jackrabbit.oak.api.jmx.QueryEngineSettingsMBean;
+import org.apache.jackrabbit.oak.commons.properties.SystemPropertySupplier;
 import org.apache.jackrabbit.oak.query.stats.QueryStatsMBean;
 import org.apache.jackrabbit.oak.query.stats.QueryStatsMBeanImpl;
 import org.apache.jackrabbit.oak.query.stats.QueryStatsReporter;
@@ -69,6 +75,93 @@ public class QueryEngineSettings implements QueryEngineSettingsMBean, QueryLimit
 
     public static final int DEFAULT_PREFETCH_COUNT = Integer.getInteger(OAK_QUERY_PREFETCH_COUNT, -1);
 
+    public static final String OAK_QUERY_SORT_SPILL_THRESHOLD = "oak.query.sortSpillThreshold";
+
+    /**
+     * The number of rows a sort (or the number of keys the distinct filter)
+     * keeps in memory before it writes them to a temporary file.
+     */
+    public static final int DEFAULT_SORT_SPILL_THRESHOLD =
+            SystemPropertySupplier.create(OAK_QUERY_SORT_SPILL_THRESHOLD, 100000).get();
+
+    public static final String OAK_QUERY_PLAN_CACHE_SIZE = "oak.query.planCacheSize";
+
+    /**
+     * The maximum number of statements in the query plan cache (0 to disable
+     * the cache).
+     */
+    public static final int DEFAULT_PLAN_CACHE_SIZE =
+            SystemPropertySupplier.create(OAK_QUERY_PLAN_CACHE_SIZE, 0).get();
+
+    public static final String OAK_QUERY_JOIN_STRATEGIES = "oak.query.joinStrategies";
+
+    /**
+     * Whether a join may read the right hand side selector once and look up
+     * the matching rows (hash join, path merge join), instead of running a
+     * query on the right hand side for each row of the left hand side.
+     */
+    public static final boolean DEFAULT_JOIN_STRATEGIES =
+            SystemPropertySupplier.create(OAK_QUERY_JOIN_STRATEGIES, false).get();
+
+    public static final String OAK_QUERY_UNION_PARALLELISM = "oak.query.unionParallelism";
+
+    /**
+     * The maximum number of threads used to read the branches of a union
+     * query at the same time (0 to read the branches one after the other).
+     */
+    public static final int DEFAULT_UNION_PARALLELISM =
+            SystemPropertySupplier.create(OAK_QUERY_UNION_PARALLELISM, 0).get();
+
+    public static final String OAK_QUERY_RESULT_BATCH_SIZE = "oak.query.resultBatchSize";
+
+    /**
+     * The number of index rows for which the nodes are prefetched, and read
+     * access is checked, at once (0 to check each row separately).
+     */
+    public static final int DEFAULT_RESULT_BATCH_SIZE =
+            SystemPropertySupplier.create(OAK_QUERY_RESULT_BATCH_SIZE, 0).get();
+
+    public static final String OAK_QUERY_COST_CALIBRATION = "oak.query.costCalibration";
+
+    /**
+     * Whether the number of rows read from each index is recorded, and used
+     * to correct the estimated cost of the index.
+     */
+    public static final boolean DEFAULT_COST_CALIBRATION =
+            SystemPropertySupplier.create(OAK_QUERY_COST_CALIBRATION, false).get();
+
+    public static final String OAK_QUERY_INDEX_INTERSECTION = "oak.query.indexIntersection";
+
+    /**
+     * Whether a property index may intersect the entries of multiple
+     * indexed conditions, if that is cheaper than reading the entries of
+     * the most selective condition only.
+     */
+    public static final boolean DEFAULT_INDEX_INTERSECTION =
+            SystemPropertySupplier.create(OAK_QUERY_INDEX_INTERSECTION, false).get();
+
+    public static final String OAK_QUERY_FACETS = "oak.query.facets";
+
+    /**
+     * Whether the query engine counts the facets of "rep:facet" columns, if
+     * the index does not return them.
+     */
+    public static final boolean DEFAULT_FACETS =
+            SystemPropertySupplier.create(OAK_QUERY_FACETS, false).get();
+
+    public static final String OAK_QUERY_FACET_SAMPLE_SIZE = "oak.query.facetSampleSize";
+
+    /**
+     * The number of rows that are counted before the first row is returned,
+     * if the query engine counts the facets. For larger results, the facets
+     * of the first rows are extrapolated, and refined while the rest of the
+     * rows are read. 0 means the facets are exact: all rows are read and
+     * counted before the first row is returned, the same as when sorting
+     * (the rows are written to temporary files if there are many).
+     */
+    public static final int DEFAULT_FACET_SAMPLE_SIZE =
+            SystemPropertySupplier.create(OAK_QUERY_FACET_SAMPLE_SIZE, 0).get();
+
     public static final String OAK_QUERY_FAIL_TRAVERSAL = "oak.queryFailTraversal";
     private static final boolean DEFAULT_FAIL_TRAVERSAL =
             Boolean.getBoolean(OAK_QUERY_FAIL_TRAVERSAL);
@@ -82,6 +175,30 @@ public class QueryEngineSettings implements QueryEngineSettingsMBean, QueryLimit
 
     private int prefetchCount = DEFAULT_PREFETCH_COUNT;
 
+    private int sortSpillThreshold = DEFAULT_SORT_SPILL_THRESHOLD;
+
+    private int planCacheSize = DEFAULT_PLAN_CACHE_SIZE;
+
+    private boolean joinStrategies = DEFAULT_JOIN_STRATEGIES;
+
+    private int unionParallelism = DEFAULT_UNION_PARALLELISM;
+
+    private ThreadPoolExecutor unionExecutor;
+
+    private int resultBatchSize = DEFAULT_RESULT_BATCH_SIZE;
+
+    private volatile QueryPlanCache planCache =
+            DEFAULT_PLAN_CACHE_SIZE > 0 ? new QueryPlanCache(DEFAULT_PLAN_CACHE_SIZE) : null;
+
+    private boolean indexIntersection = DEFAULT_INDEX_INTERSECTION;
+
+    private boolean facets = DEFAULT_FACETS;
+
+    private int facetSampleSize = DEFAULT_FACET_SAMPLE_SIZE;
+
+    private volatile CostCalibration costCalibration =
+            DEFAULT_COST_CALIBRATION ? new CostCalibration() : null;
+
     private boolean failTraversal = DEFAULT_FAIL_TRAVERSAL;
     
     private boolean fullTextComparisonWithoutIndex = 
@@ -175,6 +292,159 @@ public class QueryEngineSettings implements QueryEngineSettingsMBean, QueryLimit
         return prefetchCount;
     }
 
+    public int getSortSpillThreshold() {
+        return sortSpillThreshold;
+    }
+
+    public void setSortSpillThreshold(int sortSpillThreshold) {
+        this.sortSpillThreshold = sortSpillThreshold;
+    }
+
+    public int getPlanCacheSize() {
+        return planCacheSize;
+    }
+
+    /**
+     * Set the maximum number of statements in the query plan cache. This
+     * clears the cache.
+     *
+     * @param planCacheSize the new size, or 0 to disable the cache
+     */
+    public void setPlanCacheSize(int planCacheSize) {
+        this.planCacheSize = planCacheSize;
+        this.planCache = planCacheSize > 0 ? new QueryPlanCache(planCacheSize) : null;
+    }
+
+    public boolean isJoinStrategies() {
+        return joinStrategies;
+    }
+
+    public void setJoinStrategies(boolean joinStrategies) {
+        this.joinStrategies = joinStrategies;
+    }
+
+    public int getUnionParallelism() {
+        return unionParallelism;
+    }
+
+    /**
+     * Set the maximum number of threads used to read the branches of union
+     * queries.
+     *
+     * @param unionParallelism the number of threads, or 0 to disable
+     */
+    public synchronized void setUnionParallelism(int unionParallelism) {
+        this.unionParallelism = unionParallelism;
+        closeUnionExecutor();
+    }
+
+    /**
+     * Stop the threads that read the branches of union queries, for example
+     * because the repository is closed. Tasks that are running are not
+     * interrupted. If union queries are run afterwards, new threads are
+     * created.
+     */
+    public synchronized void closeUnionExecutor() {
+        if (unionExecutor != null) {
+            unionExecutor.shutdown();
+            unionExecutor = null;
+        }
+    }
+
+    /**
+     * Get the executor that reads the index rows of the branches of union
+     * queries. The threads are created when needed, and stopped when idle or
+     * when the repository is closed.
+     *
+     * @return the executor, or null if disabled
+     */
+    @Nullable
+    public synchronized Executor getUnionExecutor() {
+        if (unionParallelism <= 0) {
+            return null;
+        }
+        if (unionExecutor == null) {
+            AtomicInteger count = new AtomicInteger();
+            unionExecutor = new ThreadPoolExecutor(unionParallelism, unionParallelism,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                        Thread t = new Thread(r, "oak-query-union-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            unionExecutor.allowCoreThreadTimeOut(true);
+        }
+        return unionExecutor;
+    }
+
+    public int getResultBatchSize() {
+        return resultBatchSize;
+    }
+
+    public void setResultBatchSize(int resultBatchSize) {
+        this.resultBatchSize = resultBatchSize;
+    }
+
+    /**
+     * Get the query plan cache.
+     *
+     * @return the cache, or null if disabled
+     */
+    @Nullable
+    public QueryPlanCache getPlanCache() {
+        return planCache;
+    }
+
+    @Override
+    public boolean getIndexIntersection() {
+        return indexIntersection;
+    }
+
+    public void setIndexIntersection(boolean indexIntersection) {
+        this.indexIntersection = indexIntersection;
+    }
+
+    public boolean getFacets() {
+        return facets;
+    }
+
+    public void setFacets(boolean facets) {
+        this.facets = facets;
+    }
+
+    public int getFacetSampleSize() {
+        return facetSampleSize;
+    }
+
+    public void setFacetSampleSize(int facetSampleSize) {
+        this.facetSampleSize = facetSampleSize;
+    }
+
+    public boolean isCostCalibration() {
+        return costCalibration != null;
+    }
+
+    /**
+     * Enable or disable the cost calibration. Disabling removes the
+     * statistics.
+     *
+     * @param costCalibration whether to enable
+     */
+    public void setCostCalibration(boolean costCalibration) {
+        if (costCalibration != isCostCalibration()) {
+            this.costCalibration = costCalibration ? new CostCalibration() : null;
+        }
+    }
+
+    /**
+     * Get the cost calibration statistics.
+     *
+     * @return the statistics, or null if disabled
+     */
+    @Nullable
+    public CostCalibration getCostCalibration() {
+        return costCalibration;
+    }
+
     @Override
     public void setAutoOptionsMappingJson(String json) {
         autoOptionsMappingJson = json;
@@ -295,6 +565,15 @@ public class QueryEngineSettings implements QueryEngineSettingsMBean, QueryLimit
                 ", sql2Optimisation=" + sql2Optimisation +
                 ", fastQuerySize=" + fastQuerySize +
                 ", prefetchCount=" + prefetchCount +
+                ", sortSpillThreshold=" + sortSpillThreshold +
+                ", planCacheSize=" + planCacheSize +
+                ", joinStrategies=" + joinStrategies +
+                ", unionParallelism=" + unionParallelism +
+                ", resultBatchSize=" + resultBatchSize +
+                ", costCalibration=" + isCostCalibration() +
+                ", indexIntersection=" + indexIntersection +
+                ", facets=" + facets +
+                ", facetSampleSize=" + facetSampleSize +
                 ", classNamesIgnoredInCallTrace=" + Arrays.toString(classNamesIgnoredInCallTrace) +
                 '}';
     }
@@ -16,6 +16,7 @@ package org.apache.jackrabbit.oak.query;
 import static java.util.Objects.requireNonNull;
 import static org.apache.jackrabbit.oak.query.ast.AstElementFactory.copyElementAndCheckReference;
 
+import java.io.Closeable;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -27,8 +28,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.apache.jackrabbit.oak.api.PropertyValue;
 import org.apache.jackrabbit.oak.api.Result.SizePrecision;
@@ -100,11 +103,13 @@ import org.apache.jackrabbit.oak.stats.HistogramStats;
 import org.apache.jackrabbit.oak.stats.StatisticsProvider;
 import org.apache.jackrabbit.oak.stats.StatsOptions;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.jackrabbit.guava.common.base.Strings;
 import org.apache.jackrabbit.guava.common.collect.AbstractIterator;
+import org.apache.jackrabbit.guava.common.collect.Iterators;
 import org.apache.jackrabbit.guava.common.collect.Maps;
 import org.apache.jackrabbit.guava.common.collect.Ordering;
 
@@ -170,6 +175,11 @@ public class QueryImpl implements Query {
     private boolean[] distinctColumns;
     
     private boolean explain, measure;
+
+    /**
+     * Whether this is an "explain analyze" query (or a subquery of one).
+     */
+    private boolean analyze;
     private boolean distinct;
     private Optional<Long> limit = Optional.empty();
     private Optional<Long> offset = Optional.empty();
@@ -184,6 +194,12 @@ public class QueryImpl implements Query {
 
     private boolean isSortedByIndex;
 
+    /**
+     * The facet counter of the current execution, if the query engine
+     * counts the facets.
+     */
+    private FacetCounter facetCounter;
+
     private final NamePathMapper namePathMapper;
     
     private double estimatedCost;
@@ -196,6 +212,18 @@ public class QueryImpl implements Query {
 
     private boolean potentiallySlowTraversalQuery;
 
+    /**
+     * The executor that reads the index rows ahead while the source is
+     * executed, or null.
+     */
+    private Executor readAheadExecutor;
+
+    /**
+     * Whether the source was already executed, so that the next row
+     * iterator doesn't need to execute it.
+     */
+    private boolean executed;
+
     QueryImpl(String statement, SourceImpl source, ConstraintImpl constraint,
         ColumnImpl[] columns, NamePathMapper mapper, QueryEngineSettings settings,
         QueryExecutionStats stats) {
@@ -514,6 +542,15 @@ public class QueryImpl implements Query {
     public void setMeasure(boolean measure) {
         this.measure = measure;
     }
+
+    @Override
+    public void setAnalyze(boolean analyze) {
+        this.analyze = analyze;
+    }
+
+    public boolean isAnalyze() {
+        return analyze;
+    }
     
     public void setDistinct(boolean distinct) {
         this.distinct = distinct;
@@ -591,30 +628,14 @@ public class QueryImpl implements Query {
              "those restricted paths; query={}, called by={}, plan={}", statement, caller, warn);
         }
         logAdditionalMessages();
-        if (explain) {
-            String plan = getPlan();
-            if (measure) {
-                plan += " cost: { " + getIndexCostInfo() + " }";
-            }
-            columns = new ColumnImpl[] {
-                    new ColumnImpl("explain", "plan", "plan"),
-                    new ColumnImpl("explain", "statement", "statement")
-            };
-            ResultRowImpl r = new ResultRowImpl(this,
-                    Tree.EMPTY_ARRAY,
-                    new PropertyValue[] {
-                            PropertyValues.newString(plan),
-                            // remove "explain" keyword from query statement to produce explained statement
-                            PropertyValues.newString(getStatement()
-                                    .replaceFirst("(?i)\\bexplain\\s+", ""))
-                    },
-                    null, null);
-            return Arrays.asList(r).iterator();
+        if (explain && !analyze) {
+            return getExplainRows(getPlan());
         }
         if (LOG.isDebugEnabled()) {
             logDebug("query execute " + statement);
             logDebug("query plan " + getPlan());
         }
+        long start = System.nanoTime();
         final RowIterator rowIt = new RowIterator(context.getBaseState());
         Comparator<ResultRowImpl> orderBy;
         if (isSortedByIndex) {
@@ -622,10 +643,34 @@ public class QueryImpl implements Query {
         } else {
             orderBy = ResultRowImpl.getComparator(orderings);
         }
+        Iterator<ResultRowImpl> rows = rowIt;
+        facetCounter = null;
+        boolean countFacets = settings.getFacets() && hasFacetColumns();
+        if (countFacets) {
+            facetCounter = new FacetCounter();
+            if (orderBy != null) {
+                // the rows are counted while they are sorted, and the
+                // facets are set afterwards
+            } else if (settings.getFacetSampleSize() > 0) {
+                rows = new FacetIterator(rowIt, facetCounter, settings.getFacetSampleSize(),
+                        () -> source.getSize(context.getBaseState(), SizePrecision.APPROXIMATION, Long.MAX_VALUE),
+                        settings);
+            } else if (rowIt.hasNext() && !facetCounter.isEmpty()) {
+                // the same as when sorting: all rows are read (and counted)
+                // before the first one is returned, keeping their order
+                // (and writing them to temporary files if there are many)
+                orderBy = (a, b) -> 0;
+            } else {
+                // the index returned the facets, or there are no rows
+                countFacets = false;
+                facetCounter = null;
+            }
+        }
         long localLimit = limit.orElse(Long.MAX_VALUE);
         long localOffset = offset.orElse(0L);
         Iterator<ResultRowImpl> it =
-                FilterIterators.newCombinedFilter(rowIt, distinct, localLimit, localOffset, orderBy, settings);
+                FilterIterators.newCombinedFilter(rows, distinct, localLimit, localOffset, orderBy, settings,
+                        new ResultRowCodec(this, distinctColumns, stats), settings.getSortSpillThreshold());
         if (orderBy != null) {
             // this will force the rows to be read, so that the size is known
             it.hasNext();
@@ -637,6 +682,26 @@ public class QueryImpl implements Query {
             // and we will skip 'offset' entries
             read = Math.max(0, read - localOffset);
             size = read;
+            if (countFacets) {
+                // all rows were read, so the facets are exact
+                Map<String, String> facets = facetCounter.getFacets(true, -1);
+                facetCounter = null;
+                if (!facets.isEmpty()) {
+                    it = Iterators.transform(it, r -> ResultRowImpl.getMappingResultRow(r, facets));
+                }
+            }
+        }
+        if (explain) {
+            // explain analyze: run the query, and return the plan
+            long count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            String plan = getPlan() + " /* analyze: read " + rowIt.getReadCount() +
+                    " rows in " + formatNanos(rowIt.getReadNanos()) +
+                    ", returned " + count + " rows in " + formatNanos(System.nanoTime() - start) + " */";
+            return getExplainRows(plan);
         }
         if (measure) {
             // return the measuring iterator delegating the readCounts to the rowIterator
@@ -664,6 +729,36 @@ public class QueryImpl implements Query {
         return it;
     }
 
+    private Iterator<ResultRowImpl> getExplainRows(String plan) {
+        if (measure) {
+            plan += " cost: { " + getIndexCostInfo() + " }";
+        }
+        columns = new ColumnImpl[] {
+                new ColumnImpl("explain", "plan", "plan"),
+                new ColumnImpl("explain", "statement", "statement")
+        };
+        ResultRowImpl r = new ResultRowImpl(this,
+                Tree.EMPTY_ARRAY,
+                new PropertyValue[] {
+                        PropertyValues.newString(plan),
+                        // remove "explain" keyword from query statement to produce explained statement
+                        PropertyValues.newString(getStatement()
+                                .replaceFirst("(?i)\\bexplain\\s+(analyze\\s+)?", ""))
+                },
+                null, null);
+        return Arrays.asList(r).iterator();
+    }
+
+    /**
+     * Format a duration in milliseconds, for the plan of analyzed queries.
+     *
+     * @param nanos the duration in nanoseconds
+     * @return the formatted duration, e.g. "1.500 ms"
+     */
+    public static String formatNanos(long nanos) {
+        return String.format(Locale.ENGLISH, "%.3f ms", nanos / 1000000.0);
+    }
+
     @Override
     public boolean isSortedByIndex() {
         return isSortedByIndex;
@@ -904,12 +999,13 @@ public class QueryImpl implements Query {
     /**
      * An iterator over result rows.
      */
-    class RowIterator implements Iterator<ResultRowImpl> {
+    class RowIterator implements Iterator<ResultRowImpl>, Closeable {
 
         private final NodeState rootState;
         private ResultRowImpl current;
         private boolean started, end;
         private long rowIndex;
+        private long readNanos;
 
         RowIterator(NodeState rootState) {
             this.rootState = rootState;
@@ -919,6 +1015,10 @@ public class QueryImpl implements Query {
             return rowIndex;
         }
 
+        public long getReadNanos() {
+            return readNanos;
+        }
+
         private void fetchNext() {
             if (end) {
                 return;
@@ -926,7 +1026,11 @@ public class QueryImpl implements Query {
             long nanos = System.nanoTime();
             long oldIndex = rowIndex;
             if (!started) {
-                source.execute(rootState);
+                if (executed) {
+                    executed = false;
+                } else {
+                    source.execute(rootState);
+                }
                 started = true;
             }
             while (true) {
@@ -948,6 +1052,7 @@ public class QueryImpl implements Query {
                 }
             }
             nanos = System.nanoTime() - nanos;
+            readNanos += nanos;
             stats.read(rowIndex - oldIndex, rowIndex, nanos);
         }
 
@@ -975,6 +1080,19 @@ public class QueryImpl implements Query {
             return r;
         }
 
+        /**
+         * Stop reading rows, for example because the limit was reached, so
+         * that the index rows read ahead (if any) are discarded.
+         */
+        @Override
+        public void close() {
+            end = true;
+            current = null;
+            for (SelectorImpl s : selectors) {
+                s.close();
+            }
+        }
+
         @Override
         public void remove() {
             throw new UnsupportedOperationException();
@@ -1091,6 +1209,26 @@ public class QueryImpl implements Query {
 
         long maxEntryCount = saturatedAdd(offset.orElse(0L), limit.orElse(Long.MAX_VALUE));
 
+        CostCalibration calibration = getSettings().getCostCalibration();
+        String filterShape = calibration == null ? null : CostCalibration.getFilterShape(filter);
+
+        QueryPlanCache planCache = getSettings().getPlanCache();
+        String planCacheKey = null;
+        if (planCache != null && selectors.size() == 1) {
+            // the statement of a union branch is the statement of the whole
+            // union, so the branch itself is the key; the limit, offset, and
+            // automatic options are not part of it, but affect the cost or
+            // the usable indexes
+            planCacheKey = toString() + " /* " + queryOptions.indexName + " " +
+                    queryOptions.indexTag + " " + maxEntryCount + " */";
+            SelectorExecutionPlan cached = getCachedSelectorExecutionPlan(planCache,
+                    planCacheKey, rootState, filter, indexProvider, maxEntryCount,
+                    calibration, filterShape);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         // Sort the indexes according to their minimum cost to be able to skip the remaining indexes if the cost of the
         // current index is below the minimum cost of the next index.
         List<? extends QueryIndex> queryIndexes = MINIMAL_COST_ORDERING
@@ -1120,18 +1258,8 @@ public class QueryImpl implements Query {
                         filter, sortOrder, rootState);
                 cost = Double.POSITIVE_INFINITY;
                 for (IndexPlan p : ipList) {
-                    
-                    long entryCount = p.getEstimatedEntryCount();
-                    if (p.getSupportsPathRestriction()) {
-                        entryCount = scaleEntryCount(rootState, filter, entryCount);
-                    }
-                    if (sortOrder == null || p.getSortOrder() != null) {
-                        // if the query is unordered, or
-                        // if the query contains "order by" and the index can sort on that,
-                        // then we don't need to read all entries from the index
-                        entryCount = Math.min(maxEntryCount, entryCount);
-                    }
-                    double c = p.getCostPerExecution() + entryCount * p.getCostPerEntry();
+                    double c = getCost(index, p, rootState, filter, sortOrder, maxEntryCount,
+                            calibration, filterShape);
 
                     if (LOG.isDebugEnabled()) {
                         String plan = advIndex.getPlanDescription(p, rootState);
@@ -1218,10 +1346,110 @@ public class QueryImpl implements Query {
             }
         }
 
+        if (planCacheKey != null && bestIndex != null && !(bestIndex instanceof TraversingIndex)) {
+            planCache.put(planCacheKey, rootState, filter.getPath(), bestIndex.getIndexName(),
+                    bestPlan == null ? null : bestPlan.getPlanName());
+        }
+
         return new SelectorExecutionPlan(filter.getSelector(), bestIndex,
                 bestPlan, bestCost);
     }
+
+    /**
+     * Get the plan of the index that was chosen the last time this query was
+     * planned, without asking the other indexes.
+     *
+     * @return the plan, or null if the cache has no entry, or the index does
+     *         not return a plan any more
+     */
+    private SelectorExecutionPlan getCachedSelectorExecutionPlan(
+            QueryPlanCache planCache, String key, NodeState rootState, FilterImpl filter,
+            QueryIndexProvider indexProvider, long maxEntryCount,
+            CostCalibration calibration, String filterShape) {
+        QueryPlanCache.CachedPlan entry = planCache.get(key, rootState, filter.getPath());
+        if (stats != null) {
+            stats.planCacheLookup(entry != null);
+        }
+        if (entry == null) {
+            return null;
+        }
+        for (QueryIndex index : indexProvider.getQueryIndexes(rootState)) {
+            if (!entry.indexName.equals(index.getIndexName())) {
+                continue;
+            }
+            if (index instanceof AdvancedQueryIndex) {
+                List<OrderEntry> sortOrder = getSortOrder(filter);
+                List<IndexPlan> ipList = ((AdvancedQueryIndex) index).getPlans(
+                        filter, sortOrder, rootState);
+                IndexPlan bestPlan = null;
+                double bestCost = Double.POSITIVE_INFINITY;
+                for (IndexPlan p : ipList) {
+                    if (!Objects.equals(entry.planName, p.getPlanName())) {
+                        continue;
+                    }
+                    double c = getCost(index, p, rootState, filter, sortOrder, maxEntryCount,
+                            calibration, filterShape);
+                    if (c < bestCost) {
+                        bestCost = c;
+                        bestPlan = p;
+                    }
+                }
+                if (bestPlan != null) {
+                    potentiallySlowTraversalQuery = false;
+                    return new SelectorExecutionPlan(filter.getSelector(), index,
+                            bestPlan, bestCost);
+                }
+            } else {
+                double cost = index.getCost(filter, rootState);
+                if (cost < Double.POSITIVE_INFINITY) {
+                    potentiallySlowTraversalQuery = false;
+                    return new SelectorExecutionPlan(filter.getSelector(), index,
+                            null, cost);
+                }
+            }
+            break;
+        }
+        LOG.debug("Cached index {} not usable any more for {}", entry.indexName, key);
+        planCache.remove(key);
+        return null;
+    }
+
+    private double getCost(QueryIndex index, IndexPlan p, NodeState rootState, FilterImpl filter,
+            List<OrderEntry> sortOrder, long maxEntryCount,
+            CostCalibration calibration, String filterShape) {
+        long entryCount = getScaledEntryCount(p, rootState, filter);
+        if (calibration != null) {
+            entryCount = calibration.correct(
+                    CostCalibration.getIndexName(index, p), filterShape, entryCount);
+        }
+        if (sortOrder == null || p.getSortOrder() != null) {
+            // if the query is unordered, or
+            // if the query contains "order by" and the index can sort on that,
+            // then we don't need to read all entries from the index
+            entryCount = Math.min(maxEntryCount, entryCount);
+        }
+        return p.getCostPerExecution() + entryCount * p.getCostPerEntry();
+    }
     
+    /**
+     * Get the estimated entry count of a plan, scaled down to the path
+     * restriction of the filter if the index supports path restrictions.
+     * This is the estimate that the cost calibration compares with the number
+     * of rows read, and corrects.
+     *
+     * @param p the plan
+     * @param rootState the root state
+     * @param filter the filter
+     * @return the entry count
+     */
+    public long getScaledEntryCount(IndexPlan p, NodeState rootState, FilterImpl filter) {
+        long entryCount = p.getEstimatedEntryCount();
+        if (p.getSupportsPathRestriction()) {
+            entryCount = scaleEntryCount(rootState, filter, entryCount);
+        }
+        return entryCount;
+    }
+
     private long scaleEntryCount(NodeState rootState, FilterImpl filter, long count) {
         PathRestriction r = filter.getPathRestriction();
         if (r != PathRestriction.ALL_CHILDREN) {
@@ -1424,6 +1652,26 @@ public class QueryImpl implements Query {
         return settings;
     }
 
+    /**
+     * Get the facet counter of the current execution.
+     *
+     * @return the counter, or null if the query engine doesn't count the
+     *         facets
+     */
+    @Nullable
+    public FacetCounter getFacetCounter() {
+        return facetCounter;
+    }
+
+    private boolean hasFacetColumns() {
+        for (ColumnImpl c : columns) {
+            if (c.getPropertyName().startsWith(QueryConstants.REP_FACET + "(")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public void setInternal(boolean isInternal) {
         this.isInternal = isInternal;
@@ -1432,6 +1680,41 @@ public class QueryImpl implements Query {
     public ExecutionContext getExecutionContext() {
         return context;
     }
+
+    /**
+     * Execute the source now, and read the index rows ahead in tasks of the
+     * given executor, until the rows are read by the next call to
+     * {@link #getRows()}. Only the index cursors are read by the tasks: the
+     * nodes are read, read access is checked, and the statistics are
+     * updated when the rows are read, by the thread that reads them. This
+     * is only done for queries with a single selector.
+     *
+     * @param executor the executor
+     */
+    void startReadAhead(Executor executor) {
+        prepare();
+        if (explain || measure || !(source instanceof SelectorImpl)) {
+            return;
+        }
+        readAheadExecutor = executor;
+        try {
+            source.execute(context.getBaseState());
+        } finally {
+            readAheadExecutor = null;
+        }
+        executed = true;
+    }
+
+    /**
+     * The executor that reads the index rows ahead, while the source is
+     * executed.
+     *
+     * @return the executor, or null if the rows are not read ahead
+     */
+    @Nullable
+    public Executor getReadAheadExecutor() {
+        return readAheadExecutor;
+    }
     
     /**
      * Add two values, but don't let it overflow or underflow.
@@ -1528,6 +1811,7 @@ public class QueryImpl implements Query {
             this.settings);
         u.setExplain(explain);
         u.setMeasure(measure);
+        u.setAnalyze(analyze);
         u.setInternal(isInternal);
         u.setQueryOptions(queryOptions);
         u.setOrderings(orderings);
@@ -1555,6 +1839,7 @@ public class QueryImpl implements Query {
             this.stats);
         copy.explain = this.explain;
         copy.measure = this.measure;
+        copy.analyze = this.analyze;
         copy.isInternal = this.isInternal;
         copy.distinct = this.distinct;
         copy.queryOptions = this.queryOptions;
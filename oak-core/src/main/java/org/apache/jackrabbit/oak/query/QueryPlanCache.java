@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.plugins.index.IndexConstants;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of the index chosen for a query. The key is the query (each branch
+ * of a union separately), which contains the names of the bind variables but
+ * not their values, so that parameterized queries share an entry. An entry
+ * only contains the name of the index and the name of the plan; the plan
+ * itself is still requested from that index, but all other indexes are
+ * skipped.
+ * <p>
+ * All entries are removed when an index definition below /oak:index changes,
+ * including a reindex (which changes the reindex count). An entry is also
+ * removed when an index definition in an oak:index node of an ancestor of the
+ * path of the query changes. If there are more than the maximum number of
+ * entries, the least recently used entry is removed.
+ */
+public class QueryPlanCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueryPlanCache.class);
+
+    private final Map<String, CachedPlan> map;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * The index definitions the entries are based on.
+     */
+    private volatile NodeState indexDefinitions;
+
+    QueryPlanCache(int maxSize) {
+        this.map = new LinkedHashMap<String, CachedPlan>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedPlan> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the cached entry for a query.
+     *
+     * @param key the key
+     * @param rootState the root state used to run the query
+     * @param path the path of the filter of the query
+     * @return the entry, or null if none
+     */
+    CachedPlan get(String key, NodeState rootState, String path) {
+        validate(rootState);
+        CachedPlan e;
+        synchronized (this) {
+            e = map.get(key);
+        }
+        if (e != null && nestedDefinitionsChanged(e.nestedDefinitions,
+                getNestedDefinitions(rootState, path))) {
+            LOG.debug("Nested index definitions changed, removing the cached plan of {}", key);
+            synchronized (this) {
+                map.remove(key, e);
+            }
+            invalidationCount.incrementAndGet();
+            e = null;
+        }
+        if (e == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return e;
+    }
+
+    void put(String key, NodeState rootState, String path, String indexName, String planName) {
+        validate(rootState);
+        CachedPlan e = new CachedPlan(indexName, planName,
+                getNestedDefinitions(rootState, path));
+        synchronized (this) {
+            map.put(key, e);
+        }
+    }
+
+    /**
+     * Remove an entry, for example because the index no longer exists, or
+     * no longer returns a plan.
+     *
+     * @param key the key
+     */
+    synchronized void remove(String key) {
+        map.remove(key);
+    }
+
+    synchronized int size() {
+        return map.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * The ratio of lookups that found an entry.
+     *
+     * @return the ratio (0 if there were no lookups)
+     */
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Clear the cache if the index definitions of the given root state are
+     * different from the ones the entries are based on. The definitions
+     * are compared outside of the lock, using a diff against the last
+     * definitions, which only looks at the changed indexes. Changes in the
+     * hidden child nodes, for example the data of a synchronous property
+     * index, are ignored.
+     *
+     * @param rootState the root state
+     */
+    private void validate(NodeState rootState) {
+        NodeState defs = rootState.getChildNode(IndexConstants.INDEX_DEFINITIONS_NAME);
+        while (true) {
+            NodeState last = indexDefinitions;
+            if (last == defs) {
+                return;
+            }
+            boolean changed = last != null && definitionsChanged(last, defs);
+            synchronized (this) {
+                if (indexDefinitions == last) {
+                    if (changed && !map.isEmpty()) {
+                        LOG.debug("Index definitions changed, clearing {} cached plans", map.size());
+                        map.clear();
+                        invalidationCount.incrementAndGet();
+                    }
+                    indexDefinitions = defs;
+                    return;
+                }
+            }
+            // concurrently changed: compare against the new definitions
+        }
+    }
+
+    /**
+     * Get the index definitions nodes (oak:index) of the ancestors of a path,
+     * except the root, starting with the one closest to the root. Indexes
+     * defined there may be used by queries below that path.
+     *
+     * @param rootState the root state
+     * @param path the path
+     * @return the nodes (which may not exist)
+     */
+    private static NodeState[] getNestedDefinitions(NodeState rootState, String path) {
+        int depth = PathUtils.getDepth(path);
+        NodeState[] defs = new NodeState[depth];
+        NodeState n = rootState;
+        int i = 0;
+        for (String name : PathUtils.elements(path)) {
+            n = n.getChildNode(name);
+            defs[i++] = n.getChildNode(IndexConstants.INDEX_DEFINITIONS_NAME);
+        }
+        return defs;
+    }
+
+    private static boolean nestedDefinitionsChanged(NodeState[] before, NodeState[] after) {
+        for (int i = 0; i < before.length; i++) {
+            if (before[i] != after[i] && definitionsChanged(before[i], after[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the index definitions changed: an index was added or removed,
+     * or a (not hidden) property or child node of an index changed.
+     *
+     * @param before the old index definitions node
+     * @param after the new index definitions node
+     * @return true if they changed
+     */
+    static boolean definitionsChanged(NodeState before, NodeState after) {
+        return !after.compareAgainstBaseState(before, new DefinitionsDiff());
+    }
+
+    /**
+     * A diff of the index definitions node, which is aborted at the first
+     * change of an index definition. The properties of the index definitions
+     * node itself are ignored.
+     */
+    private static class DefinitionsDiff extends DefaultNodeStateDiff {
+
+        @Override
+        public boolean childNodeAdded(String name, NodeState after) {
+            return NodeStateUtils.isHidden(name);
+        }
+
+        @Override
+        public boolean childNodeChanged(String name, NodeState before, NodeState after) {
+            return NodeStateUtils.isHidden(name) ||
+                    after.compareAgainstBaseState(before, new DefinitionDiff());
+        }
+
+        @Override
+        public boolean childNodeDeleted(String name, NodeState before) {
+            return NodeStateUtils.isHidden(name);
+        }
+
+    }
+
+    /**
+     * A diff of the subtree of an index definition (for example the index
+     * rules of a full-text index), which is aborted at the first change that
+     * is not hidden.
+     */
+    private static class DefinitionDiff extends DefinitionsDiff {
+
+        @Override
+        public boolean propertyAdded(PropertyState after) {
+            return NodeStateUtils.isHidden(after.getName());
+        }
+
+        @Override
+        public boolean propertyChanged(PropertyState before, PropertyState after) {
+            return NodeStateUtils.isHidden(after.getName());
+        }
+
+        @Override
+        public boolean propertyDeleted(PropertyState before) {
+            return NodeStateUtils.isHidden(before.getName());
+        }
+
+    }
+
+    /**
+     * The index chosen for a query.
+     */
+    static class CachedPlan {
+
+        final String indexName;
+        final String planName;
+        final NodeState[] nestedDefinitions;
+
+        CachedPlan(String indexName, String planName, NodeState[] nestedDefinitions) {
+            this.indexName = indexName;
+            this.planName = planName;
+            this.nestedDefinitions = nestedDefinitions;
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.PropertyValue;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.commons.json.JsopBuilder;
+import org.apache.jackrabbit.oak.commons.json.JsopReader;
+import org.apache.jackrabbit.oak.commons.json.JsopTokenizer;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyValues;
+import org.apache.jackrabbit.oak.query.stats.QueryStatsData.QueryExecutionStats;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Converts result rows to and from a line of Json, so that a sort can write
+ * them to temporary files. A row is written as the paths of its trees, the
+ * column values, and the order values. The trees are read again from the
+ * query when a row is read back. Rows with binary values are not written,
+ * because binaries can not be converted to a string and back.
+ * <p>
+ * The key of a row, for the distinct filter, contains the paths and the
+ * distinct values.
+ */
+class ResultRowCodec implements FilterIterators.SpillCodec<ResultRowImpl> {
+
+    private final Query query;
+
+    private final boolean[] distinctValues;
+
+    private final QueryExecutionStats stats;
+
+    ResultRowCodec(Query query, boolean[] distinctValues, QueryExecutionStats stats) {
+        this.query = query;
+        this.distinctValues = distinctValues;
+        this.stats = stats;
+    }
+
+    @Nullable
+    @Override
+    public String encode(@NotNull ResultRowImpl row) {
+        JsopBuilder buff = new JsopBuilder();
+        buff.array();
+        for (Tree t : row.getTrees()) {
+            buff.value(t == null ? null : t.getPath());
+        }
+        buff.endArray();
+        if (!encode(buff, row.getValues())) {
+            return null;
+        }
+        if (!encode(buff, row.getOrderValues())) {
+            return null;
+        }
+        return buff.toString();
+    }
+
+    @NotNull
+    @Override
+    public ResultRowImpl decode(@NotNull String line) {
+        JsopTokenizer t = new JsopTokenizer(line);
+        List<Tree> trees = new ArrayList<>();
+        t.read('[');
+        if (!t.matches(']')) {
+            do {
+                if (t.matches(JsopReader.NULL)) {
+                    trees.add(null);
+                } else {
+                    trees.add(query.getTree(t.readString()));
+                }
+            } while (t.matches(','));
+            t.read(']');
+        }
+        t.read(',');
+        PropertyValue[] values = decodeValues(t);
+        t.read(',');
+        PropertyValue[] orderValues = decodeValues(t);
+        return new ResultRowImpl(query, trees.toArray(Tree.EMPTY_ARRAY),
+                values, distinctValues, orderValues);
+    }
+
+    @Nullable
+    @Override
+    public String getKey(@NotNull ResultRowImpl row) {
+        JsopBuilder buff = new JsopBuilder();
+        buff.array();
+        for (Tree t : row.getTrees()) {
+            buff.value(t == null ? null : t.getPath());
+        }
+        buff.endArray();
+        // only the distinct values are compared
+        PropertyValue[] values = row.getValues();
+        boolean[] distinct = row.getDistinctValues();
+        for (int i = 0; i < values.length; i++) {
+            if (distinct != null && !distinct[i]) {
+                values[i] = null;
+            }
+        }
+        if (!encode(buff, values)) {
+            return null;
+        }
+        return buff.toString();
+    }
+
+    @Override
+    public void spilled(long count, int runs) {
+        if (stats != null) {
+            stats.sortSpilled(count, runs);
+        }
+    }
+
+    //------------------------------------------------------------< internal >
+
+    private static boolean encode(JsopBuilder buff, PropertyValue[] values) {
+        if (values == null) {
+            buff.value(null);
+            return true;
+        }
+        buff.array();
+        for (PropertyValue v : values) {
+            if (v == null) {
+                buff.value(null);
+                continue;
+            }
+            Type<?> type = v.getType();
+            if (type.tag() == Type.BINARY.tag()) {
+                return false;
+            }
+            buff.array().value(type.tag()).value(v.isArray());
+            if (v.isArray()) {
+                for (String s : v.getValue(Type.STRINGS)) {
+                    buff.value(s);
+                }
+            } else {
+                buff.value(v.getValue(Type.STRING));
+            }
+            buff.endArray();
+        }
+        buff.endArray();
+        return true;
+    }
+
+    private static PropertyValue[] decodeValues(JsopTokenizer t) {
+        if (t.matches(JsopReader.NULL)) {
+            return null;
+        }
+        List<PropertyValue> values = new ArrayList<>();
+        t.read('[');
+        if (!t.matches(']')) {
+            do {
+                values.add(decodeValue(t));
+            } while (t.matches(','));
+            t.read(']');
+        }
+        return values.toArray(new PropertyValue[0]);
+    }
+
+    private static PropertyValue decodeValue(JsopTokenizer t) {
+        if (t.matches(JsopReader.NULL)) {
+            return null;
+        }
+        t.read('[');
+        int tag = Integer.parseInt(t.read(JsopReader.NUMBER));
+        t.read(',');
+        boolean array = t.matches(JsopReader.TRUE);
+        if (!array) {
+            t.read(JsopReader.FALSE);
+        }
+        List<String> strings = new ArrayList<>();
+        while (t.matches(',')) {
+            strings.add(t.readString());
+        }
+        t.read(']');
+        PropertyState state;
+        if (array) {
+            state = PropertyStates.createProperty("", strings, Type.STRINGS);
+        } else {
+            state = PropertyStates.createProperty("", strings.get(0), Type.STRING);
+        }
+        return PropertyValues.create(PropertyStates.convert(state, Type.fromTag(tag, array)));
+    }
+}
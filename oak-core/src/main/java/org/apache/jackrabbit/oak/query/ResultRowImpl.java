@@ -61,6 +61,14 @@ public class ResultRowImpl implements ResultRow {
         this.orderValues = orderValues;
     }
 
+    Tree[] getTrees() {
+        return trees;
+    }
+
+    boolean[] getDistinctValues() {
+        return distinctValues;
+    }
+
     PropertyValue[] getOrderValues() {
         return orderValues;
     }
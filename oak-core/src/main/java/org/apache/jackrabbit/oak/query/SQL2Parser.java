@@ -148,9 +148,10 @@ public class SQL2Parser {
         expected = new ArrayList<String>();
         bindVariables = new HashMap<String, BindVariableValueImpl>();
         read();
-        boolean explain = false, measure = false;
+        boolean explain = false, analyze = false, measure = false;
         if (readIf("EXPLAIN")) {
             explain = true;
+            analyze = readIf("ANALYZE");
         }
         if (readIf("MEASURE")) {
             measure = true;
@@ -218,6 +219,7 @@ public class SQL2Parser {
         q.setOrderings(orderings);
         q.setExplain(explain);
         q.setMeasure(measure);
+        q.setAnalyze(analyze);
         q.setInternal(isInternal(query));
         q.setQueryOptions(options);
 
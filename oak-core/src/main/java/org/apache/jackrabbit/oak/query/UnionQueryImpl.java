@@ -13,6 +13,7 @@
  */
 package org.apache.jackrabbit.oak.query;
 
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -21,6 +22,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executor;
 
 import org.apache.jackrabbit.oak.api.PropertyValue;
 import org.apache.jackrabbit.oak.api.Result;
@@ -32,6 +34,7 @@ import org.apache.jackrabbit.oak.plugins.memory.PropertyValues;
 import org.apache.jackrabbit.oak.query.QueryImpl.MeasuringIterator;
 import org.apache.jackrabbit.oak.query.ast.ColumnImpl;
 import org.apache.jackrabbit.oak.query.ast.OrderingImpl;
+import org.apache.jackrabbit.oak.query.ast.PropertyValueImpl;
 import org.apache.jackrabbit.oak.query.facet.FacetResult;
 import org.apache.jackrabbit.oak.query.stats.QueryStatsData.QueryExecutionStats;
 import org.apache.jackrabbit.oak.spi.query.QueryConstants;
@@ -50,12 +53,13 @@ import org.apache.jackrabbit.guava.common.collect.PeekingIterator;
 public class UnionQueryImpl implements Query {
     
     private static final Logger LOG = LoggerFactory.getLogger(UnionQueryImpl.class);
-    
+
     private final boolean unionAll;
     private final Query left, right;
     private ColumnImpl[] columns;
     private OrderingImpl[] orderings;
     private boolean explain;
+    private boolean analyze;
     private boolean measure;
     private Optional<Long> limit = Optional.empty();
     private Optional<Long> offset = Optional.empty();
@@ -201,6 +205,14 @@ public class UnionQueryImpl implements Query {
         this.explain = explain;
     }
 
+    @Override
+    public void setAnalyze(boolean analyze) {
+        // the subqueries are run, but they are not explained
+        left.setAnalyze(analyze);
+        right.setAnalyze(analyze);
+        this.analyze = analyze;
+    }
+
     @Override
     public void setMeasure(boolean measure) {
         left.setMeasure(measure);
@@ -214,6 +226,20 @@ public class UnionQueryImpl implements Query {
         right.init();
     }
     
+    /**
+     * Whether the result is sorted by the path of the (only) selector.
+     */
+    private boolean isSortedByPath() {
+        if (orderings == null || orderings.length != 1 || getSelectorNames().length != 1) {
+            return false;
+        }
+        if (!(orderings[0].getOperand() instanceof PropertyValueImpl)) {
+            return false;
+        }
+        PropertyValueImpl p = (PropertyValueImpl) orderings[0].getOperand();
+        return QueryConstants.JCR_PATH.equals(p.getPropertyName());
+    }
+
     @Override
     public String toString() {
         StringBuilder buff = new StringBuilder();
@@ -285,21 +311,8 @@ public class UnionQueryImpl implements Query {
     @Override
     public Iterator<ResultRowImpl> getRows() {
         prepare();
-        if (explain) {
-            String plan = getPlan();
-            columns = new ColumnImpl[] {
-                    new ColumnImpl("explain", "plan", "plan"),
-                    new ColumnImpl("explain", "statement", "statement")
-            };
-            ResultRowImpl r = new ResultRowImpl(this,
-                    Tree.EMPTY_ARRAY,
-                    new PropertyValue[] {
-                            PropertyValues.newString(plan),
-                            // retrieve the original statement from either of the unioned subqueries, i.e., the left one
-                            PropertyValues.newString(left.getStatement().replaceFirst("(?i)\\bexplain\\s+", ""))
-                    },
-                    null, null);
-            return Arrays.asList(r).iterator();
+        if (explain && !analyze) {
+            return getExplainRows(getPlan());
         }
         if (LOG.isDebugEnabled()) {
             if (isInternal) {
@@ -311,6 +324,11 @@ public class UnionQueryImpl implements Query {
         boolean distinct = !unionAll;
         Comparator<ResultRowImpl> orderBy = ResultRowImpl.getComparator(orderings);
 
+        Executor executor = measure || explain ? null : settings.getUnionExecutor();
+        if (executor != null && !FacetMerger.hasFacets(left.getColumns())) {
+            return getRowsParallel(executor, distinct, orderBy);
+        }
+
         FacetMerger facetMerger = new FacetMerger(left, right);
 
         Iterator<ResultRowImpl> it;
@@ -330,9 +348,27 @@ public class UnionQueryImpl implements Query {
             // This would suggest either the sub queries are sorted by index or explicitly by QueryImpl (in case of traversing index)
             // So use mergeSorted here.
             it = Iterators.mergeSorted(ImmutableList.of(leftIter, rightIter), orderBy);
+            if (distinct && isSortedByPath()) {
+                // duplicates are next to each other
+                it = FilterIterators.newSortedDistinct(it, orderBy);
+                distinct = false;
+            }
         }
 
-        it = FilterIterators.newCombinedFilter(it, distinct, limit.orElse(Long.MAX_VALUE), offset.orElse(0L), null, settings);
+        it = FilterIterators.newCombinedFilter(it, distinct, limit.orElse(Long.MAX_VALUE), offset.orElse(0L), null, settings,
+                new ResultRowCodec(this, null, null), settings.getSortSpillThreshold());
+
+        if (explain) {
+            // explain analyze: run the query, and return the plan
+            long start = System.nanoTime();
+            long count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            return getExplainRows(getPlan() + " /* analyze: returned " + count +
+                    " rows in " + QueryImpl.formatNanos(System.nanoTime() - start) + " */");
+        }
 
         if (measure) {
             // return the measuring iterator for the union
@@ -426,9 +462,113 @@ public class UnionQueryImpl implements Query {
         right.verifyNotPotentiallySlow();
     }
     
+    private Iterator<ResultRowImpl> getExplainRows(String plan) {
+        columns = new ColumnImpl[] {
+                new ColumnImpl("explain", "plan", "plan"),
+                new ColumnImpl("explain", "statement", "statement")
+        };
+        ResultRowImpl r = new ResultRowImpl(this,
+                Tree.EMPTY_ARRAY,
+                new PropertyValue[] {
+                        PropertyValues.newString(plan),
+                        // retrieve the original statement from either of the unioned subqueries, i.e., the left one
+                        PropertyValues.newString(left.getStatement().replaceFirst("(?i)\\bexplain\\s+(analyze\\s+)?", ""))
+                },
+                null, null);
+        return Arrays.asList(r).iterator();
+    }
+
     public Query[] getChildren() {
         return new Query[] { left, right };
     }
+
+    /**
+     * Read the index rows of the branches at the same time, using the given
+     * executor. Nested unions are flattened, so that the index rows of all
+     * branches are read at the same time. The rows themselves are read by
+     * the calling thread, as the branches share the session state and the
+     * statistics. The result is the same as if the branches are read one
+     * after the other: without order by, the rows are returned in the order
+     * of the branches.
+     *
+     * @param executor the executor
+     * @param distinct whether to remove duplicate rows
+     * @param orderBy the comparator, or null if not sorted
+     * @return the rows
+     */
+    private Iterator<ResultRowImpl> getRowsParallel(Executor executor, boolean distinct,
+            Comparator<ResultRowImpl> orderBy) {
+        List<Query> queries = new ArrayList<>();
+        addBranches(queries);
+        for (Query q : queries) {
+            if (q instanceof QueryImpl) {
+                ((QueryImpl) q).startReadAhead(executor);
+            }
+        }
+        List<Iterator<ResultRowImpl>> branches = new ArrayList<>();
+        for (Query q : queries) {
+            branches.add(q.getRows());
+        }
+        Iterator<ResultRowImpl> it;
+        if (orderBy == null) {
+            it = Iterators.concat(branches.iterator());
+        } else {
+            it = Iterators.mergeSorted(branches, orderBy);
+            if (distinct && isSortedByPath()) {
+                it = FilterIterators.newSortedDistinct(it, orderBy);
+                distinct = false;
+            }
+        }
+        // closed by the limit filter, so that the branches stop reading ahead
+        it = new BranchesIterator(it, branches);
+        return FilterIterators.newCombinedFilter(it, distinct,
+                limit.orElse(Long.MAX_VALUE), offset.orElse(0L), null, settings,
+                new ResultRowCodec(this, null, null), settings.getSortSpillThreshold());
+    }
+
+    /**
+     * The rows of the branches of a parallel union. Closing it closes the
+     * branches, so that they stop reading ahead their index rows.
+     */
+    private static class BranchesIterator implements Iterator<ResultRowImpl>, Closeable {
+
+        private final Iterator<ResultRowImpl> rows;
+        private final List<Iterator<ResultRowImpl>> branches;
+
+        BranchesIterator(Iterator<ResultRowImpl> rows, List<Iterator<ResultRowImpl>> branches) {
+            this.rows = rows;
+            this.branches = branches;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return rows.hasNext();
+        }
+
+        @Override
+        public ResultRowImpl next() {
+            return rows.next();
+        }
+
+        @Override
+        public void close() {
+            for (Iterator<ResultRowImpl> b : branches) {
+                FilterIterators.close(b);
+            }
+        }
+    }
+
+    private void addBranches(List<Query> list) {
+        for (Query q : getChildren()) {
+            // a "union all" can be flattened into a "union", but not the
+            // other way round
+            if (q instanceof UnionQueryImpl && (!unionAll || ((UnionQueryImpl) q).unionAll)) {
+                ((UnionQueryImpl) q).addBranches(list);
+            } else {
+                list.add(q);
+            }
+        }
+    }
     
     public QueryExecutionStats getQueryExecutionStats() {
         return left.getQueryExecutionStats();
@@ -447,7 +587,7 @@ public class UnionQueryImpl implements Query {
             Iterator<ResultRowImpl> lIter = left.getRows();
             Iterator<ResultRowImpl> rIter = right.getRows();
 
-            if (!hasFacets(columnNames) || !bothHaveRows(lIter, rIter)) {
+            if (!hasFacets(columns) || !bothHaveRows(lIter, rIter)) {
                 this.leftIterator = lIter;
                 this.rightIterator = rIter;
 
@@ -484,9 +624,9 @@ public class UnionQueryImpl implements Query {
             return rightIterator;
         }
 
-        private boolean hasFacets(String[] columnNames) {
-            for (String c : columnNames) {
-                if (c.startsWith(QueryConstants.REP_FACET + "(")) {
+        static boolean hasFacets(ColumnImpl[] columns) {
+            for (ColumnImpl c : columns) {
+                if (c.getColumnName().startsWith(QueryConstants.REP_FACET + "(")) {
                     return true;
                 }
             }
@@ -55,6 +55,14 @@ public class ChildNodeJoinConditionImpl extends JoinConditionImpl {
         childSelector = source.getExistingSelector(childSelectorName);
     }
 
+    SelectorImpl getChildSelector() {
+        return childSelector;
+    }
+
+    SelectorImpl getParentSelector() {
+        return parentSelector;
+    }
+
     @Override
     public boolean evaluate() {
         String p = parentSelector.currentPath();
@@ -57,6 +57,14 @@ public class DescendantNodeJoinConditionImpl extends JoinConditionImpl {
         ancestorSelector = source.getExistingSelector(ancestorSelectorName);
     }
 
+    SelectorImpl getDescendantSelector() {
+        return descendantSelector;
+    }
+
+    SelectorImpl getAncestorSelector() {
+        return ancestorSelector;
+    }
+
     @Override
     public boolean evaluate() {
         String a = ancestorSelector.currentPath();
@@ -60,6 +60,22 @@ public class EquiJoinConditionImpl extends JoinConditionImpl {
         selector2 = source.getExistingSelector(selector2Name);
     }
 
+    SelectorImpl getSelector1() {
+        return selector1;
+    }
+
+    SelectorImpl getSelector2() {
+        return selector2;
+    }
+
+    String getProperty1Name() {
+        return property1Name;
+    }
+
+    String getProperty2Name() {
+        return property2Name;
+    }
+
     @Override
     public boolean evaluate() {
         // 6.7.8 EquiJoinCondition
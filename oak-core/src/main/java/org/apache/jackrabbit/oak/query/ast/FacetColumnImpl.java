@@ -19,6 +19,8 @@
 package org.apache.jackrabbit.oak.query.ast;
 
 import org.apache.jackrabbit.oak.api.PropertyValue;
+import org.apache.jackrabbit.oak.query.FacetCounter;
+import org.apache.jackrabbit.oak.spi.query.QueryConstants;
 
 /**
  * A facet result column expression.
@@ -30,7 +32,20 @@ public class FacetColumnImpl extends ColumnImpl {
 
     @Override
     public PropertyValue currentProperty() {
-        return this.getSelector().currentOakProperty(getPropertyName());
+        PropertyValue v = this.getSelector().currentOakProperty(getPropertyName());
+        if (v == null) {
+            // the index doesn't return the facets: count them, if enabled
+            FacetCounter counter = this.getSelector().getQuery().getFacetCounter();
+            if (counter != null) {
+                counter.add(getColumnName(), this.getSelector().currentOakProperty(getDimension()));
+            }
+        }
+        return v;
+    }
+
+    private String getDimension() {
+        String name = getPropertyName();
+        return name.substring(QueryConstants.REP_FACET.length() + 1, name.length() - 1);
     }
 
 }
\ No newline at end of file
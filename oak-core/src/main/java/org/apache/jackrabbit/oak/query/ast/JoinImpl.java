@@ -19,16 +19,30 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.jackrabbit.oak.api.Result.SizePrecision;
+import org.apache.jackrabbit.oak.query.QueryEngineSettings;
 import org.apache.jackrabbit.oak.query.plan.ExecutionPlan;
 import org.apache.jackrabbit.oak.query.plan.JoinExecutionPlan;
+import org.apache.jackrabbit.oak.query.plan.JoinExecutionPlan.JoinStrategy;
+import org.apache.jackrabbit.oak.query.plan.SelectorExecutionPlan;
 import org.apache.jackrabbit.oak.spi.query.Filter;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A join. This object contains the left hand side source, the right hand side
  * source, the join type, and the join condition.
  */
 public class JoinImpl extends SourceImpl {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JoinImpl.class);
+
+    /**
+     * The estimated cost to look up the matching rows of the right hand side
+     * in memory, for one row of the left hand side.
+     */
+    private static final double LOOKUP_COST = 0.1;
+
     private final JoinConditionImpl joinCondition;
     private JoinType joinType;
     private SourceImpl left;
@@ -42,6 +56,13 @@ public class JoinImpl extends SourceImpl {
     
     private JoinExecutionPlan plan;
 
+    /**
+     * The rows of the right hand side, for a hash join or merge join (null
+     * if not yet read, or if there were too many rows).
+     */
+    private JoinLookup lookup;
+    private boolean lookupFailed;
+
     public JoinImpl(SourceImpl left, SourceImpl right, JoinType joinType,
             JoinConditionImpl joinCondition) {
         this.left = left;
@@ -107,6 +128,9 @@ public class JoinImpl extends SourceImpl {
             append(right.getPlan(rootState)).
             append(" on ").
             append(joinCondition);
+        if (plan != null && plan.getStrategy() != JoinStrategy.NESTED_LOOP) {
+            buff.append(" /* ").append(plan.getStrategy()).append(" */");
+        }
         return buff.toString();
     }
 
@@ -176,6 +200,9 @@ public class JoinImpl extends SourceImpl {
         applyJoinConditions();
         left.prepare(joinPlan.getLeftPlan());
         right.prepare(joinPlan.getRightPlan());
+        if (joinPlan.getStrategy() != JoinStrategy.NESTED_LOOP) {
+            ((SelectorImpl) right).setPlan((SelectorExecutionPlan) joinPlan.getRightPlan(), true);
+        }
     }
 
     @Override
@@ -191,7 +218,34 @@ public class JoinImpl extends SourceImpl {
         ExecutionPlan leftPlan = left.prepare();
         ExecutionPlan rightPlan = right.prepare();
         double cost = leftPlan.getEstimatedCost() + 2 * rightPlan.getEstimatedCost();
-        plan = new JoinExecutionPlan(this, leftPlan, rightPlan, cost);
+        JoinStrategy strategy = JoinStrategy.NESTED_LOOP;
+        ExecutionPlan nestedLoopPlan = rightPlan;
+        if (right instanceof SelectorImpl) {
+            SelectorImpl s = (SelectorImpl) right;
+            QueryEngineSettings settings = s.getQuery().getSettings();
+            JoinStrategy candidate = JoinLookup.getStrategy(joinCondition, s);
+            if (settings.isJoinStrategies() && candidate != JoinStrategy.NESTED_LOOP) {
+                // the left selector is expected to return about one row
+                // per unit of cost; for a nested loop join, the right
+                // selector is queried once per row, while for the other
+                // strategies, it is read once and then kept in memory
+                // (if there are too many rows, a nested loop join is
+                // used when executing the query)
+                SelectorExecutionPlan readAllPlan = s.getReadAllPlan();
+                double leftCost = leftPlan.getEstimatedCost();
+                double leftRows = Math.max(1, leftCost);
+                double readAllCost = readAllPlan.getEstimatedCost();
+                double nestedLoopCost = leftCost + leftRows * rightPlan.getEstimatedCost();
+                double lookupCost = leftCost + readAllCost + leftRows * LOOKUP_COST;
+                if (lookupCost < nestedLoopCost) {
+                    strategy = candidate;
+                    rightPlan = readAllPlan;
+                    cost = lookupCost;
+                    s.setPlan(readAllPlan, true);
+                }
+            }
+        }
+        plan = new JoinExecutionPlan(this, leftPlan, rightPlan, cost, strategy, nestedLoopPlan);
         return plan;
     }
 
@@ -209,6 +263,11 @@ public class JoinImpl extends SourceImpl {
         this.rootState = rootState;
         leftNeedExecute = true;
         end = false;
+        lookup = null;
+        lookupFailed = false;
+        if (plan.getStrategy() != JoinStrategy.NESTED_LOOP) {
+            ((SelectorImpl) right).setPlan((SelectorExecutionPlan) plan.getRightPlan(), true);
+        }
     }
 
     @Override
@@ -255,7 +314,7 @@ public class JoinImpl extends SourceImpl {
                 rightNeedExecute = true;
             }
             if (rightNeedExecute) {
-                right.execute(rootState);
+                executeRight();
                 foundJoinedRow = false;
                 rightNeedExecute = false;
             }
@@ -275,6 +334,28 @@ public class JoinImpl extends SourceImpl {
         }
     }
     
+    private void executeRight() {
+        if (plan.getStrategy() == JoinStrategy.NESTED_LOOP) {
+            right.execute(rootState);
+            return;
+        }
+        SelectorImpl s = (SelectorImpl) right;
+        if (lookup == null && !lookupFailed) {
+            long maxRows = s.getQuery().getSettings().getLimitInMemory();
+            lookup = JoinLookup.read(joinCondition, s, rootState, maxRows);
+            if (lookup == null) {
+                LOG.debug("Can not keep the rows of {} in memory, using a nested loop join", s);
+                lookupFailed = true;
+                s.setPlan((SelectorExecutionPlan) plan.getNestedLoopPlan(), false);
+            }
+        }
+        if (lookup != null) {
+            s.replay(lookup.lookup());
+        } else {
+            right.execute(rootState);
+        }
+    }
+
     @Override
     public boolean isOuterJoinRightHandSide() {
         return left.isOuterJoinRightHandSide() || right.isOuterJoinRightHandSide();
@@ -0,0 +1,378 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.query.ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.oak.api.PropertyValue;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.query.plan.JoinExecutionPlan.JoinStrategy;
+import org.apache.jackrabbit.oak.spi.query.IndexRow;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * The rows of the right hand side selector of a join, read once, so that the
+ * rows that may match the current row of the left hand side can be found
+ * without running a query for each row of the left hand side.
+ * <p>
+ * A lookup returns candidates only: the selector evaluates the join condition
+ * again for each of them. Candidates are returned in the order they were read,
+ * so that the result is in the same order as for a nested loop join.
+ */
+abstract class JoinLookup {
+
+    /**
+     * The rows, in the order they were read.
+     */
+    protected final List<IndexRow> rows = new ArrayList<>();
+
+    /**
+     * Get the strategy that can be used for the given join condition, if the
+     * given selector is the right hand side.
+     *
+     * @param c the join condition
+     * @param right the right hand side selector
+     * @return the strategy, or NESTED_LOOP if the rows can not be looked up
+     */
+    static JoinStrategy getStrategy(JoinConditionImpl c, SelectorImpl right) {
+        if (c instanceof EquiJoinConditionImpl) {
+            EquiJoinConditionImpl e = (EquiJoinConditionImpl) c;
+            if (e.getSelector1() != e.getSelector2()) {
+                return JoinStrategy.HASH;
+            }
+        } else if (c instanceof DescendantNodeJoinConditionImpl) {
+            DescendantNodeJoinConditionImpl d = (DescendantNodeJoinConditionImpl) c;
+            if (d.getDescendantSelector() != d.getAncestorSelector()) {
+                return JoinStrategy.MERGE;
+            }
+        } else if (c instanceof ChildNodeJoinConditionImpl) {
+            ChildNodeJoinConditionImpl d = (ChildNodeJoinConditionImpl) c;
+            if (d.getChildSelector() != d.getParentSelector()) {
+                return JoinStrategy.MERGE;
+            }
+        }
+        return JoinStrategy.NESTED_LOOP;
+    }
+
+    /**
+     * Read all rows of the right hand side selector.
+     *
+     * @param c the join condition
+     * @param right the right hand side selector
+     * @param rootState the root state
+     * @param maxRows the maximum number of rows to keep in memory
+     * @return the lookup, or null if there were too many rows, or rows
+     *         that can not be looked up (virtual rows)
+     */
+    static JoinLookup read(JoinConditionImpl c, SelectorImpl right, NodeState rootState, long maxRows) {
+        JoinLookup lookup = create(c, right);
+        boolean complete = right.readAll(rootState,
+                row -> lookup.add(row) && lookup.rows.size() <= maxRows);
+        return complete ? lookup : null;
+    }
+
+    private static JoinLookup create(JoinConditionImpl c, SelectorImpl right) {
+        if (c instanceof EquiJoinConditionImpl) {
+            EquiJoinConditionImpl e = (EquiJoinConditionImpl) c;
+            if (e.getSelector2() == right) {
+                return new HashLookup(right, e.getProperty2Name(),
+                        e.getSelector1(), e.getProperty1Name());
+            }
+            return new HashLookup(right, e.getProperty1Name(),
+                    e.getSelector2(), e.getProperty2Name());
+        } else if (c instanceof DescendantNodeJoinConditionImpl) {
+            DescendantNodeJoinConditionImpl d = (DescendantNodeJoinConditionImpl) c;
+            if (d.getDescendantSelector() == right) {
+                return new DescendantLookup(d.getAncestorSelector(), false);
+            }
+            return new AncestorLookup(right, d.getDescendantSelector(), false);
+        } else {
+            ChildNodeJoinConditionImpl d = (ChildNodeJoinConditionImpl) c;
+            if (d.getChildSelector() == right) {
+                return new DescendantLookup(d.getParentSelector(), true);
+            }
+            return new AncestorLookup(right, d.getChildSelector(), true);
+        }
+    }
+
+    /**
+     * Add the current row of the right hand side selector.
+     *
+     * @param row the row
+     * @return false if the row can not be looked up
+     */
+    abstract boolean add(IndexRow row);
+
+    /**
+     * Get the rows that may match the current row of the left hand side.
+     *
+     * @return the candidates, in the order they were read
+     */
+    abstract Iterator<IndexRow> lookup();
+
+    protected Iterator<IndexRow> getRows(Iterable<Integer> indexes) {
+        ArrayList<IndexRow> list = new ArrayList<>();
+        for (int i : indexes) {
+            list.add(rows.get(i));
+        }
+        return list.iterator();
+    }
+
+    /**
+     * Hash join: the rows are looked up by the string value of the join
+     * property. The value of the left hand side is converted to the type of
+     * the right hand side when the join condition is evaluated, so that the
+     * string values can only be used if both have the same type, and the
+     * string value of this type is unique. For all other rows, all rows are
+     * candidates.
+     */
+    private static class HashLookup extends JoinLookup {
+
+        private final SelectorImpl right;
+        private final String rightPropertyName;
+        private final SelectorImpl left;
+        private final String leftPropertyName;
+
+        private final Map<String, List<Integer>> buckets = new HashMap<>();
+
+        /**
+         * The rows with a value of another type, which can not be looked up.
+         */
+        private final List<Integer> others = new ArrayList<>();
+
+        private int keyType = PropertyType.UNDEFINED;
+
+        HashLookup(SelectorImpl right, String rightPropertyName,
+                SelectorImpl left, String leftPropertyName) {
+            this.right = right;
+            this.rightPropertyName = rightPropertyName;
+            this.left = left;
+            this.leftPropertyName = leftPropertyName;
+        }
+
+        @Override
+        boolean add(IndexRow row) {
+            if (row.isVirtualRow()) {
+                return false;
+            }
+            PropertyValue v = right.currentProperty(rightPropertyName);
+            if (v == null) {
+                // can not match
+                return true;
+            }
+            int index = rows.size();
+            rows.add(row);
+            int tag = v.getType().tag();
+            if (keyType == PropertyType.UNDEFINED && isUnique(tag) && v.count() > 0) {
+                keyType = tag;
+            }
+            if (tag != keyType || v.count() == 0) {
+                others.add(index);
+                return true;
+            }
+            for (String s : v.getValue(Type.STRINGS)) {
+                List<Integer> list = buckets.computeIfAbsent(s, k -> new ArrayList<>(1));
+                if (list.isEmpty() || list.get(list.size() - 1) != index) {
+                    list.add(index);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        Iterator<IndexRow> lookup() {
+            PropertyValue v = left.currentProperty(leftPropertyName);
+            if (v == null) {
+                return Collections.emptyIterator();
+            }
+            if (v.getType().tag() != keyType || v.count() == 0) {
+                return rows.iterator();
+            }
+            if (!v.isArray() && others.isEmpty()) {
+                List<Integer> list = buckets.get(v.getValue(Type.STRING));
+                return list == null ? Collections.emptyIterator() : getRows(list);
+            }
+            TreeSet<Integer> set = new TreeSet<>(others);
+            for (String s : v.getValue(Type.STRINGS)) {
+                List<Integer> list = buckets.get(s);
+                if (list != null) {
+                    set.addAll(list);
+                }
+            }
+            return getRows(set);
+        }
+
+        /**
+         * Whether two values of this type are equal exactly if their string
+         * values are equal (which is not the case for dates and numbers
+         * with a fraction).
+         */
+        private static boolean isUnique(int tag) {
+            switch (tag) {
+            case PropertyType.STRING:
+            case PropertyType.NAME:
+            case PropertyType.PATH:
+            case PropertyType.REFERENCE:
+            case PropertyType.WEAKREFERENCE:
+            case PropertyType.URI:
+            case PropertyType.LONG:
+            case PropertyType.BOOLEAN:
+                return true;
+            default:
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Merge join for the case where the right hand side contains the
+     * descendants (or children): the rows are sorted by path, so that the
+     * descendants of a node are a range that is found using a binary search.
+     */
+    private static class DescendantLookup extends JoinLookup {
+
+        private final SelectorImpl ancestor;
+        private final boolean childrenOnly;
+
+        /**
+         * The indexes of the rows, sorted by path (once all rows are read).
+         */
+        private Integer[] sorted;
+
+        DescendantLookup(SelectorImpl ancestor, boolean childrenOnly) {
+            this.ancestor = ancestor;
+            this.childrenOnly = childrenOnly;
+        }
+
+        @Override
+        boolean add(IndexRow row) {
+            if (row.isVirtualRow() || row.getPath() == null) {
+                return false;
+            }
+            rows.add(row);
+            return true;
+        }
+
+        @Override
+        Iterator<IndexRow> lookup() {
+            String a = ancestor.currentPath();
+            if (a == null) {
+                return Collections.emptyIterator();
+            }
+            if (sorted == null) {
+                sorted = new Integer[rows.size()];
+                for (int i = 0; i < sorted.length; i++) {
+                    sorted[i] = i;
+                }
+                Arrays.sort(sorted, (x, y) -> getPath(x).compareTo(getPath(y)));
+            }
+            String prefix = PathUtils.denotesRoot(a) ? a : a + "/";
+            int low = 0, high = sorted.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (getPath(sorted[mid]).compareTo(prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            TreeSet<Integer> set = new TreeSet<>();
+            for (int i = low; i < sorted.length; i++) {
+                String p = getPath(sorted[i]);
+                if (!p.startsWith(prefix)) {
+                    break;
+                }
+                if (p.length() == prefix.length()) {
+                    // the root node is not its own descendant
+                    continue;
+                }
+                if (childrenOnly && p.indexOf('/', prefix.length()) >= 0) {
+                    continue;
+                }
+                set.add(sorted[i]);
+            }
+            return getRows(set);
+        }
+
+        private String getPath(int index) {
+            return rows.get(index).getPath();
+        }
+    }
+
+    /**
+     * Join for the case where the right hand side contains the ancestors (or
+     * parents): the rows are looked up by path, for each ancestor of the
+     * current node of the left hand side.
+     */
+    private static class AncestorLookup extends JoinLookup {
+
+        private final SelectorImpl right;
+        private final SelectorImpl descendant;
+        private final boolean parentOnly;
+
+        private final Map<String, List<Integer>> byPath = new HashMap<>();
+
+        AncestorLookup(SelectorImpl right, SelectorImpl descendant, boolean parentOnly) {
+            this.right = right;
+            this.descendant = descendant;
+            this.parentOnly = parentOnly;
+        }
+
+        @Override
+        boolean add(IndexRow row) {
+            if (row.isVirtualRow() || right.currentPath() == null) {
+                return false;
+            }
+            byPath.computeIfAbsent(row.getPath(), k -> new ArrayList<>(1)).add(rows.size());
+            rows.add(row);
+            return true;
+        }
+
+        @Override
+        Iterator<IndexRow> lookup() {
+            String p = descendant.currentPath();
+            if (p == null) {
+                return Collections.emptyIterator();
+            }
+            TreeSet<Integer> set = new TreeSet<>();
+            while (!PathUtils.denotesRoot(p)) {
+                p = PathUtils.getParentPath(p);
+                List<Integer> list = byPath.get(p);
+                if (list != null) {
+                    set.addAll(list);
+                }
+                if (parentOnly) {
+                    break;
+                }
+            }
+            return getRows(set);
+        }
+    }
+
+}
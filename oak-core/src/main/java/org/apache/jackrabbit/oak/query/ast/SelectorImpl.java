@@ -23,9 +23,12 @@ import static org.apache.jackrabbit.JcrConstants.NT_BASE;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.PropertyValue;
@@ -38,6 +41,7 @@ import org.apache.jackrabbit.oak.core.ImmutableRoot;
 import org.apache.jackrabbit.oak.plugins.memory.PropertyBuilder;
 import org.apache.jackrabbit.oak.plugins.metric.util.StatsProviderUtil;
 import org.apache.jackrabbit.oak.plugins.tree.TreeUtil;
+import org.apache.jackrabbit.oak.query.CostCalibration;
 import org.apache.jackrabbit.oak.query.ExecutionContext;
 import org.apache.jackrabbit.oak.query.QueryEngineSettings;
 import org.apache.jackrabbit.oak.query.QueryImpl;
@@ -49,7 +53,10 @@ import org.apache.jackrabbit.oak.query.plan.ExecutionPlan;
 import org.apache.jackrabbit.oak.query.plan.SelectorExecutionPlan;
 import org.apache.jackrabbit.oak.spi.query.Cursor;
 import org.apache.jackrabbit.oak.plugins.index.IndexConstants;
+import org.apache.jackrabbit.oak.plugins.index.cursor.AbstractCursor;
+import org.apache.jackrabbit.oak.plugins.index.cursor.BatchedReadCursor;
 import org.apache.jackrabbit.oak.plugins.index.cursor.Cursors;
+import org.apache.jackrabbit.oak.plugins.index.cursor.ReadAheadCursor;
 import org.apache.jackrabbit.oak.spi.query.IndexRow;
 import org.apache.jackrabbit.oak.plugins.memory.PropertyValues;
 import org.apache.jackrabbit.oak.spi.query.QueryConstants;
@@ -86,6 +93,12 @@ public class SelectorImpl extends SourceImpl {
     private static final String SLOW_QUERY_PERCENTILE_METRICS_NAME = "SLOW_QUERY_PERCENTILE_METRICS";
     private static final String SLOW_QUERY_COUNT_NAME = "SLOW_QUERY_COUNT";
 
+    /**
+     * The maximum number of index rows that are read ahead, if the query
+     * reads them ahead (for example for a branch of a union query).
+     */
+    private static final int READ_AHEAD_SIZE = 128;
+
     private static long timerSampleCounter;
 
 
@@ -174,10 +187,64 @@ public class SelectorImpl extends SourceImpl {
      */
     private final List<ConstraintImpl> selectorConstraints = new ArrayList<>();
 
+    /**
+     * Whether this selector is the right hand side of a join that reads all
+     * rows once (hash join or merge join). If set, the join condition is not
+     * used to restrict the index query.
+     */
+    private boolean readAll;
+
+    /**
+     * Whether all rows are currently being read, in which case the join
+     * condition is not evaluated (the other selector is not positioned).
+     */
+    private boolean readingAll;
+
     private Cursor cursor;
     private IndexRow currentRow;
+
+    /**
+     * Whether read access that was checked by a batched read cursor is
+     * sufficient (which is the case if there are no transient changes).
+     */
+    private boolean batchReadChecked;
+
+    private BatchedReadCursor batchedReadCursor;
+
+    private ReadAheadCursor readAheadCursor;
+
     private int scanCount;
 
+    /**
+     * The number of rows that matched the conditions of this selector.
+     */
+    private long matchCount;
+
+    /**
+     * The time spent in this selector (measured for each call if the query
+     * is analyzed, and otherwise estimated by sampling).
+     */
+    private long selectorNanos;
+
+    /**
+     * The time spent to resolve the tree of a row and check read access
+     * (measured or sampled, the same as the selector time).
+     */
+    private long accessCheckNanos;
+
+    private long accessCheckSampleCounter;
+
+    /**
+     * The time spent in the cursor (only measured if the query is analyzed).
+     */
+    private long cursorNanos;
+
+    /**
+     * The statistics of the current execution, for the cost calibration
+     * (null if not recorded).
+     */
+    private CalibrationSample calibrationSample;
+
     private String planIndexName;
     private TimerStats timerDuration;
 
@@ -276,6 +343,7 @@ public class SelectorImpl extends SourceImpl {
         isParent = false;
         joinCondition = null;
         allJoinConditions.clear();
+        readAll = false;
     }
 
     @Override
@@ -316,6 +384,76 @@ public class SelectorImpl extends SourceImpl {
         return plan;
     }
 
+    /**
+     * Get the best plan to read all rows of this selector, that is, without
+     * restricting the index query by the join condition.
+     *
+     * @return the plan
+     */
+    SelectorExecutionPlan getReadAllPlan() {
+        boolean old = readAll;
+        readAll = true;
+        try {
+            return query.getBestSelectorExecutionPlan(createFilter(true));
+        } finally {
+            readAll = old;
+        }
+    }
+
+    /**
+     * Replace the plan of this selector, which must already be prepared.
+     *
+     * @param p the plan
+     * @param readAll whether the plan reads all rows (see
+     *            {@link #getReadAllPlan()})
+     */
+    void setPlan(SelectorExecutionPlan p, boolean readAll) {
+        if (p.getSelector() != this) {
+            throw new IllegalArgumentException("Not a plan for this selector");
+        }
+        this.readAll = readAll;
+        plan = p;
+    }
+
+    /**
+     * Read all rows of this selector. The join condition is not evaluated.
+     *
+     * @param rootState the root state
+     * @param consumer called for each row, while this selector is positioned
+     *            on the row; returns false to stop reading
+     * @return true if all rows were read
+     */
+    boolean readAll(NodeState rootState, Predicate<IndexRow> consumer) {
+        execute(rootState);
+        readingAll = true;
+        try {
+            while (next()) {
+                if (!consumer.test(currentRow)) {
+                    cursor = null;
+                    currentRow = null;
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            readingAll = false;
+        }
+    }
+
+    /**
+     * Iterate over rows that were read before (see
+     * {@link #readAll(NodeState, Predicate)}), instead of running the query.
+     * The rows are evaluated again, including the join condition.
+     *
+     * @param rows the rows
+     */
+    void replay(Iterator<IndexRow> rows) {
+        cursor = new ReplayCursor(rows);
+        batchedReadCursor = null;
+        calibrationSample = null;
+        currentRow = null;
+    }
+
     @Override
     public void setQueryConstraint(ConstraintImpl queryConstraint) {
         this.queryConstraint = queryConstraint;
@@ -351,22 +489,43 @@ public class SelectorImpl extends SourceImpl {
     private void executeInternal(NodeState rootState) {
         QueryIndex index = plan.getIndex();
         timerDuration = null;
+        batchedReadCursor = null;
+        closeReadAhead();
+        calibrationSample = null;
         if (index == null) {
             cursor = Cursors.newPathCursor(new ArrayList<String>(), query.getSettings());
             planIndexName = "traverse";
             return;
         }
         IndexPlan p = plan.getIndexPlan();
+        FilterImpl f = createFilter(false);
         if (p != null) {
             planIndexName = p.getPlanName();
-            p.setFilter(createFilter(false));
+            p.setFilter(f);
             AdvancedQueryIndex adv = (AdvancedQueryIndex) index;
             cursor = adv.query(p, rootState);
         } else {
-            FilterImpl f = createFilter(false);
             planIndexName = index.getIndexName(f, rootState);
             cursor = index.query(f, rootState);
         }
+        Executor readAhead = query.getReadAheadExecutor();
+        if (readAhead != null && cursor != null) {
+            cursor = readAheadCursor = Cursors.newReadAheadCursor(cursor, readAhead, READ_AHEAD_SIZE);
+        }
+        CostCalibration calibration = query.getSettings().getCostCalibration();
+        // indexes without plans only return a cost, which can not be
+        // compared with the number of rows, so they are not calibrated;
+        // neither are the executions for each row of a join, which are
+        // restricted to the joined node
+        if (calibration != null && cursor != null && p != null
+                && (joinCondition == null || readAll)) {
+            String name = CostCalibration.getIndexName(index, p);
+            String shape = CostCalibration.getFilterShape(f);
+            // the same estimate as used to calculate the cost
+            long estimated = query.getScaledEntryCount(p, rootState, f);
+            calibrationSample = new CalibrationSample(calibration, name, shape,
+                    estimated, scanCount);
+        }
         int prefetchCount = query.getQueryOptions().prefetchCount.
                 orElse(query.getExecutionContext().getSettings().getPrefetchCount());
         if (prefetchCount > 0) {
@@ -374,10 +533,25 @@ public class SelectorImpl extends SourceImpl {
             cursor = Cursors.newPrefetchCursor(cursor, store, prefetchCount,
                     rootState, query.getQueryOptions().prefetch);
         }
+        int batchSize = query.getSettings().getResultBatchSize();
+        if (batchSize > 0 && !isParent && cursor != null) {
+            ExecutionContext ctx = query.getExecutionContext();
+            PrefetchNodeStore store = ctx.getPrefetchNodeStore();
+            if (store == null || prefetchCount > 0) {
+                // already prefetched
+                store = PrefetchNodeStore.NOOP;
+            }
+            cursor = batchedReadCursor = Cursors.newBatchedReadCursor(cursor, store, batchSize,
+                    rootState, ctx.getPermissionProvider());
+            batchReadChecked = !ctx.getRoot().hasPendingChanges();
+        }
+        if (query.isAnalyze() && cursor != null) {
+            cursor = new ProfilingCursor(cursor);
+        }
     }
 
     private long startTimer() {
-        if (TIMER_DISABLED) {
+        if (TIMER_DISABLED && !query.isAnalyze()) {
             return -1;
         }
         return System.nanoTime();
@@ -388,6 +562,12 @@ public class SelectorImpl extends SourceImpl {
             return;
         }
         long timeNanos = System.nanoTime() - start;
+        if (query.isAnalyze()) {
+            selectorNanos += timeNanos;
+            if (TIMER_DISABLED) {
+                return;
+            }
+        }
         if (timeNanos > 1000000) {
             // always measure slow events (slower than 1 ms)
             measure(timeNanos);
@@ -399,6 +579,9 @@ public class SelectorImpl extends SourceImpl {
     }
 
     private void measure(long timeNanos) {
+        if (!query.isAnalyze()) {
+            selectorNanos += timeNanos;
+        }
         TimerStats t = timerDuration;
         if (t == null) {
             // reuse the timer (in the normal case)
@@ -435,9 +618,42 @@ public class SelectorImpl extends SourceImpl {
             // buff.append("    selectorCondition: ").append(new AndImpl(selectorConstraints).toString()).append("\n");
         }
         buff.append(" */");
+        if (query.isAnalyze() && planIndexName != null) {
+            buff.append(" /* analyze: ").append(getProfile()).append(" */");
+        }
+        return buff.toString();
+    }
+
+    /**
+     * Get the measured row counts and times of this selector, in the form
+     * "scanned 10, matched 5, time 1.000 ms (cursor 0.500 ms, access check
+     * 0.200 ms)".
+     *
+     * @return the profile
+     */
+    public String getProfile() {
+        StringBuilder buff = new StringBuilder();
+        buff.append("scanned ").append(scanCount);
+        buff.append(", matched ").append(matchCount);
+        buff.append(", time ").append(QueryImpl.formatNanos(selectorNanos));
+        buff.append(" (cursor ").append(QueryImpl.formatNanos(cursorNanos));
+        buff.append(", access check ").append(QueryImpl.formatNanos(accessCheckNanos));
+        buff.append(")");
         return buff.toString();
     }
 
+    public long getMatchCount() {
+        return matchCount;
+    }
+
+    public long getSelectorNanos() {
+        return selectorNanos;
+    }
+
+    public long getAccessCheckNanos() {
+        return accessCheckNanos;
+    }
+
     @Override
     public String getIndexCostInfo(NodeState rootState) {
         StringBuilder buff = new StringBuilder();
@@ -467,7 +683,7 @@ public class SelectorImpl extends SourceImpl {
     public FilterImpl createFilter(boolean preparing) {
         FilterImpl f = new FilterImpl(this, query.getStatement(), query.getSettings());
         f.setPreparing(preparing);
-        if (joinCondition != null) {
+        if (joinCondition != null && !readAll) {
             joinCondition.restrict(f);
         }
         // rep:excerpt handling: create a (fake) restriction
@@ -520,9 +736,18 @@ public class SelectorImpl extends SourceImpl {
     @Override
     public boolean next() {
         long start = startTimer();
+        CalibrationSample sample = calibrationSample;
+        long sampleStart = sample == null ? 0 : System.nanoTime();
         try {
             return nextInternal();
         } finally {
+            if (sample != null) {
+                sample.nanos += System.nanoTime() - sampleStart;
+                if (sample.complete) {
+                    sample.record(scanCount);
+                    calibrationSample = null;
+                }
+            }
             stopTimer(start, true);
         }
     }
@@ -551,6 +776,7 @@ public class SelectorImpl extends SourceImpl {
                 // correct results
             } else if (currentRow.isVirtualRow()) {
                 // this is a virtual row and should be selected as is
+                matchCount++;
                 return true;
             } else {
                 // we must check whether the _child_ is readable
@@ -562,19 +788,69 @@ public class SelectorImpl extends SourceImpl {
                 // where [a].[jcr:path] = $path"
                 // because not checking would reveal existence
                 // of the child node
-                if (!getCachedTree(currentRow.getPath()).exists()) {
+                if (batchReadChecked && batchedReadCursor != null
+                        && batchedReadCursor.isReadable()) {
+                    // already checked for the whole batch
+                } else if (!currentTreeExists()) {
                     continue;
                 }
             }
             if (evaluateCurrentRow()) {
+                matchCount++;
                 return true;
             }
         }
+        if (cursor != null && calibrationSample != null) {
+            // all rows of the index were read
+            calibrationSample.complete = true;
+        }
         cursor = null;
         currentRow = null;
+        closeReadAhead();
         return false;
     }
 
+    /**
+     * Stop reading rows, for example because the query returned enough rows.
+     * The index rows that were read ahead are discarded.
+     */
+    public void close() {
+        cursor = null;
+        currentRow = null;
+        closeReadAhead();
+    }
+
+    private void closeReadAhead() {
+        if (readAheadCursor != null) {
+            readAheadCursor.close();
+            readAheadCursor = null;
+        }
+    }
+
+    /**
+     * Check whether the tree of the current row exists (is readable). Like
+     * the selector time, the time needed is measured if the query is
+     * analyzed, and otherwise sampled.
+     *
+     * @return whether the tree exists
+     */
+    private boolean currentTreeExists() {
+        boolean analyze = query.isAnalyze();
+        if (!analyze && (TIMER_DISABLED
+                || (accessCheckSampleCounter++ & (TIMER_SAMPLE_RATE - 1)) != 0)) {
+            return getCachedTree(currentRow.getPath()).exists();
+        }
+        long start = System.nanoTime();
+        boolean exists = getCachedTree(currentRow.getPath()).exists();
+        long timeNanos = System.nanoTime() - start;
+        if (!analyze) {
+            timeNanos *= TIMER_SAMPLE_RATE;
+        }
+        accessCheckNanos += timeNanos;
+        query.getQueryExecutionStats().accessCheck(timeNanos);
+        return exists;
+    }
+
     private void totalQueryStats(QueryEngineSettings queryEngineSettings) {
         if (updateTotalQueryHistogram) {
             updateTotalQueryHistogram = false;
@@ -603,11 +879,12 @@ public class SelectorImpl extends SourceImpl {
                 if (constraint.evaluateStop()) {
                     // stop processing from now on
                     cursor = null;
+                    closeReadAhead();
                 }
                 return false;
             }
         }
-        if (joinCondition != null && !joinCondition.evaluate()) {
+        if (joinCondition != null && !readingAll && !joinCondition.evaluate()) {
             return false;
         }
         return true;
@@ -938,6 +1215,93 @@ public class SelectorImpl extends SourceImpl {
         return new SelectorImpl(nodeTypeInfo, selectorName);
     }
 
+    /**
+     * A cursor over rows that were read before.
+     */
+    private static final class ReplayCursor extends AbstractCursor {
+
+        private final Iterator<IndexRow> rows;
+
+        ReplayCursor(Iterator<IndexRow> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return rows.hasNext();
+        }
+
+        @Override
+        public IndexRow next() {
+            return rows.next();
+        }
+    }
+
+    /**
+     * A cursor that measures the time spent in another cursor.
+     */
+    private final class ProfilingCursor extends AbstractCursor {
+
+        private final Cursor cursor;
+
+        ProfilingCursor(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            long start = System.nanoTime();
+            try {
+                return cursor.hasNext();
+            } finally {
+                cursorNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public IndexRow next() {
+            long start = System.nanoTime();
+            try {
+                return cursor.next();
+            } finally {
+                cursorNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public long getSize(SizePrecision precision, long max) {
+            return cursor.getSize(precision, max);
+        }
+    }
+
+    /**
+     * The number of rows read from the index, and the time needed, for one
+     * execution. It is only recorded if all rows of the index were read.
+     */
+    private static final class CalibrationSample {
+
+        private final CostCalibration calibration;
+        private final String indexName;
+        private final String shape;
+        private final double estimated;
+        private final int scanCountStart;
+        private long nanos;
+        private boolean complete;
+
+        CalibrationSample(CostCalibration calibration, String indexName, String shape,
+                double estimated, int scanCountStart) {
+            this.calibration = calibration;
+            this.indexName = indexName;
+            this.shape = shape;
+            this.estimated = estimated;
+            this.scanCountStart = scanCountStart;
+        }
+
+        void record(int scanCount) {
+            calibration.record(indexName, shape, estimated, scanCount - scanCountStart, nanos);
+        }
+    }
+
     private static final class CachedTree {
 
         private final String path;
@@ -24,15 +24,59 @@ import org.apache.jackrabbit.oak.query.ast.JoinImpl;
  */
 public class JoinExecutionPlan implements ExecutionPlan {
 
+    /**
+     * How the rows of the right hand side are found.
+     */
+    public enum JoinStrategy {
+
+        /**
+         * For each row of the left hand side, run a query on the right hand
+         * side that is restricted by the join condition.
+         */
+        NESTED_LOOP("nested loop join"),
+
+        /**
+         * Read the right hand side once, and look up the rows by the value
+         * of the join property.
+         */
+        HASH("hash join"),
+
+        /**
+         * Read the right hand side once, sorted by path, and look up the
+         * rows by path prefix (for descendant and child node joins).
+         */
+        MERGE("merge join");
+
+        private final String description;
+
+        JoinStrategy(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
     private final JoinImpl join;
     private final ExecutionPlan leftPlan, rightPlan;
     private final double estimatedCost;
+    private final JoinStrategy strategy;
+    private final ExecutionPlan nestedLoopPlan;
     
     public JoinExecutionPlan(JoinImpl join, ExecutionPlan leftPlan, ExecutionPlan rightPlan, double estimatedCost) {
+        this(join, leftPlan, rightPlan, estimatedCost, JoinStrategy.NESTED_LOOP, rightPlan);
+    }
+
+    public JoinExecutionPlan(JoinImpl join, ExecutionPlan leftPlan, ExecutionPlan rightPlan,
+            double estimatedCost, JoinStrategy strategy, ExecutionPlan nestedLoopPlan) {
         this.join = join;
         this.leftPlan = leftPlan;
         this.rightPlan = rightPlan;
         this.estimatedCost = estimatedCost;
+        this.strategy = strategy;
+        this.nestedLoopPlan = nestedLoopPlan;
     }
     
     @Override
@@ -52,4 +96,18 @@ public class JoinExecutionPlan implements ExecutionPlan {
         return rightPlan;
     }
 
+    public JoinStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Get the plan of the right hand side for a nested loop join. It is used
+     * if the rows of the right hand side don't fit in memory.
+     *
+     * @return the plan (the same as the right plan for a nested loop join)
+     */
+    public ExecutionPlan getNestedLoopPlan() {
+        return nestedLoopPlan;
+    }
+
 }
@@ -44,6 +44,24 @@ public class QueryStatsData {
     private long maxTimeNanos;
     private boolean captureStackTraces;
 
+    /**
+     * Executions where the sort wrote rows to temporary files.
+     */
+    private long sortSpillCount;
+    private long sortSpilledRows;
+
+    /**
+     * Lookups in the query plan cache.
+     */
+    private long planCacheHits;
+    private long planCacheMisses;
+
+    /**
+     * Time spent to resolve the nodes of rows and check read access
+     * (estimated by sampling).
+     */
+    private long accessCheckNanos;
+
     public QueryStatsData(String query, String language) {
         this.query = query;
         this.language = language;
@@ -95,6 +113,30 @@ public class QueryStatsData {
         return totalRowsScanned;
     }
 
+    public long getSortSpillCount() {
+        return sortSpillCount;
+    }
+
+    public long getSortSpilledRows() {
+        return sortSpilledRows;
+    }
+
+    public long getAccessCheckNanos() {
+        return accessCheckNanos;
+    }
+
+    public long getPlanNanos() {
+        return planNanos;
+    }
+
+    public long getPlanCacheHits() {
+        return planCacheHits;
+    }
+
+    public long getPlanCacheMisses() {
+        return planCacheMisses;
+    }
+
     public String getLanguage() {
         return language;
     }
@@ -128,6 +170,11 @@ public class QueryStatsData {
             key("planNanos").value(planNanos).
             key("readNanos").value(readNanos).
             key("maxTimeNanos").value(maxTimeNanos).
+            key("accessCheckNanos").value(accessCheckNanos).
+            key("planCacheHits").value(planCacheHits).
+            key("planCacheMisses").value(planCacheMisses).
+            key("sortSpillCount").value(sortSpillCount).
+            key("sortSpilledRows").value(sortSpilledRows).
             key("internal").value(internal).
             key("query").value(query).
             key("language").value(language).
@@ -175,6 +222,23 @@ public class QueryStatsData {
             maxTimeNanos = Math.max(maxTimeNanos, time);
         }
 
+        public void sortSpilled(long count, int runs) {
+            sortSpillCount++;
+            sortSpilledRows += count;
+        }
+
+        public void accessCheck(long nanos) {
+            accessCheckNanos += nanos;
+        }
+
+        public void planCacheLookup(boolean hit) {
+            if (hit) {
+                planCacheHits++;
+            } else {
+                planCacheMisses++;
+            }
+        }
+
         public void scan(long count, long max) {
             totalRowsScanned += count;
             maxRowsScanned = Math.max(maxRowsScanned, max);
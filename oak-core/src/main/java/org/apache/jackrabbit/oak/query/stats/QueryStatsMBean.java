@@ -19,6 +19,7 @@ package org.apache.jackrabbit.oak.query.stats;
 import javax.management.openmbean.TabularData;
 
 import org.apache.jackrabbit.oak.api.jmx.Description;
+import org.apache.jackrabbit.oak.api.jmx.Name;
 
 public interface QueryStatsMBean {
 
@@ -38,6 +39,47 @@ public interface QueryStatsMBean {
     @Description("Get the popular queries (those that take most of the time).")
     TabularData getPopularQueries();
 
+    /**
+     * Get the ratio of query plan cache lookups that found an entry.
+     *
+     * @return the hit ratio (0 if the cache is disabled or was not used)
+     */
+    @Description("Get the hit ratio of the query plan cache.")
+    double getPlanCacheHitRatio();
+
+    /**
+     * Get the time spent planning the queries in the statistics. Planning
+     * includes selecting the index, but not reading the result.
+     *
+     * @return the time in milliseconds
+     */
+    @Description("Get the time spent planning queries (in milliseconds).")
+    long getTotalPlanningTimeMillis();
+
+    /**
+     * Get the statistics about the estimated and actual number of rows read
+     * from each index, per filter shape, and the resulting correction of the
+     * estimated cost.
+     *
+     * @return the statistics as a Json array, or an empty array if the cost
+     *         calibration is disabled
+     */
+    @Description("Get the statistics used to correct the estimated cost of indexes, as Json.")
+    String getCostCalibration();
+
+    /**
+     * Replace the cost calibration statistics, for example with the data
+     * that was exported before the repository was restarted.
+     *
+     * @param json the statistics as returned by {@link #getCostCalibration()}
+     */
+    @Description("Replace the statistics used to correct the estimated cost of indexes.")
+    void importCostCalibration(
+            @Name("json") @Description("The statistics as a Json array") String json);
+
+    @Description("Remove the statistics used to correct the estimated cost of indexes.")
+    void resetCostCalibration();
+
     @Description("Get all data as Json.")
     String asJson();
    
@@ -31,7 +31,9 @@ import javax.management.openmbean.TabularDataSupport;
 import javax.management.openmbean.TabularType;
 
 import org.apache.jackrabbit.oak.commons.jmx.AnnotatedStandardMBean;
+import org.apache.jackrabbit.oak.query.CostCalibration;
 import org.apache.jackrabbit.oak.query.QueryEngineSettings;
+import org.apache.jackrabbit.oak.query.QueryPlanCache;
 import org.apache.jackrabbit.oak.query.stats.QueryStatsData.QueryExecutionStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -92,6 +94,44 @@ public class QueryStatsMBeanImpl extends AnnotatedStandardMBean
         return asTabularData(list);
     }
 
+    @Override
+    public double getPlanCacheHitRatio() {
+        QueryPlanCache cache = settings.getPlanCache();
+        return cache == null ? 0 : cache.getHitRatio();
+    }
+
+    @Override
+    public String getCostCalibration() {
+        CostCalibration calibration = settings.getCostCalibration();
+        return calibration == null ? "[]" : calibration.toJson();
+    }
+
+    @Override
+    public void importCostCalibration(String json) {
+        CostCalibration calibration = settings.getCostCalibration();
+        if (calibration == null) {
+            throw new IllegalStateException("The cost calibration is disabled");
+        }
+        calibration.fromJson(json);
+    }
+
+    @Override
+    public void resetCostCalibration() {
+        CostCalibration calibration = settings.getCostCalibration();
+        if (calibration != null) {
+            calibration.clear();
+        }
+    }
+
+    @Override
+    public long getTotalPlanningTimeMillis() {
+        long nanos = 0;
+        for (QueryStatsData s : statistics.values()) {
+            nanos += s.getPlanNanos();
+        }
+        return nanos / 1000000;
+    }
+
     @Override
     public void resetStats() {
         statistics.clear();
@@ -209,6 +249,7 @@ public class QueryStatsMBeanImpl extends AnnotatedStandardMBean
         private final static String[] names = { "position", 
                 "maxTimeMillis", "totalTimeMillis", "executeCount", 
                 "rowsRead", "rowsScanned", "maxRowsRead", "maxRowsScanned",
+                "sortSpillCount", "sortSpilledRows", "accessCheckMillis",
                 "language", "statement", "lastExecuted",
                 "lastThread"};
 
@@ -218,6 +259,7 @@ public class QueryStatsMBeanImpl extends AnnotatedStandardMBean
         private final static OpenType[] types = {SimpleType.LONG,
                     SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
                     SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+                    SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
                     SimpleType.STRING, SimpleType.STRING, SimpleType.STRING,
                     SimpleType.STRING};
 
@@ -230,6 +272,8 @@ public class QueryStatsMBeanImpl extends AnnotatedStandardMBean
             return new Object[] { (long) position,
                     q.getMaxTimeNanos() / 1000000, q.getTotalTimeNanos() / 1000000, q.getExecuteCount(), 
                     q.getTotalRowsRead(), q.getTotalRowsScanned(), q.getMaxRowsRead(), q.getMaxRowsScanned(),
+                    q.getSortSpillCount(), q.getSortSpilledRows(),
+                    q.getAccessCheckNanos() / 1000000,
                     q.getLanguage(), q.getQuery(), QueryStatsData.getTimeString(q.getLastExecutedMillis()),
                     q.isInternal() ? "(internal query)" : q.getLastThreadName()};
         }
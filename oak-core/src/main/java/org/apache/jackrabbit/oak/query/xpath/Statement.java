@@ -40,6 +40,7 @@ public class Statement {
     private final static boolean KEEP_UNION_ORDER = Boolean.getBoolean("oak.xpath.keepUnionOrder");
 
     boolean explain;
+    boolean analyze;
     boolean measure;
     
     /**
@@ -98,6 +99,7 @@ public class Statement {
         union.xpathQuery = xpathQuery;
         union.measure = measure;
         union.explain = explain;
+        union.analyze = analyze;
         union.queryOptions = queryOptions;
 
         return union;
@@ -168,6 +170,9 @@ public class Statement {
         // explain | measure ...
         if (explain) {
             buff.append("explain ");
+            if (analyze) {
+                buff.append("analyze ");
+            }
         } 
         if (measure) {
             buff.append("measure ");
@@ -263,6 +268,10 @@ public class Statement {
         this.explain = explain;
     }
 
+    public void setAnalyze(boolean analyze) {
+        this.analyze = analyze;
+    }
+
     public void setMeasure(boolean measure) {
         this.measure = measure;
     }
@@ -316,6 +325,7 @@ public class Statement {
             }
             UnionStatement union = new UnionStatement(s1b, s2b);
             union.explain = explain;
+            union.analyze = analyze;
             union.measure = measure;
             union.orderList = orderList;
             union.queryOptions = queryOptions;
@@ -329,6 +339,9 @@ public class Statement {
             // explain | measure ...
             if (explain) {
                 buff.append("explain ");
+                if (analyze) {
+                    buff.append("analyze ");
+                }
             } 
             if (measure) {
                 buff.append("measure ");
@@ -110,6 +110,10 @@ public class XPathToSQL2Converter {
         if (query.startsWith("explain ")) {
             query = query.substring("explain".length()).trim();
             statement.setExplain(true);
+            if (query.startsWith("analyze ")) {
+                query = query.substring("analyze".length()).trim();
+                statement.setAnalyze(true);
+            }
         }
         if (query.startsWith("measure")) {
             query = query.substring("measure".length()).trim();
@@ -1281,6 +1285,7 @@ public class XPathToSQL2Converter {
         result.orderList = orderList;
         result.queryOptions = queryOptions;
         result.setExplain(statement.explain);
+        result.setAnalyze(statement.analyze);
         result.setMeasure(statement.measure);
         return result;
     }
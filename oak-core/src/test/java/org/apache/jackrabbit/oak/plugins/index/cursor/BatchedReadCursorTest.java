@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index.cursor;
+
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.security.authorization.permission.PermissionProvider;
+import org.apache.jackrabbit.oak.spi.security.authorization.permission.TreePermission;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Test;
+
+public class BatchedReadCursorTest {
+
+    @Test
+    public void skipNotReadable() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        NodeBuilder test = builder.child("test");
+        test.child("a");
+        test.child("secret").child("b");
+        test.child("c");
+        NodeState rootState = builder.getNodeState();
+
+        TestTreePermission rootPermission = new TestTreePermission(true);
+        PermissionProvider pp = mock(PermissionProvider.class);
+        when(pp.getTreePermission(any(), any())).thenReturn(rootPermission);
+
+        List<String> paths = Arrays.asList(
+                "/test/a",
+                "/test/secret",
+                // the parent is not readable, but the child is
+                "/test/secret/b",
+                // does not exist: returned, but not known to be readable
+                "/test/missing",
+                "/test/c");
+        TestPrefetchNodeStore ns = new TestPrefetchNodeStore();
+        BatchedReadCursor c = new BatchedReadCursor(
+                new TestCursor(paths.iterator()), ns, 10, rootState, pp);
+        List<String> result = new ArrayList<>();
+        while (c.hasNext()) {
+            String p = c.next().getPath();
+            result.add(p + (c.isReadable() ? "" : " (unknown)"));
+        }
+        assertEquals("[/test/a, /test/secret/b, /test/missing (unknown), /test/c]",
+                result.toString());
+        assertEquals("[/test, /test/a, /test/c, /test/missing, " +
+                "/test/secret, /test/secret/b]", ns.toString());
+        // the permission of each node is calculated once for the batch
+        assertEquals(5, rootPermission.counter[0]);
+    }
+
+    @Test
+    public void batches() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            builder.child("test").child("n" + i);
+            paths.add("/test/n" + i);
+        }
+        PermissionProvider pp = mock(PermissionProvider.class);
+        TestTreePermission rootPermission = new TestTreePermission(true);
+        when(pp.getTreePermission(any(), any())).thenReturn(rootPermission);
+        BatchedReadCursor c = new BatchedReadCursor(
+                new TestCursor(paths.iterator()), new TestPrefetchNodeStore(),
+                10, builder.getNodeState(), pp);
+        for (String p : paths) {
+            assertTrue(c.hasNext());
+            assertEquals(p, c.next().getPath());
+            assertTrue(c.isReadable());
+        }
+        assertFalse(c.hasNext());
+        // 25 nodes, and the parent once per batch
+        assertEquals(25 + 3, rootPermission.counter[0]);
+    }
+
+    @Test
+    public void noPermissionProvider() {
+        List<String> paths = Arrays.asList("/test/a", "/test/b");
+        BatchedReadCursor c = new BatchedReadCursor(
+                new TestCursor(paths.iterator()), new TestPrefetchNodeStore(),
+                10, EMPTY_NODE, null);
+        assertEquals("/test/a", c.next().getPath());
+        assertFalse(c.isReadable());
+        assertEquals("/test/b", c.next().getPath());
+        assertFalse(c.hasNext());
+    }
+
+    @Test
+    public void virtualRow() {
+        BatchedReadCursor c = new BatchedReadCursor(
+                new TestCursorVirtual(Arrays.asList("/test/a").iterator()),
+                new TestPrefetchNodeStore(), 10, EMPTY_NODE,
+                mock(PermissionProvider.class));
+        assertEquals("/test/a", CursorUtils.toString(c));
+    }
+
+    /**
+     * A tree permission that denies read access for nodes named "secret", and
+     * counts the number of child permissions that are calculated.
+     */
+    private static class TestTreePermission implements TreePermission {
+
+        private final boolean canRead;
+        private final int[] counter;
+
+        TestTreePermission(boolean canRead) {
+            this(canRead, new int[1]);
+        }
+
+        private TestTreePermission(boolean canRead, int[] counter) {
+            this.canRead = canRead;
+            this.counter = counter;
+        }
+
+        @Override
+        public @NotNull TreePermission getChildPermission(@NotNull String childName,
+                @NotNull NodeState childState) {
+            counter[0]++;
+            return new TestTreePermission(!childName.equals("secret"), counter);
+        }
+
+        @Override
+        public boolean canRead() {
+            return canRead;
+        }
+
+        @Override
+        public boolean canRead(@NotNull PropertyState property) {
+            return canRead;
+        }
+
+        @Override
+        public boolean canReadAll() {
+            return false;
+        }
+
+        @Override
+        public boolean canReadProperties() {
+            return canRead;
+        }
+
+        @Override
+        public boolean isGranted(long permissions) {
+            return false;
+        }
+
+        @Override
+        public boolean isGranted(long permissions, @Nullable PropertyState property) {
+            return false;
+        }
+    }
+
+}
@@ -18,10 +18,13 @@ package org.apache.jackrabbit.oak.plugins.index.cursor;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import org.apache.jackrabbit.oak.api.PropertyValue;
 import org.apache.jackrabbit.oak.api.Result.SizePrecision;
@@ -67,6 +70,41 @@ public class CursorsTest {
         }
     }
 
+    @Test
+    public void bitmapIntersectionCursor() {
+        QueryEngineSettings s = new QueryEngineSettings();
+        Cursor a = new SimpleCursor("1:", "/e", "/b", "/c", "/e", "/c", "/d");
+        Cursor b = new SimpleCursor("2:", "/a", "/c", "/d", "/b", "/c", "/e");
+        Cursor c = new SimpleCursor("3:", "/x", "/e", "/c", "/y");
+        Cursor x = Cursors.newBitmapIntersectionCursor(Arrays.asList(a, b, c), s);
+        // in the order of the first cursor, without duplicates
+        assertEquals("1:/e, 1:/c", list(x));
+        assertFalse(x.hasNext());
+        try {
+            x.next();
+            fail();
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void bitmapIntersectionCursorEmpty() {
+        QueryEngineSettings s = new QueryEngineSettings();
+        Cursor a = new SimpleCursor("1:", "/a", "/b");
+        Cursor b = new SimpleCursor("2:", "/c", "/d");
+        Cursor c = new SimpleCursor("3:", "/a", "/b");
+        Cursor x = Cursors.newBitmapIntersectionCursor(Arrays.asList(a, b, c), s);
+        assertEquals(0, x.getSize(SizePrecision.EXACT, Long.MAX_VALUE));
+        assertFalse(x.hasNext());
+        // the last cursor is not read once the intersection is empty
+        assertTrue(c.hasNext());
+
+        Cursor single = Cursors.newBitmapIntersectionCursor(
+                Arrays.asList(new SimpleCursor("1:", "/a", "/a", "/b")), s);
+        assertEquals("1:/a, 1:/b", list(single));
+    }
+
     static String list(Cursor c) {
         StringBuilder buff = new StringBuilder();
         while (c.hasNext()) {
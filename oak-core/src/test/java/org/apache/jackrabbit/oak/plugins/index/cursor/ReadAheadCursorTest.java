@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index.cursor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jackrabbit.oak.spi.query.Cursor;
+import org.junit.Test;
+
+public class ReadAheadCursorTest {
+
+    @Test
+    public void readAhead() {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            paths.add("/n" + i);
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Cursor c = new ReadAheadCursor(new TestCursor(paths.iterator()), executor, 10);
+            assertEquals(paths, toList(c));
+            assertFalse(c.hasNext());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void notStarted() {
+        List<String> paths = List.of("/a", "/b");
+        // the task is never run: the rows are read by this thread
+        Cursor c = new ReadAheadCursor(new TestCursor(paths.iterator()), r -> { }, 10);
+        assertEquals(paths, toList(c));
+        c = new ReadAheadCursor(new TestCursor(paths.iterator()), r -> {
+            throw new RejectedExecutionException();
+        }, 10);
+        assertEquals(paths, toList(c));
+    }
+
+    @Test
+    public void exception() {
+        Iterator<String> it = new Iterator<String>() {
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                throw new IllegalStateException("failed");
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Cursor c = new ReadAheadCursor(new TestCursor(it), executor, 10);
+            try {
+                c.hasNext();
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("failed", e.getMessage());
+            }
+            assertFalse(c.hasNext());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void close() throws Exception {
+        AtomicInteger read = new AtomicInteger();
+        Iterator<String> it = new Iterator<String>() {
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                return "/n" + read.incrementAndGet();
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ReadAheadCursor c = new ReadAheadCursor(new TestCursor(it), executor, 10);
+            assertEquals("/n1", c.next().getPath());
+            c.close();
+            assertFalse(c.hasNext());
+            // the task stops, even though the cursor is still referenced
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertTrue(String.valueOf(read.get()), read.get() <= 12);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> toList(Cursor c) {
+        List<String> list = new ArrayList<>();
+        while (c.hasNext()) {
+            list.add(c.next().getPath());
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index.property;
+
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.ENTRY_COUNT_PROPERTY_NAME;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.KEY_COUNT_PROPERTY_NAME;
+import static org.apache.jackrabbit.oak.plugins.index.IndexUtils.createIndexDefinition;
+import static org.apache.jackrabbit.oak.plugins.index.IndexUtils.getOrCreateOakIndex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jackrabbit.oak.InitialContent;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.query.AbstractQueryTest;
+import org.apache.jackrabbit.oak.query.QueryEngineSettings;
+import org.apache.jackrabbit.oak.spi.lifecycle.RepositoryInitializer;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.apache.jackrabbit.oak.spi.whiteboard.DefaultWhiteboard;
+import org.apache.jackrabbit.oak.spi.whiteboard.Whiteboard;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.jackrabbit.guava.common.collect.ImmutableList;
+
+/**
+ * Tests intersecting the entries of multiple property indexes.
+ */
+public class PropertyIndexIntersectionTest extends AbstractQueryTest {
+
+    private final QueryEngineSettings qeSettings = new QueryEngineSettings();
+
+    @Override
+    protected ContentRepository createRepository() {
+        Whiteboard whiteboard = new DefaultWhiteboard();
+        whiteboard.register(QueryEngineSettings.class, qeSettings, Collections.emptyMap());
+        return new Oak()
+                .with(new InitialContent())
+                .with((RepositoryInitializer) builder -> {
+                    for (String p : new String[] {"a", "b", "c"}) {
+                        createIndexDefinition(getOrCreateOakIndex(builder), p,
+                                true, false, ImmutableList.of(p), null);
+                    }
+                    // the approximate counts are random: set the counts of "c",
+                    // so that it is known not to be selective
+                    getOrCreateOakIndex(builder).child("c")
+                            .setProperty(ENTRY_COUNT_PROPERTY_NAME, 1000L)
+                            .setProperty(KEY_COUNT_PROPERTY_NAME, 2L);
+                })
+                .with(new OpenSecurityProvider())
+                .with(new PropertyIndexProvider())
+                .with(new PropertyIndexEditorProvider())
+                .with(whiteboard)
+                .createContentRepository();
+    }
+
+    @Before
+    public void createContent() throws Exception {
+        Tree test = root.getTree("/").addChild("test");
+        for (int i = 0; i < 1000; i++) {
+            Tree n = test.addChild("n" + i);
+            n.setProperty("a", "a" + (i % 20));
+            n.setProperty("b", "b" + (i / 20 % 20));
+            n.setProperty("c", "c" + (i % 2));
+        }
+        root.commit();
+    }
+
+    @Test
+    public void intersection() {
+        String query = "select [jcr:path] from [nt:base] where [a] = 'a1' and [b] = 'b1'";
+        qeSettings.setIndexIntersection(false);
+        List<String> expected = executeQuery(query, SQL2, true, true);
+        assertEquals(3, expected.size());
+        assertFalse(explain(query).contains("property intersection"));
+
+        qeSettings.setIndexIntersection(true);
+        String plan = explain(query);
+        assertTrue(plan, plan.contains("property intersection a, b") ||
+                plan.contains("property intersection b, a"));
+        assertEquals(expected, executeQuery(query, SQL2, true, true));
+
+        // the index for "c" is not selective enough to be used
+        query += " and [c] = 'c1'";
+        plan = explain(query);
+        assertTrue(plan, plan.contains("property intersection"));
+        assertFalse(plan, plan.contains("property c"));
+        assertEquals(expected, executeQuery(query, SQL2, true, true));
+    }
+
+    @Test
+    public void notCheaper() {
+        qeSettings.setIndexIntersection(true);
+        // the entries for "c" are not read, as a single index is cheaper
+        String query = "select [jcr:path] from [nt:base] where [a] = 'a1' and [c] = 'c1'";
+        String plan = explain(query);
+        assertFalse(plan, plan.contains("property intersection"));
+        assertEquals(50, executeQuery(query, SQL2).size());
+    }
+
+    private String explain(String query) {
+        return executeQuery("explain " + query, SQL2).toString();
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jackrabbit.oak.InitialContentHelper;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.index.cursor.Cursors;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.query.stats.QueryStatsMBeanImpl;
+import org.apache.jackrabbit.oak.spi.query.Cursor;
+import org.apache.jackrabbit.oak.spi.query.Filter;
+import org.apache.jackrabbit.oak.spi.query.QueryIndex;
+import org.apache.jackrabbit.oak.spi.query.QueryIndexProvider;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.whiteboard.DefaultWhiteboard;
+import org.apache.jackrabbit.oak.spi.whiteboard.Whiteboard;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests correcting the estimated cost of an index using the number of rows
+ * that were actually read.
+ */
+public class CostCalibrationTest extends AbstractQueryTest {
+
+    private static final String QUERY = "select [jcr:path] from [nt:base] " +
+            "where [x] = 1 and isdescendantnode('/test')";
+
+    private final QueryEngineSettings qeSettings = new QueryEngineSettings();
+
+    @Override
+    protected ContentRepository createRepository() {
+        qeSettings.setCostCalibration(true);
+        Whiteboard whiteboard = new DefaultWhiteboard();
+        whiteboard.register(QueryEngineSettings.class, qeSettings, Collections.emptyMap());
+        QueryIndexProvider provider = new QueryIndexProvider() {
+            @Override
+            public @NotNull List<? extends QueryIndex> getQueryIndexes(NodeState nodeState) {
+                // "optimistic" estimates few rows, but returns all nodes;
+                // "accurate" estimates more rows, but only returns the matching nodes
+                return List.of(new TestIndex("optimistic", 10, false),
+                        new TestIndex("accurate", 30, true),
+                        new PlanlessIndex());
+            }
+        };
+        return new Oak(new MemoryNodeStore(InitialContentHelper.INITIAL_CONTENT))
+                .with(new OpenSecurityProvider())
+                .with(provider)
+                .with(whiteboard)
+                .createContentRepository();
+    }
+
+    @Before
+    public void createContent() throws Exception {
+        Tree test = root.getTree("/").addChild("test");
+        for (int i = 0; i < 200; i++) {
+            test.addChild("n" + i).setProperty("x", (long) (i % 10));
+        }
+        root.commit();
+    }
+
+    @Test
+    public void correctEstimate() {
+        assertTrue(explain(QUERY).contains("optimistic"));
+        for (int i = 0; i < CostCalibration.MIN_SAMPLES; i++) {
+            assertEquals(20, executeQuery(QUERY, SQL2).size());
+        }
+        assertTrue(explain(QUERY).contains("accurate"));
+        assertEquals(20, executeQuery(QUERY, SQL2).size());
+
+        // a different filter shape is not affected
+        String other = "select [jcr:path] from [nt:base] " +
+                "where [x] > 1 and isdescendantnode('/test')";
+        assertTrue(explain(other).contains("optimistic"));
+    }
+
+    @Test
+    public void limitedFactor() {
+        CostCalibration c = new CostCalibration();
+        assertEquals(1, c.getFactor("a", "s"), 0);
+        for (int i = 0; i < 100; i++) {
+            c.record("a", "s", 1, 1000000, 0);
+            c.record("b", "s", 1000000, 0, 0);
+            if (i < CostCalibration.MIN_SAMPLES - 1) {
+                assertEquals(1, c.getFactor("a", "s"), 0);
+            }
+        }
+        assertEquals(CostCalibration.MAX_FACTOR, c.getFactor("a", "s"), 0);
+        assertEquals(1 / CostCalibration.MAX_FACTOR, c.getFactor("b", "s"), 0);
+        assertEquals(10000, c.correct("a", "s", 1000));
+        c.record("c", "s", Double.POSITIVE_INFINITY, 10, 0);
+        assertEquals(2, c.size());
+    }
+
+    @Test
+    public void exportImport() {
+        for (int i = 0; i < CostCalibration.MIN_SAMPLES; i++) {
+            executeQuery(QUERY, SQL2);
+        }
+        QueryStatsMBeanImpl bean = new QueryStatsMBeanImpl(qeSettings);
+        String json = bean.getCostCalibration();
+        assertTrue(json, json.contains("\"index\":\"optimistic optimistic\""));
+        assertTrue(json, json.contains("\"filter\":\"nt:base all_children /test, x =\""));
+        assertTrue(json, json.contains("\"actualRows\":"));
+
+        bean.resetCostCalibration();
+        assertEquals("[]", bean.getCostCalibration());
+        assertTrue(explain(QUERY).contains("optimistic"));
+
+        bean.importCostCalibration(json);
+        assertEquals(json, bean.getCostCalibration());
+        assertTrue(explain(QUERY).contains("accurate"));
+    }
+
+    @Test
+    public void filterShape() throws Exception {
+        root.getTree("/").addChild("other");
+        root.commit();
+        for (int i = 0; i < CostCalibration.MIN_SAMPLES; i++) {
+            executeQuery(QUERY, SQL2);
+        }
+        assertTrue(explain(QUERY).contains("accurate"));
+        // the same condition in another subtree is not affected
+        String other = "select [jcr:path] from [nt:base] " +
+                "where [x] = 1 and isdescendantnode('/other')";
+        assertTrue(explain(other).contains("optimistic"));
+    }
+
+    @Test
+    public void indexWithoutPlans() {
+        String query = "select [jcr:path] from [nt:base] where [y] = 1";
+        for (int i = 0; i < CostCalibration.MIN_SAMPLES; i++) {
+            assertEquals(0, executeQuery(query, SQL2).size());
+        }
+        // the cost is not comparable with the number of rows
+        String json = qeSettings.getCostCalibration().toJson();
+        assertFalse(json, json.contains("planless"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void importInvalid() {
+        new CostCalibration().fromJson("[{\"index\":\"a\"}]");
+    }
+
+    @Test
+    public void disabled() {
+        QueryEngineSettings settings = new QueryEngineSettings();
+        settings.setCostCalibration(false);
+        assertFalse(settings.isCostCalibration());
+        assertNull(settings.getCostCalibration());
+        assertEquals("[]", new QueryStatsMBeanImpl(settings).getCostCalibration());
+    }
+
+    private String explain(String query) {
+        return executeQuery("explain " + query, SQL2).toString();
+    }
+
+    /**
+     * An index without plans for the property "y", that returns all nodes.
+     */
+    private static class PlanlessIndex implements QueryIndex {
+
+        @Override
+        public double getMinimumCost() {
+            return 1;
+        }
+
+        @Override
+        public double getCost(Filter filter, NodeState rootState) {
+            return filter.getPropertyRestriction("y") == null ? Double.POSITIVE_INFINITY : 5;
+        }
+
+        @Override
+        public Cursor query(Filter filter, NodeState rootState) {
+            List<String> paths = new ArrayList<>();
+            for (ChildNodeEntry e : rootState.getChildNode("test").getChildNodeEntries()) {
+                paths.add("/test/" + e.getName());
+            }
+            return Cursors.newPathCursor(paths, new QueryEngineSettings());
+        }
+
+        @Override
+        public String getPlan(Filter filter, NodeState rootState) {
+            return "planless";
+        }
+
+        @Override
+        public String getIndexName() {
+            return "planless";
+        }
+    }
+
+    private static class TestIndex implements QueryIndex, QueryIndex.AdvancedQueryIndex {
+
+        private final String name;
+        private final long estimatedEntryCount;
+        private final boolean onlyMatching;
+
+        TestIndex(String name, long estimatedEntryCount, boolean onlyMatching) {
+            this.name = name;
+            this.estimatedEntryCount = estimatedEntryCount;
+            this.onlyMatching = onlyMatching;
+        }
+
+        @Override
+        public double getMinimumCost() {
+            return 1;
+        }
+
+        @Override
+        public double getCost(Filter filter, NodeState rootState) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        @Override
+        public Cursor query(Filter filter, NodeState rootState) {
+            return null;
+        }
+
+        @Override
+        public String getPlan(Filter filter, NodeState rootState) {
+            return null;
+        }
+
+        @Override
+        public String getIndexName() {
+            return name;
+        }
+
+        @Override
+        public List<IndexPlan> getPlans(Filter filter, List<OrderEntry> sortOrder,
+                NodeState rootState) {
+            if (filter.getPropertyRestriction("x") == null) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new IndexPlan.Builder()
+                    .setEstimatedEntryCount(estimatedEntryCount)
+                    .setPlanName(name)
+                    .setFilter(filter)
+                    .build());
+        }
+
+        @Override
+        public String getPlanDescription(IndexPlan plan, NodeState root) {
+            return name;
+        }
+
+        @Override
+        public Cursor query(IndexPlan plan, NodeState rootState) {
+            List<String> paths = new ArrayList<>();
+            for (ChildNodeEntry e : rootState.getChildNode("test").getChildNodeEntries()) {
+                Long x = e.getNodeState().getProperty("x").getValue(Type.LONG);
+                if (!onlyMatching || x == 1) {
+                    paths.add("/test/" + e.getName());
+                }
+            }
+            return Cursors.newPathCursor(paths, new QueryEngineSettings());
+        }
+    }
+
+}
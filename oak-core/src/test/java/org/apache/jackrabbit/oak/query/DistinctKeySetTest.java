@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import org.apache.jackrabbit.oak.query.DistinctKeySet.LongHashSet;
+import org.junit.Test;
+
+/**
+ * Tests the set of keys used by the distinct filter.
+ */
+public class DistinctKeySetTest {
+
+    @Test
+    public void spillAndMerge() {
+        Random r = new Random(1);
+        HashSet<String> expected = new HashSet<>();
+        try (DistinctKeySet set = new DistinctKeySet(10)) {
+            for (int i = 0; i < 2000; i++) {
+                String key = "/content/node" + r.nextInt(500);
+                assertEquals(key, expected.add(key), set.add(key));
+                assertTrue(set.getMemoryEntryCount() <= 10);
+            }
+            assertEquals(expected.size(), set.size());
+            // the files are merged, so that there are only a few
+            assertTrue(set.getFileCount() > 0);
+            assertTrue(set.getFileCount() <= 9);
+            for (String key : expected) {
+                assertFalse(key, set.add(key));
+            }
+        }
+    }
+
+    @Test
+    public void longHashSet() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        for (long i = 1; i < 1000; i++) {
+            assertTrue(set.add(i << 32));
+        }
+        for (long i = 1; i < 1000; i++) {
+            assertFalse(set.add(i << 32));
+        }
+    }
+}
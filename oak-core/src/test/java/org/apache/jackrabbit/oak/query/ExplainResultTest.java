@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.oak.query;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -157,4 +158,51 @@ public class ExplainResultTest extends AbstractQueryTest {
         assertEquals("explained statement should be same as original, without 'explain'",
                 sql2, explainedStatement);
     }
+
+    @Test
+    public void test_explain_analyze_sql2() throws Exception {
+        test("explain_result.txt");
+        final String sql2 = "select [jcr:path] from [nt:base] as a " +
+                "where isdescendantnode(a, '/test') and [name] = 'World'";
+        ResultRow explainRow = getExplainRow("explain analyze " + sql2, "JCR-SQL2");
+        String plan = explainRow.getValue("plan").getValue(Type.STRING);
+        assertTrue(plan, plan.contains("/* analyze: scanned "));
+        assertTrue(plan, plan.contains(", matched 1, time "));
+        assertTrue(plan, plan.contains("cursor "));
+        assertTrue(plan, plan.contains("access check "));
+        assertTrue(plan, plan.contains("/* analyze: read 1 rows in "));
+        assertTrue(plan, plan.contains("returned 1 rows in "));
+        assertEquals("explained statement should be same as original, without 'explain analyze'",
+                sql2, explainRow.getValue("statement").getValue(Type.STRING));
+    }
+
+    @Test
+    public void test_explain_analyze_union() throws Exception {
+        test("explain_result.txt");
+        final String xpath = "/jcr:root/test/*[@name = 'Hello' or @name = 'World' or @x = 1] order by @name";
+        ResultRow explainRow = getExplainRow("explain analyze " + xpath, "xpath");
+        String plan = explainRow.getValue("plan").getValue(Type.STRING);
+        assertTrue(plan, plan.contains(" union "));
+        assertTrue(plan, plan.contains("scanned 2, matched 2"));
+        assertTrue(plan, plan.contains("scanned 2, matched 0"));
+        assertTrue(plan, plan.contains("/* analyze: returned 2 rows in "));
+    }
+
+    @Test
+    public void test_explain_without_analyze() throws Exception {
+        test("explain_result.txt");
+        ResultRow explainRow = getExplainRow("explain select [jcr:path] from [nt:base] as a " +
+                "where isdescendantnode(a, '/test')", "JCR-SQL2");
+        String plan = explainRow.getValue("plan").getValue(Type.STRING);
+        assertFalse(plan, plan.contains("analyze"));
+    }
+
+    private ResultRow getExplainRow(String query, String language) throws Exception {
+        Result explainResult = executeQuery(query, language, Collections.emptyMap());
+        Iterator<? extends ResultRow> rows = explainResult.getRows().iterator();
+        assertTrue(rows.hasNext());
+        ResultRow explainRow = rows.next();
+        assertFalse(rows.hasNext());
+        return explainRow;
+    }
 }
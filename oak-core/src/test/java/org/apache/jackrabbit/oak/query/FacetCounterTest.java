@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static org.apache.jackrabbit.oak.api.QueryEngine.NO_BINDINGS;
+import static org.apache.jackrabbit.oak.api.QueryEngine.NO_MAPPINGS;
+import static org.apache.jackrabbit.oak.plugins.index.IndexUtils.createIndexDefinition;
+import static org.apache.jackrabbit.oak.plugins.index.IndexUtils.getOrCreateOakIndex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jackrabbit.oak.InitialContent;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.PropertyValue;
+import org.apache.jackrabbit.oak.api.ResultRow;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.index.cursor.PathCursor;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexEditorProvider;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexProvider;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyValues;
+import org.apache.jackrabbit.oak.spi.lifecycle.RepositoryInitializer;
+import org.apache.jackrabbit.oak.spi.query.Cursor;
+import org.apache.jackrabbit.oak.spi.query.Filter;
+import org.apache.jackrabbit.oak.spi.query.QueryIndex;
+import org.apache.jackrabbit.oak.spi.query.QueryIndexProvider;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.whiteboard.DefaultWhiteboard;
+import org.apache.jackrabbit.oak.spi.whiteboard.Whiteboard;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.jackrabbit.guava.common.collect.ImmutableList;
+
+/**
+ * Tests counting the facets in the query engine.
+ */
+public class FacetCounterTest extends AbstractQueryTest {
+
+    private static final String QUERY = "select [jcr:path], [rep:facet(color)] " +
+            "from [nt:base] where [type] = 't'";
+
+    private static final String EXACT = "{\"red\":500,\"green\":300,\"blue\":100}";
+
+    private final QueryEngineSettings qeSettings = new QueryEngineSettings();
+
+    private final SizeIndex sizeIndex = new SizeIndex();
+
+    @Override
+    protected ContentRepository createRepository() {
+        Whiteboard whiteboard = new DefaultWhiteboard();
+        whiteboard.register(QueryEngineSettings.class, qeSettings, Collections.emptyMap());
+        return new Oak()
+                .with(new InitialContent())
+                .with((RepositoryInitializer) builder ->
+                        createIndexDefinition(getOrCreateOakIndex(builder), "type",
+                                true, false, ImmutableList.of("type"), null))
+                .with(new OpenSecurityProvider())
+                .with(new PropertyIndexProvider())
+                .with(new PropertyIndexEditorProvider())
+                .with((QueryIndexProvider) nodeState -> Collections.singletonList(sizeIndex))
+                .with(whiteboard)
+                .createContentRepository();
+    }
+
+    @Before
+    public void createContent() throws Exception {
+        Tree test = root.getTree("/").addChild("test");
+        for (int i = 0; i < 1000; i++) {
+            Tree n = test.addChild("n" + i);
+            n.setProperty("type", "t");
+            n.setProperty("size", "s");
+            int x = i % 10;
+            if (x < 5) {
+                n.setProperty("color", "red");
+            } else if (x < 8) {
+                n.setProperty("color", "green");
+            } else if (x < 9) {
+                n.setProperty("color", "blue");
+            }
+        }
+        root.commit();
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        qeSettings.setFacets(false);
+        List<String> facets = getFacets(QUERY);
+        assertEquals(1000, facets.size());
+        assertNull(facets.get(0));
+    }
+
+    @Test
+    public void exact() throws Exception {
+        qeSettings.setFacets(true);
+        qeSettings.setFacetSampleSize(0);
+        List<String> facets = getFacets(QUERY);
+        assertEquals(1000, facets.size());
+        for (String f : facets) {
+            assertEquals(EXACT, f);
+        }
+        // the facets are counted for all rows, not only the returned ones
+        facets = getFacets(QUERY, 3);
+        assertEquals(Arrays.asList(EXACT, EXACT, EXACT), facets);
+    }
+
+    @Test
+    public void sampled() throws Exception {
+        qeSettings.setFacets(true);
+        qeSettings.setFacetSampleSize(100);
+        List<String> facets = getFacets(QUERY);
+        assertEquals(1000, facets.size());
+        // the first rows have extrapolated facets, the last row the exact ones
+        assertTrue(facets.get(0), facets.get(0).startsWith("{\"red\":"));
+        assertTrue(facets.get(0), facets.get(0).contains("\":exact\":\"false\""));
+        assertEquals(EXACT, facets.get(999));
+
+        // sorting reads all rows first, so the facets are exact
+        facets = getFacets(QUERY + " order by [jcr:path]");
+        assertEquals(EXACT, facets.get(0));
+    }
+
+    @Test
+    public void largeResult() throws Exception {
+        qeSettings.setFacets(true);
+        qeSettings.setFacetSampleSize(0);
+        // the rows are not kept in memory to count the facets (using an
+        // index that doesn't keep the paths in memory)
+        qeSettings.setLimitInMemory(500);
+        qeSettings.setSortSpillThreshold(100);
+        String query = "select [jcr:path], [rep:facet(color)] " +
+                "from [nt:base] where [size] = 's'";
+        List<String> facets = getFacets(query);
+        assertEquals(1000, facets.size());
+        assertEquals(EXACT, facets.get(0));
+        assertEquals(EXACT, facets.get(999));
+        // the rows are read once
+        assertEquals(1, sizeIndex.queries.get());
+        facets = getFacets(query + " order by [jcr:path]");
+        assertEquals(1000, facets.size());
+        assertEquals(EXACT, facets.get(0));
+        assertEquals(EXACT, facets.get(999));
+    }
+
+    @Test
+    public void extrapolate() {
+        FacetCounter counter = new FacetCounter();
+        for (int i = 0; i < 100; i++) {
+            counter.add("f", i % 4 == 0 ? PropertyValues.newString("a") : null);
+        }
+        assertEquals(25, counter.getCount("f", "a", -1));
+        assertEquals(25, counter.getCount("f", "a", 100));
+        assertEquals(0, counter.getErrorBound("f", "a", 100));
+        assertEquals(250, counter.getCount("f", "a", 1000));
+        // the actual count, 250 for an evenly distributed label,
+        // is within the error bound
+        long error = counter.getErrorBound("f", "a", 1000);
+        assertTrue("error " + error, error > 50 && error < 100);
+        assertTrue(counter.getErrorBound("f", "b", 1000) > 0);
+        assertEquals("{\"a\":250,\":exact\":\"false\",\":errorBound\":\"" + error + "\"}",
+                counter.getFacets(false, 1000).get("f"));
+        assertEquals("{\"a\":25}", counter.getFacets(true, 1000).get("f"));
+    }
+
+    @Test
+    public void labels() {
+        FacetCounter counter = new FacetCounter();
+        assertTrue(counter.isEmpty());
+        for (int i = 0; i < 20; i++) {
+            List<String> labels = new ArrayList<>();
+            for (int j = 0; j <= i; j++) {
+                labels.add("l" + j);
+            }
+            // duplicate labels of a row are counted once
+            labels.add("l0");
+            PropertyValue v = PropertyValues.newString(labels);
+            assertEquals(Type.STRINGS, v.getType());
+            counter.add("f", v);
+        }
+        assertEquals(20, counter.getCount("f", "l0", -1));
+        assertEquals(1, counter.getCount("f", "l19", -1));
+        // only the most frequent labels
+        assertEquals("{\"l0\":20,\"l1\":19,\"l2\":18,\"l3\":17,\"l4\":16," +
+                "\"l5\":15,\"l6\":14,\"l7\":13,\"l8\":12,\"l9\":11}",
+                counter.getFacets(true, -1).get("f"));
+    }
+
+    /**
+     * An index for the "size" property, that returns all nodes below /test.
+     */
+    private static class SizeIndex implements QueryIndex {
+
+        final AtomicInteger queries = new AtomicInteger();
+
+        @Override
+        public double getMinimumCost() {
+            return 0;
+        }
+
+        @Override
+        public double getCost(Filter filter, NodeState rootState) {
+            return filter.getPropertyRestriction("size") == null ? Double.POSITIVE_INFINITY : 1;
+        }
+
+        @Override
+        public Cursor query(Filter filter, NodeState rootState) {
+            queries.incrementAndGet();
+            List<String> paths = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                paths.add("/test/n" + i);
+            }
+            return new PathCursor(paths.iterator(), false, filter.getQueryLimits());
+        }
+
+        @Override
+        public String getPlan(Filter filter, NodeState rootState) {
+            return "size";
+        }
+
+        @Override
+        public String getIndexName() {
+            return "size";
+        }
+    }
+
+    private List<String> getFacets(String query) throws Exception {
+        return getFacets(query, Long.MAX_VALUE);
+    }
+
+    private List<String> getFacets(String query, long limit) throws Exception {
+        List<String> list = new ArrayList<>();
+        for (ResultRow row : qe.executeQuery(query, SQL2, limit, 0, NO_BINDINGS, NO_MAPPINGS).getRows()) {
+            PropertyValue v = row.getValue("rep:facet(color)");
+            list.add(v == null ? null : v.getValue(Type.STRING));
+        }
+        return list;
+    }
+
+}
@@ -21,6 +21,9 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -28,6 +31,7 @@ import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
 
@@ -54,6 +58,36 @@ public class IteratorsTest {
         assertEquals("1, 2", toString(FilterIterators.newDistinct(it(1, 2), settings)));
         assertEquals("1, 2, 3", toString(FilterIterators.newDistinct(it(1, 2, 1, 3, 3, 1), settings)));
     }
+
+    @Test
+    public void distinctSpill() {
+        Random r = new Random(1);
+        Integer[] list = new Integer[1000];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = r.nextInt(300);
+        }
+        List<Integer> expected = toList(FilterIterators.newDistinct(it(list), settings));
+        // a low memory limit: only the keys in memory are counted
+        QueryEngineSettings s = new QueryEngineSettings();
+        s.setLimitInMemory(20);
+        IntCodec codec = new IntCodec(new AtomicLong()) {
+            @Override
+            public String getKey(Integer entry) {
+                // without a key, entries are kept in memory
+                return entry == 7 ? null : super.getKey(entry);
+            }
+        };
+        assertEquals(expected, toList(FilterIterators.newDistinct(it(list), s, codec, 10)));
+    }
+
+    @Test
+    public void sortedDistinct() {
+        // sorted by the value divided by 10
+        Comparator<Integer> comp = Comparator.comparingInt(x -> x / 10);
+        assertEquals("", toString(FilterIterators.newSortedDistinct(it(), comp)));
+        assertEquals("1, 2, 11, 12, 25", toString(FilterIterators.newSortedDistinct(
+                it(1, 2, 1, 11, 12, 11, 12, 25, 25), comp)));
+    }
     
     @Test
     public void limit() {
@@ -143,6 +177,149 @@ public class IteratorsTest {
         assertTrue(compareCalls.get() <= maxComp);
     }
 
+    @Test
+    public void sortSpill() {
+        Random r = new Random(1);
+        Integer[] list = new Integer[1000];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = r.nextInt(100);
+        }
+        Integer[] sorted = list.clone();
+        Arrays.sort(sorted);
+        AtomicLong spilled = new AtomicLong();
+        IntCodec codec = new IntCodec(spilled);
+
+        // all entries, written in runs of 64 entries
+        Iterator<Integer> it = FilterIterators.newSort(it(list), INT_COMP,
+                Integer.MAX_VALUE, settings, codec, 64);
+        assertEquals(Arrays.asList(sorted), toList(it));
+        assertEquals(list.length - list.length % 64, spilled.get());
+
+        // limit above the threshold
+        spilled.set(0);
+        it = FilterIterators.newSort(it(list), INT_COMP, 100, settings, codec, 64);
+        assertEquals(Arrays.asList(sorted).subList(0, 100), toList(it));
+        assertTrue(spilled.get() > 0);
+
+        // limit below the threshold: top-k in memory
+        spilled.set(0);
+        it = FilterIterators.newSort(it(list), INT_COMP, 10, settings, codec, 64);
+        assertEquals(Arrays.asList(sorted).subList(0, 10), toList(it));
+        assertEquals(0, spilled.get());
+    }
+
+    @Test
+    public void sortSpillClose() throws Exception {
+        Integer[] list = new Integer[1000];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = list.length - i;
+        }
+        IntCodec codec = new IntCodec(new AtomicLong());
+        List<File> before = getSortFiles();
+
+        // partially read, then closed
+        Iterator<Integer> it = FilterIterators.newSort(it(list), INT_COMP,
+                Integer.MAX_VALUE, settings, codec, 64);
+        assertEquals(1, (int) it.next());
+        assertTrue(getSortFiles().size() > before.size());
+        FilterIterators.close(it);
+        assertEquals(before, getSortFiles());
+
+        // the limit is reached
+        it = FilterIterators.newCombinedFilter(it(list), false, 100, 0,
+                INT_COMP, settings, codec, 64);
+        assertEquals(100, toList(it).size());
+        assertEquals(before, getSortFiles());
+
+        // no longer referenced
+        it = FilterIterators.newCombinedFilter(it(list), false, Long.MAX_VALUE, 10,
+                INT_COMP, settings, codec, 64);
+        assertEquals(11, (int) it.next());
+        it = null;
+        for (int i = 0; i < 100 && !before.equals(getSortFiles()); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(before, getSortFiles());
+    }
+
+    @Test
+    public void distinctSpillClose() throws Exception {
+        Integer[] list = new Integer[1000];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = i % 500;
+        }
+        IntCodec codec = new IntCodec(new AtomicLong());
+        List<File> before = getTempFiles("oak-distinct-");
+
+        // partially read, then closed
+        Iterator<Integer> it = FilterIterators.newCombinedFilter(it(list), true,
+                Long.MAX_VALUE, 0, null, settings, codec, 64);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, (int) it.next());
+        }
+        assertTrue(getTempFiles("oak-distinct-").size() > before.size());
+        FilterIterators.close(it);
+        assertEquals(before, getTempFiles("oak-distinct-"));
+
+        // no longer referenced
+        it = FilterIterators.newCombinedFilter(it(list), true,
+                Long.MAX_VALUE, 0, null, settings, codec, 64);
+        for (int i = 0; i < 200; i++) {
+            it.next();
+        }
+        it = null;
+        for (int i = 0; i < 100 && !before.equals(getTempFiles("oak-distinct-")); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(before, getTempFiles("oak-distinct-"));
+    }
+
+    @Test
+    public void sortSpillNotEncodable() {
+        Integer[] list = new Integer[100];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = list.length - i;
+        }
+        AtomicLong spilled = new AtomicLong();
+        IntCodec codec = new IntCodec(spilled) {
+            @Override
+            public String encode(Integer entry) {
+                return entry == 50 ? null : super.encode(entry);
+            }
+        };
+        Iterator<Integer> it = FilterIterators.newSort(it(list), INT_COMP,
+                Integer.MAX_VALUE, settings, codec, 10);
+        List<Integer> result = toList(it);
+        assertEquals(100, result.size());
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals(i + 1, (int) result.get(i));
+        }
+        // the first 50 entries were written before the entry
+        // that can not be encoded was read
+        assertEquals(50, spilled.get());
+    }
+
+    @Test
+    public void sortStable() {
+        // sort by the value divided by 10; equal entries keep their order
+        Comparator<Integer> comp = Comparator.comparingInt(x -> x / 10);
+        Integer[] list = new Integer[200];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = (i * 37) % list.length;
+        }
+        List<Integer> expected = new ArrayList<>(Arrays.asList(list));
+        expected.sort(comp);
+        IntCodec codec = new IntCodec(new AtomicLong());
+        assertEquals(expected, toList(FilterIterators.newSort(
+                it(list), comp, Integer.MAX_VALUE, settings, codec, 16)));
+        assertEquals(expected.subList(0, 50), toList(FilterIterators.newSort(
+                it(list), comp, 50, settings, codec, 16)));
+        assertEquals(expected.subList(0, 5), toList(FilterIterators.newSort(
+                it(list), comp, 5, settings)));
+    }
+
     @Test
     public void combined() {
 
@@ -193,6 +370,53 @@ public class IteratorsTest {
 
 }
 
+    private static List<File> getSortFiles() {
+        return getTempFiles("oak-sort-");
+    }
+
+    private static List<File> getTempFiles(String prefix) {
+        File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles(
+                (dir, name) -> name.startsWith(prefix));
+        List<File> list = files == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(files));
+        Collections.sort(list);
+        return list;
+    }
+
+    private static <K> List<K> toList(Iterator<K> it) {
+        List<K> list = new ArrayList<>();
+        it.forEachRemaining(list::add);
+        return list;
+    }
+
+    private static class IntCodec implements FilterIterators.SpillCodec<Integer> {
+
+        private final AtomicLong spilled;
+
+        IntCodec(AtomicLong spilled) {
+            this.spilled = spilled;
+        }
+
+        @Override
+        public String encode(Integer entry) {
+            return entry.toString();
+        }
+
+        @Override
+        public Integer decode(String line) {
+            return Integer.valueOf(line);
+        }
+
+        @Override
+        public void spilled(long count, int runs) {
+            spilled.addAndGet(count);
+        }
+
+        @Override
+        public String getKey(Integer entry) {
+            return entry.toString();
+        }
+    }
+
     private static <K> Iterator<K> it(K... x) {
         return Collections.unmodifiableCollection(List.of(x)).iterator();
     }
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jackrabbit.oak.InitialContentHelper;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.apache.jackrabbit.oak.spi.whiteboard.DefaultWhiteboard;
+import org.apache.jackrabbit.oak.spi.whiteboard.Whiteboard;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the hash join and merge join strategies: the result must be the same
+ * as for a nested loop join, in the same order.
+ */
+public class JoinStrategyTest extends AbstractQueryTest {
+
+    private final QueryEngineSettings qeSettings = new QueryEngineSettings();
+
+    @Override
+    protected ContentRepository createRepository() {
+        Whiteboard whiteboard = new DefaultWhiteboard();
+        whiteboard.register(QueryEngineSettings.class, qeSettings, Collections.emptyMap());
+        return new Oak(new MemoryNodeStore(InitialContentHelper.INITIAL_CONTENT))
+                .with(new OpenSecurityProvider())
+                .with(whiteboard)
+                .createContentRepository();
+    }
+
+    @Before
+    public void createContent() throws Exception {
+        Tree test = root.getTree("/").addChild("test");
+        for (int i = 0; i < 10; i++) {
+            Tree p = test.addChild("p" + i);
+            p.setProperty("id", "x" + i);
+            p.setProperty("n", (long) i);
+            for (int j = 0; j < 3; j++) {
+                Tree c = p.addChild("c" + j);
+                c.setProperty("ref", "x" + ((i + j) % 12));
+                c.setProperty("n", (long) j);
+                c.addChild("d").setProperty("ref", "x" + i);
+            }
+        }
+        root.commit();
+    }
+
+    @Test
+    public void equiJoin() {
+        String plan = assertSameResult("select [c].[jcr:path], [p].[jcr:path] " +
+                "from [nt:base] as [c] inner join [nt:base] as [p] on [c].[ref] = [p].[id] " +
+                "where isdescendantnode([c], '/test') and isdescendantnode([p], '/test')");
+        assertTrue(plan, plan.contains("/* hash join */"));
+    }
+
+    @Test
+    public void equiJoinDifferentTypes() {
+        // long values on one side, string values on the other
+        assertSameResult("select [c].[jcr:path], [p].[jcr:path] " +
+                "from [nt:base] as [c] inner join [nt:base] as [p] on [c].[n] = [p].[n] " +
+                "where isdescendantnode([c], '/test') and isdescendantnode([p], '/test')");
+    }
+
+    @Test
+    public void leftOuterJoin() {
+        String plan = assertSameResult("select [c].[jcr:path], [p].[jcr:path] " +
+                "from [nt:base] as [c] left outer join [nt:base] as [p] on [c].[ref] = [p].[id] " +
+                "where isdescendantnode([c], '/test')");
+        assertTrue(plan, plan.contains("/* hash join */"));
+    }
+
+    @Test
+    public void descendantJoin() {
+        String plan = assertSameResult("select [a].[jcr:path], [b].[jcr:path] " +
+                "from [nt:base] as [a] inner join [nt:base] as [b] on isdescendantnode([b], [a]) " +
+                "where [a].[id] is not null");
+        assertTrue(plan, plan.contains("/* merge join */"));
+        plan = assertSameResult("select [a].[jcr:path], [b].[jcr:path] " +
+                "from [nt:base] as [b] inner join [nt:base] as [a] on isdescendantnode([b], [a]) " +
+                "where [b].[ref] = 'x3'");
+        assertTrue(plan, plan.contains("/* merge join */"));
+    }
+
+    @Test
+    public void childJoin() {
+        String plan = assertSameResult("select [a].[jcr:path], [b].[jcr:path] " +
+                "from [nt:base] as [a] inner join [nt:base] as [b] on ischildnode([b], [a]) " +
+                "where [a].[id] is not null");
+        assertTrue(plan, plan.contains("/* merge join */"));
+        plan = assertSameResult("select [a].[jcr:path], [b].[jcr:path] " +
+                "from [nt:base] as [b] inner join [nt:base] as [a] on ischildnode([b], [a]) " +
+                "where [b].[ref] = 'x3'");
+        assertTrue(plan, plan.contains("/* merge join */"));
+    }
+
+    @Test
+    public void tooManyRows() {
+        qeSettings.setLimitInMemory(5);
+        try {
+            // too many rows to keep in memory: a nested loop join is used
+            String plan = assertSameResult("select [c].[jcr:path], [p].[jcr:path] " +
+                    "from [nt:base] as [c] inner join [nt:base] as [p] on [c].[ref] = [p].[id] " +
+                    "where isdescendantnode([c], '/test') and isdescendantnode([p], '/test')");
+            assertTrue(plan, plan.contains("/* hash join */"));
+        } finally {
+            qeSettings.setLimitInMemory(Long.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void disabledByDefault() {
+        assertFalse(new QueryEngineSettings().isJoinStrategies());
+        String plan = explain("select [c].[jcr:path] " +
+                "from [nt:base] as [c] inner join [nt:base] as [p] on [c].[ref] = [p].[id]");
+        assertFalse(plan, plan.contains("hash join"));
+    }
+
+    /**
+     * Run the query as a nested loop join, and then with the join strategies
+     * enabled, and check that the results are the same.
+     *
+     * @param query the query
+     * @return the plan with the join strategies enabled
+     */
+    private String assertSameResult(String query) {
+        List<String> expected = executeQuery(query, SQL2, false, true);
+        assertFalse(expected.isEmpty());
+        qeSettings.setJoinStrategies(true);
+        try {
+            assertEquals(expected, executeQuery(query, SQL2, false, true));
+            return explain(query);
+        } finally {
+            qeSettings.setJoinStrategies(false);
+        }
+    }
+
+    private String explain(String query) {
+        return executeQuery("explain " + query, SQL2, false, true).get(0);
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static org.apache.jackrabbit.oak.api.QueryEngine.NO_BINDINGS;
+import static org.apache.jackrabbit.oak.api.QueryEngine.NO_MAPPINGS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.jackrabbit.oak.InitialContentHelper;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.Result;
+import org.apache.jackrabbit.oak.api.ResultRow;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.plugins.index.cursor.AbstractCursor;
+import org.apache.jackrabbit.oak.plugins.index.cursor.Cursors;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.query.Cursor;
+import org.apache.jackrabbit.oak.spi.query.Filter;
+import org.apache.jackrabbit.oak.spi.query.IndexRow;
+import org.apache.jackrabbit.oak.spi.query.QueryIndex;
+import org.apache.jackrabbit.oak.spi.query.QueryIndexProvider;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.whiteboard.DefaultWhiteboard;
+import org.apache.jackrabbit.oak.spi.whiteboard.Whiteboard;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests reading the branches of a union query at the same time: the result
+ * must be the same as if the branches are read one after the other.
+ */
+public class ParallelUnionTest extends AbstractQueryTest {
+
+    private final QueryEngineSettings qeSettings = new QueryEngineSettings();
+
+    private final Set<String> cursorThreads = ConcurrentHashMap.newKeySet();
+
+    private ContentRepository repository;
+
+    @Override
+    protected ContentRepository createRepository() {
+        Whiteboard whiteboard = new DefaultWhiteboard();
+        whiteboard.register(QueryEngineSettings.class, qeSettings, Collections.emptyMap());
+        repository = new Oak(new MemoryNodeStore(InitialContentHelper.INITIAL_CONTENT))
+                .with(new OpenSecurityProvider())
+                .with((QueryIndexProvider) nodeState -> Collections.singletonList(new ThreadIndex()))
+                .with(whiteboard)
+                .createContentRepository();
+        return repository;
+    }
+
+    @Before
+    public void createContent() throws Exception {
+        Tree test = root.getTree("/").addChild("test");
+        for (int i = 0; i < 300; i++) {
+            Tree n = test.addChild("n" + i);
+            n.setProperty("a", (long) (i % 7));
+            n.setProperty("b", (long) (i % 5));
+            n.setProperty("c", (long) (i % 3));
+            n.setProperty("x", "x" + (i % 11));
+            n.setProperty("y", (long) (i % 2));
+        }
+        root.commit();
+    }
+
+    @Test
+    public void unionAll() {
+        assertSameResult("select [jcr:path] from [nt:base] where [a] = 1 " +
+                "union all select [jcr:path] from [nt:base] where [b] = 2 " +
+                "union all select [jcr:path] from [nt:base] where [c] = 0");
+    }
+
+    @Test
+    public void union() {
+        assertSameResult("select [jcr:path] from [nt:base] where [a] = 1 " +
+                "union select [jcr:path] from [nt:base] where [b] = 2 " +
+                "union all select [jcr:path] from [nt:base] where [c] = 0");
+    }
+
+    @Test
+    public void orderBy() {
+        assertSameResult("select [jcr:path], [x] from [nt:base] where [a] = 1 " +
+                "union select [jcr:path], [x] from [nt:base] where [b] = 2 " +
+                "order by [x], [jcr:path]");
+        assertSameResult("/jcr:root/test/*[@a = 1 or @b = 2 or @c = 0] order by @x, @jcr:path", XPATH);
+    }
+
+    @Test
+    public void sortedByPath() {
+        assertSameResult("/jcr:root/test/*[@a = 1 or @b = 2 or @c = 0] order by @jcr:path", XPATH);
+    }
+
+    @Test
+    public void limitOffset() {
+        assertSameResult("/jcr:root/test/*[@a = 1 or @b = 2 or @c = 0] order by @x, @jcr:path", XPATH, 10, 5);
+        assertSameResult("/jcr:root/test/*[@a = 1 or @b = 2 or @c = 0]", XPATH, 3, 50);
+        assertSameResult("/jcr:root/test/*[@a = 1 or @b = 2 or @c = 0]", XPATH, 1, 0);
+        // more rows than the branches can read ahead
+        assertSameResult("/jcr:root/test/*[@a >= 0 or @b >= 0]", XPATH, 10, 200);
+    }
+
+    @Test
+    public void singleThread() {
+        // the reading thread reads the branches that are not started yet
+        qeSettings.setUnionParallelism(1);
+        List<String> result = executeQuery("/jcr:root/test/*[@a = 1 or @b = 2 or @c = 0]",
+                XPATH, true, true);
+        qeSettings.setUnionParallelism(0);
+        assertEquals(executeQuery("/jcr:root/test/*[@a = 1 or @b = 2 or @c = 0]",
+                XPATH, true, true), result);
+    }
+
+    @Test
+    public void indexRowsReadAhead() {
+        assertSameResult("select [jcr:path] from [nt:base] where [y] = 0 " +
+                "union select [jcr:path] from [nt:base] where [y] = 1");
+        // the rows are read by this thread, but the index rows ahead
+        assertTrue(cursorThreads.toString(), cursorThreads.contains(Thread.currentThread().getName()));
+        assertTrue(cursorThreads.toString(), cursorThreads.stream().anyMatch(
+                t -> t.startsWith("oak-query-union-")));
+    }
+
+    @Test
+    public void cancelledAtLimit() throws Exception {
+        qeSettings.setUnionParallelism(4);
+        try {
+            ThreadPoolExecutor executor = (ThreadPoolExecutor) qeSettings.getUnionExecutor();
+            Result result = qe.executeQuery("select [jcr:path] from [nt:base] where [y] = 0 " +
+                    "union select [jcr:path] from [nt:base] where [y] = 1",
+                    SQL2, 1, 0, NO_BINDINGS, NO_MAPPINGS);
+            Iterator<? extends ResultRow> it = result.getRows().iterator();
+            assertTrue(it.hasNext());
+            it.next();
+            // once the limit is reached, the branches stop reading ahead
+            // (the index has more rows than fit in the queues) without
+            // waiting for the cursors to be garbage collected
+            long end = System.currentTimeMillis() + 1000;
+            while (executor.getActiveCount() > 0 && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, executor.getActiveCount());
+            assertFalse(it.hasNext());
+        } finally {
+            qeSettings.setUnionParallelism(0);
+        }
+    }
+
+    @Test
+    public void closedWithRepository() throws Exception {
+        qeSettings.setUnionParallelism(2);
+        ExecutorService executor = (ExecutorService) qeSettings.getUnionExecutor();
+        assertFalse(executor.isShutdown());
+        ((Closeable) repository).close();
+        assertTrue(executor.isShutdown());
+    }
+
+    @Test
+    public void disabledByDefault() {
+        assertEquals(0, new QueryEngineSettings().getUnionParallelism());
+        assertNull(new QueryEngineSettings().getUnionExecutor());
+    }
+
+    private void assertSameResult(String query) {
+        assertSameResult(query, SQL2);
+    }
+
+    private void assertSameResult(String query, String language) {
+        List<String> expected = executeQuery(query, language, false, true);
+        assertFalse(expected.isEmpty());
+        qeSettings.setUnionParallelism(4);
+        try {
+            assertEquals(expected, executeQuery(query, language, false, true));
+        } finally {
+            qeSettings.setUnionParallelism(0);
+        }
+    }
+
+    private void assertSameResult(String query, String language, long limit, long offset) {
+        List<String> expected = executeQuery(query, language, limit, offset);
+        assertFalse(expected.isEmpty());
+        qeSettings.setUnionParallelism(4);
+        try {
+            assertEquals(expected, executeQuery(query, language, limit, offset));
+        } finally {
+            qeSettings.setUnionParallelism(0);
+        }
+    }
+
+    /**
+     * An index for the property "y", that records the threads that read
+     * its cursors.
+     */
+    private class ThreadIndex implements QueryIndex {
+
+        @Override
+        public double getMinimumCost() {
+            return 0;
+        }
+
+        @Override
+        public double getCost(Filter filter, NodeState rootState) {
+            return filter.getPropertyRestriction("y") == null ? Double.POSITIVE_INFINITY : 1;
+        }
+
+        @Override
+        public Cursor query(Filter filter, NodeState rootState) {
+            List<String> paths = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                paths.add("/test/n" + i);
+            }
+            Cursor cursor = Cursors.newPathCursor(paths, filter.getQueryLimits());
+            return new AbstractCursor() {
+
+                @Override
+                public boolean hasNext() {
+                    cursorThreads.add(Thread.currentThread().getName());
+                    return cursor.hasNext();
+                }
+
+                @Override
+                public IndexRow next() {
+                    return cursor.next();
+                }
+            };
+        }
+
+        @Override
+        public String getPlan(Filter filter, NodeState rootState) {
+            return "thread";
+        }
+
+        @Override
+        public String getIndexName() {
+            return "thread";
+        }
+    }
+
+    private List<String> executeQuery(String query, String language, long limit, long offset) {
+        List<String> lines = new ArrayList<>();
+        try {
+            Result result = qe.executeQuery(query, language, limit, offset, NO_BINDINGS, NO_MAPPINGS);
+            for (ResultRow row : result.getRows()) {
+                lines.add(readRow(row, true));
+            }
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return lines;
+    }
+
+}
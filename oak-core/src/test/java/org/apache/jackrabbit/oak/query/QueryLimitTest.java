@@ -19,10 +19,12 @@ package org.apache.jackrabbit.oak.query;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 import java.text.ParseException;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
 
@@ -32,9 +34,12 @@ import org.apache.jackrabbit.oak.Oak;
 import org.apache.jackrabbit.oak.api.ContentRepository;
 import org.apache.jackrabbit.oak.api.QueryEngine;
 import org.apache.jackrabbit.oak.api.ResultRow;
+import org.apache.jackrabbit.oak.api.Tree;
 import org.apache.jackrabbit.oak.commons.junit.LogCustomizer;
 import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
 import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.apache.jackrabbit.oak.spi.whiteboard.DefaultWhiteboard;
+import org.apache.jackrabbit.oak.spi.whiteboard.Whiteboard;
 import org.hamcrest.core.IsCollectionContaining;
 import org.junit.After;
 import org.junit.Assert;
@@ -55,9 +60,13 @@ public class QueryLimitTest extends AbstractQueryTest {
         store = new MemoryNodeStore();
         qeSettings = new QueryEngineSettings();
 
+        Whiteboard whiteboard = new DefaultWhiteboard();
+        whiteboard.register(QueryEngineSettings.class, qeSettings, Collections.emptyMap());
+
         return new Oak(store)
                 .with(new OpenSecurityProvider())
                 .with(new InitialContent())
+                .with(whiteboard)
                 .with(qeSettings)
                 .createContentRepository();
     }
@@ -127,4 +136,30 @@ public class QueryLimitTest extends AbstractQueryTest {
         }
         assertEquals(10, count);
     }
+
+    @Test
+    public void orderBySpillsToDisk() throws Exception {
+        qeSettings.setSortSpillThreshold(5);
+        Tree test = root.getTree("/").addChild("test");
+        for (int i = 0; i < 20; i++) {
+            Tree t = test.addChild("n" + i);
+            t.setProperty("x", (i * 7) % 20);
+            t.setProperty("s", "v" + i);
+        }
+        root.commit();
+
+        String query = "SELECT [jcr:path], [s] FROM [nt:base] AS a " +
+                "WHERE ISCHILDNODE(a, '/test') order by [x] desc";
+        List<String> result = executeQuery(query, QueryEngineImpl.SQL2);
+        assertEquals(20, result.size());
+        for (int i = 0; i < result.size(); i++) {
+            int x = 19 - i;
+            int n = 0;
+            while ((n * 7) % 20 != x) {
+                n++;
+            }
+            assertEquals("/test/n" + n + ", v" + n, result.get(i));
+        }
+        assertTrue(qeSettings.getQueryStats().asJson().contains("\"sortSpillCount\":1"));
+    }
 }
@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_DEFINITIONS_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jackrabbit.oak.InitialContentHelper;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.PropertyValue;
+import org.apache.jackrabbit.oak.api.QueryEngine;
+import org.apache.jackrabbit.oak.api.Result;
+import org.apache.jackrabbit.oak.api.ResultRow;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.plugins.index.IndexUtils;
+import org.apache.jackrabbit.oak.plugins.index.cursor.Cursors;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexEditorProvider;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexProvider;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyValues;
+import org.apache.jackrabbit.oak.spi.query.Cursor;
+import org.apache.jackrabbit.oak.spi.query.Filter;
+import org.apache.jackrabbit.oak.spi.query.QueryIndex;
+import org.apache.jackrabbit.oak.spi.query.QueryIndexProvider;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.whiteboard.DefaultWhiteboard;
+import org.apache.jackrabbit.oak.spi.whiteboard.Whiteboard;
+import org.junit.Test;
+
+/**
+ * Tests the query plan cache.
+ */
+public class QueryPlanCacheTest extends AbstractQueryTest {
+
+    private static final String QUERY =
+            "select [jcr:path] from [nt:base] where [x] = $x";
+
+    private final QueryEngineSettings qeSettings = new QueryEngineSettings();
+
+    private final CountingIndex countingIndex = new CountingIndex();
+
+    @Override
+    protected ContentRepository createRepository() {
+        qeSettings.setPlanCacheSize(10);
+        Whiteboard whiteboard = new DefaultWhiteboard();
+        whiteboard.register(QueryEngineSettings.class, qeSettings, Collections.emptyMap());
+        return new Oak(new MemoryNodeStore(InitialContentHelper.INITIAL_CONTENT))
+                .with(new OpenSecurityProvider())
+                .with(new PropertyIndexProvider())
+                .with(new PropertyIndexEditorProvider())
+                .with((QueryIndexProvider) nodeState -> Arrays.asList(countingIndex,
+                        new PropertyTestIndex("u"), new PropertyTestIndex("v")))
+                .with(whiteboard)
+                .createContentRepository();
+    }
+
+    @Test
+    public void parameterizedQuery() throws Exception {
+        Tree index = root.getTree("/" + INDEX_DEFINITIONS_NAME);
+        IndexUtils.createIndexDefinition(index, "x", false, new String[] {"x"});
+        Tree test = root.getTree("/").addChild("test");
+        test.addChild("a").setProperty("x", "1");
+        test.addChild("b").setProperty("x", "2");
+        root.commit();
+        QueryPlanCache cache = qeSettings.getPlanCache();
+
+        assertEquals("[/test/a]", query("1").toString());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        int costCalls = countingIndex.costCalls.get();
+        assertTrue(costCalls > 0);
+
+        // the same plan is used for other values,
+        // and the other indexes are not asked
+        assertEquals("[/test/b]", query("2").toString());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(costCalls, countingIndex.costCalls.get());
+        assertEquals(0.5, qeSettings.getQueryStats().getPlanCacheHitRatio(), 0.001);
+        assertTrue(qeSettings.getQueryStats().asJson().contains("\"planCacheHits\":1"));
+
+        // changing an index definition clears the cache
+        root.getTree("/" + INDEX_DEFINITIONS_NAME + "/x").setProperty("reindex", true);
+        root.commit();
+        assertEquals("[/test/a]", query("1").toString());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getInvalidationCount());
+        assertTrue(countingIndex.costCalls.get() > costCalls);
+    }
+
+    @Test
+    public void indexDataChanged() throws Exception {
+        Tree index = root.getTree("/" + INDEX_DEFINITIONS_NAME);
+        IndexUtils.createIndexDefinition(index, "x", false, new String[] {"x"});
+        root.getTree("/").addChild("test").addChild("a").setProperty("x", "1");
+        root.commit();
+        QueryPlanCache cache = qeSettings.getPlanCache();
+        assertEquals("[/test/a]", query("1").toString());
+
+        // the index data changes, but not the index definition
+        root.getTree("/test").addChild("b").setProperty("x", "2");
+        root.commit();
+        assertEquals("[/test/b]", query("2").toString());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void indexRemoved() throws Exception {
+        Tree index = root.getTree("/" + INDEX_DEFINITIONS_NAME);
+        IndexUtils.createIndexDefinition(index, "x", false, new String[] {"x"});
+        root.getTree("/").addChild("test").addChild("a").setProperty("x", "1");
+        root.commit();
+        QueryPlanCache cache = qeSettings.getPlanCache();
+
+        assertEquals("[/test/a]", query("1").toString());
+        root.getTree("/" + INDEX_DEFINITIONS_NAME + "/x").remove();
+        root.commit();
+        assertEquals("[/test/a]", query("1").toString());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void definitionChildChanged() throws Exception {
+        Tree index = root.getTree("/" + INDEX_DEFINITIONS_NAME);
+        IndexUtils.createIndexDefinition(index, "x", false, new String[] {"x"});
+        root.getTree("/").addChild("test").addChild("a").setProperty("x", "1");
+        root.commit();
+        QueryPlanCache cache = qeSettings.getPlanCache();
+        assertEquals("[/test/a]", query("1").toString());
+
+        // a child node of an index definition changes
+        root.getTree("/" + INDEX_DEFINITIONS_NAME + "/x").addChild("properties")
+                .setProperty("p", "1");
+        root.commit();
+        assertEquals("[/test/a]", query("1").toString());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getInvalidationCount());
+        root.getTree("/" + INDEX_DEFINITIONS_NAME + "/x/properties")
+                .setProperty("p", "2");
+        root.commit();
+        assertEquals("[/test/a]", query("1").toString());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void nestedIndexAdded() throws Exception {
+        Tree index = root.getTree("/" + INDEX_DEFINITIONS_NAME);
+        IndexUtils.createIndexDefinition(index, "x", false, new String[] {"x"});
+        Tree test = root.getTree("/").addChild("test");
+        test.addChild("a").setProperty("x", "1");
+        root.commit();
+        QueryPlanCache cache = qeSettings.getPlanCache();
+        String query = QUERY + " and isdescendantnode('/test')";
+        assertEquals("[/test/a]", query(query, "1").toString());
+        assertEquals("[/test/a]", query(query, "1").toString());
+        assertEquals(1, cache.getHitCount());
+
+        // an index is added below /test
+        IndexUtils.createIndexDefinition(root.getTree("/test").addChild(INDEX_DEFINITIONS_NAME),
+                "x", false, new String[] {"x"});
+        root.commit();
+        assertEquals("[/test/a]", query(query, "1").toString());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getInvalidationCount());
+
+        // other queries are not affected
+        assertEquals("[/test/a]", query("1").toString());
+        assertEquals("[/test/a]", query("1").toString());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void union() throws Exception {
+        Tree test = root.getTree("/").addChild("test");
+        test.addChild("a").setProperty("u", "1");
+        test.addChild("b").setProperty("v", "2");
+        root.commit();
+        QueryPlanCache cache = qeSettings.getPlanCache();
+        String query = "select [jcr:path] from [nt:base] where [u] = $x " +
+                "union select [jcr:path] from [nt:base] where [v] = $y";
+        Map<String, PropertyValue> bindings = new HashMap<>();
+        bindings.put("x", PropertyValues.newString("1"));
+        bindings.put("y", PropertyValues.newString("2"));
+
+        assertEquals("[/test/a, /test/b]", query(query, bindings).toString());
+        // each branch has its own entry
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.getHitCount());
+        assertEquals("[/test/a, /test/b]", query(query, bindings).toString());
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(0, cache.getInvalidationCount());
+    }
+
+    private List<String> query(String x) throws Exception {
+        return query(QUERY, x);
+    }
+
+    private List<String> query(String query, String x) throws Exception {
+        return query(query, Collections.singletonMap("x", PropertyValues.newString(x)));
+    }
+
+    private List<String> query(String query, Map<String, PropertyValue> bindings) throws Exception {
+        Result result = qe.executeQuery(query, SQL2, bindings, QueryEngine.NO_MAPPINGS);
+        List<String> paths = new ArrayList<>();
+        for (ResultRow row : result.getRows()) {
+            paths.add(row.getPath());
+        }
+        return paths;
+    }
+
+    /**
+     * An index for a property, that returns all nodes below /test.
+     */
+    private static class PropertyTestIndex implements QueryIndex {
+
+        private final String propertyName;
+
+        PropertyTestIndex(String propertyName) {
+            this.propertyName = propertyName;
+        }
+
+        @Override
+        public double getMinimumCost() {
+            return 0;
+        }
+
+        @Override
+        public double getCost(Filter filter, NodeState rootState) {
+            return filter.getPropertyRestriction(propertyName) == null ?
+                    Double.POSITIVE_INFINITY : 1;
+        }
+
+        @Override
+        public Cursor query(Filter filter, NodeState rootState) {
+            List<String> paths = new ArrayList<>();
+            for (String name : rootState.getChildNode("test").getChildNodeNames()) {
+                paths.add("/test/" + name);
+            }
+            return Cursors.newPathCursor(paths, filter.getQueryLimits());
+        }
+
+        @Override
+        public String getPlan(Filter filter, NodeState rootState) {
+            return propertyName;
+        }
+
+        @Override
+        public String getIndexName() {
+            return propertyName;
+        }
+    }
+
+    /**
+     * An index that can not be used, but counts how often it is asked.
+     */
+    private static class CountingIndex implements QueryIndex {
+
+        final AtomicInteger costCalls = new AtomicInteger();
+
+        @Override
+        public double getMinimumCost() {
+            return 0;
+        }
+
+        @Override
+        public double getCost(Filter filter, NodeState rootState) {
+            costCalls.incrementAndGet();
+            return Double.POSITIVE_INFINITY;
+        }
+
+        @Override
+        public Cursor query(Filter filter, NodeState rootState) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getPlan(Filter filter, NodeState rootState) {
+            return "counting";
+        }
+
+        @Override
+        public String getIndexName() {
+            return "counting";
+        }
+    }
+}
@@ -48,8 +48,25 @@ import java.util.ArrayList;
  */
 public class FacetResult {
 
+    /**
+     * The key of the JSON representation of the facets of a dimension that is
+     * set to "false" if the counts are not exact, for example because they
+     * were extrapolated from a sample of the rows.
+     */
+    public static final String EXACT = ":exact";
+
+    /**
+     * The key of the JSON representation of the facets of a dimension that
+     * contains the error bound of counts that are not exact, as a string.
+     */
+    public static final String ERROR_BOUND = ":errorBound";
+
     private final Map<String, List<Facet>> perDimFacets = new HashMap<String, List<Facet>>();
 
+    // the error bounds of the dimensions with counts that are not exact,
+    // or -1 if unknown
+    private final Map<String, Integer> perDimErrorBounds = new HashMap<>();
+
     public FacetResult(QueryResult queryResult) {
         try {
             RowIterator rows = queryResult.getRows();
@@ -85,6 +102,13 @@ public class FacetResult {
                 builder.key(f.getLabel());
                 builder.value(f.getCount());
             }
+            Integer errorBound = perDimErrorBounds.get(entry.getKey());
+            if (errorBound != null) {
+                builder.key(EXACT).value("false");
+                if (errorBound > 0) {
+                    builder.key(ERROR_BOUND).value(Integer.toString(errorBound));
+                }
+            }
 
             builder.endObject();
 
@@ -121,8 +145,16 @@ public class FacetResult {
         int c;
         String label = null;
         int count;
+        boolean exact = true;
+        int errorBound = 0;
         while ((c = jsopTokenizer.read()) != JsopReader.END) {
-            if (JsopReader.STRING == c) {
+            if (JsopReader.STRING == c && EXACT.equals(label)) {
+                exact = !"false".equals(jsopTokenizer.getEscapedToken());
+                label = null;
+            } else if ((JsopReader.STRING == c || JsopReader.NUMBER == c) && ERROR_BOUND.equals(label)) {
+                errorBound = (int) Math.min(Integer.MAX_VALUE, Long.parseLong(jsopTokenizer.getEscapedToken()));
+                label = null;
+            } else if (JsopReader.STRING == c) {
                 label = jsopTokenizer.getEscapedToken();
             } else if (JsopReader.NUMBER == c) {
                 count = Integer.parseInt(jsopTokenizer.getEscapedToken());
@@ -138,6 +170,16 @@ public class FacetResult {
         facets = new ArrayList<>(facetsMap.values());
         Collections.sort(facets, reverseOrder(comparingInt(Facet::getCount)));
         perDimFacets.put(dimension, facets);
+        if (!exact) {
+            // the counts of the rows are added, and so are the error bounds
+            Integer old = perDimErrorBounds.get(dimension);
+            if (errorBound <= 0) {
+                errorBound = -1;
+            } else if (old != null) {
+                errorBound = old < 0 ? -1 : (int) Math.min(Integer.MAX_VALUE, (long) old + errorBound);
+            }
+            perDimErrorBounds.put(dimension, errorBound);
+        }
     }
 
     @NotNull
@@ -150,6 +192,30 @@ public class FacetResult {
         return perDimFacets.get(dimension);
     }
 
+    /**
+     * Whether the counts of a dimension are exact. The counts are not exact
+     * if they were extrapolated from a sample of the rows.
+     *
+     * @param dimension the dimension
+     * @return true if the counts are exact
+     */
+    public boolean isExact(@NotNull String dimension) {
+        return !perDimErrorBounds.containsKey(dimension);
+    }
+
+    /**
+     * Get the error bound of the counts of a dimension: the actual counts
+     * are within the returned counts plus or minus the error bound, with a
+     * confidence of 95%.
+     *
+     * @param dimension the dimension
+     * @return the error bound, 0 if the counts are exact, or -1 if the counts
+     *         are not exact and the error bound is unknown
+     */
+    public int getErrorBound(@NotNull String dimension) {
+        return perDimErrorBounds.getOrDefault(dimension, 0);
+    }
+
     /**
      * A query result facet, composed by its label and count.
      */
@@ -18,7 +18,7 @@
 /**
  * This package contains facet related classes.
  */
-@Version("1.1.0")
+@Version("1.2.0")
 package org.apache.jackrabbit.oak.query.facet;
 
 import org.osgi.annotation.versioning.Version;
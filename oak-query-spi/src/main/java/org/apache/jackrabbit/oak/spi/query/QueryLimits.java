@@ -51,6 +51,17 @@ public interface QueryLimits {
 
     boolean getFailTraversal();
 
+    /**
+     * Whether an index may read the entries for multiple conditions and
+     * intersect them, if that is expected to be cheaper than reading the
+     * entries of the most selective condition only.
+     *
+     * @return true if enabled
+     */
+    default boolean getIndexIntersection() {
+        return false;
+    }
+
     default String getStrictPathRestriction() {
         return StrictPathRestriction.DISABLE.name();
     }
@@ -133,6 +133,36 @@ public class FacetResultTest {
         verify(expected, merged);
     }
 
+    @Test
+    public void errorBound() {
+        String r1c1Facet = "{\"l1\":20,\"l2\":10,\":exact\":\"false\",\":errorBound\":\"4\"}";
+        String r2c1Facet = "{\"l1\":5,\":exact\":\"false\",\":errorBound\":\"2\"}";
+        String r1c2Facet = json(f("m1", 2));
+        String r2c2Facet = "{\"m1\":3,\":exact\":\"false\"}";
+
+        FacetResult merged = facet(
+                new FacetColumn("x", r1c1Facet, r2c1Facet),
+                new FacetColumn("y", r1c2Facet, r2c2Facet)
+        );
+
+        // the keys are not counted as labels
+        verify(facet(
+                new FacetColumn("x", json(f("l1", 25), f("l2", 10))),
+                new FacetColumn("y", json(f("m1", 5)))
+        ), merged);
+        assertFalse(merged.isExact("x"));
+        assertEquals(6, merged.getErrorBound("x"));
+        assertFalse(merged.isExact("y"));
+        assertEquals(-1, merged.getErrorBound("y"));
+        assertEquals("{\"l1\":25,\"l2\":10,\":exact\":\"false\",\":errorBound\":\"6\"}",
+                merged.asColumnToFacetJsonMap().get("rep:facet(x)"));
+
+        FacetResult exact = facet(new FacetColumn("x", json(f("l1", 1))));
+        assertTrue(exact.isExact("x"));
+        assertEquals(0, exact.getErrorBound("x"));
+        assertEquals("{\"l1\":1}", exact.asColumnToFacetJsonMap().get("rep:facet(x)"));
+    }
+
     private FacetResult facet(FacetColumn ... facetColumns) {
         String[] colNames = new String[facetColumns.length];
         colNames[0] = facetColumns[0].colName;
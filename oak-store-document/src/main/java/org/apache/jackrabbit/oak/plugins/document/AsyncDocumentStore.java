@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Asynchronous variants of {@link DocumentStore} methods. Each method starts
+ * the operation and returns a {@link CompletableFuture}, which allows a caller
+ * to overlap independent requests. The semantics of the operations are the
+ * same as for the blocking variants on {@link DocumentStore}. A
+ * {@link DocumentStoreException} thrown by the blocking variant completes the
+ * returned future exceptionally.
+ * <p>
+ * Implementations may limit the number of requests in flight. In this case
+ * a method blocks until a request completes before it starts a new one.
+ */
+public interface AsyncDocumentStore {
+
+    /**
+     * Asynchronous variant of {@link DocumentStore#find(Collection, String)}.
+     *
+     * @param <T> the document type
+     * @param collection the collection
+     * @param key the key
+     * @return the future document or {@code null} if not found
+     */
+    @NotNull
+    <T extends Document> CompletableFuture<T> findAsync(Collection<T> collection,
+                                                        String key);
+
+    /**
+     * Asynchronous variant of
+     * {@link DocumentStore#query(Collection, String, String, int)}.
+     *
+     * @param <T> the document type
+     * @param collection the collection
+     * @param fromKey the start value (excluding)
+     * @param toKey the end value (excluding)
+     * @param limit the maximum number of entries to return
+     * @return the future list (possibly empty)
+     */
+    @NotNull
+    <T extends Document> CompletableFuture<List<T>> queryAsync(Collection<T> collection,
+                                                               String fromKey,
+                                                               String toKey,
+                                                               int limit);
+
+    /**
+     * Asynchronous variant of
+     * {@link DocumentStore#createOrUpdate(Collection, List)}.
+     *
+     * @param <T> the document type
+     * @param collection the collection
+     * @param updateOps the update operation list
+     * @return the future list of old documents
+     */
+    @NotNull
+    <T extends Document> CompletableFuture<List<T>> createOrUpdateAsync(Collection<T> collection,
+                                                                        List<UpdateOp> updateOps);
+
+    /**
+     * Asynchronous variant of
+     * {@link DocumentStore#findAndUpdate(Collection, UpdateOp)}.
+     *
+     * @param <T> the document type
+     * @param collection the collection
+     * @param update the update operation
+     * @return the future old document or {@code null} if there was no
+     *          document or a condition was not met
+     */
+    @NotNull
+    <T extends Document> CompletableFuture<T> findAndUpdateAsync(Collection<T> collection,
+                                                                 UpdateOp update);
+
+    /**
+     * Asynchronous variant of
+     * {@link DocumentStore#prefetch(Collection, Iterable)}.
+     *
+     * @param <T> the document type
+     * @param collection the collection
+     * @param keys the keys of the documents to prefetch
+     * @return a future that completes when the documents were prefetched
+     */
+    @NotNull
+    <T extends Document> CompletableFuture<Void> prefetchAsync(Collection<T> collection,
+                                                               Iterable<String> keys);
+}
@@ -215,6 +215,27 @@ public class ClusterNodeInfo {
     /** OAK-3398 : default update interval 10sec **/
     public static final int DEFAULT_LEASE_UPDATE_INTERVAL_MILLIS = 1000 * 10;
 
+    /**
+     * Default latency objective for a lease update in milliseconds. Lease
+     * updates taking longer than this are counted as a breach and shorten
+     * the lease update interval.
+     */
+    public static final int DEFAULT_LEASE_UPDATE_LATENCY_SLO_MILLIS = SystemPropertySupplier
+            .create("oak.documentMK.leaseUpdateLatencySLOMillis", 1000)
+            .loggingTo(LOG).validateWith(value -> value > 0).get();
+
+    /**
+     * The number of most recent lease updates considered when the lease
+     * update interval is adjusted.
+     */
+    static final int LEASE_UPDATE_LATENCY_WINDOW = 8;
+
+    /**
+     * The lower bound for the lease update interval when it is shortened
+     * because of slow lease updates.
+     */
+    static final long MIN_LEASE_UPDATE_INTERVAL_MILLIS = 1000;
+
     /** OAK-3398 : default failure margin 20sec before actual lease timeout
      * (note that OAK-3399 / MAX_RETRY_SLEEPS_BEFORE_LEASE_FAILURE eats
      * off another few seconds from this margin, by default 5sec,
@@ -266,6 +287,29 @@ public class ClusterNodeInfo {
      */
     private long leaseUpdateInterval = DEFAULT_LEASE_UPDATE_INTERVAL_MILLIS;
 
+    /**
+     * The latency objective for a lease update in milliseconds.
+     */
+    private long leaseUpdateLatencySLO = DEFAULT_LEASE_UPDATE_LATENCY_SLO_MILLIS;
+
+    /**
+     * Ring buffer with the latencies of the most recent lease updates. Guarded
+     * by itself.
+     */
+    private final long[] leaseUpdateLatencies = new long[LEASE_UPDATE_LATENCY_WINDOW];
+
+    /**
+     * The total number of lease updates recorded in {@link #leaseUpdateLatencies}.
+     */
+    private long numLeaseUpdates;
+
+    /**
+     * The lease update interval derived from the recent lease update
+     * latencies. Equals {@link #leaseUpdateInterval} as long as lease
+     * updates meet the latency objective.
+     */
+    private volatile long effectiveLeaseUpdateInterval = DEFAULT_LEASE_UPDATE_INTERVAL_MILLIS;
+
     /**
      * The number of milliseconds that a lease must still be valid
      * before prematurely declaring it as failed. The default is 20sec.
@@ -932,6 +976,10 @@ public class ClusterNodeInfo {
      * to ensure the same cluster id is not re-used by a different instance.
      * The lease is only renewed after 'leaseUpdateInterval' millis
      * since last lease update - default being every 10 sec (this used to be 30sec).
+     * The interval is halved for each of the recent lease updates that took
+     * longer than the lease update latency objective, down to one second. This
+     * renews the lease more often while the store is slow and leaves more room
+     * before the lease expires.
      * <p>
      * This method will not fail immediately with a DocumentStoreException if
      * the lease expired. It will still try to renew the lease and only fail if
@@ -946,10 +994,12 @@ public class ClusterNodeInfo {
         long now = getCurrentTime();
 
         if (LOG.isTraceEnabled()) {
-            LOG.trace("renewLease - leaseEndTime: " + leaseEndTime + ", leaseTime: " + leaseTime + ", leaseUpdateInterval: " + leaseUpdateInterval);
+            LOG.trace("renewLease - leaseEndTime: " + leaseEndTime + ", leaseTime: " + leaseTime
+                    + ", leaseUpdateInterval: " + leaseUpdateInterval
+                    + ", effectiveLeaseUpdateInterval: " + effectiveLeaseUpdateInterval);
         }
 
-        if (now < leaseEndTime - leaseTime + leaseUpdateInterval) {
+        if (now < leaseEndTime - leaseTime + effectiveLeaseUpdateInterval) {
             // no need to renew the lease - it is still within 'leaseUpdateInterval'
             return false;
         }
@@ -1024,6 +1074,7 @@ public class ClusterNodeInfo {
             LOG.debug("Renewing lease for cluster id " + id + " with UpdateOp " + update);
         }
         Stopwatch sw = Stopwatch.createStarted();
+        long start = getCurrentTime();
         DocumentStoreException dse;
         Object result = null;
         try {
@@ -1084,6 +1135,7 @@ public class ClusterNodeInfo {
             result = e.toString();
         } finally {
             sw.stop();
+            leaseUpdateDone(getCurrentTime() - start);
             String msg = "Lease renewal for cluster id {} took {}, resulted in: {}";
             if (sw.elapsed(TimeUnit.SECONDS) > 10) {
                 LOG.warn(msg, id, sw, result);
@@ -1166,12 +1218,33 @@ public class ClusterNodeInfo {
     /** for testing purpose only, not to be changed at runtime! */
     void setLeaseUpdateInterval(long leaseUpdateInterval) {
         this.leaseUpdateInterval = leaseUpdateInterval;
+        this.effectiveLeaseUpdateInterval = leaseUpdateInterval;
+    }
+
+    /** for testing purpose only, not to be changed at runtime! */
+    void setLeaseUpdateLatencySLO(long leaseUpdateLatencySLO) {
+        this.leaseUpdateLatencySLO = leaseUpdateLatencySLO;
     }
 
     public long getLeaseTime() {
         return leaseTime;
     }
 
+    /**
+     * @return the latency objective for a lease update in milliseconds.
+     */
+    public long getLeaseUpdateLatencySLO() {
+        return leaseUpdateLatencySLO;
+    }
+
+    /**
+     * @return the current lease update interval in milliseconds, taking
+     *          the latency of recent lease updates into account.
+     */
+    long getEffectiveLeaseUpdateInterval() {
+        return effectiveLeaseUpdateInterval;
+    }
+
     public long getLeaseEndTime() {
         return leaseEndTime;
     }
@@ -1356,6 +1429,40 @@ public class ClusterNodeInfo {
         return clock.getTime();
     }
 
+    /**
+     * Records the latency of a lease update and adjusts the effective lease
+     * update interval based on the number of recent lease updates that did
+     * not meet the latency objective.
+     *
+     * @param latencyMillis the latency of the lease update in milliseconds.
+     */
+    void leaseUpdateDone(long latencyMillis) {
+        int breaches = 0;
+        synchronized (leaseUpdateLatencies) {
+            leaseUpdateLatencies[(int) (numLeaseUpdates++ % leaseUpdateLatencies.length)] = latencyMillis;
+            int n = (int) Math.min(numLeaseUpdates, leaseUpdateLatencies.length);
+            for (int i = 0; i < n; i++) {
+                if (leaseUpdateLatencies[i] > leaseUpdateLatencySLO) {
+                    breaches++;
+                }
+            }
+        }
+        long interval = leaseUpdateInterval;
+        if (breaches > 0) {
+            interval = Math.max(Math.min(interval, MIN_LEASE_UPDATE_INTERVAL_MILLIS),
+                    interval >> Math.min(breaches, 30));
+        }
+        long previous = effectiveLeaseUpdateInterval;
+        effectiveLeaseUpdateInterval = interval;
+        if (interval < previous) {
+            LOG.warn("Lease update for cluster id {} took {}ms, latency objective is {}ms. " +
+                    "Reduced lease update interval to {}ms.", id, latencyMillis, leaseUpdateLatencySLO, interval);
+        } else if (interval > previous) {
+            LOG.info("Lease updates for cluster id {} within latency objective of {}ms. " +
+                    "Increased lease update interval to {}ms.", id, leaseUpdateLatencySLO, interval);
+        }
+    }
+
     private static DocumentStoreException leaseExpired(String msg, boolean log) {
         if (log) {
             LOG.error(msg);
@@ -0,0 +1,325 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.jackrabbit.oak.commons.json.JsopStream;
+import org.apache.jackrabbit.oak.commons.json.JsopWriter;
+import org.apache.jackrabbit.oak.commons.properties.SystemPropertySupplier;
+import org.apache.jackrabbit.oak.plugins.document.util.StringValue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compact binary representation of the jsop diffs of a
+ * {@link LocalDiffCache.Diff}. Each child node change is encoded as an
+ * operation byte followed by an index into a table of child node names, which
+ * is shared by all paths of the diff. Names that are also the name of a path
+ * in the diff share the String instance of that path. A jsop diff not in the
+ * format written by {@link Commit} is kept as UTF-8 bytes instead.
+ * <p>
+ * With {@code -Doak.diffCache.compress=true}, encoded values larger than
+ * {@link #COMPRESS_THRESHOLD} bytes are additionally deflated.
+ */
+final class CompactDiff {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactDiff.class);
+
+    static final boolean COMPRESS = SystemPropertySupplier
+            .create("oak.diffCache.compress", false).loggingTo(LOG).get();
+
+    static final int COMPRESS_THRESHOLD = SystemPropertySupplier
+            .create("oak.diffCache.compressThreshold", 1024).loggingTo(LOG).get();
+
+    private static final byte RAW = 0;
+
+    private static final byte OPS = 1;
+
+    private static final byte DEFLATED = (byte) 0x80;
+
+    private final Map<Path, byte[]> changes;
+
+    private final String[] names;
+
+    private final long memory;
+
+    private CompactDiff(Map<Path, byte[]> changes, String[] names, long memory) {
+        this.changes = changes;
+        this.names = names;
+        this.memory = memory;
+    }
+
+    @NotNull
+    static CompactDiff encode(@NotNull Map<Path, String> changes) {
+        NameTable table = new NameTable(changes.keySet());
+        Map<Path, byte[]> encoded = new HashMap<>(changes.size() * 4 / 3 + 1);
+        long memory = 0;
+        for (Map.Entry<Path, String> e : changes.entrySet()) {
+            byte[] value = encodeValue(e.getValue(), table);
+            encoded.put(e.getKey(), value);
+            memory += e.getKey().getMemory() + 16 + value.length;
+        }
+        return new CompactDiff(encoded, table.names.toArray(new String[0]),
+                memory + table.memory);
+    }
+
+    @Nullable
+    String get(@NotNull Path path) {
+        byte[] value = changes.get(path);
+        return value != null ? decodeValue(value, names) : null;
+    }
+
+    @NotNull
+    Map<Path, String> decode() {
+        Map<Path, String> decoded = new HashMap<>(changes.size() * 4 / 3 + 1);
+        for (Map.Entry<Path, byte[]> e : changes.entrySet()) {
+            decoded.put(e.getKey(), decodeValue(e.getValue(), names));
+        }
+        return decoded;
+    }
+
+    /**
+     * @return the estimated memory used by the encoded changes, including
+     *          the paths and the name table.
+     */
+    long getMemory() {
+        return memory;
+    }
+
+    //-----------------------------< internal >---------------------------------
+
+    private static byte[] encodeValue(String jsop, NameTable table) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(jsop.length() / 4 + 1);
+        out.write(OPS);
+        List<Character> ops = new ArrayList<>();
+        List<String> opNames = new ArrayList<>();
+        boolean parsed;
+        try {
+            DiffCache.parseJsopDiff(jsop, new DiffCache.Diff() {
+                @Override
+                public boolean childNodeAdded(String name) {
+                    return add('+', name);
+                }
+
+                @Override
+                public boolean childNodeChanged(String name) {
+                    return add('^', name);
+                }
+
+                @Override
+                public boolean childNodeDeleted(String name) {
+                    return add('-', name);
+                }
+
+                private boolean add(char op, String name) {
+                    ops.add(op);
+                    opNames.add(name);
+                    return true;
+                }
+            });
+            // only use the compact form when it reproduces the jsop exactly
+            parsed = render(ops, opNames).equals(jsop);
+        } catch (IllegalArgumentException e) {
+            parsed = false;
+        }
+        byte[] value;
+        if (parsed) {
+            for (int i = 0; i < ops.size(); i++) {
+                out.write(ops.get(i));
+                writeVarInt(out, table.indexOf(opNames.get(i)));
+            }
+            value = out.toByteArray();
+        } else {
+            byte[] utf8 = jsop.getBytes(StandardCharsets.UTF_8);
+            value = new byte[utf8.length + 1];
+            value[0] = RAW;
+            System.arraycopy(utf8, 0, value, 1, utf8.length);
+        }
+        if (COMPRESS && value.length > COMPRESS_THRESHOLD) {
+            value = deflate(value);
+        }
+        return value;
+    }
+
+    private static String decodeValue(byte[] value, String[] names) {
+        if ((value[0] & DEFLATED) != 0) {
+            value = inflate(value);
+        }
+        if (value[0] == RAW) {
+            return new String(value, 1, value.length - 1, StandardCharsets.UTF_8);
+        }
+        JsopWriter w = new JsopStream();
+        int[] pos = {1};
+        while (pos[0] < value.length) {
+            char op = (char) value[pos[0]++];
+            write(w, op, names[readVarInt(value, pos)]);
+        }
+        return w.toString();
+    }
+
+    private static String render(List<Character> ops, List<String> names) {
+        JsopWriter w = new JsopStream();
+        for (int i = 0; i < ops.size(); i++) {
+            write(w, ops.get(i), names.get(i));
+        }
+        return w.toString();
+    }
+
+    private static void write(JsopWriter w, char op, String name) {
+        // same format as written by Commit
+        if (op == '-') {
+            w.tag('-').value(name);
+        } else {
+            w.tag(op).key(name).object().endObject();
+        }
+    }
+
+    private static byte[] deflate(byte[] value) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(value);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(value.length / 2 + 8);
+            out.write(DEFLATED);
+            writeVarInt(out, value.length);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            byte[] deflated = out.toByteArray();
+            // keep uncompressed when deflating does not pay off
+            return deflated.length < value.length ? deflated : value;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] value) {
+        int[] pos = {1};
+        byte[] inflated = new byte[readVarInt(value, pos)];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(value, pos[0], value.length - pos[0]);
+            int n = 0;
+            while (n < inflated.length) {
+                int read = inflater.inflate(inflated, n, inflated.length - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != inflated.length) {
+                throw new IllegalStateException("Truncated diff: " + n + " < " + inflated.length);
+            }
+            return inflated;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt diff", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int x) {
+        while ((x & ~0x7f) != 0) {
+            out.write((x & 0x7f) | 0x80);
+            x >>>= 7;
+        }
+        out.write(x);
+    }
+
+    private static int readVarInt(byte[] buffer, int[] pos) {
+        int x = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer[pos[0]++];
+            x |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return x;
+            }
+        }
+    }
+
+    private static final class NameTable {
+
+        /**
+         * Names of the paths in the diff. Child node names found in the jsop
+         * diffs use these instances when possible.
+         */
+        private final Map<String, String> pathNames = new HashMap<>();
+
+        private final Map<String, Integer> index = new HashMap<>();
+
+        private final List<String> names = new ArrayList<>();
+
+        private long memory;
+
+        NameTable(Iterable<Path> paths) {
+            for (Path p : paths) {
+                pathNames.put(p.getName(), p.getName());
+            }
+        }
+
+        int indexOf(String name) {
+            Integer i = index.get(name);
+            if (i == null) {
+                String shared = pathNames.get(name);
+                if (shared == null) {
+                    shared = name;
+                    memory += StringValue.getMemory(name);
+                }
+                i = names.size();
+                names.add(shared);
+                index.put(shared, i);
+                memory += 8;
+            }
+            return i;
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (obj instanceof CompactDiff) {
+            return decode().equals(((CompactDiff) obj).decode());
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return decode().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "CompactDiff{paths=" + changes.size()
+                + ", names=" + names.length + "}";
+    }
+}
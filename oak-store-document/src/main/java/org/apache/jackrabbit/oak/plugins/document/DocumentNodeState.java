@@ -77,6 +77,13 @@ public class DocumentNodeState extends AbstractDocumentNodeState implements Cach
      */
     static final int MAX_FETCH_SIZE = INITIAL_FETCH_SIZE << 4;
 
+    /**
+     * When the child nodes of the previous fetch were consumed within this
+     * time in milliseconds, the fetch size grows four times instead of
+     * doubling. Such a fast consumer is most likely traversing the tree.
+     */
+    static final long FAST_ITERATION_MILLIS = 10;
+
     private final Path path;
     private final RevisionVector lastRevision;
     private final RevisionVector rootRevision;
@@ -685,6 +692,7 @@ public class DocumentNodeState extends AbstractDocumentNodeState implements Cach
         private Iterator<ChildNodeEntry> current;
         private int fetchSize = INITIAL_FETCH_SIZE;
         private int currentRemaining = fetchSize;
+        private long fetchedAt;
 
         ChildNodeEntryIterator() {
             fetchMore();
@@ -725,7 +733,10 @@ public class DocumentNodeState extends AbstractDocumentNodeState implements Cach
             Iterator<ChildNodeEntry> entries = getChildNodeEntries(
                     previousName, fetchSize).iterator();
             currentRemaining = fetchSize;
-            fetchSize = Math.min(fetchSize * 2, MAX_FETCH_SIZE);
+            long now = store.getClock().getTime();
+            boolean fast = fetchedAt != 0 && now - fetchedAt < FAST_ITERATION_MILLIS;
+            fetchedAt = now;
+            fetchSize = Math.min(fetchSize * (fast ? 4 : 2), MAX_FETCH_SIZE);
             if (entries.hasNext()) {
                 current = entries;
             } else {
@@ -62,6 +62,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -83,6 +85,7 @@ import org.apache.jackrabbit.oak.cache.CacheStats;
 import org.apache.jackrabbit.oak.commons.PerfLogger;
 import org.apache.jackrabbit.oak.commons.collections.CollectionUtils;
 import org.apache.jackrabbit.oak.commons.conditions.Validate;
+import org.apache.jackrabbit.oak.commons.concurrent.ExecutorCloser;
 import org.apache.jackrabbit.oak.commons.json.JsopStream;
 import org.apache.jackrabbit.oak.commons.json.JsopWriter;
 import org.apache.jackrabbit.oak.commons.properties.SystemPropertySupplier;
@@ -94,11 +97,13 @@ import org.apache.jackrabbit.oak.plugins.document.Branch.BranchCommit;
 import org.apache.jackrabbit.oak.plugins.document.UpdateOp.Key;
 import org.apache.jackrabbit.oak.plugins.document.UpdateOp.Operation;
 import org.apache.jackrabbit.oak.plugins.document.bundlor.BundledDocumentDiffer;
+import org.apache.jackrabbit.oak.plugins.document.bundlor.BundlingAnalyzer;
 import org.apache.jackrabbit.oak.plugins.document.bundlor.BundlingConfigHandler;
 import org.apache.jackrabbit.oak.plugins.document.bundlor.DocumentBundlor;
 import org.apache.jackrabbit.oak.plugins.document.persistentCache.PersistentCache;
 import org.apache.jackrabbit.oak.plugins.document.persistentCache.broadcast.DynamicBroadcastConfig;
 import org.apache.jackrabbit.oak.plugins.document.prefetch.CacheWarming;
+import org.apache.jackrabbit.oak.plugins.document.util.AsyncDocumentStoreAdapter;
 import org.apache.jackrabbit.oak.plugins.document.util.LeaseCheckDocumentStoreWrapper;
 import org.apache.jackrabbit.oak.plugins.document.util.LoggingDocumentStoreWrapper;
 import org.apache.jackrabbit.oak.plugins.document.util.ReadOnlyDocumentStoreWrapperFactory;
@@ -112,9 +117,11 @@ import org.apache.jackrabbit.oak.spi.commit.ChangeDispatcher;
 import org.apache.jackrabbit.oak.spi.commit.CommitContext;
 import org.apache.jackrabbit.oak.spi.commit.CommitHook;
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EditorDiff;
 import org.apache.jackrabbit.oak.spi.commit.Observable;
 import org.apache.jackrabbit.oak.spi.commit.Observer;
 import org.apache.jackrabbit.oak.spi.commit.SimpleCommitContext;
+import org.apache.jackrabbit.oak.spi.commit.VisibleEditor;
 import org.apache.jackrabbit.oak.spi.observation.ChangeSet;
 import org.apache.jackrabbit.oak.spi.observation.ChangeSetBuilder;
 import org.apache.jackrabbit.oak.spi.state.AbstractNodeState;
@@ -229,6 +236,39 @@ public final class DocumentNodeStore
     public static final String SYS_PROP_PREFETCH = "oak.documentstore.prefetch";
     private final boolean prefetchEnabled = SystemPropertySupplier.create(SYS_PROP_PREFETCH, false).loggingTo(LOG).get();
 
+    public static final String SYS_PROP_PRECOMPUTE_DIFF = "oak.documentMK.precomputeDiff";
+    /**
+     * Feature flag to compute the diff of an external change with the
+     * executor when the background read could not populate the diff cache,
+     * before observers ask for it.
+     */
+    private final boolean precomputeDiff = SystemPropertySupplier.create(SYS_PROP_PRECOMPUTE_DIFF, false)
+            .loggingTo(LOG).get();
+
+    public static final String SYS_PROP_ASYNC_MAX_IN_FLIGHT = "oak.documentMK.asyncMaxInFlight";
+    /**
+     * The maximum number of overlapping document store requests when child
+     * nodes are prefetched for a diff or on cache warming. Zero disables
+     * overlapping requests.
+     */
+    private final int asyncMaxInFlight = SystemPropertySupplier.create(SYS_PROP_ASYNC_MAX_IN_FLIGHT, 0)
+            .loggingTo(LOG).get();
+
+    /**
+     * Issues overlapping document store requests, or {@code null} if
+     * disabled.
+     */
+    @Nullable
+    private final AsyncDocumentStore asyncStore;
+
+    /**
+     * Runs the requests of the {@link #asyncStore} adapter, or {@code null}
+     * if not needed. The requests block on the document store, so they must
+     * not run on the shared {@link #executor}.
+     */
+    @Nullable
+    private final ExecutorService asyncStoreExecutor;
+
     /**
      * The document store without potentially lease checking wrapper.
      */
@@ -533,6 +573,12 @@ public final class DocumentNodeStore
 
     private final BundlingConfigHandler bundlingConfigHandler = new BundlingConfigHandler();
 
+    /**
+     * Analyzer for adaptive bundling or {@code null} if disabled.
+     */
+    @Nullable
+    private final BundlingAnalyzer bundlingAnalyzer;
+
     private final BundledDocumentDiffer bundledDocDiffer = new BundledDocumentDiffer(this);
 
     private final JournalPropertyHandlerFactory journalPropertyHandlerFactory;
@@ -649,7 +695,25 @@ public final class DocumentNodeStore
         this.prefetchFeature = builder.getPrefetchFeature();
         this.cancelInvalidationFeature = builder.getCancelInvalidationFeature();
         this.noChildOrderCleanupFeature = builder.getNoChildOrderCleanupFeature();
-        this.cacheWarming = new CacheWarming(s);
+        if (asyncMaxInFlight <= 0) {
+            this.asyncStore = null;
+            this.asyncStoreExecutor = null;
+        } else if (s instanceof AsyncDocumentStore) {
+            this.asyncStore = (AsyncDocumentStore) s;
+            this.asyncStoreExecutor = null;
+        } else {
+            // one thread per request in flight, the adapter limits the
+            // number of requests
+            AtomicInteger threadCount = new AtomicInteger();
+            this.asyncStoreExecutor = Executors.newFixedThreadPool(asyncMaxInFlight, r -> {
+                Thread t = new Thread(r, "DocumentNodeStore async store thread-"
+                        + threadCount.incrementAndGet() + " " + threadNamePostfix);
+                t.setDaemon(true);
+                return t;
+            });
+            this.asyncStore = new AsyncDocumentStoreAdapter(s, asyncStoreExecutor, asyncMaxInFlight);
+        }
+        this.cacheWarming = new CacheWarming(s, asyncStore);
 
         this.journalPropertyHandlerFactory = builder.getJournalPropertyHandlerFactory();
         this.store = s;
@@ -881,6 +945,20 @@ public final class DocumentNodeStore
         if (!builder.isBundlingDisabled()) {
             bundlingConfigHandler.initialize(this, executor);
         }
+        BundlingAnalyzer.Mode bundlingMode = builder.getAdaptiveBundlingMode();
+        if (bundlingMode == BundlingAnalyzer.Mode.APPLY
+                && builder.getAdaptiveBundlingCommitHook() == null) {
+            LOG.warn("No commit hook set for adaptive bundling, proposals are not applied");
+            bundlingMode = BundlingAnalyzer.Mode.PROPOSE;
+        }
+        if (!builder.isBundlingDisabled() && !readOnlyMode
+                && bundlingMode != BundlingAnalyzer.Mode.OFF) {
+            bundlingAnalyzer = new BundlingAnalyzer(this, bundlingMode,
+                    builder.getAdaptiveBundlingCommitHook());
+            bundlingAnalyzer.initialize(this, executor);
+        } else {
+            bundlingAnalyzer = null;
+        }
     }
 
 
@@ -936,6 +1014,13 @@ public final class DocumentNodeStore
         } catch (IOException e) {
             LOG.warn("Error closing bundlingConfigHandler", bundlingConfigHandler, e);
         }
+        if (bundlingAnalyzer != null) {
+            try {
+                bundlingAnalyzer.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing bundlingAnalyzer", e);
+            }
+        }
 
         // do a final round of background operations after
         // the background thread stopped
@@ -999,6 +1084,10 @@ public final class DocumentNodeStore
             clusterNodeInfo.dispose();
         }
 
+        if (asyncStoreExecutor != null) {
+            new ExecutorCloser(asyncStoreExecutor).close();
+        }
+
         store.dispose();
 
         try {
@@ -1597,7 +1686,15 @@ public final class DocumentNodeStore
         }
 
         final RevisionVector readRevision = parent.getLastRevision();
-        return transform(getChildren(parent, name, limit).children, new Function<String, DocumentNodeState>() {
+        DocumentNodeState.Children children = getChildren(parent, name, limit);
+        if (children.children.size() > 1 && isPrefetchEnabled()) {
+            // the list of children may come from the cache while the child
+            // nodes are not cached. read the missing child documents with
+            // a single call instead of one find per child
+            cacheWarming.prefetchChildren(parent.getPath(), children.children,
+                    p -> getNodeIfCached(p, readRevision) != null);
+        }
+        return transform(children.children, new Function<String, DocumentNodeState>() {
             @Override
             public DocumentNodeState apply(String input) {
                 Path p = new Path(parent.getPath(), input);
@@ -1664,6 +1761,11 @@ public final class DocumentNodeStore
         return bundlingConfigHandler;
     }
 
+    @Nullable
+    public BundlingAnalyzer getBundlingAnalyzer() {
+        return bundlingAnalyzer;
+    }
+
     /**
      * Apply the changes of a node to the cache.
      *
@@ -2072,14 +2174,38 @@ public final class DocumentNodeStore
         if (node.hasNoChildren() && base.hasNoChildren()) {
             return true;
         }
-        return new JsopNodeStateDiffer(diffCache.getChanges(base.getRootRevision(),
+        final long[] loadMicros = {-1};
+        String changes = diffCache.getChanges(base.getRootRevision(),
                 node.getRootRevision(), node.getPath(),
                 new DiffCache.Loader() {
                     @Override
                     public String call() {
-                        return diffImpl(base, node);
+                        Stopwatch sw = Stopwatch.createStarted();
+                        try {
+                            return diffImpl(base, node);
+                        } finally {
+                            loadMicros[0] = sw.elapsed(MICROSECONDS);
+                        }
                     }
-                })).withoutPropertyChanges().compare(node, base, diff);
+                });
+        nodeStoreStatsCollector.doneDiffCacheRequest(loadMicros[0]);
+        return new JsopNodeStateDiffer(changes).withoutPropertyChanges()
+                .withChildPrefetcher(asyncStore != null ? this::prefetchChildren : null)
+                .compare(node, base, diff);
+    }
+
+    /**
+     * Prefetch the documents of the given child nodes, unless the child nodes
+     * of both states are cached.
+     */
+    private void prefetchChildren(@NotNull AbstractDocumentNodeState node,
+                                  @NotNull AbstractDocumentNodeState base,
+                                  @NotNull List<String> names) {
+        RevisionVector nodeRev = node.getLastRevision();
+        RevisionVector baseRev = base.getLastRevision();
+        cacheWarming.prefetchChildren(node.getPath(), names,
+                p -> getNodeIfCached(p, nodeRev) != null
+                        && getNodeIfCached(p, baseRev) != null);
     }
 
     /**
@@ -2457,6 +2583,7 @@ public final class DocumentNodeStore
      */
     boolean renewClusterIdLease() {
         Stopwatch sw = Stopwatch.createStarted();
+        long remaining = clusterNodeInfo.getLeaseEndTime() - clock.getTime();
         boolean renewedOrException = true;
         try {
             renewedOrException = clusterNodeInfo.renewLease();
@@ -2467,6 +2594,10 @@ public final class DocumentNodeStore
             // In case lease is not renewed (can happen if it had not expired), we don't collect the stats
             if (renewedOrException) {
                 nodeStoreStatsCollector.doneLeaseUpdate(sw.elapsed(MICROSECONDS));
+                nodeStoreStatsCollector.leaseRemaining(remaining);
+                if (sw.elapsed(MILLISECONDS) > clusterNodeInfo.getLeaseUpdateLatencySLO()) {
+                    nodeStoreStatsCollector.leaseUpdateSLOBreached();
+                }
             }
         }
         return renewedOrException;
@@ -2530,11 +2661,14 @@ public final class DocumentNodeStore
                             @NotNull RevisionVector sweepRevs,
                             @Nullable Iterable<String> changedPaths) {
                 long time = clock.getTime();
+                DocumentNodeState precomputeBefore = null;
+                DocumentNodeState precomputeAfter = null;
                 // make sure no local commit is in progress
                 backgroundOperationLock.writeLock().lock();
                 try {
                     stats.lock = clock.getTime() - time;
 
+                    DocumentNodeState oldRoot = getRoot();
                     RevisionVector oldHead = getHeadRevision();
                     RevisionVector newHead = oldHead;
                     for (Revision r : externalChanges) {
@@ -2556,6 +2690,11 @@ public final class DocumentNodeStore
                             LOG.error("backgroundRead: Exception while processing external changes from journal: " + e1, e1);
                         }
                     }
+                    if (precomputeDiff && !(dispatcher instanceof PrefetchDispatcher)
+                            && diffCache.getChanges(oldHead, newHead, ROOT, null) == null) {
+                        precomputeBefore = oldRoot;
+                        precomputeAfter = getRoot();
+                    }
                     stats.populateDiffCache = clock.getTime() - time;
                     time = clock.getTime();
 
@@ -2567,10 +2706,37 @@ public final class DocumentNodeStore
                     backgroundOperationLock.writeLock().unlock();
                 }
                 stats.dispatchChanges = clock.getTime() - time;
+                if (precomputeBefore != null) {
+                    precomputeDiff(precomputeBefore, precomputeAfter);
+                }
             }
         }.process();
     }
 
+    /**
+     * Traverses the diff between the two root states with the executor of
+     * this node store, which fills the diff cache for the changed paths
+     * before observers process the change. The
+     * {@link PrefetchDispatcher} does the same for every external change.
+     *
+     * @param before the root state before the external change.
+     * @param after the root state after the external change.
+     */
+    private void precomputeDiff(@NotNull DocumentNodeState before,
+                                @NotNull DocumentNodeState after) {
+        LOG.debug("Precomputing diff from {} to {}",
+                before.getRootRevision(), after.getRootRevision());
+        executor.execute(() -> {
+            try {
+                EditorDiff.process(new VisibleEditor(
+                        PrefetchDispatcher.TraversingEditor.INSTANCE), before, after);
+            } catch (RuntimeException e) {
+                LOG.warn("Precomputing diff from {} to {} failed: {}",
+                        before.getRootRevision(), after.getRootRevision(), e.toString());
+            }
+        });
+    }
+
     private static CommitInfo newCommitInfo(@NotNull ChangeSet changeSet, JournalPropertyHandler journalPropertyHandler) {
         CommitContext commitContext = new SimpleCommitContext();
         commitContext.set(COMMIT_CONTEXT_OBSERVATION_CHANGESET, changeSet);
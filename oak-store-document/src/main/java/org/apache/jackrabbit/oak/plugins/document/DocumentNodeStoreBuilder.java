@@ -50,6 +50,7 @@ import org.apache.jackrabbit.oak.commons.PathUtils;
 import org.apache.jackrabbit.oak.plugins.blob.BlobStoreStats;
 import org.apache.jackrabbit.oak.plugins.blob.CachingBlobStore;
 import org.apache.jackrabbit.oak.plugins.blob.ReferencedBlob;
+import org.apache.jackrabbit.oak.plugins.document.bundlor.BundlingAnalyzer;
 import org.apache.jackrabbit.oak.plugins.document.cache.NodeDocumentCache;
 import org.apache.jackrabbit.oak.plugins.document.locks.NodeDocumentLocks;
 import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
@@ -63,6 +64,7 @@ import org.apache.jackrabbit.oak.plugins.document.util.StringValue;
 import org.apache.jackrabbit.oak.spi.blob.AbstractBlobStore;
 import org.apache.jackrabbit.oak.spi.blob.BlobStore;
 import org.apache.jackrabbit.oak.spi.blob.MemoryBlobStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
 import org.apache.jackrabbit.oak.spi.gc.GCMonitor;
 import org.apache.jackrabbit.oak.spi.gc.LoggingGCMonitor;
 import org.apache.jackrabbit.oak.spi.toggle.Feature;
@@ -163,6 +165,8 @@ public class DocumentNodeStoreBuilder<T extends DocumentNodeStoreBuilder<T>> {
     private DocumentNodeStoreStatsCollector nodeStoreStatsCollector;
     private Map<String, PersistentCacheStats> persistentCacheStats = new HashMap<>();
     private boolean bundlingDisabled;
+    private BundlingAnalyzer.Mode adaptiveBundlingMode = BundlingAnalyzer.DEFAULT_MODE;
+    private CommitHook adaptiveBundlingCommitHook;
     private JournalPropertyHandlerFactory journalPropertyHandlerFactory =
             new JournalPropertyHandlerFactory();
     private int updateLimit = UPDATE_LIMIT;
@@ -761,6 +765,42 @@ public class DocumentNodeStoreBuilder<T extends DocumentNodeStoreBuilder<T>> {
         return bundlingDisabled;
     }
 
+    /**
+     * Sets the mode of the analyzer for adaptive bundling. The default is
+     * read from the system property {@link BundlingAnalyzer#SYS_PROP_MODE}.
+     *
+     * @param mode the mode.
+     * @return this
+     */
+    public T setAdaptiveBundlingMode(@NotNull BundlingAnalyzer.Mode mode) {
+        adaptiveBundlingMode = requireNonNull(mode);
+        return thisBuilder();
+    }
+
+    @NotNull
+    public BundlingAnalyzer.Mode getAdaptiveBundlingMode() {
+        return adaptiveBundlingMode;
+    }
+
+    /**
+     * Sets the commit hook used when the analyzer for adaptive bundling adds
+     * proposals to the bundling configuration. This should be the commit
+     * hook of the repository. Without a commit hook, proposals are only
+     * logged, even if the mode is {@link BundlingAnalyzer.Mode#APPLY}.
+     *
+     * @param hook the commit hook.
+     * @return this
+     */
+    public T setAdaptiveBundlingCommitHook(@NotNull CommitHook hook) {
+        adaptiveBundlingCommitHook = requireNonNull(hook);
+        return thisBuilder();
+    }
+
+    @Nullable
+    public CommitHook getAdaptiveBundlingCommitHook() {
+        return adaptiveBundlingCommitHook;
+    }
+
     public T setPrefetchExternalChanges(boolean b) {
         prefetchExternalChanges = b;
         return thisBuilder();
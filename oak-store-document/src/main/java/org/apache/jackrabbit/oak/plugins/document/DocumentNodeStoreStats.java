@@ -47,6 +47,8 @@ public class DocumentNodeStoreStats implements DocumentNodeStoreStatsCollector {
     private static final String BGW_TOTAL = "DOCUMENT_NS_BGW_TOTAL_TIME";
 
     static final String LEASE_UPDATE = "DOCUMENT_NS_LEASE_UPDATE";
+    static final String LEASE_REMAINING = "DOCUMENT_NS_LEASE_REMAINING";
+    static final String LEASE_UPDATE_SLO_BREACH = "DOCUMENT_NS_LEASE_UPDATE_SLO_BREACH";
 
     private static final String MERGE_SUCCESS_NUM_RETRY = "DOCUMENT_NS_MERGE_SUCCESS_RETRY";
     static final String MERGE_SUCCESS_COUNT = "DOCUMENT_NS_MERGE_SUCCESS_COUNT";
@@ -62,6 +64,10 @@ public class DocumentNodeStoreStats implements DocumentNodeStoreStatsCollector {
     private static final String MERGE_CHANGES_APPLIED_TIME = "DOCUMENT_NS_MERGE_CHANGES_APPLIED_TIME";
     private static final String MERGE_CHANGES_RATE = "DOCUMENT_NS_MERGE_CHANGES_RATE";
 
+    static final String DIFF_CACHE_REQUEST = "DOCUMENT_NS_DIFF_CACHE_REQUEST";
+    static final String DIFF_CACHE_MISS = "DOCUMENT_NS_DIFF_CACHE_MISS";
+    static final String DIFF_CACHE_LOAD_TIME = "DOCUMENT_NS_DIFF_CACHE_LOAD_TIME";
+
     static final String BRANCH_COMMIT_COUNT = "DOCUMENT_NS_BRANCH_COMMIT_COUNT";
     static final String MERGE_BRANCH_COMMIT_COUNT = "DOCUMENT_NS_MERGE_BRANCH_COMMIT_COUNT";
 
@@ -87,6 +93,8 @@ public class DocumentNodeStoreStats implements DocumentNodeStoreStatsCollector {
 
     // lease update
     private final TimerStats leaseUpdate;
+    private final HistogramStats leaseRemaining;
+    private final MeterStats leaseUpdateSLOBreach;
 
     // merge stats
     private final HistogramStats mergeSuccessRetries;
@@ -103,6 +111,11 @@ public class DocumentNodeStoreStats implements DocumentNodeStoreStatsCollector {
     private final TimerStats mergeChangesApplied;
     private final MeterStats mergeChangesRate;
 
+    // diff cache stats
+    private final MeterStats diffCacheRequest;
+    private final MeterStats diffCacheMiss;
+    private final TimerStats diffCacheLoadTime;
+
     // branch stats
     private final MeterStats branchCommitRate;
     private final MeterStats mergeBranchCommitRate;
@@ -128,6 +141,8 @@ public class DocumentNodeStoreStats implements DocumentNodeStoreStatsCollector {
         numWritesRate = sp.getMeter(BGW_NUM_WRITES_RATE, StatsOptions.DEFAULT); //Enable time series
 
         leaseUpdate = sp.getTimer(LEASE_UPDATE, StatsOptions.METRICS_ONLY);
+        leaseRemaining = sp.getHistogram(LEASE_REMAINING, StatsOptions.METRICS_ONLY);
+        leaseUpdateSLOBreach = sp.getMeter(LEASE_UPDATE_SLO_BREACH, StatsOptions.DEFAULT); //Enable time series
 
         mergeSuccessRetries = sp.getHistogram(MERGE_SUCCESS_NUM_RETRY, StatsOptions.METRICS_ONLY);
         mergeSuccessRate = sp.getMeter(MERGE_SUCCESS_COUNT, StatsOptions.DEFAULT); //Enable time series
@@ -143,6 +158,10 @@ public class DocumentNodeStoreStats implements DocumentNodeStoreStatsCollector {
         mergeChangesApplied = sp.getTimer(MERGE_CHANGES_APPLIED_TIME, StatsOptions.METRICS_ONLY);
         mergeChangesRate = sp.getMeter(MERGE_CHANGES_RATE, StatsOptions.METRICS_ONLY);
 
+        diffCacheRequest = sp.getMeter(DIFF_CACHE_REQUEST, StatsOptions.METRICS_ONLY);
+        diffCacheMiss = sp.getMeter(DIFF_CACHE_MISS, StatsOptions.DEFAULT); //Enable time series
+        diffCacheLoadTime = sp.getTimer(DIFF_CACHE_LOAD_TIME, StatsOptions.METRICS_ONLY);
+
         branchCommitRate = sp.getMeter(BRANCH_COMMIT_COUNT, StatsOptions.DEFAULT);
         mergeBranchCommitRate = sp.getMeter(MERGE_BRANCH_COMMIT_COUNT, StatsOptions.DEFAULT);
     }
@@ -183,6 +202,16 @@ public class DocumentNodeStoreStats implements DocumentNodeStoreStatsCollector {
         leaseUpdate.update(timeMicros, TimeUnit.MICROSECONDS);
     }
 
+    @Override
+    public void leaseRemaining(long remainingMillis) {
+        leaseRemaining.update(remainingMillis);
+    }
+
+    @Override
+    public void leaseUpdateSLOBreached() {
+        leaseUpdateSLOBreach.mark();
+    }
+
     @Override
     public void doneBranchCommit() {
         branchCommitRate.mark();
@@ -245,4 +274,13 @@ public class DocumentNodeStoreStats implements DocumentNodeStoreStatsCollector {
     public void doneChangesApplied(long timeMicros) {
         mergeChangesApplied.update(timeMicros, TimeUnit.MICROSECONDS);
     }
+
+    @Override
+    public void doneDiffCacheRequest(long loadMicros) {
+        diffCacheRequest.mark();
+        if (loadMicros >= 0) {
+            diffCacheMiss.mark();
+            diffCacheLoadTime.update(loadMicros, TimeUnit.MICROSECONDS);
+        }
+    }
 }
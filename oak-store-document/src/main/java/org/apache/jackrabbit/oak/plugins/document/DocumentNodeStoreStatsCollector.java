@@ -42,6 +42,20 @@ public interface DocumentNodeStoreStatsCollector {
      */
     void doneLeaseUpdate(long timeMicros);
 
+    /**
+     * Report to the collector the remaining lease time when a lease update
+     * was started.
+     *
+     * @param remainingMillis the remaining lease time in milliseconds.
+     */
+    void leaseRemaining(long remainingMillis);
+
+    /**
+     * Report to the collector that a lease update took longer than the lease
+     * update latency objective.
+     */
+    void leaseUpdateSLOBreached();
+
     /**
      * Report to the collector that a branch commit was done.
      */
@@ -114,4 +128,13 @@ public interface DocumentNodeStoreStatsCollector {
      * @param timeMicros the time in microseconds.
      */
     void doneChangesApplied(long timeMicros);
+
+    /**
+     * Reports to the collector that the diff cache was asked for the child
+     * node changes of a node.
+     *
+     * @param loadMicros the time in microseconds it took to load the changes
+     *         on a cache miss, or -1 if the changes were in the cache.
+     */
+    void doneDiffCacheRequest(long loadMicros);
 }
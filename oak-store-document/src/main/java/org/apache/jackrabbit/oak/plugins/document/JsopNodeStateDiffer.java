@@ -16,10 +16,14 @@
  */
 package org.apache.jackrabbit.oak.plugins.document;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.jackrabbit.oak.spi.state.AbstractNodeState;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.state.NodeStateDiff;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * A {@link NodeStateDiffer} implementation backed by a JSOP String.
@@ -28,6 +32,7 @@ class JsopNodeStateDiffer implements NodeStateDiffer {
 
     private final String jsonDiff;
     private boolean withoutPropertyChanges = false;
+    private ChildPrefetcher prefetcher;
 
     JsopNodeStateDiffer(String diff) {
         this.jsonDiff = diff == null ? "" : diff;
@@ -38,6 +43,18 @@ class JsopNodeStateDiffer implements NodeStateDiffer {
         return this;
     }
 
+    /**
+     * Prefetch the child nodes in the diff with the given prefetcher before
+     * they are compared.
+     *
+     * @param prefetcher the prefetcher or {@code null} to disable prefetch.
+     * @return this differ.
+     */
+    JsopNodeStateDiffer withChildPrefetcher(@Nullable ChildPrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+        return this;
+    }
+
     @Override
     public boolean compare(@NotNull final AbstractDocumentNodeState node,
                            @NotNull final AbstractDocumentNodeState base,
@@ -48,6 +65,13 @@ class JsopNodeStateDiffer implements NodeStateDiffer {
             }
         }
 
+        if (prefetcher != null) {
+            List<String> names = childNames();
+            if (names.size() > 1) {
+                prefetcher.prefetch(node, base, names);
+            }
+        }
+
         return DiffCache.parseJsopDiff(jsonDiff, new DiffCache.Diff() {
             @Override
             public boolean childNodeAdded(String name) {
@@ -85,6 +109,27 @@ class JsopNodeStateDiffer implements NodeStateDiffer {
         });
     }
 
+    private List<String> childNames() {
+        List<String> names = new ArrayList<>();
+        DiffCache.parseJsopDiff(jsonDiff, new DiffCache.Diff() {
+            @Override
+            public boolean childNodeAdded(String name) {
+                return names.add(name);
+            }
+
+            @Override
+            public boolean childNodeChanged(String name) {
+                return names.add(name);
+            }
+
+            @Override
+            public boolean childNodeDeleted(String name) {
+                return names.add(name);
+            }
+        });
+        return names;
+    }
+
     private static boolean compareExisting(NodeState baseChild,
                                            NodeState nodeChild,
                                            String name,
@@ -99,4 +144,22 @@ class JsopNodeStateDiffer implements NodeStateDiffer {
         }
         return diff.childNodeChanged(name, baseChild, nodeChild);
     }
+
+    /**
+     * Reads the child nodes of a diff ahead of the comparison.
+     */
+    interface ChildPrefetcher {
+
+        /**
+         * Prefetch the named child nodes of {@code node} and {@code base}.
+         *
+         * @param node the node to compare.
+         * @param base the base node to compare against.
+         * @param names the names of the added, changed and deleted child
+         *          nodes.
+         */
+        void prefetch(@NotNull AbstractDocumentNodeState node,
+                      @NotNull AbstractDocumentNodeState base,
+                      @NotNull List<String> names);
+    }
 }
@@ -94,8 +94,9 @@ public class LocalDiffCache extends DiffCache {
                 if (exceedsSize()){
                     return false;
                 }
+                // memory of the entry is computed from its compact form
                 diffCache.put(new RevisionsKey(from, to),
-                        new Diff(changesPerPath, size));
+                        new Diff(changesPerPath, 0));
                 LOG.debug("Adding cache entry from {} to {}", from, to);
                 return true;
             }
@@ -122,11 +123,11 @@ public class LocalDiffCache extends DiffCache {
 
     public static final class Diff implements CacheValue {
 
-        private final Map<Path, String> changes;
+        private final CompactDiff changes;
         private long memory;
 
         public Diff(Map<Path, String> changes, long memory) {
-            this.changes = changes;
+            this.changes = CompactDiff.encode(changes);
             this.memory = memory;
         }
 
@@ -151,7 +152,7 @@ public class LocalDiffCache extends DiffCache {
 
         public String asString(){
             JsopBuilder builder = new JsopBuilder();
-            for (Map.Entry<Path, String> entry : changes.entrySet()) {
+            for (Map.Entry<Path, String> entry : changes.decode().entrySet()) {
                 builder.key(entry.getKey().toString());
                 builder.value(entry.getValue());
             }
@@ -159,17 +160,13 @@ public class LocalDiffCache extends DiffCache {
         }
 
         public Map<Path, String> getChanges() {
-            return Collections.unmodifiableMap(changes);
+            return Collections.unmodifiableMap(changes.decode());
         }
 
         @Override
         public int getMemory() {
             if (memory == 0) {
-                long m = 0;
-                for (Map.Entry<Path, String> e : changes.entrySet()){
-                    m += e.getKey().getMemory() + size(e.getValue());
-                }
-                memory = m;
+                memory = changes.getMemory();
             }
             if (memory > Integer.MAX_VALUE) {
                 LOG.debug("Estimated memory footprint larger than Integer.MAX_VALUE: {}.", memory);
@@ -18,14 +18,11 @@ package org.apache.jackrabbit.oak.plugins.document;
 
 import static java.util.Objects.requireNonNull;
 import static org.apache.jackrabbit.guava.common.collect.Iterables.filter;
-import static org.apache.jackrabbit.guava.common.collect.Iterables.partition;
 import static org.apache.jackrabbit.guava.common.collect.Iterables.transform;
-import static org.apache.jackrabbit.guava.common.collect.Maps.immutableEntry;
 
 import static org.apache.jackrabbit.oak.plugins.document.util.Utils.COMMITROOT_OR_REVISIONS;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -73,6 +70,8 @@ final class MissingBcSweeper2 {
 
     private final AtomicBoolean isDisposed;
 
+    private final int numWorkers;
+
     private long totalCount;
     private long lastCount;
     private long startOfScan;
@@ -87,12 +86,30 @@ final class MissingBcSweeper2 {
                     CommitValueResolver commitValueResolver,
                     List<Integer> includedClusterIds,
                     AtomicBoolean isDisposed) {
+        this(context, commitValueResolver, includedClusterIds, isDisposed,
+                SweepExecutor.DEFAULT_WORKERS);
+    }
+
+    /**
+     * Creates a new sweeper v2 for the given context, which checks the
+     * documents with the given number of workers.
+     *
+     * @param context the revision context.
+     * @param numWorkers the number of workers. A value of one or less checks
+     *                 the documents in the calling thread.
+     */
+    MissingBcSweeper2(RevisionContext context,
+                    CommitValueResolver commitValueResolver,
+                    List<Integer> includedClusterIds,
+                    AtomicBoolean isDisposed,
+                    int numWorkers) {
         this.context = requireNonNull(context);
         this.commitValueResolver = requireNonNull(commitValueResolver);
         this.executingClusterId = context.getClusterId();
         this.includedClusterIds = includedClusterIds == null ? new LinkedList<>() : Collections.unmodifiableList(includedClusterIds);
         this.headRevision= context.getHeadRevision();
         this.isDisposed = isDisposed;
+        this.numWorkers = numWorkers;
     }
 
     /**
@@ -120,30 +137,16 @@ final class MissingBcSweeper2 {
         startOfScan = context.getClock().getTime();
         lastLog = startOfScan;
 
-        Iterable<Map.Entry<Path, UpdateOp>> ops = sweepOperations(documents);
-        for (List<Map.Entry<Path, UpdateOp>> batch : partition(ops, INVALIDATE_BATCH_SIZE)) {
-            Map<Path, UpdateOp> updates = new HashMap<>();
-            for (Map.Entry<Path, UpdateOp> entry : batch) {
-                updates.put(entry.getKey(), entry.getValue());
-            }
-            listener.sweepUpdate(updates);
-            if (isDisposed.get()) {
-                throw new DocumentStoreException("sweep2 interrupted by shutdown");
-            }
-        }
-        LOG.debug("Document sweep2 finished");
-    }
-
-    private Iterable<Map.Entry<Path, UpdateOp>> sweepOperations(
-            final Iterable<NodeDocument> docs) {
-        return filter(transform(docs,
-                new Function<NodeDocument, Map.Entry<Path, UpdateOp>>() {
+        // throttle and count while reading the documents, the
+        // update operations are computed by the workers
+        Iterable<NodeDocument> docs = transform(documents,
+                new Function<NodeDocument, NodeDocument>() {
 
             int yieldCnt = 0;
             long lastYield = context.getClock().getTime();
 
             @Override
-            public Map.Entry<Path, UpdateOp> apply(NodeDocument doc) {
+            public NodeDocument apply(NodeDocument doc) {
                 if (++yieldCnt >= YIELD_SIZE) {
                     try {
                         final long now = context.getClock().getTime();
@@ -158,9 +161,52 @@ final class MissingBcSweeper2 {
                     lastYield = context.getClock().getTime();
                     yieldCnt = 0;
                 }
-                return immutableEntry(doc.getPath(), sweepOne(doc));
+                return scanned(doc);
             }
-        }::apply), input -> input.getValue() != null);
+        }::apply);
+        new SweepExecutor("Oak MissingBcSweeper2", numWorkers).sweep(
+                docs, this::sweepOne, INVALIDATE_BATCH_SIZE, updates -> {
+                    listener.sweepUpdate(updates);
+                    if (isDisposed.get()) {
+                        throw new DocumentStoreException("sweep2 interrupted by shutdown");
+                    }
+                });
+        LOG.debug("Document sweep2 finished");
+    }
+
+    /**
+     * Counts the documents read for the sweep2 and logs the progress. Called
+     * in the thread performing the sweep2.
+     */
+    private NodeDocument scanned(NodeDocument doc) {
+        totalCount++;
+        lastCount++;
+        long now = context.getClock().getTime();
+        long lastElapsed = now - lastLog;
+
+        if (lastElapsed >= LOGINTERVALMS) {
+            TimeDurationFormatter df = TimeDurationFormatter.forLogging();
+
+            long totalElapsed = now - startOfScan;
+            long totalRateMin = (totalCount * TimeUnit.MINUTES.toMillis(1)) / totalElapsed;
+            long lastRateMin = (lastCount * TimeUnit.MINUTES.toMillis(1)) / lastElapsed;
+
+            String restrictionMsg;
+            if (includedClusterIds.isEmpty()) {
+                restrictionMsg = "unrestricted, ie for all clusterIds";
+            } else {
+                restrictionMsg = "restricted to clusterIds " + includedClusterIds;
+            }
+            String message = String.format(
+                    "Sweep2 executed by cluster node [%d] (%s): %d nodes scanned in %s (~%d/m) - last interval %d nodes in %s (~%d/m)",
+                    executingClusterId, restrictionMsg, totalCount, df.format(totalElapsed, TimeUnit.MILLISECONDS), totalRateMin, lastCount,
+                    df.format(lastElapsed, TimeUnit.MILLISECONDS), lastRateMin);
+
+            LOG.info(message);
+            lastLog = now;
+            lastCount = 0;
+        }
+        return doc;
     }
 
     private UpdateOp sweepOne(NodeDocument doc) throws DocumentStoreException {
@@ -204,34 +250,6 @@ final class MissingBcSweeper2 {
             }
         }
 
-        totalCount++;
-        lastCount++;
-        long now = context.getClock().getTime();
-        long lastElapsed = now - lastLog;
-
-        if (lastElapsed >= LOGINTERVALMS) {
-            TimeDurationFormatter df = TimeDurationFormatter.forLogging();
-
-            long totalElapsed = now - startOfScan;
-            long totalRateMin = (totalCount * TimeUnit.MINUTES.toMillis(1)) / totalElapsed;
-            long lastRateMin = (lastCount * TimeUnit.MINUTES.toMillis(1)) / lastElapsed;
-
-            String restrictionMsg;
-            if (includedClusterIds.isEmpty()) {
-                restrictionMsg = "unrestricted, ie for all clusterIds";
-            } else {
-                restrictionMsg = "restricted to clusterIds " + includedClusterIds;
-            }
-            String message = String.format(
-                    "Sweep2 executed by cluster node [%d] (%s): %d nodes scanned in %s (~%d/m) - last interval %d nodes in %s (~%d/m)",
-                    executingClusterId, restrictionMsg, totalCount, df.format(totalElapsed, TimeUnit.MILLISECONDS), totalRateMin, lastCount,
-                    df.format(lastElapsed, TimeUnit.MILLISECONDS), lastRateMin);
-
-            LOG.info(message);
-            lastLog = now;
-            lastCount = 0;
-        }
-
         return op == null ? null : op.hasChanges() ? op : null;
     }
 
@@ -360,6 +360,12 @@ public final class NodeDocument extends Document {
      */
     private NavigableMap<Revision, Range> previous;
 
+    /**
+     * Index over the previous ranges. Only created when the document is
+     * sealed.
+     */
+    private volatile PreviousRangeIndex previousRangeIndex;
+
     /**
      * Time at which this object was check for cache consistency
      */
@@ -1404,6 +1410,14 @@ public final class NodeDocument extends Document {
                 }
             }
 
+            PreviousRangeIndex index = getPreviousRangeIndex();
+            if (index != null) {
+                // look up the head ranges including the revision
+                return filter(transform(index.including(revision),
+                        input -> getPreviousDoc(input.getKey(), input.getValue())),
+                        input -> input != null && input.getValueMap(property).containsKey(revision));
+            }
+
             // didn't find entry -> scan through remaining head ranges
             return filter(transform(getPreviousRanges().headMap(revision).entrySet(), input -> {
                     if (input.getValue().includes(revision)) {
@@ -1859,6 +1873,24 @@ public final class NodeDocument extends Document {
                 .collect(toSet());
     }
 
+    /**
+     * @return the index over the previous ranges of this document or
+     *      {@code null} if this document is not sealed or does not have
+     *      enough previous ranges to make the index worthwhile.
+     */
+    @Nullable
+    private PreviousRangeIndex getPreviousRangeIndex() {
+        if (!isSealed() || getPreviousRanges().size() < PreviousRangeIndex.MIN_RANGES) {
+            return null;
+        }
+        PreviousRangeIndex index = previousRangeIndex;
+        if (index == null) {
+            index = new PreviousRangeIndex(getPreviousRanges());
+            previousRangeIndex = index;
+        }
+        return index;
+    }
+
     /**
      * @return the {@link #REVISIONS} stored on this document.
      */
@@ -16,8 +16,6 @@
  */
 package org.apache.jackrabbit.oak.plugins.document;
 
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
@@ -31,9 +29,7 @@ import org.slf4j.LoggerFactory;
 
 import static java.util.Objects.requireNonNull;
 import static org.apache.jackrabbit.guava.common.collect.Iterables.filter;
-import static org.apache.jackrabbit.guava.common.collect.Iterables.partition;
 import static org.apache.jackrabbit.guava.common.collect.Iterables.transform;
-import static org.apache.jackrabbit.guava.common.collect.Maps.immutableEntry;
 
 import static org.apache.jackrabbit.oak.plugins.document.NodeDocument.isDeletedEntry;
 import static org.apache.jackrabbit.oak.plugins.document.NodeDocument.removeCommitRoot;
@@ -66,6 +62,8 @@ final class NodeDocumentSweeper {
 
     private final boolean sweepNewerThanHead;
 
+    private final int numWorkers;
+
     private Revision head;
 
     private long totalCount;
@@ -97,10 +95,29 @@ final class NodeDocumentSweeper {
      */
     NodeDocumentSweeper(RevisionContext context,
                         boolean sweepNewerThanHead) {
+        this(context, sweepNewerThanHead, SweepExecutor.DEFAULT_WORKERS);
+    }
+
+    /**
+     * Creates a new sweeper for the given context, which checks the documents
+     * with the given number of workers. The updates are still reported to the
+     * {@link NodeDocumentSweepListener} in the calling thread and in the order
+     * of the documents.
+     *
+     * @param context the revision context.
+     * @param sweepNewerThanHead whether uncommitted changes newer than the head
+     *                 revision should be reverted.
+     * @param numWorkers the number of workers. A value of one or less checks
+     *                 the documents in the calling thread.
+     */
+    NodeDocumentSweeper(RevisionContext context,
+                        boolean sweepNewerThanHead,
+                        int numWorkers) {
         this.context = requireNonNull(context);
         this.clusterId = context.getClusterId();
         this.headRevision= context.getHeadRevision();
         this.sweepNewerThanHead = sweepNewerThanHead;
+        this.numWorkers = numWorkers;
     }
 
     /**
@@ -150,22 +167,40 @@ final class NodeDocumentSweeper {
             return null;
         }
 
-        Iterable<Map.Entry<Path, UpdateOp>> ops = sweepOperations(documents);
-        for (List<Map.Entry<Path, UpdateOp>> batch : partition(ops, INVALIDATE_BATCH_SIZE)) {
-            Map<Path, UpdateOp> updates = new HashMap<>();
-            for (Map.Entry<Path, UpdateOp> entry : batch) {
-                updates.put(entry.getKey(), entry.getValue());
-            }
-            listener.sweepUpdate(updates);
-        }
+        new SweepExecutor("Oak NodeDocumentSweeper", numWorkers).sweep(
+                transform(documents, this::scanned), this::sweepOne,
+                INVALIDATE_BATCH_SIZE, listener);
         LOG.debug("Document sweep finished");
         return head;
     }
 
-    private Iterable<Map.Entry<Path, UpdateOp>> sweepOperations(
-            final Iterable<NodeDocument> docs) {
-        return filter(transform(docs, doc -> immutableEntry(doc.getPath(), sweepOne(doc))),
-                input -> input.getValue() != null);
+    /**
+     * Counts the documents read for the sweep and logs the progress. Called
+     * in the thread performing the sweep.
+     */
+    private NodeDocument scanned(NodeDocument doc) {
+        totalCount++;
+        lastCount++;
+        long now = context.getClock().getTime();
+        long lastElapsed = now - lastLog;
+
+        if (lastElapsed >= LOGINTERVALMS) {
+            TimeDurationFormatter df = TimeDurationFormatter.forLogging();
+
+            long totalElapsed = now - startOfScan;
+            long totalRateMin = (totalCount * TimeUnit.MINUTES.toMillis(1)) / totalElapsed;
+            long lastRateMin = (lastCount * TimeUnit.MINUTES.toMillis(1)) / lastElapsed;
+
+            String message = String.format(
+                    "Sweep on cluster node [%d]: %d nodes scanned in %s (~%d/m) - last interval %d nodes in %s (~%d/m)",
+                    clusterId, totalCount, df.format(totalElapsed, TimeUnit.MILLISECONDS), totalRateMin, lastCount,
+                    df.format(lastElapsed, TimeUnit.MILLISECONDS), lastRateMin);
+
+            LOG.info(message);
+            lastLog = now;
+            lastCount = 0;
+        }
+        return doc;
     }
 
     private UpdateOp sweepOne(NodeDocument doc) throws DocumentStoreException {
@@ -193,29 +228,6 @@ final class NodeDocumentSweeper {
                 }
             }
         }
-
-        totalCount++;
-        lastCount++;
-        long now = context.getClock().getTime();
-        long lastElapsed = now - lastLog;
-
-        if (lastElapsed >= LOGINTERVALMS) {
-            TimeDurationFormatter df = TimeDurationFormatter.forLogging();
-
-            long totalElapsed = now - startOfScan;
-            long totalRateMin = (totalCount * TimeUnit.MINUTES.toMillis(1)) / totalElapsed;
-            long lastRateMin = (lastCount * TimeUnit.MINUTES.toMillis(1)) / lastElapsed;
-
-            String message = String.format(
-                    "Sweep on cluster node [%d]: %d nodes scanned in %s (~%d/m) - last interval %d nodes in %s (~%d/m)",
-                    clusterId, totalCount, df.format(totalElapsed, TimeUnit.MILLISECONDS), totalRateMin, lastCount,
-                    df.format(lastElapsed, TimeUnit.MILLISECONDS), lastRateMin);
-
-            LOG.info(message);
-            lastLog = now;
-            lastCount = 0;
-        }
-
         return op.hasChanges() ? op : null;
     }
 
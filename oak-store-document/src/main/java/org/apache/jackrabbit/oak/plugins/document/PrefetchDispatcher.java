@@ -68,7 +68,7 @@ class PrefetchDispatcher extends ChangeDispatcher {
         this.root = root;
     }
 
-    private static final class TraversingEditor extends DefaultEditor {
+    static final class TraversingEditor extends DefaultEditor {
 
         static final Editor INSTANCE = new TraversingEditor();
 
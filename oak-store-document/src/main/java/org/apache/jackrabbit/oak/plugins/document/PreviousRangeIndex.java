@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.apache.jackrabbit.oak.commons.properties.SystemPropertySupplier;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An index over the previous ranges of an immutable {@link NodeDocument}.
+ * The ranges are grouped by cluster id and sorted by their high bound in
+ * ascending order. Each group keeps the minimum low bound of all ranges with
+ * the same or a higher high bound, which allows to stop as soon as no
+ * remaining range can include a revision. This avoids a scan over all ranges
+ * newer than a revision when looking up the previous documents with a change
+ * for that revision.
+ */
+final class PreviousRangeIndex {
+
+    /**
+     * Minimum number of previous ranges of a document before the index is
+     * used.
+     */
+    static final int MIN_RANGES = SystemPropertySupplier.create(
+            "oak.documentMK.previousRangeIndexMinRanges", 16).get();
+
+    private final Map<Integer, List<Map.Entry<Revision, Range>>> byClusterId = new HashMap<>();
+
+    private final Map<Integer, Revision[]> minLows = new HashMap<>();
+
+    PreviousRangeIndex(@NotNull NavigableMap<Revision, Range> ranges) {
+        // previous ranges are sorted descending
+        for (Map.Entry<Revision, Range> e : ranges.descendingMap().entrySet()) {
+            byClusterId.computeIfAbsent(e.getKey().getClusterId(),
+                    id -> new ArrayList<>()).add(e);
+        }
+        for (Map.Entry<Integer, List<Map.Entry<Revision, Range>>> e : byClusterId.entrySet()) {
+            List<Map.Entry<Revision, Range>> list = e.getValue();
+            Revision[] minLow = new Revision[list.size()];
+            Revision min = null;
+            for (int i = list.size() - 1; i >= 0; i--) {
+                Revision low = list.get(i).getValue().low;
+                if (min == null || low.compareRevisionTime(min) < 0) {
+                    min = low;
+                }
+                minLow[i] = min;
+            }
+            minLows.put(e.getKey(), minLow);
+        }
+    }
+
+    /**
+     * Returns the previous ranges that are newer than the given revision and
+     * include it. This is equivalent to filtering
+     * {@code getPreviousRanges().headMap(r)} with {@link Range#includes(Revision)}.
+     * The ranges are returned in the same order as
+     * {@link NodeDocument#getPreviousRanges()}, newest first.
+     *
+     * @param r the revision.
+     * @return the matching ranges.
+     */
+    @NotNull
+    List<Map.Entry<Revision, Range>> including(@NotNull Revision r) {
+        List<Map.Entry<Revision, Range>> list = byClusterId.get(r.getClusterId());
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        Revision[] minLow = minLows.get(r.getClusterId());
+        List<Map.Entry<Revision, Range>> result = new ArrayList<>(2);
+        for (int i = firstNotOlder(list, r); i < list.size(); i++) {
+            if (minLow[i].compareRevisionTime(r) > 0) {
+                // no remaining range can include r
+                break;
+            }
+            Map.Entry<Revision, Range> e = list.get(i);
+            if (e.getKey().compareTo(r) > 0 && e.getValue().includes(r)) {
+                result.add(e);
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * @return the index of the first range with a high bound at or after
+     *      the revision time of {@code r}.
+     */
+    private static int firstNotOlder(List<Map.Entry<Revision, Range>> list,
+                                     Revision r) {
+        int low = 0;
+        int high = list.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (list.get(mid).getKey().compareRevisionTime(r) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -18,10 +18,15 @@
  */
 package org.apache.jackrabbit.oak.plugins.document;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
 import javax.management.openmbean.CompositeData;
 
 import org.apache.jackrabbit.api.stats.TimeSeries;
 import org.apache.jackrabbit.oak.plugins.document.VersionGarbageCollector.VersionGCStats;
+import org.apache.jackrabbit.oak.plugins.document.util.TimeInterval;
 import org.apache.jackrabbit.oak.stats.CounterStats;
 import org.apache.jackrabbit.oak.stats.MeterStats;
 import org.apache.jackrabbit.oak.stats.StatisticsProvider;
@@ -44,6 +49,8 @@ class RevisionGCStats implements RevisionGCStatsCollector, RevisionGCStatsMBean
     static final String DELETE_SPLIT_DOC = "DELETE_SPLIT_DOC";
     static final String DELETE_INT_SPLIT_DOC = "DELETE_INT_SPLIT_DOC";
     static final String RESET_DELETED_FLAG = "RESET_DELETED_FLAG";
+    static final String SHARD_COMPLETED = "SHARD_COMPLETED";
+    static final String SHARD_SKIPPED = "SHARD_SKIPPED";
 
     static final String ACTIVE_TIMER = "ACTIVE_TIMER";
     static final String READ_DOC_TIMER = "READ_DOC_TIMER";
@@ -52,6 +59,7 @@ class RevisionGCStats implements RevisionGCStatsCollector, RevisionGCStatsMBean
     static final String RESET_DELETED_FLAG_TIMER = "RESET_DELETED_FLAG_TIMER";
     static final String DELETE_DOC_TIMER = "DELETE_DOC_TIMER";
     static final String DELETE_SPLIT_DOC_TIMER = "DELETE_SPLIT_DOC_TIMER";
+    static final String SHARD_TIMER = "SHARD_TIMER";
 
     static final String COUNTER = "COUNTER";
     static final String FAILURE_COUNTER = "FAILURE";
@@ -64,6 +72,8 @@ class RevisionGCStats implements RevisionGCStatsCollector, RevisionGCStatsMBean
     private final MeterStats deletedSplitDoc;
     private final MeterStats deletedIntSplitDoc;
     private final MeterStats resetDeletedFlag;
+    private final MeterStats shardCompleted;
+    private final MeterStats shardSkipped;
 
     private final TimerStats activeTimer;
     private final TimerStats readDocTimer;
@@ -72,10 +82,17 @@ class RevisionGCStats implements RevisionGCStatsCollector, RevisionGCStatsMBean
     private final TimerStats resetDeletedFlagTimer;
     private final TimerStats deletedDocTimer;
     private final TimerStats deletedSplitDocTimer;
+    private final TimerStats shardTimer;
 
     private final CounterStats counter;
     private final CounterStats failureCounter;
 
+    /**
+     * Statistics of the shards processed by the most recent sharded
+     * collection of deleted documents, ordered by start of the shard.
+     */
+    private final Map<Long, ShardStats> shards = new TreeMap<>();
+
     RevisionGCStats(StatisticsProvider provider) {
         this.provider = provider;
 
@@ -85,6 +102,8 @@ class RevisionGCStats implements RevisionGCStatsCollector, RevisionGCStatsMBean
         deletedSplitDoc = meter(provider, DELETE_SPLIT_DOC);
         deletedIntSplitDoc = meter(provider, DELETE_INT_SPLIT_DOC);
         resetDeletedFlag = meter(provider, RESET_DELETED_FLAG);
+        shardCompleted = meter(provider, SHARD_COMPLETED);
+        shardSkipped = meter(provider, SHARD_SKIPPED);
 
         activeTimer = timer(provider, ACTIVE_TIMER);
         readDocTimer = timer(provider, READ_DOC_TIMER);
@@ -93,6 +112,7 @@ class RevisionGCStats implements RevisionGCStatsCollector, RevisionGCStatsMBean
         resetDeletedFlagTimer = timer(provider, RESET_DELETED_FLAG_TIMER);
         deletedDocTimer = timer(provider, DELETE_DOC_TIMER);
         deletedSplitDocTimer = timer(provider, DELETE_SPLIT_DOC_TIMER);
+        shardTimer = timer(provider, SHARD_TIMER);
 
         counter = counter(provider, COUNTER);
         failureCounter = counter(provider, FAILURE_COUNTER);
@@ -153,6 +173,87 @@ class RevisionGCStats implements RevisionGCStatsCollector, RevisionGCStatsMBean
         }
     }
 
+    //--------------------------< sharded collection >--------------------------
+
+    /**
+     * Called when a sharded collection of deleted documents starts and
+     * discards the statistics of shards from a previous collection.
+     */
+    void shardsStarted() {
+        synchronized (shards) {
+            shards.clear();
+        }
+    }
+
+    /**
+     * Called when a shard is skipped because it was already completed by an
+     * earlier, interrupted run.
+     *
+     * @param shard the time interval covered by the shard.
+     */
+    void shardSkipped(TimeInterval shard) {
+        shardSkipped.mark();
+        synchronized (shards) {
+            shards.put(shard.fromMs, new ShardStats(shard, true, 0, 0, 0));
+        }
+    }
+
+    /**
+     * Called when a worker completed a shard.
+     *
+     * @param shard the time interval covered by the shard.
+     * @param docsRead the number of candidate documents read.
+     * @param docsDeleted the number of documents deleted.
+     * @param elapsedMicros the time it took to process the shard.
+     */
+    void shardCompleted(TimeInterval shard, long docsRead,
+                        long docsDeleted, long elapsedMicros) {
+        shardCompleted.mark();
+        shardTimer.update(elapsedMicros, MICROSECONDS);
+        synchronized (shards) {
+            shards.put(shard.fromMs, new ShardStats(shard, false,
+                    docsRead, docsDeleted, elapsedMicros));
+        }
+    }
+
+    /**
+     * @return the statistics of the shards processed by the most recent
+     *          sharded collection, keyed and ordered by start of the shard.
+     */
+    Map<Long, ShardStats> getShardStats() {
+        synchronized (shards) {
+            return Collections.unmodifiableMap(new TreeMap<>(shards));
+        }
+    }
+
+    static final class ShardStats {
+
+        final TimeInterval shard;
+        final boolean skipped;
+        final long docsRead;
+        final long docsDeleted;
+        final long elapsedMicros;
+
+        ShardStats(TimeInterval shard, boolean skipped, long docsRead,
+                   long docsDeleted, long elapsedMicros) {
+            this.shard = shard;
+            this.skipped = skipped;
+            this.docsRead = docsRead;
+            this.docsDeleted = docsDeleted;
+            this.elapsedMicros = elapsedMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "ShardStats{" +
+                    "shard=" + shard +
+                    ", skipped=" + skipped +
+                    ", docsRead=" + docsRead +
+                    ", docsDeleted=" + docsDeleted +
+                    ", elapsedMicros=" + elapsedMicros +
+                    "}";
+        }
+    }
 
     //------------------------< RevisionGCStatsMBean >--------------------------
 
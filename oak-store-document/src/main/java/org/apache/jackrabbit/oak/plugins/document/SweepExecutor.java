@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.jackrabbit.oak.commons.properties.SystemPropertySupplier;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.apache.jackrabbit.guava.common.collect.Iterables.filter;
+import static org.apache.jackrabbit.guava.common.collect.Iterables.partition;
+import static org.apache.jackrabbit.guava.common.collect.Iterables.transform;
+import static org.apache.jackrabbit.guava.common.collect.Maps.immutableEntry;
+
+/**
+ * Computes the update operations of a sweep and passes them in batches to a
+ * {@link NodeDocumentSweepListener}. With more than one worker, documents are
+ * read in the calling thread and handed to the workers in chunks. The workers
+ * resolve the commit values, which usually dominates the cost of a sweep. The
+ * batches are still passed to the listener in the calling thread and in the
+ * order of the documents, the same way as with a sequential sweep.
+ */
+final class SweepExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SweepExecutor.class);
+
+    /**
+     * The default number of workers for a sweep. A value of one or less
+     * sweeps the documents in the calling thread.
+     */
+    static final int DEFAULT_WORKERS = SystemPropertySupplier.create(
+            "oak.documentMK.sweepWorkers", 1).loggingTo(LOG).get();
+
+    /**
+     * The number of documents handed to a worker at once.
+     */
+    private static final int CHUNK_SIZE = 100;
+
+    private final String name;
+
+    private final int numWorkers;
+
+    /**
+     * @param name the name of the sweep, used for the worker threads.
+     * @param numWorkers the number of workers.
+     */
+    SweepExecutor(@NotNull String name, int numWorkers) {
+        this.name = name;
+        this.numWorkers = numWorkers;
+    }
+
+    /**
+     * Sweeps the given documents.
+     *
+     * @param documents the documents to sweep.
+     * @param sweepOne computes the update operation for a document or
+     *          returns {@code null} if the document does not need an update.
+     *          Must be thread-safe with more than one worker.
+     * @param batchSize the maximum number of update operations passed to the
+     *          listener at once.
+     * @param listener the listener to receive the update operations.
+     * @throws DocumentStoreException if reading from the store or writing to
+     *          the store failed.
+     */
+    void sweep(@NotNull Iterable<NodeDocument> documents,
+               @NotNull Function<NodeDocument, UpdateOp> sweepOne,
+               int batchSize,
+               @NotNull NodeDocumentSweepListener listener)
+            throws DocumentStoreException {
+        if (numWorkers <= 1) {
+            Iterable<Map.Entry<Path, UpdateOp>> ops = filter(
+                    transform(documents, doc -> immutableEntry(doc.getPath(), sweepOne.apply(doc))),
+                    input -> input.getValue() != null);
+            for (List<Map.Entry<Path, UpdateOp>> batch : partition(ops, batchSize)) {
+                listener.sweepUpdate(toMap(batch));
+            }
+        } else {
+            parallelSweep(documents, sweepOne, batchSize, listener);
+        }
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    private void parallelSweep(Iterable<NodeDocument> documents,
+                               Function<NodeDocument, UpdateOp> sweepOne,
+                               int batchSize,
+                               NodeDocumentSweepListener listener) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(numWorkers, r -> {
+            Thread t = new Thread(r, name + " worker-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            // chunks in document order, bounded to keep the memory usage
+            // independent of the number of documents
+            Deque<Future<List<Map.Entry<Path, UpdateOp>>>> inFlight = new ArrayDeque<>();
+            List<Map.Entry<Path, UpdateOp>> pending = new ArrayList<>();
+            Iterator<NodeDocument> it = documents.iterator();
+            while (it.hasNext()) {
+                List<NodeDocument> chunk = new ArrayList<>(CHUNK_SIZE);
+                while (it.hasNext() && chunk.size() < CHUNK_SIZE) {
+                    chunk.add(it.next());
+                }
+                inFlight.add(workers.submit(() -> sweepChunk(chunk, sweepOne)));
+                if (inFlight.size() >= numWorkers * 2) {
+                    pending.addAll(get(inFlight.poll()));
+                    pending = sweepUpdates(pending, batchSize, listener);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                pending.addAll(get(inFlight.poll()));
+                pending = sweepUpdates(pending, batchSize, listener);
+            }
+            if (!pending.isEmpty()) {
+                listener.sweepUpdate(toMap(pending));
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static List<Map.Entry<Path, UpdateOp>> sweepChunk(List<NodeDocument> chunk,
+                                                              Function<NodeDocument, UpdateOp> sweepOne) {
+        List<Map.Entry<Path, UpdateOp>> ops = new ArrayList<>();
+        for (NodeDocument doc : chunk) {
+            UpdateOp op = sweepOne.apply(doc);
+            if (op != null) {
+                ops.add(immutableEntry(doc.getPath(), op));
+            }
+        }
+        return ops;
+    }
+
+    /**
+     * Passes full batches of the pending update operations to the listener
+     * and returns the remaining operations.
+     */
+    private static List<Map.Entry<Path, UpdateOp>> sweepUpdates(List<Map.Entry<Path, UpdateOp>> pending,
+                                                                int batchSize,
+                                                                NodeDocumentSweepListener listener) {
+        int offset = 0;
+        while (pending.size() - offset >= batchSize) {
+            listener.sweepUpdate(toMap(pending.subList(offset, offset + batchSize)));
+            offset += batchSize;
+        }
+        if (offset == 0) {
+            return pending;
+        }
+        return new ArrayList<>(pending.subList(offset, pending.size()));
+    }
+
+    private static <T> T get(Future<T> future) throws DocumentStoreException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DocumentStoreException("Interrupted while waiting for sweep worker", e);
+        } catch (ExecutionException e) {
+            throw DocumentStoreException.convert(e.getCause());
+        }
+    }
+
+    private static Map<Path, UpdateOp> toMap(List<Map.Entry<Path, UpdateOp>> batch) {
+        Map<Path, UpdateOp> updates = new HashMap<>();
+        for (Map.Entry<Path, UpdateOp> entry : batch) {
+            updates.put(entry.getKey(), entry.getValue());
+        }
+        return updates;
+    }
+}
@@ -29,20 +29,25 @@ public class VersionGCOptions {
     public final int maxIterations;
     public final long maxDurationMs;
     public final double delayFactor;
+    public final int shardCount;
+    public final int shardWorkers;
 
     public VersionGCOptions() {
         this(100000, 100000, TimeUnit.MINUTES.toMillis(1),
-                0, TimeUnit.HOURS.toMillis(0), 0);
+                0, TimeUnit.HOURS.toMillis(0), 0, 1, 1);
     }
 
     private VersionGCOptions(int overflow, long collectLimit, long precisionMs,
-                             int maxIterations, long maxDurationMs, double delayFactor) {
+                             int maxIterations, long maxDurationMs, double delayFactor,
+                             int shardCount, int shardWorkers) {
         this.overflowToDiskThreshold = overflow;
         this.collectLimit = collectLimit;
         this.precisionMs = precisionMs;
         this.maxIterations = maxIterations;
         this.maxDurationMs = maxDurationMs;
         this.delayFactor = delayFactor;
+        this.shardCount = shardCount;
+        this.shardWorkers = shardWorkers;
     }
 
     /**
@@ -52,7 +57,8 @@ public class VersionGCOptions {
      */
     public VersionGCOptions withOverflowToDiskThreshold(int overflowToDiskThreshold) {
         return new VersionGCOptions(overflowToDiskThreshold, this.collectLimit,
-                this.precisionMs, this.maxIterations, this.maxDurationMs, this.delayFactor);
+                this.precisionMs, this.maxIterations, this.maxDurationMs, this.delayFactor,
+                this.shardCount, this.shardWorkers);
     }
 
     /**
@@ -65,7 +71,8 @@ public class VersionGCOptions {
      */
     public VersionGCOptions withCollectLimit(long limit) {
         return new VersionGCOptions(this.overflowToDiskThreshold, limit,
-                this.precisionMs, this.maxIterations, this.maxDurationMs, this.delayFactor);
+                this.precisionMs, this.maxIterations, this.maxDurationMs, this.delayFactor,
+                this.shardCount, this.shardWorkers);
     }
 
     /**
@@ -79,7 +86,8 @@ public class VersionGCOptions {
      */
     public VersionGCOptions withPrecisionMs(TimeUnit unit, long t) {
         return new VersionGCOptions(this.overflowToDiskThreshold, this.collectLimit,
-                unit.toMillis(t), this.maxIterations, this.maxDurationMs, this.delayFactor);
+                unit.toMillis(t), this.maxIterations, this.maxDurationMs, this.delayFactor,
+                this.shardCount, this.shardWorkers);
     }
 
     /**
@@ -93,7 +101,8 @@ public class VersionGCOptions {
      */
     public VersionGCOptions withMaxDuration(TimeUnit unit, long t) {
         return new VersionGCOptions(this.overflowToDiskThreshold, this.collectLimit,
-                this.precisionMs, this.maxIterations, unit.toMillis(t), this.delayFactor);
+                this.precisionMs, this.maxIterations, unit.toMillis(t), this.delayFactor,
+                this.shardCount, this.shardWorkers);
     }
 
     /**
@@ -106,7 +115,8 @@ public class VersionGCOptions {
      */
     public VersionGCOptions withMaxIterations(int max) {
         return new VersionGCOptions(this.overflowToDiskThreshold, this.collectLimit,
-                this.precisionMs, this.maxIterations, max, this.delayFactor);
+                this.precisionMs, this.maxIterations, max, this.delayFactor,
+                this.shardCount, this.shardWorkers);
     }
 
     /**
@@ -122,8 +132,30 @@ public class VersionGCOptions {
      */
     public VersionGCOptions withDelayFactor(double f) {
         return new VersionGCOptions(this.overflowToDiskThreshold, this.collectLimit,
-                this.precisionMs, this.maxIterations, this.maxDurationMs, f);
+                this.precisionMs, this.maxIterations, this.maxDurationMs, f,
+                this.shardCount, this.shardWorkers);
     }
 
-}
+    /**
+     * Split the collection of deleted documents into the given number of
+     * shards over the {@code _modified} range of a run. Shards are processed
+     * by up to {@code workers} threads in parallel and each completed shard is
+     * recorded in the settings collection, which allows an interrupted run to
+     * resume with the remaining shards. A shard count of 1, the default,
+     * processes the range sequentially in the calling thread.
+     *
+     * @param shards  the number of shards, must be at least 1
+     * @param workers the maximum number of shards processed in parallel,
+     *                must be at least 1
+     */
+    public VersionGCOptions withShards(int shards, int workers) {
+        if (shards < 1 || workers < 1) {
+            throw new IllegalArgumentException(
+                    "shards and workers must be positive: " + shards + ", " + workers);
+        }
+        return new VersionGCOptions(this.overflowToDiskThreshold, this.collectLimit,
+                this.precisionMs, this.maxIterations, this.maxDurationMs, this.delayFactor,
+                shards, workers);
+    }
 
+}
@@ -33,8 +33,14 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -162,6 +168,13 @@ public class VersionGarbageCollector {
      */
     static final String SETTINGS_COLLECTION_FULL_GC_DRY_RUN_DOCUMENT_ID_PROP = "fullGCDryRunId";
 
+    /**
+     * Prefix of the property names to the checkpoints of shards completed by
+     * a sharded collection of deleted documents. The start of the shard
+     * follows the prefix, the value is the end of the shard
+     */
+    static final String SETTINGS_COLLECTION_SHARD_PROP_PREFIX = "deletedDocsShard-";
+
     /**
      * During hardening of FullGC one can choose level type of garbage should be cleaned up.
      * Ultimately the goal is to clean up all possible garbage. After hardening these modes
@@ -480,6 +493,8 @@ public class VersionGarbageCollector {
         int deletedInternalPropRevsCount;
         int deletedUnmergedBCCount;
         int deletedOrphanNodesCount;
+        int shardsCompleted;
+        int shardsSkipped;
         final TimeDurationFormatter df = TimeDurationFormatter.forLogging();
         final Stopwatch active = Stopwatch.createUnstarted();
         final Stopwatch fullGCActive = Stopwatch.createUnstarted();
@@ -569,6 +584,8 @@ public class VersionGarbageCollector {
                     ", deletedInternalPropRevsCount=" + deletedInternalPropRevsCount +
                     ", deletedUnmergedBCCount=" + deletedUnmergedBCCount +
                     ", deletedOrphanNodesCount=" + deletedOrphanNodesCount +
+                    ", shardsCompleted=" + shardsCompleted +
+                    ", shardsSkipped=" + shardsSkipped +
                     ", iterationCount=" + iterationCount +
                     ", timeFullGCActive=" + df.format(fullGCActiveElapsed, MICROSECONDS) +
                     ", timeActive=" + df.format(activeElapsed, MICROSECONDS) +
@@ -599,6 +616,8 @@ public class VersionGarbageCollector {
             this.deletedInternalPropRevsCount += run.deletedInternalPropRevsCount;
             this.deletedUnmergedBCCount += run.deletedUnmergedBCCount;
             this.deletedOrphanNodesCount += run.deletedOrphanNodesCount;
+            this.shardsCompleted += run.shardsCompleted;
+            this.shardsSkipped += run.shardsSkipped;
             if (run.iterationCount > 0) {
                 // run is cumulative with times in elapsed fields
                 this.activeElapsed += run.activeElapsed;
@@ -637,6 +656,18 @@ public class VersionGarbageCollector {
                 this.collectUnmergedBCElapsed += run.collectUnmergedBC.elapsed(MICROSECONDS);
             }
         }
+
+        /**
+         * Adds the document counts of a shard processed by a worker of a
+         * sharded collection of deleted documents.
+         */
+        void addShard(VersionGCStats shard) {
+            this.deletedDocGCCount += shard.deletedDocGCCount;
+            this.deletedLeafDocGCCount += shard.deletedLeafDocGCCount;
+            this.splitDocGCCount += shard.splitDocGCCount;
+            this.updateResurrectedGCCount += shard.updateResurrectedGCCount;
+            this.shardsCompleted += shard.shardsCompleted;
+        }
     }
 
     enum GCPhase {
@@ -1005,6 +1036,10 @@ public class VersionGarbageCollector {
                                              RevisionVector headRevision,
                                              VersionGCRecommendations rec)
                 throws IOException, LimitExceededException {
+            if (options.shardCount > 1) {
+                collectDeletedDocumentsSharded(phases, headRevision, rec);
+                return;
+            }
             int docsTraversed = 0;
             try (DeletedDocsGC gc = new DeletedDocsGC(headRevision, cancel, options, monitor)) {
                 if (phases.start(GCPhase.COLLECTING)) {
@@ -1073,6 +1108,271 @@ public class VersionGarbageCollector {
                 }
             }
         }
+
+        /**
+         * Collects deleted documents like {@link #collectDeletedDocuments},
+         * but splits the {@code _modified} range of the scope into
+         * {@link VersionGCOptions#shardCount} shards, which are processed by
+         * up to {@link VersionGCOptions#shardWorkers} threads. A completed
+         * shard is checkpointed in the settings collection and not processed
+         * again when an interrupted run is resumed. The checkpoints are
+         * removed once all shards of a run completed.
+         */
+        private void collectDeletedDocumentsSharded(GCPhases phases,
+                                                    RevisionVector headRevision,
+                                                    VersionGCRecommendations rec)
+                throws IOException, LimitExceededException {
+            if (!phases.start(GCPhase.COLLECTING)) {
+                return;
+            }
+            gcStats.shardsStarted();
+            List<TimeInterval> completed = readShardCheckpoints();
+            List<TimeInterval> pending = new ArrayList<>();
+            for (TimeInterval shard : splitIntoShards(rec.scope, options.shardCount)) {
+                List<TimeInterval> remaining = subtract(shard, completed);
+                if (remaining.isEmpty()) {
+                    gcStats.shardSkipped(shard);
+                    phases.stats.shardsSkipped++;
+                }
+                pending.addAll(remaining);
+            }
+            monitor.info("Collecting deleted documents in {} shards with {} workers ({} already completed)",
+                    pending.size(), Math.min(options.shardWorkers, pending.size()), phases.stats.shardsSkipped);
+            if (pending.isEmpty()) {
+                clearShardCheckpoints();
+                phases.stop(GCPhase.COLLECTING);
+                return;
+            }
+
+            AtomicBoolean stop = new AtomicBoolean();
+            AtomicLong collected = new AtomicLong();
+            AtomicInteger threadCount = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.min(options.shardWorkers, pending.size()), r -> {
+                        Thread t = new Thread(r, "VersionGC-shard-" + threadCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            Throwable failure = null;
+            try {
+                List<Future<VersionGCStats>> results = new ArrayList<>();
+                for (TimeInterval shard : pending) {
+                    results.add(executor.submit(
+                            () -> collectShard(shard, headRevision, rec, stop, collected)));
+                }
+                for (Future<VersionGCStats> result : results) {
+                    try {
+                        phases.stats.addShard(result.get());
+                    } catch (ExecutionException e) {
+                        stop.set(true);
+                        if (failure == null) {
+                            failure = e.getCause();
+                        }
+                    } catch (InterruptedException e) {
+                        stop.set(true);
+                        cancel.set(true);
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            if (failure instanceof LimitExceededException) {
+                throw (LimitExceededException) failure;
+            } else if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+            if (!stop.get() && !cancel.get()) {
+                // all shards are done, the checkpoints are not needed anymore
+                clearShardCheckpoints();
+            }
+            phases.stop(GCPhase.COLLECTING);
+        }
+
+        /**
+         * Collects and removes the deleted documents of a single shard. This
+         * method is called by a worker thread of the sharded collection.
+         *
+         * @param shard the time interval of the shard.
+         * @param headRevision the current head revision of node store.
+         * @param rec the recommendations for this run.
+         * @param stop flag shared by all shards and set when the collection
+         *          must stop.
+         * @param collected the number of non-leaf documents collected by all
+         *          shards so far.
+         * @return the statistics for this shard.
+         */
+        private VersionGCStats collectShard(TimeInterval shard,
+                                            RevisionVector headRevision,
+                                            VersionGCRecommendations rec,
+                                            AtomicBoolean stop,
+                                            AtomicLong collected)
+                throws IOException, LimitExceededException {
+            VersionGCStats stats = new VersionGCStats();
+            Stopwatch sw = Stopwatch.createStarted();
+            long docsRead = 0;
+            try (DeletedDocsGC gc = new DeletedDocsGC(headRevision, stop, options, monitor)) {
+                Iterable<NodeDocument> itr = versionStore.getPossiblyDeletedDocs(shard.fromMs, shard.toMs);
+                try {
+                    for (NodeDocument doc : itr) {
+                        if (cancel.get()) {
+                            stop.set(true);
+                        }
+                        if (stop.get()) {
+                            return stats;
+                        }
+                        docsRead++;
+                        long size = gc.docIdsToDelete.getSize();
+                        gc.possiblyDeleted(doc);
+                        long total = collected.addAndGet(gc.docIdsToDelete.getSize() - size);
+                        if (rec.maxCollect > 0 && total > rec.maxCollect) {
+                            stop.set(true);
+                            throw new LimitExceededException();
+                        }
+                        if (gc.hasLeafBatch() && throttle(stop)) {
+                            gc.removeLeafDocuments(stats);
+                        }
+                        if (gc.hasRescurrectUpdateBatch() && throttle(stop)) {
+                            gc.updateResurrectedDocuments(stats);
+                        }
+                    }
+                } finally {
+                    Utils.closeIfCloseable(itr);
+                }
+                if (gc.getNumDocuments() != 0 && throttle(stop)) {
+                    gc.removeLeafDocuments(stats);
+                    gc.ensureSorted();
+                    gc.removeDocuments(stats);
+                }
+                if (!stop.get()) {
+                    gc.updateResurrectedDocuments(stats);
+                }
+            }
+            if (!stop.get()) {
+                writeShardCheckpoint(shard);
+                stats.shardsCompleted = 1;
+                gcStats.shardCompleted(shard, docsRead, stats.deletedDocGCCount, sw.elapsed(MICROSECONDS));
+            }
+            return stats;
+        }
+
+        /**
+         * Waits for the time requested by the {@link Throttler} of the
+         * document store before a worker sends the next batch of
+         * modifications.
+         *
+         * @return {@code false} if the collection must stop instead.
+         */
+        private boolean throttle(AtomicBoolean stop) {
+            long throttlingTime = ds.throttler().throttlingTime();
+            if (throttlingTime > 0 && !stop.get()) {
+                try {
+                    Clock clock = nodeStore.getClock();
+                    clock.waitUntil(clock.getTime() + throttlingTime);
+                } catch (InterruptedException e) {
+                    stop.set(true);
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (cancel.get()) {
+                stop.set(true);
+            }
+            return !stop.get();
+        }
+    }
+
+    /**
+     * Splits the given scope into {@code count} shards of about the same
+     * duration. The returned list has fewer shards when the scope is shorter
+     * than {@code count} milliseconds.
+     */
+    static List<TimeInterval> splitIntoShards(TimeInterval scope, int count) {
+        List<TimeInterval> shards = new ArrayList<>();
+        long duration = scope.getDurationMs();
+        long from = scope.fromMs;
+        for (int i = 1; i <= count; i++) {
+            long to = scope.fromMs + duration * i / count;
+            if (to > from) {
+                shards.add(new TimeInterval(from, to));
+                from = to;
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * @return the parts of {@code shard} not covered by any of the
+     *          {@code completed} intervals.
+     */
+    static List<TimeInterval> subtract(TimeInterval shard, List<TimeInterval> completed) {
+        List<TimeInterval> remaining = new ArrayList<>();
+        long from = shard.fromMs;
+        for (TimeInterval c : completed) {
+            if (c.toMs <= from || c.fromMs >= shard.toMs) {
+                continue;
+            }
+            if (c.fromMs > from) {
+                remaining.add(new TimeInterval(from, c.fromMs));
+            }
+            from = Math.max(from, c.toMs);
+        }
+        if (from < shard.toMs) {
+            remaining.add(new TimeInterval(from, shard.toMs));
+        }
+        return remaining;
+    }
+
+    /**
+     * Reads the shards completed by an earlier, interrupted run. A completed
+     * shard remains valid even when the scope of this run is different: the
+     * deleted documents within the shard were removed and documents deleted
+     * afterwards have a more recent {@code _modified} value.
+     *
+     * @return the completed shards ordered by their start.
+     */
+    private List<TimeInterval> readShardCheckpoints() {
+        List<TimeInterval> completed = new ArrayList<>();
+        Document settings = ds.find(SETTINGS, SETTINGS_COLLECTION_ID, 0);
+        if (settings != null) {
+            for (String key : settings.keySet()) {
+                Object to = settings.get(key);
+                if (key.startsWith(SETTINGS_COLLECTION_SHARD_PROP_PREFIX) && to instanceof Number) {
+                    long from = Long.parseLong(key.substring(SETTINGS_COLLECTION_SHARD_PROP_PREFIX.length()));
+                    completed.add(new TimeInterval(from, ((Number) to).longValue()));
+                }
+            }
+            completed.sort((a, b) -> Long.compare(a.fromMs, b.fromMs));
+        }
+        return completed;
+    }
+
+    private void writeShardCheckpoint(TimeInterval shard) {
+        UpdateOp op = new UpdateOp(SETTINGS_COLLECTION_ID, true);
+        op.set(SETTINGS_COLLECTION_SHARD_PROP_PREFIX + shard.fromMs, shard.toMs);
+        ds.createOrUpdate(SETTINGS, op);
+    }
+
+    private void clearShardCheckpoints() {
+        Document settings = ds.find(SETTINGS, SETTINGS_COLLECTION_ID, 0);
+        if (settings != null) {
+            UpdateOp op = new UpdateOp(SETTINGS_COLLECTION_ID, false);
+            for (String key : settings.keySet()) {
+                if (key.startsWith(SETTINGS_COLLECTION_SHARD_PROP_PREFIX)) {
+                    op.remove(key);
+                }
+            }
+            if (op.hasChanges()) {
+                ds.findAndUpdate(SETTINGS, op);
+            }
+        }
     }
 
     private class FullGC implements Closeable {
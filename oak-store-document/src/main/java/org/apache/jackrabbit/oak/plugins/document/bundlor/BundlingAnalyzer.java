@@ -0,0 +1,496 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.document.bundlor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.commons.concurrent.ExecutorCloser;
+import org.apache.jackrabbit.oak.commons.properties.SystemPropertySupplier;
+import org.apache.jackrabbit.oak.spi.commit.BackgroundObserver;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observable;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.nodetype.NodeTypeConstants;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateUtils;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.apache.jackrabbit.oak.api.Type.STRINGS;
+import static org.apache.jackrabbit.oak.commons.conditions.Validate.checkArgument;
+import static org.apache.jackrabbit.oak.plugins.document.bundlor.BundlingConfigHandler.CONFIG_PATH;
+
+/**
+ * Detects node types with small child subtrees that are created together with
+ * the node and proposes bundling patterns for them. Depending on the
+ * {@link Mode}, proposals are only logged or added to the bundling
+ * configuration at {@link BundlingConfigHandler#CONFIG_PATH}. Proposals are
+ * added by a separate thread of the analyzer, with a commit that runs
+ * through the given commit hook, which should be the commit hook of the
+ * repository.
+ * <p>
+ * The analyzer observes local commits. For each added node with a primary
+ * type, which is not yet configured, it records which relative paths up to
+ * {@link #MAX_DEPTH} are present and whether the subtree at that path is
+ * small. A path is proposed once a type was seen {@code minSamples} times and
+ * the path was present with a small subtree in at least {@code minRatio} of
+ * the samples. Proposed patterns are always explicit relative paths, never
+ * wildcards, which keeps the size of bundled documents bounded.
+ * <p>
+ * Applying a proposal is safe in a cluster. The analyzer only adds
+ * configurations for types that are not configured yet, and never changes or
+ * re-enables an existing configuration. The bundling pattern is stored with
+ * each node when it is created, therefore the new configuration only applies
+ * to nodes created after the change and existing documents are read as
+ * before. Other cluster nodes pick up the change with the
+ * {@link BundlingConfigHandler}, and a concurrent addition of the same type
+ * by another cluster node fails with a conflict and is ignored.
+ */
+public class BundlingAnalyzer implements Observer, Closeable {
+
+    public enum Mode {
+        /**
+         * The analyzer is disabled.
+         */
+        OFF,
+        /**
+         * Proposals are logged and available with
+         * {@link BundlingAnalyzer#getProposals()}.
+         */
+        PROPOSE,
+        /**
+         * Proposals are added to the bundling configuration.
+         */
+        APPLY;
+
+        public static Mode fromString(String mode) {
+            for (Mode m : values()) {
+                if (m.name().equalsIgnoreCase(mode)) {
+                    return m;
+                }
+            }
+            throw new IllegalArgumentException("Unknown adaptive bundling mode: " + mode);
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(BundlingAnalyzer.class);
+
+    /**
+     * Name of the system property with the default {@link Mode}.
+     */
+    public static final String SYS_PROP_MODE = "oak.documentMK.adaptiveBundling";
+
+    public static final Mode DEFAULT_MODE = Mode.fromString(SystemPropertySupplier.create(
+            SYS_PROP_MODE, Mode.OFF.name()).loggingTo(LOG).get());
+
+    public static final int DEFAULT_MIN_SAMPLES = 100;
+
+    public static final double DEFAULT_MIN_RATIO = 0.9;
+
+    public static final int DEFAULT_MAX_SUBTREE_NODES = 10;
+
+    /**
+     * Maximum depth of a proposed relative path.
+     */
+    static final int MAX_DEPTH = 2;
+
+    /**
+     * Types that are used for arbitrary content and must not be bundled
+     * based on a sample.
+     */
+    private static final Set<String> EXCLUDED_TYPES = Set.of(
+            JcrConstants.NT_BASE, JcrConstants.NT_UNSTRUCTURED, JcrConstants.NT_FOLDER,
+            JcrConstants.NT_FROZENNODE, NodeTypeConstants.NT_OAK_UNSTRUCTURED,
+            "sling:Folder", "sling:OrderedFolder");
+
+    /**
+     * Prefix of the types of the repository implementation, for example of
+     * the index definitions.
+     */
+    private static final String OAK_TYPE_PREFIX = "oak:";
+
+    /**
+     * Maximum number of relative paths tracked per type.
+     */
+    private static final int MAX_PATHS = 1000;
+
+    private final NodeStore store;
+
+    private final Mode mode;
+
+    private final CommitHook hook;
+
+    private final int minSamples;
+
+    private final double minRatio;
+
+    private final int maxSubtreeNodes;
+
+    private final Map<String, TypeStats> stats = new HashMap<>();
+
+    private final Map<String, List<String>> proposals = new LinkedHashMap<>();
+
+    /**
+     * Proposals not yet applied to the bundling configuration.
+     */
+    private Map<String, List<String>> pending = new LinkedHashMap<>();
+
+    private NodeState root;
+
+    private BackgroundObserver backgroundObserver;
+
+    private Closeable observerRegistration;
+
+    /**
+     * Applies the proposals, created when the first proposal is made.
+     */
+    private ExecutorService applyExecutor;
+
+    private volatile boolean closed;
+
+    /**
+     * @param store the node store where proposals are applied.
+     * @param mode the mode of the analyzer.
+     * @param hook the commit hook of the repository, used when proposals
+     *          are applied. Required with {@link Mode#APPLY}.
+     * @param minSamples the minimum number of nodes of a type seen before a
+     *          proposal is made.
+     * @param minRatio the minimum ratio of nodes where a relative path is
+     *          present with a small subtree.
+     * @param maxSubtreeNodes the maximum number of nodes in a subtree
+     *          considered small, including the root of the subtree.
+     */
+    public BundlingAnalyzer(@NotNull NodeStore store,
+                            @NotNull Mode mode,
+                            @Nullable CommitHook hook,
+                            int minSamples,
+                            double minRatio,
+                            int maxSubtreeNodes) {
+        checkArgument(mode != Mode.APPLY || hook != null,
+                "A commit hook is required to apply proposals");
+        this.store = store;
+        this.mode = mode;
+        this.hook = hook;
+        this.minSamples = minSamples;
+        this.minRatio = minRatio;
+        this.maxSubtreeNodes = maxSubtreeNodes;
+    }
+
+    public BundlingAnalyzer(@NotNull NodeStore store, @NotNull Mode mode,
+                            @Nullable CommitHook hook) {
+        this(store, mode, hook, DEFAULT_MIN_SAMPLES, DEFAULT_MIN_RATIO,
+                DEFAULT_MAX_SUBTREE_NODES);
+    }
+
+    public void initialize(Observable observable, Executor executor) {
+        backgroundObserver = new BackgroundObserver(this, executor, 5);
+        observerRegistration = observable.addObserver(backgroundObserver);
+        LOG.info("Adaptive bundling enabled (mode: {})", mode);
+    }
+
+    /**
+     * Stops the analyzer. Proposals that were not applied yet are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        ExecutorService executor;
+        synchronized (this) {
+            executor = applyExecutor;
+            applyExecutor = null;
+        }
+        if (executor != null) {
+            new ExecutorCloser(executor).close();
+        }
+        if (backgroundObserver != null) {
+            observerRegistration.close();
+            backgroundObserver.close();
+
+            observerRegistration = null;
+            backgroundObserver = null;
+        }
+    }
+
+    @Override
+    public synchronized void contentChanged(@NotNull NodeState root, @NotNull CommitInfo info) {
+        NodeState before = this.root;
+        this.root = root;
+        if (before == null || info.isExternal()) {
+            // initial content or changes of other cluster nodes
+            // are analyzed by the cluster node making the change
+            return;
+        }
+        Set<String> sampled = new HashSet<>();
+        NodeState config = NodeStateUtils.getNode(root, CONFIG_PATH);
+        root.compareAgainstBaseState(before, new ChangeCollector(config, sampled));
+        List<String> candidates = new ArrayList<>();
+        for (String type : sampled) {
+            TypeStats ts = stats.get(type);
+            if (ts.count >= minSamples && !proposals.containsKey(type)) {
+                candidates.add(type);
+            }
+        }
+        if (!candidates.isEmpty()) {
+            propose(candidates);
+            if (!pending.isEmpty() && !closed) {
+                scheduleApply();
+            }
+        }
+    }
+
+    /**
+     * @return the proposed bundling patterns by node type.
+     */
+    public synchronized Map<String, List<String>> getProposals() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(proposals));
+    }
+
+    /**
+     * Adds the pending proposals to the bundling configuration when the
+     * analyzer runs in {@link Mode#APPLY}, unless the analyzer is closed.
+     */
+    void applyProposals() {
+        Map<String, List<String>> changes;
+        synchronized (this) {
+            if (pending.isEmpty() || closed) {
+                return;
+            }
+            changes = pending;
+            pending = new LinkedHashMap<>();
+        }
+        NodeBuilder builder = store.getRoot().builder();
+        NodeBuilder config = builder;
+        for (String name : PathUtils.elements(CONFIG_PATH)) {
+            config = config.getChildNode(name);
+        }
+        if (!config.exists()) {
+            LOG.info("Bundling configuration at {} does not exist, proposals are not applied",
+                    CONFIG_PATH);
+            return;
+        }
+        for (Map.Entry<String, List<String>> e : changes.entrySet()) {
+            if (config.hasChildNode(e.getKey())) {
+                continue;
+            }
+            NodeBuilder typeConfig = config.child(e.getKey());
+            typeConfig.setProperty(JcrConstants.JCR_PRIMARYTYPE,
+                    NodeTypeConstants.NT_OAK_UNSTRUCTURED, Type.NAME);
+            typeConfig.setProperty(DocumentBundlor.PROP_PATTERN, e.getValue(), STRINGS);
+        }
+        try {
+            store.merge(builder, hook, CommitInfo.EMPTY);
+            LOG.info("Added bundling configuration for {}", changes.keySet());
+        } catch (CommitFailedException e) {
+            // most likely a concurrent change by another cluster node,
+            // the proposals are not retried
+            LOG.info("Unable to add bundling configuration for {}: {}",
+                    changes.keySet(), e.getMessage());
+        }
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    /**
+     * Applies the proposals with the thread of the analyzer. Not from the
+     * observer, because it commits to the node store.
+     */
+    private void scheduleApply() {
+        if (applyExecutor == null) {
+            applyExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "BundlingAnalyzer apply proposals");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        applyExecutor.execute(this::applyProposals);
+    }
+
+    private void propose(List<String> types) {
+        NodeState config = NodeStateUtils.getNode(root, CONFIG_PATH);
+        for (String type : types) {
+            if (config.hasChildNode(type)) {
+                // configured, possibly disabled: do not touch
+                stats.remove(type);
+                continue;
+            }
+            List<String> patterns = stats.get(type).patterns();
+            if (patterns.isEmpty()) {
+                continue;
+            }
+            LOG.info("Proposed bundling pattern for {}: {}", type, patterns);
+            proposals.put(type, patterns);
+            if (mode == Mode.APPLY) {
+                pending.put(type, patterns);
+            }
+        }
+    }
+
+    /**
+     * Records the relative paths of a node that was added.
+     *
+     * @return the type of the node or {@code null} if the node is not
+     *          sampled.
+     */
+    private String sample(NodeState node, NodeState config) {
+        PropertyState ps = node.getProperty(JcrConstants.JCR_PRIMARYTYPE);
+        if (ps == null) {
+            return null;
+        }
+        String type = ps.getValue(Type.NAME);
+        if (EXCLUDED_TYPES.contains(type) || type.startsWith("rep:")
+                || type.startsWith(OAK_TYPE_PREFIX) || config.hasChildNode(type)) {
+            return null;
+        }
+        TypeStats ts = stats.computeIfAbsent(type, t -> new TypeStats());
+        ts.count++;
+        for (ChildNodeEntry child : node.getChildNodeEntries()) {
+            samplePath(ts, child.getName(), child.getNodeState(), 1);
+        }
+        return type;
+    }
+
+    private void samplePath(TypeStats ts, String path, NodeState node, int depth) {
+        if (NodeStateUtils.isHidden(PathUtils.getName(path))) {
+            return;
+        }
+        long nodes = countNodes(node, maxSubtreeNodes + 1);
+        if (nodes <= maxSubtreeNodes
+                && (ts.small.size() < MAX_PATHS || ts.small.containsKey(path))) {
+            ts.small.merge(path, 1L, Long::sum);
+        }
+        if (depth < MAX_DEPTH) {
+            for (ChildNodeEntry child : node.getChildNodeEntries()) {
+                samplePath(ts, PathUtils.concat(path, child.getName()),
+                        child.getNodeState(), depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Counts the nodes of the subtree at the given node, but stops counting
+     * once the limit is reached.
+     */
+    private static long countNodes(NodeState node, long limit) {
+        long count = 1;
+        for (ChildNodeEntry child : node.getChildNodeEntries()) {
+            if (count >= limit) {
+                break;
+            }
+            count += countNodes(child.getNodeState(), limit - count);
+        }
+        return count;
+    }
+
+    private final class TypeStats {
+
+        /**
+         * Number of nodes of this type.
+         */
+        long count;
+
+        /**
+         * Number of nodes of this type with a small subtree at the
+         * relative path.
+         */
+        final Map<String, Long> small = new TreeMap<>();
+
+        List<String> patterns() {
+            List<String> patterns = new ArrayList<>();
+            // TreeMap: parent paths come before their descendants
+            for (Map.Entry<String, Long> e : small.entrySet()) {
+                String path = e.getKey();
+                if (e.getValue() < count * minRatio) {
+                    continue;
+                }
+                String parent = PathUtils.getParentPath(path);
+                if (!parent.isEmpty() && !patterns.contains(parent)) {
+                    continue;
+                }
+                patterns.add(path);
+            }
+            return patterns;
+        }
+    }
+
+    private final class ChangeCollector extends DefaultNodeStateDiff {
+
+        private final NodeState config;
+
+        private final Set<String> sampled;
+
+        ChangeCollector(NodeState config, Set<String> sampled) {
+            this.config = config;
+            this.sampled = sampled;
+        }
+
+        @Override
+        public boolean childNodeAdded(String name, NodeState after) {
+            if (!NodeStateUtils.isHidden(name)) {
+                added(after);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean childNodeChanged(String name, NodeState before, NodeState after) {
+            if (NodeStateUtils.isHidden(name)) {
+                return true;
+            }
+            return after.compareAgainstBaseState(before, this);
+        }
+
+        private void added(NodeState node) {
+            String type = sample(node, config);
+            if (type != null) {
+                sampled.add(type);
+            }
+            for (ChildNodeEntry child : node.getChildNodeEntries()) {
+                if (!NodeStateUtils.isHidden(child.getName())) {
+                    added(child.getNodeState());
+                }
+            }
+        }
+    }
+}
@@ -25,17 +25,20 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 import org.apache.jackrabbit.guava.common.base.Splitter;
 import org.apache.jackrabbit.guava.common.collect.ImmutableMap;
 import org.apache.jackrabbit.guava.common.collect.Maps;
 import org.apache.jackrabbit.oak.cache.CacheStats;
 import org.apache.jackrabbit.oak.commons.properties.SystemPropertySupplier;
+import org.apache.jackrabbit.oak.plugins.document.AsyncDocumentStore;
 import org.apache.jackrabbit.oak.plugins.document.Collection;
 import org.apache.jackrabbit.oak.plugins.document.Document;
 import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
@@ -56,9 +59,10 @@ import com.mongodb.WriteConcern;
 
 /**
  * Emulates a MongoDB store (possibly consisting of multiple shards and
- * replicas).
+ * replicas). The asynchronous methods complete in the calling thread, there
+ * is no I/O to overlap.
  */
-public class MemoryDocumentStore implements DocumentStore {
+public class MemoryDocumentStore implements DocumentStore, AsyncDocumentStore {
 
     /**
      * The 'nodes' collection.
@@ -470,6 +474,56 @@ public class MemoryDocumentStore implements DocumentStore {
         return 0;
     }
 
+    @NotNull
+    @Override
+    public <T extends Document> CompletableFuture<T> findAsync(Collection<T> collection,
+                                                               String key) {
+        return completed(() -> find(collection, key));
+    }
+
+    @NotNull
+    @Override
+    public <T extends Document> CompletableFuture<List<T>> queryAsync(Collection<T> collection,
+                                                                      String fromKey,
+                                                                      String toKey,
+                                                                      int limit) {
+        return completed(() -> query(collection, fromKey, toKey, limit));
+    }
+
+    @NotNull
+    @Override
+    public <T extends Document> CompletableFuture<List<T>> createOrUpdateAsync(Collection<T> collection,
+                                                                               List<UpdateOp> updateOps) {
+        return completed(() -> createOrUpdate(collection, updateOps));
+    }
+
+    @NotNull
+    @Override
+    public <T extends Document> CompletableFuture<T> findAndUpdateAsync(Collection<T> collection,
+                                                                        UpdateOp update) {
+        return completed(() -> findAndUpdate(collection, update));
+    }
+
+    @NotNull
+    @Override
+    public <T extends Document> CompletableFuture<Void> prefetchAsync(Collection<T> collection,
+                                                                      Iterable<String> keys) {
+        return completed(() -> {
+            prefetch(collection, keys);
+            return null;
+        });
+    }
+
+    private static <R> CompletableFuture<R> completed(Supplier<R> request) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        try {
+            future.complete(request.get());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
     private void checkSize(Document doc) {
         if (SIZE_LIMIT >= 0) {
             int size = doc.getMemory();
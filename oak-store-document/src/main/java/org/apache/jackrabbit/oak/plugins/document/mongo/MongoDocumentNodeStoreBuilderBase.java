@@ -20,6 +20,7 @@ import java.util.concurrent.TimeUnit;
 
 import com.mongodb.MongoClient;
 
+import org.apache.jackrabbit.oak.commons.properties.SystemPropertySupplier;
 import org.apache.jackrabbit.oak.plugins.blob.ReferencedBlob;
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStoreBuilder;
@@ -44,6 +45,8 @@ public abstract class MongoDocumentNodeStoreBuilderBase<T extends MongoDocumentN
     private long maxReplicationLagMillis = TimeUnit.HOURS.toMillis(6);
     private boolean clientSessionDisabled = false;
     private int leaseSocketTimeout = 0;
+    private boolean dedicatedLeaseConnection = SystemPropertySupplier.create(
+            "oak.mongo.dedicatedLeaseConnection", Boolean.FALSE).get();
     private String uri;
     private String name;
     private String collectionCompressionType;
@@ -158,6 +161,30 @@ public abstract class MongoDocumentNodeStoreBuilderBase<T extends MongoDocumentN
         return leaseSocketTimeout;
     }
 
+    /**
+     * Enables or disables a dedicated connection for lease update operations,
+     * even when no lease socket timeout is set. With a dedicated connection,
+     * lease updates do not wait for a connection that is used by other
+     * operations. This setting only has an effect when the MongoDB is set
+     * with a URI. The default can be set with the system property
+     * {@code oak.mongo.dedicatedLeaseConnection}.
+     *
+     * @param dedicated whether to use a dedicated connection.
+     * @return this builder.
+     */
+    public T setDedicatedLeaseConnection(boolean dedicated) {
+        this.dedicatedLeaseConnection = dedicated;
+        return thisBuilder();
+    }
+
+    /**
+     * @return whether a dedicated connection is used for lease update
+     *      operations.
+     */
+    boolean isDedicatedLeaseConnection() {
+        return leaseSocketTimeout > 0 || (dedicatedLeaseConnection && uri != null && name != null);
+    }
+
     public T setMaxReplicationLag(long duration, TimeUnit unit){
         maxReplicationLagMillis = unit.toMillis(duration);
         return thisBuilder();
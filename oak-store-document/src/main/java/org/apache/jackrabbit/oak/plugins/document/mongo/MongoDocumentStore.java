@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.oak.plugins.document.mongo;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -45,7 +46,9 @@ import org.apache.jackrabbit.guava.common.collect.ImmutableMap;
 import org.apache.jackrabbit.guava.common.collect.Iterables;
 import org.apache.jackrabbit.guava.common.collect.Iterators;
 import org.apache.jackrabbit.guava.common.collect.Lists;
+import org.apache.jackrabbit.guava.common.collect.AbstractIterator;
 import org.apache.jackrabbit.guava.common.io.Closeables;
+import org.apache.jackrabbit.guava.common.io.Closer;
 import org.apache.jackrabbit.guava.common.util.concurrent.AtomicDouble;
 import com.mongodb.Block;
 import com.mongodb.DBObject;
@@ -84,6 +87,7 @@ import org.apache.jackrabbit.oak.plugins.document.cache.ModificationStamp;
 import org.apache.jackrabbit.oak.plugins.document.cache.NodeDocumentCache;
 import org.apache.jackrabbit.oak.plugins.document.locks.NodeDocumentLocks;
 import org.apache.jackrabbit.oak.plugins.document.locks.StripedNodeDocumentLocks;
+import org.apache.jackrabbit.oak.plugins.document.util.CloseableIterable;
 import org.apache.jackrabbit.oak.plugins.document.util.Utils;
 import org.apache.jackrabbit.oak.stats.Clock;
 import org.apache.jackrabbit.oak.commons.PerfLogger;
@@ -397,9 +401,8 @@ public class MongoDocumentStore implements DocumentStore {
     @NotNull
     private MongoDBConnection getOrCreateClusterNodesConnection(@NotNull MongoDocumentNodeStoreBuilderBase<?> builder) {
         MongoDBConnection mc;
-        int leaseSocketTimeout = builder.getLeaseSocketTimeout();
-        if (leaseSocketTimeout > 0) {
-            mc = builder.createMongoDBClient(leaseSocketTimeout);
+        if (builder.isDedicatedLeaseConnection()) {
+            mc = builder.createMongoDBClient(builder.getLeaseSocketTimeout());
         } else {
             // use same connection
             mc = connection;
@@ -797,31 +800,8 @@ public class MongoDocumentStore implements DocumentStore {
                                                          long maxQueryTime) {
         log("query", fromKey, toKey, indexedProperty, startValue, limit);
 
-        List<Bson> clauses = new ArrayList<>();
-        clauses.add(Filters.gt(Document.ID, fromKey));
-        clauses.add(Filters.lt(Document.ID, toKey));
-
-        Bson hint;
-        if (NodeDocument.MODIFIED_IN_SECS.equals(indexedProperty)
-                && canUseModifiedTimeIdx(startValue)) {
-            hint = new BasicDBObject(NodeDocument.MODIFIED_IN_SECS, 1);
-        } else {
-            hint = new BasicDBObject(NodeDocument.ID, 1);
-        }
-
-        if (indexedProperty != null) {
-            if (NodeDocument.DELETED_ONCE.equals(indexedProperty)) {
-                if (startValue != 1) {
-                    throw new DocumentStoreException(
-                            "unsupported value for property " + 
-                                    NodeDocument.DELETED_ONCE);
-                }
-                clauses.add(Filters.eq(indexedProperty, true));
-            } else {
-                clauses.add(Filters.gte(indexedProperty, startValue));
-            }
-        }
-        Bson query = Filters.and(clauses);
+        Bson query = createQueryFilter(fromKey, toKey, indexedProperty, startValue);
+        Bson hint = createQueryHint(indexedProperty, startValue);
         String parentId = Utils.getParentIdFromLowerLimit(fromKey);
         long lockTime = -1;
         final Stopwatch watch = startWatch();
@@ -844,29 +824,8 @@ public class MongoDocumentStore implements DocumentStore {
             List<T> list = new ArrayList<T>();
             MongoCollection<BasicDBObject> dbCollection = getDBCollection(collection, readPreference);
             execute(session -> {
-                FindIterable<BasicDBObject> result;
-                if (session != null) {
-                    result = dbCollection.find(session, query);
-                } else {
-                    result = dbCollection.find(query);
-                }
-
-                if (projection != null && !projection.isEmpty()) {
-                    result.projection(include(projection));
-                }
-
-                result.sort(BY_ID_ASC);
-                if (limit >= 0) {
-                    result.limit(limit);
-                }
-                if (!disableIndexHint && !hasModifiedIdCompoundIndex) {
-                    result.hint(hint);
-                }
-                if (maxQueryTime > 0) {
-                    // OAK-2614: set maxTime if maxQueryTimeMS > 0
-                    result.maxTime(maxQueryTime, TimeUnit.MILLISECONDS);
-                }
-
+                FindIterable<BasicDBObject> result = createFindIterable(dbCollection,
+                        session, query, hint, limit, projection, maxQueryTime);
                 try (MongoCursor<BasicDBObject> cursor = result.iterator()) {
                     for (int i = 0; i < limit && cursor.hasNext(); i++) {
                         BasicDBObject o = cursor.next();
@@ -892,6 +851,241 @@ public class MongoDocumentStore implements DocumentStore {
         }
     }
 
+    /**
+     * Streaming variant of
+     * {@link #query(Collection, String, String, String, long, int, List)}.
+     * Documents are read lazily from a MongoDB cursor, which fetches
+     * {@code batchSize} documents per round trip, instead of being
+     * materialized up to {@code limit} into a list. Use this method for
+     * scans over large key ranges. Each iterator obtained from the returned
+     * iterable opens a new cursor. The returned iterable must be closed,
+     * which also closes all cursors opened by it.
+     * <p>
+     * With {@code populateCache} set to {@code false}, the documents read by
+     * this method are not put into the document cache. This avoids evicting
+     * frequently used documents from the cache with documents a scan reads
+     * only once. Documents read with a projection are never put into the
+     * cache.
+     * <p>
+     * Unlike the {@code query} methods, a failed read is not retried, because
+     * the caller may already have consumed part of the result.
+     *
+     * @param collection the collection
+     * @param fromKey the start value (excluding)
+     * @param toKey the end value (excluding)
+     * @param indexedProperty the name of the indexed property (optional)
+     * @param startValue the minimum value of the indexed property
+     * @param limit the maximum number of entries to return
+     * @param projection the names of the fields to include or an empty list
+     *          to read all fields.
+     * @param batchSize the number of documents the cursor fetches per round
+     *          trip.
+     * @param populateCache whether to put the documents into the document
+     *          cache.
+     * @param <T> the document type
+     * @return the documents in ascending key order.
+     * @throws DocumentStoreException if the query fails.
+     */
+    @NotNull
+    public <T extends Document> CloseableIterable<T> queryAsIterable(@NotNull Collection<T> collection,
+                                                                     @NotNull String fromKey,
+                                                                     @NotNull String toKey,
+                                                                     @Nullable String indexedProperty,
+                                                                     long startValue,
+                                                                     int limit,
+                                                                     @NotNull List<String> projection,
+                                                                     int batchSize,
+                                                                     boolean populateCache)
+            throws DocumentStoreException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be greater than zero: " + batchSize);
+        }
+        log("queryAsIterable", fromKey, toKey, indexedProperty, startValue, limit);
+        Bson query = createQueryFilter(fromKey, toKey, indexedProperty, startValue);
+        Bson hint = createQueryHint(indexedProperty, startValue);
+        boolean cache = populateCache && collection == NODES && projection.isEmpty();
+        return CloseableIterable.wrap(() -> new DocumentCursor<>(collection, fromKey, toKey,
+                query, hint, indexedProperty != null, limit, projection, batchSize, cache));
+    }
+
+    @NotNull
+    private static Bson createQueryFilter(String fromKey,
+                                          String toKey,
+                                          String indexedProperty,
+                                          long startValue) {
+        List<Bson> clauses = new ArrayList<>();
+        clauses.add(Filters.gt(Document.ID, fromKey));
+        clauses.add(Filters.lt(Document.ID, toKey));
+
+        if (indexedProperty != null) {
+            if (NodeDocument.DELETED_ONCE.equals(indexedProperty)) {
+                if (startValue != 1) {
+                    throw new DocumentStoreException(
+                            "unsupported value for property " + 
+                                    NodeDocument.DELETED_ONCE);
+                }
+                clauses.add(Filters.eq(indexedProperty, true));
+            } else {
+                clauses.add(Filters.gte(indexedProperty, startValue));
+            }
+        }
+        return Filters.and(clauses);
+    }
+
+    @NotNull
+    private Bson createQueryHint(String indexedProperty, long startValue) {
+        if (NodeDocument.MODIFIED_IN_SECS.equals(indexedProperty)
+                && canUseModifiedTimeIdx(startValue)) {
+            return new BasicDBObject(NodeDocument.MODIFIED_IN_SECS, 1);
+        } else {
+            return new BasicDBObject(NodeDocument.ID, 1);
+        }
+    }
+
+    @NotNull
+    private FindIterable<BasicDBObject> createFindIterable(MongoCollection<BasicDBObject> dbCollection,
+                                                           @Nullable ClientSession session,
+                                                           Bson query,
+                                                           Bson hint,
+                                                           int limit,
+                                                           List<String> projection,
+                                                           long maxQueryTime) {
+        FindIterable<BasicDBObject> result;
+        if (session != null) {
+            result = dbCollection.find(session, query);
+        } else {
+            result = dbCollection.find(query);
+        }
+
+        if (projection != null && !projection.isEmpty()) {
+            result.projection(include(projection));
+        }
+
+        result.sort(BY_ID_ASC);
+        if (limit >= 0) {
+            result.limit(limit);
+        }
+        if (!disableIndexHint && !hasModifiedIdCompoundIndex) {
+            result.hint(hint);
+        }
+        if (maxQueryTime > 0) {
+            // OAK-2614: set maxTime if maxQueryTimeMS > 0
+            result.maxTime(maxQueryTime, TimeUnit.MILLISECONDS);
+        }
+        return result;
+    }
+
+    /**
+     * Iterator over the documents read from a MongoDB cursor. Documents are
+     * put into the document cache in batches if requested.
+     */
+    private final class DocumentCursor<T extends Document>
+            extends AbstractIterator<T> implements Closeable {
+
+        private final Collection<T> collection;
+        private final String fromKey;
+        private final String toKey;
+        private final boolean indexedProperty;
+        private final int limit;
+        private final int batchSize;
+        private final Closer closer = Closer.create();
+        private final Stopwatch watch = startWatch();
+        private final MongoCursor<BasicDBObject> cursor;
+        private final CacheChangesTracker tracker;
+        private final boolean isSlaveOk;
+        private List<NodeDocument> toCache = new ArrayList<>();
+        private int resultSize;
+
+        DocumentCursor(Collection<T> collection,
+                       String fromKey,
+                       String toKey,
+                       Bson query,
+                       Bson hint,
+                       boolean indexedProperty,
+                       int limit,
+                       List<String> projection,
+                       int batchSize,
+                       boolean populateCache) {
+            this.collection = collection;
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+            this.indexedProperty = indexedProperty;
+            this.limit = limit;
+            this.batchSize = batchSize;
+            ReadPreference readPreference = getMongoReadPreference(collection,
+                    Utils.getParentIdFromLowerLimit(fromKey), getDefaultReadPreference(collection));
+            this.isSlaveOk = readPreference.isSlaveOk();
+            MongoCollection<BasicDBObject> dbCollection = getDBCollection(collection, readPreference);
+            try {
+                ClientSession session = null;
+                if (withClientSession()) {
+                    session = closer.register(createClientSession(collection));
+                }
+                if (populateCache) {
+                    this.tracker = closer.register(nodesCache.registerTracker(fromKey, toKey));
+                } else {
+                    this.tracker = null;
+                }
+                this.cursor = closer.register(createFindIterable(dbCollection, session,
+                        query, hint, limit, projection, maxQueryTimeMS)
+                        .batchSize(batchSize).iterator());
+            } catch (MongoException e) {
+                closeQuietly();
+                throw handleException(e, collection, List.of(fromKey, toKey));
+            } catch (RuntimeException e) {
+                closeQuietly();
+                throw e;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        protected T computeNext() {
+            try {
+                if (resultSize < limit && cursor.hasNext()) {
+                    T doc = convertFromDBObject(collection, cursor.next());
+                    resultSize++;
+                    if (tracker != null) {
+                        toCache.add((NodeDocument) doc);
+                        if (toCache.size() >= batchSize) {
+                            populateCache();
+                        }
+                    }
+                    return doc;
+                }
+            } catch (MongoException e) {
+                throw handleException(e, collection, List.of(fromKey, toKey));
+            }
+            populateCache();
+            return endOfData();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                closer.close();
+            } finally {
+                stats.doneQuery(watch.elapsed(TimeUnit.NANOSECONDS), collection,
+                        fromKey, toKey, indexedProperty, resultSize, -1, isSlaveOk);
+            }
+        }
+
+        private void populateCache() {
+            if (tracker != null && !toCache.isEmpty()) {
+                nodesCache.putNonConflictingDocs(tracker, toCache);
+                toCache = new ArrayList<>();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                closer.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing cursor", e);
+            }
+        }
+    }
+
     boolean canUseModifiedTimeIdx(long modifiedTimeInSecs) {
         if (maxDeltaForModTimeIdxSecs < 0) {
             return false;
@@ -1310,6 +1504,10 @@ public class MongoDocumentStore implements DocumentStore {
      * for the concurrently modified docs. The method will then remove the
      * failed documents from the {@code oldDocs} and restart the process from
      * point 2. It will stop after 3rd iteration.
+     * <p>
+     * The remaining failed UpdateOps are applied one after another with
+     * findAndModify(), which returns the current document and lets the
+     * caller check for conflicts without another read.
      */
     @SuppressWarnings("unchecked")
     @Nullable
@@ -1341,11 +1539,15 @@ public class MongoDocumentStore implements DocumentStore {
             }
 
             for (int i = 0; i <= bulkRetries; i++) {
-                if (operationsToCover.size() <= 2) {
-                    // bulkUpdate() method invokes Mongo twice, so sending 2 updates
-                    // in bulk mode wouldn't result in any performance gain
+                if (!useBulkUpdate(operationsToCover.keySet(), oldDocs)) {
                     break;
                 }
+                // read all missing documents with a single find() call
+                // instead of one call per partition
+                Set<String> lackingDocs = difference(operationsToCover.keySet(), oldDocs.keySet());
+                if (lackingDocs.size() > bulkSize) {
+                    oldDocs.putAll(findDocuments(collection, lackingDocs));
+                }
                 for (List<UpdateOp> partition : CollectionUtils.partitionList(new ArrayList<>(operationsToCover.values()), bulkSize)) {
                     Map<UpdateOp, T> successfulUpdates = bulkUpdate(collection, partition, oldDocs);
                     results.putAll(successfulUpdates);
@@ -1375,6 +1577,25 @@ public class MongoDocumentStore implements DocumentStore {
         return resultList;
     }
 
+    /**
+     * Returns {@code true} if the given documents should be updated with
+     * {@link #bulkUpdate(Collection, List, Map)}. The bulk update requires
+     * one request to read missing documents and another one to write the
+     * changes, which doesn't pay off for up to two updates. Unless the old
+     * documents are all known, in which case a single bulk request replaces
+     * two findAndModify() calls.
+     *
+     * @param ids the ids of the documents to update.
+     * @param oldDocs the known documents before the update.
+     * @return whether to use a bulk update.
+     */
+    private static boolean useBulkUpdate(Set<String> ids, Map<String, ?> oldDocs) {
+        if (ids.size() > 2) {
+            return true;
+        }
+        return ids.size() == 2 && oldDocs.keySet().containsAll(ids);
+    }
+
     private Map<String, NodeDocument> getCachedNodes(Set<String> keys) {
         Map<String, NodeDocument> nodes = new HashMap<String, NodeDocument>();
         for (String key : keys) {
@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.persistentCache;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the broadcast messages of a {@link PersistentCache} during a batch
+ * window and sends them as a single frame. Messages for the same cache type
+ * and key within a window are coalesced, only the most recent one is sent.
+ * Frames larger than {@link #COMPRESS_THRESHOLD} bytes are deflated.
+ * <p>
+ * The payload of a frame is a sequence of messages, each prefixed with its
+ * length. A message is the cache type ordinal followed by the key and the
+ * value as written by the cache.
+ */
+class BroadcastBatcher implements Runnable {
+
+    static final Logger LOG = LoggerFactory.getLogger(BroadcastBatcher.class);
+
+    /**
+     * Marker in place of the cache type ordinal of a regular message.
+     */
+    static final byte BATCH = (byte) 0xff;
+
+    static final byte FLAG_DEFLATED = 1;
+
+    static final int COMPRESS_THRESHOLD = 512;
+
+    /**
+     * Maximum uncompressed size of the messages in a frame. Keeps frames
+     * within the message size supported by the UDP broadcaster.
+     */
+    static final int MAX_FRAME_SIZE = 24 * 1024;
+
+    private final long windowMillis;
+
+    private final Consumer<byte[]> sender;
+
+    /**
+     * Pending messages, keyed by the cache type and key.
+     */
+    private final Map<ByteBuffer, byte[]> pending = new LinkedHashMap<>();
+
+    /**
+     * Held while a frame is encoded and sent, so that frames are sent in
+     * the order the messages were added, and a flush returns only after
+     * the messages added before were sent.
+     */
+    private final Object sendLock = new Object();
+
+    private int pendingBytes;
+
+    private long messages;
+
+    private long frames;
+
+    private final Thread thread;
+
+    private volatile boolean stop;
+
+    /**
+     * @param windowMillis the batch window in milliseconds.
+     * @param sender receives the encoded frames, which consist of the flags
+     *          byte followed by the (possibly compressed) payload.
+     */
+    BroadcastBatcher(long windowMillis, Consumer<byte[]> sender) {
+        this.windowMillis = windowMillis;
+        this.sender = sender;
+        thread = new Thread(this, "Oak PersistentCache broadcast batcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Adds a message to the current batch.
+     *
+     * @param message the message: the cache type ordinal, followed by the
+     *          key and the value.
+     * @param keyLength the number of bytes of the message that identify the
+     *          cache entry, including the cache type.
+     */
+    void add(byte[] message, int keyLength) {
+        ByteBuffer key = ByteBuffer.wrap(message, 0, keyLength).slice();
+        boolean flush;
+        synchronized (pending) {
+            byte[] old = pending.remove(key);
+            if (old != null) {
+                pendingBytes -= old.length + 4;
+            }
+            pending.put(key, message);
+            pendingBytes += message.length + 4;
+            messages++;
+            flush = pendingBytes >= MAX_FRAME_SIZE;
+        }
+        if (flush) {
+            flush();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!stop) {
+            synchronized (this) {
+                try {
+                    wait(windowMillis);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Sends the pending messages.
+     */
+    void flush() {
+        synchronized (sendLock) {
+            List<byte[]> batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pending.values());
+                pending.clear();
+                pendingBytes = 0;
+                frames++;
+            }
+            try {
+                sender.accept(encode(batch));
+            } catch (RuntimeException e) {
+                LOG.warn("Sending broadcast frame failed", e);
+            }
+        }
+    }
+
+    /**
+     * Stops the batch window thread and sends the pending messages.
+     */
+    void close() {
+        stop = true;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            // ignore
+        }
+        flush();
+    }
+
+    /**
+     * @return the number of messages added since the batcher was created.
+     */
+    long getMessageCount() {
+        synchronized (pending) {
+            return messages;
+        }
+    }
+
+    /**
+     * @return the number of frames sent since the batcher was created.
+     */
+    long getFrameCount() {
+        synchronized (pending) {
+            return frames;
+        }
+    }
+
+    static byte[] encode(List<byte[]> messages) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] m : messages) {
+            writeInt(out, m.length);
+            out.write(m, 0, m.length);
+        }
+        byte[] payload = out.toByteArray();
+        if (payload.length > COMPRESS_THRESHOLD) {
+            byte[] deflated = deflate(payload);
+            if (deflated.length < payload.length) {
+                byte[] frame = new byte[deflated.length + 5];
+                frame[0] = FLAG_DEFLATED;
+                ByteBuffer.wrap(frame, 1, 4).putInt(payload.length);
+                System.arraycopy(deflated, 0, frame, 5, deflated.length);
+                return frame;
+            }
+        }
+        byte[] frame = new byte[payload.length + 1];
+        System.arraycopy(payload, 0, frame, 1, payload.length);
+        return frame;
+    }
+
+    /**
+     * Decodes a frame and passes each message to the given consumer.
+     *
+     * @param buff the frame, starting with the flags byte and ending at the
+     *          limit of the buffer.
+     * @param consumer receives the messages.
+     */
+    static void decode(ByteBuffer buff, Consumer<ByteBuffer> consumer) {
+        byte flags = buff.get();
+        ByteBuffer payload;
+        if ((flags & FLAG_DEFLATED) != 0) {
+            int length = buff.getInt();
+            byte[] data = new byte[length];
+            byte[] input = new byte[buff.remaining()];
+            buff.get(input);
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(input);
+                int n = 0;
+                while (n < length && !inflater.finished()) {
+                    int read = inflater.inflate(data, n, length - n);
+                    if (read == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    n += read;
+                }
+                if (n != length) {
+                    throw new IllegalArgumentException("Truncated broadcast frame");
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("Corrupt broadcast frame", e);
+            } finally {
+                inflater.end();
+            }
+            payload = ByteBuffer.wrap(data);
+        } else {
+            payload = buff.slice();
+        }
+        while (payload.remaining() >= 4) {
+            int length = payload.getInt();
+            ByteBuffer m = payload.slice();
+            ((Buffer) m).limit(length);
+            consumer.accept(m);
+            ((Buffer) payload).position(payload.position() + length);
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int x) {
+        out.write(x >>> 24);
+        out.write(x >>> 16);
+        out.write(x >>> 8);
+        out.write(x);
+    }
+}
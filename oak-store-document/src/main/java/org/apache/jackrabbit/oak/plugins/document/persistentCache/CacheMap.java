@@ -90,6 +90,20 @@ public class CacheMap<K, V> {
         }
     }
 
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (int i = 0;; i++) {
+            if (closed) {
+                return;
+            }
+            try {
+                map.putAll(m);
+                return;
+            } catch (Exception e) {
+                reopen(i, e);
+            }
+        }
+    }
+
     public V get(Object key) {
         for (int i = 0;; i++) {
             if (closed) {
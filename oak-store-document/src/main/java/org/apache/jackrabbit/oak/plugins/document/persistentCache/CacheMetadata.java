@@ -87,6 +87,11 @@ public class CacheMetadata<K> {
         getOrCreate(key, false).incrementCount();
     }
 
+    long getAccessCount(Object key) {
+        MetadataEntry metadata = metadataMap.get(key);
+        return metadata == null ? 0 : metadata.getAccessCount();
+    }
+
     MetadataEntry remove(Object key) {
         if (!enabled) {
             return null;
@@ -0,0 +1,648 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.persistentCache;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.h2.mvstore.type.ObjectDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link MapFactory} backed by an append-only log file. Each generation of
+ * the persistent cache is a single file; entries are never updated in place
+ * and the file is never compacted. Old data is dropped when the generation is
+ * rolled over by the {@link PersistentCache}.
+ * <p>
+ * The location of the latest value of each key is kept in an in-memory hash
+ * index, keyed by the serialized form of the key. Reads do not acquire any
+ * lock: they look up the index and read the value with a positional read from
+ * the file. Writes are appended to the end of the file by a single writer at
+ * a time. The entries of a {@link Map#putAll(Map)} are appended with a single
+ * write.
+ * <p>
+ * The file format is a header followed by a sequence of records:
+ * <pre>
+ * header:  magic (8 bytes), version (int)
+ * record:  length (int), kind (byte), map id (int), key length (int),
+ *          key bytes, value bytes
+ * </pre>
+ * A record that is incomplete at the end of the file (for example after a
+ * crash) is discarded when the file is opened.
+ */
+class LogStoreMapFactory extends MapFactory {
+
+    static final Logger LOG = LoggerFactory.getLogger(LogStoreMapFactory.class);
+
+    private static final byte[] MAGIC = "OAKPCLOG".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_LENGTH = MAGIC.length + 4;
+
+    /**
+     * Length of the record header after the length field: kind, map id and
+     * key length.
+     */
+    private static final int RECORD_HEADER_LENGTH = 1 + 4 + 4;
+
+    private static final byte KIND_MAP = 1;
+    private static final byte KIND_PUT = 2;
+    private static final byte KIND_REMOVE = 3;
+    private static final byte KIND_CLEAR = 4;
+
+    /**
+     * Values with a length equal or larger than this are not stored inline in
+     * the index entry. The entry then points to the record header instead.
+     */
+    private static final int MAX_INLINE_LENGTH = (1 << 24) - 1;
+
+    private final String fileName;
+    private final boolean readOnly;
+    private final Runnable exceptionHandler;
+    private final Map<String, LogMap<?, ?>> mapsByName = new HashMap<>();
+    private final Map<Integer, LogMap<?, ?>> mapsById = new HashMap<>();
+    private final WriteBuffer writeBuffer = new WriteBuffer();
+
+    private File file;
+    private boolean temporary;
+    private volatile FileChannel channel;
+    private volatile long size;
+
+    /**
+     * Create a new factory.
+     *
+     * @param fileName the file name, or {@code null} for a temporary file
+     *          that is removed when the store is closed
+     * @param readOnly whether the store is read-only
+     * @param exceptionHandler called whenever an exception is handled
+     */
+    LogStoreMapFactory(String fileName,
+                       boolean readOnly,
+                       Runnable exceptionHandler) {
+        this.fileName = fileName;
+        this.readOnly = readOnly;
+        this.exceptionHandler = exceptionHandler;
+    }
+
+    @Override
+    synchronized void openStore() {
+        if (channel != null) {
+            return;
+        }
+        try {
+            if (fileName == null) {
+                file = File.createTempFile("cache-", ".log");
+                temporary = true;
+            } else {
+                file = new File(fileName);
+            }
+            if (readOnly) {
+                if (!file.exists()) {
+                    // nothing to read
+                    return;
+                }
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            } else {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            }
+            // maps opened before are re-used, so that references held by
+            // a CacheMap stay valid when the store is re-opened
+            for (LogMap<?, ?> m : mapsById.values()) {
+                m.index.clear();
+            }
+            if (!readHeader()) {
+                if (readOnly) {
+                    LOG.info("Ignoring persistent cache file with unknown format {}", file);
+                    size = channel.size();
+                    return;
+                }
+                if (channel.size() > 0) {
+                    LOG.info("Resetting persistent cache file with unknown format {}", file);
+                }
+                writeHeader();
+                for (LogMap<?, ?> m : mapsById.values()) {
+                    append(KIND_MAP, m.id, m.name.getBytes(StandardCharsets.UTF_8), null, null);
+                }
+            } else {
+                scan();
+            }
+        } catch (IOException e) {
+            exceptionHandler.run();
+            LOG.warn("Could not open the store " + fileName, e);
+            closeChannel();
+        }
+    }
+
+    @Override
+    synchronized void closeStore() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            if (!readOnly) {
+                // clear the interrupted flag, if set
+                Thread.interrupted();
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            exceptionHandler.run();
+            LOG.debug("Could not close the store", e);
+            LOG.warn("Could not close the store: " + e);
+        }
+        closeChannel();
+        for (LogMap<?, ?> m : mapsById.values()) {
+            m.index.clear();
+        }
+        if (temporary) {
+            file.delete();
+        }
+    }
+
+    @Override
+    synchronized <K, V> Map<K, V> openMap(String name, MVMap.Builder<K, V> builder) {
+        if (channel == null) {
+            exceptionHandler.run();
+            LOG.warn("Could not open the map {}, the store is closed", name);
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        LogMap<K, V> m = (LogMap<K, V>) mapsByName.get(name);
+        if (m == null) {
+            m = new LogMap<>(mapsByName.size() + 1, name);
+            if (!readOnly) {
+                try {
+                    append(KIND_MAP, m.id, name.getBytes(StandardCharsets.UTF_8), null, null);
+                } catch (IOException e) {
+                    exceptionHandler.run();
+                    LOG.warn("Could not open the map", e);
+                    return null;
+                }
+            }
+            mapsByName.put(name, m);
+            mapsById.put(m.id, m);
+        }
+        if (builder == null) {
+            m.init(new ObjectDataType(), new ObjectDataType());
+        } else {
+            m.init(builder.getKeyType(), builder.getValueType());
+        }
+        return m;
+    }
+
+    @Override
+    long getFileSize() {
+        return size;
+    }
+
+    private void closeChannel() {
+        FileChannel c = channel;
+        channel = null;
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                LOG.debug("Could not close the file", e);
+            }
+        }
+    }
+
+    private boolean readHeader() throws IOException {
+        if (channel.size() < HEADER_LENGTH) {
+            return false;
+        }
+        ByteBuffer buff = ByteBuffer.allocate(HEADER_LENGTH);
+        readFully(channel, buff, 0);
+        byte[] magic = new byte[MAGIC.length];
+        buff.get(magic);
+        return Arrays.equals(magic, MAGIC) && buff.getInt() == VERSION;
+    }
+
+    private void writeHeader() throws IOException {
+        channel.truncate(0);
+        ByteBuffer buff = ByteBuffer.allocate(HEADER_LENGTH);
+        buff.put(MAGIC);
+        buff.putInt(VERSION);
+        ((Buffer) buff).flip();
+        writeFully(channel, buff, 0);
+        size = HEADER_LENGTH;
+    }
+
+    /**
+     * Read all records and rebuild the index. An incomplete record at the end
+     * of the file is removed.
+     */
+    private void scan() throws IOException {
+        long fileSize = channel.size();
+        long pos = HEADER_LENGTH;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(pos)), 64 * 1024));
+        try {
+            while (pos + 4 <= fileSize) {
+                int length = in.readInt();
+                if (length < RECORD_HEADER_LENGTH || pos + 4 + length > fileSize) {
+                    break;
+                }
+                byte kind = in.readByte();
+                int mapId = in.readInt();
+                int keyLength = in.readInt();
+                int valueLength = length - RECORD_HEADER_LENGTH - keyLength;
+                if (keyLength < 0 || valueLength < 0) {
+                    break;
+                }
+                byte[] key = new byte[keyLength];
+                in.readFully(key);
+                skipFully(in, valueLength);
+                if (!apply(kind, mapId, key, pos, valueLength)) {
+                    break;
+                }
+                pos += 4 + length;
+            }
+        } catch (EOFException e) {
+            // truncated record
+        }
+        if (pos < fileSize) {
+            LOG.info("Discarding {} bytes at the end of persistent cache file {}",
+                    fileSize - pos, file);
+            if (!readOnly) {
+                channel.truncate(pos);
+            }
+        }
+        size = pos;
+    }
+
+    private boolean apply(byte kind, int mapId, byte[] key, long recordPos, int valueLength) {
+        if (kind == KIND_MAP) {
+            String name = new String(key, StandardCharsets.UTF_8);
+            LogMap<?, ?> m = mapsByName.get(name);
+            if (m == null) {
+                m = new LogMap<>(mapId, name);
+                mapsByName.put(name, m);
+            } else if (m.id != mapId) {
+                return false;
+            }
+            mapsById.put(mapId, m);
+            return true;
+        }
+        LogMap<?, ?> m = mapsById.get(mapId);
+        if (m == null) {
+            return false;
+        }
+        switch (kind) {
+            case KIND_PUT:
+                m.index.put(ByteBuffer.wrap(key), indexEntry(recordPos, key.length, valueLength));
+                return true;
+            case KIND_REMOVE:
+                m.index.remove(ByteBuffer.wrap(key));
+                return true;
+            case KIND_CLEAR:
+                m.index.clear();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Append a record to the log.
+     *
+     * @return the position of the record within the file
+     */
+    private synchronized long append(byte kind, int mapId, byte[] key,
+                                     DataType<Object> valueType, Object value)
+            throws IOException {
+        WriteBuffer buff = writeBuffer;
+        buff.clear();
+        writeRecord(buff, kind, mapId, key, valueType, value);
+        return flush(buff);
+    }
+
+    /**
+     * Append the records in the buffer to the log.
+     *
+     * @return the position of the first record within the file
+     */
+    private synchronized long flush(WriteBuffer buff) throws IOException {
+        FileChannel c = channel;
+        if (c == null) {
+            throw new IOException("The store is closed");
+        }
+        ByteBuffer bb = buff.getBuffer();
+        int length = bb.position();
+        ((Buffer) bb).flip();
+        long pos = size;
+        writeFully(c, bb, pos);
+        size = pos + length;
+        return pos;
+    }
+
+    private static void writeRecord(WriteBuffer buff, byte kind, int mapId, byte[] key,
+                                    DataType<Object> valueType, Object value) {
+        int start = buff.position();
+        // space for the length
+        buff.putInt(0);
+        buff.put(kind);
+        buff.putInt(mapId);
+        buff.putInt(key.length);
+        buff.put(key);
+        if (value != null) {
+            valueType.write(buff, value);
+        }
+        buff.getBuffer().putInt(start, buff.position() - start - 4);
+    }
+
+    private static long indexEntry(long recordPos, int keyLength, int valueLength) {
+        if (valueLength >= MAX_INLINE_LENGTH) {
+            return (recordPos << 24) | MAX_INLINE_LENGTH;
+        }
+        long valuePos = recordPos + 4 + RECORD_HEADER_LENGTH + keyLength;
+        return (valuePos << 24) | valueLength;
+    }
+
+    private static void readFully(FileChannel c, ByteBuffer buff, long pos)
+            throws IOException {
+        while (buff.hasRemaining()) {
+            int len = c.read(buff, pos);
+            if (len < 0) {
+                throw new EOFException();
+            }
+            pos += len;
+        }
+        ((Buffer) buff).flip();
+    }
+
+    private static void writeFully(FileChannel c, ByteBuffer buff, long pos)
+            throws IOException {
+        while (buff.hasRemaining()) {
+            pos += c.write(buff, pos);
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes(n);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * A map within the log. The index maps the serialized key to the position
+     * and length of the latest value: the upper 40 bits are the position, the
+     * lower 24 bits the length (see {@link #MAX_INLINE_LENGTH}).
+     */
+    private class LogMap<K, V> extends AbstractMap<K, V> {
+
+        final int id;
+        final String name;
+        final ConcurrentHashMap<ByteBuffer, Long> index = new ConcurrentHashMap<>();
+        private final ThreadLocal<WriteBuffer> keyBuffer =
+                ThreadLocal.withInitial(WriteBuffer::new);
+        private volatile DataType<Object> keyType;
+        private volatile DataType<Object> valueType;
+
+        LogMap(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @SuppressWarnings("unchecked")
+        void init(DataType<?> keyType, DataType<?> valueType) {
+            this.keyType = (DataType<Object>) keyType;
+            this.valueType = (DataType<Object>) valueType;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public V get(Object key) {
+            Long entry = index.get(ByteBuffer.wrap(serialize(key)));
+            if (entry == null) {
+                return null;
+            }
+            return (V) readValue(entry);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return index.containsKey(ByteBuffer.wrap(serialize(key)));
+        }
+
+        @Override
+        public V put(K key, V value) {
+            if (readOnly) {
+                return null;
+            }
+            byte[] k = serialize(key);
+            try {
+                // the index is updated while holding the write lock, so that
+                // concurrent puts of the same key are applied in log order
+                synchronized (LogStoreMapFactory.this) {
+                    long recordPos = append(KIND_PUT, id, k, valueType, value);
+                    int valueLength = (int) (size - recordPos) - 4 - RECORD_HEADER_LENGTH - k.length;
+                    index.put(ByteBuffer.wrap(k), indexEntry(recordPos, k.length, valueLength));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write to " + file, e);
+            }
+            // the previous value is not needed by the persistent cache
+            return null;
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends V> m) {
+            if (readOnly || m.isEmpty()) {
+                return;
+            }
+            List<byte[]> keys = new ArrayList<>(m.size());
+            List<Object> values = new ArrayList<>(m.size());
+            for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+                keys.add(serialize(e.getKey()));
+                values.add(e.getValue());
+            }
+            try {
+                synchronized (LogStoreMapFactory.this) {
+                    WriteBuffer buff = writeBuffer;
+                    buff.clear();
+                    int[] ends = new int[keys.size()];
+                    for (int i = 0; i < ends.length; i++) {
+                        writeRecord(buff, KIND_PUT, id, keys.get(i), valueType, values.get(i));
+                        ends[i] = buff.position();
+                    }
+                    long pos = flush(buff);
+                    int start = 0;
+                    for (int i = 0; i < ends.length; i++) {
+                        byte[] k = keys.get(i);
+                        int valueLength = ends[i] - start - 4 - RECORD_HEADER_LENGTH - k.length;
+                        index.put(ByteBuffer.wrap(k), indexEntry(pos + start, k.length, valueLength));
+                        start = ends[i];
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write to " + file, e);
+            }
+        }
+
+        @Override
+        public V remove(Object key) {
+            if (readOnly) {
+                return null;
+            }
+            byte[] k = serialize(key);
+            try {
+                synchronized (LogStoreMapFactory.this) {
+                    if (index.remove(ByteBuffer.wrap(k)) != null) {
+                        append(KIND_REMOVE, id, k, null, null);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write to " + file, e);
+            }
+            // the previous value is not needed by the persistent cache
+            return null;
+        }
+
+        @Override
+        public void clear() {
+            if (readOnly) {
+                return;
+            }
+            try {
+                synchronized (LogStoreMapFactory.this) {
+                    index.clear();
+                    append(KIND_CLEAR, id, new byte[0], null, null);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write to " + file, e);
+            }
+        }
+
+        @Override
+        public int size() {
+            return index.size();
+        }
+
+        /**
+         * The entries of the map. The keys are deserialized, and the values
+         * read from the file, while iterating.
+         */
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<Entry<K, V>>() {
+
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    Iterator<Map.Entry<ByteBuffer, Long>> it = index.entrySet().iterator();
+                    return new Iterator<Entry<K, V>>() {
+
+                        private K current;
+
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @SuppressWarnings("unchecked")
+                        @Override
+                        public Entry<K, V> next() {
+                            Map.Entry<ByteBuffer, Long> e = it.next();
+                            current = (K) keyType.read(e.getKey().duplicate());
+                            return new SimpleImmutableEntry<>(current, (V) readValue(e.getValue()));
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (current == null) {
+                                throw new IllegalStateException();
+                            }
+                            LogMap.this.remove(current);
+                            current = null;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return index.size();
+                }
+            };
+        }
+
+        private byte[] serialize(Object key) {
+            WriteBuffer buff = keyBuffer.get();
+            buff.clear();
+            keyType.write(buff, key);
+            ByteBuffer bb = buff.getBuffer();
+            byte[] k = new byte[bb.position()];
+            ((Buffer) bb).flip();
+            bb.get(k);
+            return k;
+        }
+
+        private Object readValue(long entry) {
+            FileChannel c = channel;
+            if (c == null) {
+                throw new IllegalStateException("The store is closed: " + name);
+            }
+            long pos = entry >>> 24;
+            int valueLength = (int) (entry & MAX_INLINE_LENGTH);
+            try {
+                if (valueLength == MAX_INLINE_LENGTH) {
+                    // for large values the entry points to the record
+                    ByteBuffer header = ByteBuffer.allocate(4 + RECORD_HEADER_LENGTH);
+                    readFully(c, header, pos);
+                    int length = header.getInt();
+                    header.get();
+                    header.getInt();
+                    int keyLength = header.getInt();
+                    valueLength = length - RECORD_HEADER_LENGTH - keyLength;
+                    pos += 4 + RECORD_HEADER_LENGTH + keyLength;
+                }
+                ByteBuffer buff = ByteBuffer.allocate(valueLength);
+                readFully(c, buff, pos);
+                return valueType.read(buff);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read from " + file, e);
+            }
+        }
+    }
+}
@@ -117,7 +117,12 @@ public class MultiGenerationMap<K, V> implements Map<K, V> {
 
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
-        throw new UnsupportedOperationException();
+        CacheMap<K, V> w = write;
+        if (w == null) {
+            // closed concurrently
+            return;
+        }
+        w.putAll(m);
     }
 
     @Override
@@ -87,15 +87,15 @@ class NodeCache<K extends CacheValue, V extends  CacheValue>
         keyType = new KeyDataType(type);
         valueType = new ValueDataType(docNodeStore, docStore, type);
         this.memCacheMetadata = new CacheMetadata<K>();
+        this.stats = new PersistentCacheStats(type, statisticsProvider);
         if (async) {
-            this.writeQueue = new CacheWriteQueue<K, V>(dispatcher, cache, map);
+            this.writeQueue = new CacheWriteQueue<K, V>(dispatcher, cache, map, stats);
             LOG.info("The persistent cache {} writes will be asynchronous", type);
         } else {
             this.writeQueue = null;
             this.memCacheMetadata.disable();
             LOG.info("The persistent cache {} writes will be synchronous", type);
         }
-        this.stats = new PersistentCacheStats(type, statisticsProvider);
     }
     
     @Override
@@ -157,8 +157,16 @@ class NodeCache<K extends CacheValue, V extends  CacheValue>
     }
 
     private void broadcast(final K key, final V value) {
+        if (value != null && !isHot(key)) {
+            // entries are immutable, other cluster nodes only need
+            // the values they are likely to read; a cold entry is
+            // broadcast once it becomes hot (see broadcastIfHot)
+            return;
+        }
         cache.broadcast(type, buffer -> {
                 keyType.write(buffer, key);
+                return null;
+            }, buffer -> {
                 if (value == null) {
                     buffer.put((byte) 0);
                 } else {
@@ -169,6 +177,31 @@ class NodeCache<K extends CacheValue, V extends  CacheValue>
             });
     }
 
+    /**
+     * @return whether the key was accessed at least as often as configured
+     *      with the {@code broadcastHot} option. Always {@code true} when
+     *      the option is not set or access counts are not tracked.
+     */
+    private boolean isHot(K key) {
+        int threshold = cache.getBroadcastHotThreshold();
+        return threshold <= 0
+                || !memCacheMetadata.isEnabled()
+                || memCacheMetadata.getAccessCount(key) >= threshold;
+    }
+
+    /**
+     * Broadcasts the value of a cache hit if the key just became hot, that
+     * is, this access reached the {@code broadcastHot} threshold.
+     */
+    private void broadcastIfHot(K key, V value) {
+        int threshold = cache.getBroadcastHotThreshold();
+        if (threshold > 0
+                && memCacheMetadata.isEnabled()
+                && memCacheMetadata.getAccessCount(key) == threshold) {
+            broadcast(key, value);
+        }
+    }
+
     private void write(final K key, final V value) {
         cache.switchGenerationIfNeeded();
         if (value == null) {
@@ -196,6 +229,7 @@ class NodeCache<K extends CacheValue, V extends  CacheValue>
         if (value == null) {
             memCacheMetadata.remove(key);
         } else {
+            broadcastIfHot((K) key, value);
             return value;
         }
 
@@ -212,6 +246,7 @@ class NodeCache<K extends CacheValue, V extends  CacheValue>
         if (value != null) {
             memCache.put((K) key, value);
             stats.markHit();
+            broadcastIfHot((K) key, value);
         }
         return value;
     }
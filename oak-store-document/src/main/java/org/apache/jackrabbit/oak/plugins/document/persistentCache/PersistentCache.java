@@ -56,6 +56,7 @@ public class PersistentCache implements Broadcaster.Listener {
 
     private static final String FILE_PREFIX = "cache-";
     private static final String FILE_SUFFIX = ".data";
+    private static final String LOG_FILE_SUFFIX = ".log";
     private static final AtomicInteger COUNTER = new AtomicInteger();
 
     private boolean cacheNodes = true;
@@ -80,7 +81,17 @@ public class PersistentCache implements Broadcaster.Listener {
     private int autoCompact = 0;
     private boolean appendOnly;
     private boolean manualCommit;
+    private boolean logStore;
     private Broadcaster broadcaster;
+    /**
+     * The batch window of the broadcastBatch option, 0 (the default) to
+     * send each message by itself. Older versions can't read batched
+     * frames, so the option must only be enabled once all cluster nodes
+     * support it.
+     */
+    private int broadcastBatchMillis;
+    private int broadcastHotThreshold;
+    private BroadcastBatcher broadcastBatcher;
     private ThreadLocal<WriteBuffer> writeBuffer = new ThreadLocal<WriteBuffer>();
     private final byte[] broadcastId;
     private DynamicBroadcastConfig broadcastConfig;
@@ -141,13 +152,29 @@ public class PersistentCache implements Broadcaster.Listener {
                 manualCommit = true;
             } else if (p.startsWith("broadcast=")) {
                 broadcast = p.split("=")[1];               
+            } else if (p.startsWith("broadcastBatch=")) {
+                broadcastBatchMillis = Integer.parseInt(p.split("=")[1]);
+            } else if (p.startsWith("broadcastHot=")) {
+                broadcastHotThreshold = Integer.parseInt(p.split("=")[1]);
             } else if (p.equals("-async")) {
                 asyncCache = false;
             } else if (p.equals("+asyncDiff")) {
                 asyncDiffCache = true;
+            } else if (p.startsWith("store=")) {
+                String store = p.split("=")[1];
+                if (store.equals("log")) {
+                    logStore = true;
+                } else if (store.equals("mvstore")) {
+                    logStore = false;
+                } else {
+                    LOG.warn("Unknown persistent cache store type '{}', using mvstore", store);
+                }
             }
         }
         this.directory = dir;
+        // the stores use different file names, so that a file is never
+        // opened with the store of the other format
+        String suffix = getFileSuffix();
         if (dir.length() == 0) {
             readGeneration = -1;
             writeGeneration = 0;
@@ -166,8 +193,12 @@ public class PersistentCache implements Broadcaster.Listener {
         if (list != null) {
             for (File f : list) {
                 String fn = f.getName();
-                if (fn.startsWith(FILE_PREFIX) && fn.endsWith(FILE_SUFFIX)) {
-                    String g = fn.substring(FILE_PREFIX.length(), fn.indexOf(FILE_SUFFIX));
+                if (fn.startsWith(FILE_PREFIX) && !fn.endsWith(suffix)
+                        && (fn.endsWith(FILE_SUFFIX) || fn.endsWith(LOG_FILE_SUFFIX))) {
+                    LOG.info("Ignoring persistent cache file {} of the other store type",
+                            f.getAbsolutePath());
+                } else if (fn.startsWith(FILE_PREFIX) && fn.endsWith(suffix)) {
+                    String g = fn.substring(FILE_PREFIX.length(), fn.indexOf(suffix));
                     try {
                         int gen = Integer.parseInt(g);
                         if (gen >= 0) {
@@ -238,16 +269,29 @@ public class PersistentCache implements Broadcaster.Listener {
             throw new IllegalArgumentException("Unknown broadcaster type " + broadcast);
         }
         broadcaster.addListener(this);
+        if (broadcastBatchMillis > 0) {
+            broadcastBatcher = new BroadcastBatcher(broadcastBatchMillis, this::sendFrame);
+        }
     }
     
     private String getFileName(int generation) {
         if (directory.length() == 0) {
             return null;
         }
-        return directory + "/" + FILE_PREFIX + generation + FILE_SUFFIX;
+        return directory + "/" + FILE_PREFIX + generation + getFileSuffix();
+    }
+
+    private String getFileSuffix() {
+        return logStore ? LOG_FILE_SUFFIX : FILE_SUFFIX;
     }
     
     private MapFactory createMapFactory(final int generation, final boolean readOnly) {
+        if (logStore) {
+            MapFactory f = new LogStoreMapFactory(getFileName(generation),
+                    readOnly, () -> exceptionCount++);
+            f.openStore();
+            return f;
+        }
         MapFactory f = new MapFactory() {
             
             final String fileName = getFileName(generation);
@@ -380,6 +424,10 @@ public class PersistentCache implements Broadcaster.Listener {
         if (readStore != null) {
             readStore.closeStore();
         }
+        if (broadcastBatcher != null) {
+            broadcastBatcher.close();
+            broadcastBatcher = null;
+        }
         if (broadcaster != null) {
             broadcaster.removeListener(this);
             broadcaster.close();
@@ -506,7 +554,17 @@ public class PersistentCache implements Broadcaster.Listener {
         return exceptionCount;
     }
 
-    void broadcast(CacheType type, Function<WriteBuffer, Void> writer) {
+    /**
+     * Broadcasts a cache entry to other cluster nodes. When batching is
+     * enabled, the message is sent with the next frame.
+     *
+     * @param type the cache type.
+     * @param keyWriter writes the key of the entry.
+     * @param valueWriter writes the value of the entry.
+     */
+    void broadcast(CacheType type,
+                   Function<WriteBuffer, Void> keyWriter,
+                   Function<WriteBuffer, Void> valueWriter) {
         Broadcaster b = broadcaster;
         if (b == null) {
             return;
@@ -517,11 +575,48 @@ public class PersistentCache implements Broadcaster.Listener {
             writeBuffer.set(buff);
         }
         buff.clear();
+        BroadcastBatcher batcher = broadcastBatcher;
+        if (batcher != null) {
+            buff.put((byte) type.ordinal());
+            keyWriter.apply(buff);
+            int keyLength = buff.position();
+            valueWriter.apply(buff);
+            byte[] message = new byte[buff.position()];
+            ByteBuffer byteBuff = buff.getBuffer();
+            ((Buffer)byteBuff).flip();
+            byteBuff.get(message);
+            batcher.add(message, keyLength);
+            return;
+        }
         // space for the length
         buff.putInt(0);
         buff.put(broadcastId);
         buff.put((byte) type.ordinal());
-        writer.apply(buff);
+        keyWriter.apply(buff);
+        valueWriter.apply(buff);
+        send(b, buff);
+    }
+
+    /**
+     * Sends a frame with batched messages.
+     *
+     * @param frame the frame as encoded by the {@link BroadcastBatcher}.
+     */
+    private void sendFrame(byte[] frame) {
+        Broadcaster b = broadcaster;
+        if (b == null) {
+            return;
+        }
+        WriteBuffer buff = new WriteBuffer(frame.length + 32);
+        // space for the length
+        buff.putInt(0);
+        buff.put(broadcastId);
+        buff.put(BroadcastBatcher.BATCH);
+        buff.put(frame);
+        send(b, buff);
+    }
+
+    private static void send(Broadcaster b, WriteBuffer buff) {
         ByteBuffer byteBuff = buff.getBuffer();
         int length = byteBuff.position();
         ((Buffer)byteBuff).limit(length);
@@ -538,7 +633,9 @@ public class PersistentCache implements Broadcaster.Listener {
         buff.get(id);
         if (!Arrays.equals(id, broadcastId)) {
             // process only messages from other senders
-            receiveMessage(buff);
+            ByteBuffer message = buff.slice();
+            ((Buffer)message).limit(end - buff.position());
+            receiveMessage(message);
         }
         ((Buffer)buff).position(end);
     }
@@ -553,7 +650,17 @@ public class PersistentCache implements Broadcaster.Listener {
     }
 
     private void receiveMessage(ByteBuffer buff) {
-        CacheType type = CacheType.VALUES[buff.get()];
+        byte t = buff.get();
+        if (t == BroadcastBatcher.BATCH) {
+            BroadcastBatcher.decode(buff, this::receiveMessage);
+            return;
+        }
+        if (t < 0 || t >= CacheType.VALUES.length) {
+            // a message format this version doesn't know
+            LOG.debug("Ignoring broadcast message of unknown type {}", t);
+            return;
+        }
+        CacheType type = CacheType.VALUES[t];
         GenerationCache cache = caches.get(type);
         if (cache == null) {
             return;
@@ -561,6 +668,14 @@ public class PersistentCache implements Broadcaster.Listener {
         cache.receive(buff);
     }
     
+    int getBroadcastHotThreshold() {
+        return broadcastHotThreshold;
+    }
+
+    BroadcastBatcher getBroadcastBatcher() {
+        return broadcastBatcher;
+    }
+
     public DynamicBroadcastConfig getBroadcastConfig() {
         return broadcastConfig;
     }
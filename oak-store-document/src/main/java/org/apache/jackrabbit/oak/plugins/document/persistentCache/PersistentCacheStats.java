@@ -65,6 +65,8 @@ public class PersistentCacheStats extends AnnotatedStandardMBean implements Pers
     private static final String PUT_REJECTED_ENTRY_NOT_USED = "PUT_REJECTED_ENTRY_NOT_USED";
     private static final String PUT_REJECTED_FULL_QUEUE = "PUT_REJECTED_FULL_QUEUE";
     private static final String PUT_REJECTED_SECONDARY_CACHE = "PUT_REJECTED_SECONDARY_CACHE";
+    private static final String PUT_COALESCED = "PUT_COALESCED";
+    private static final String WRITE_QUEUE_SIZE = "WRITE_QUEUE_SIZE";
 
     private final StatisticsProvider statisticsProvider;
     private final String cacheName;
@@ -105,6 +107,11 @@ public class PersistentCacheStats extends AnnotatedStandardMBean implements Pers
     private final MeterStats putRejectedAsCachedInSecMeter;
     private final TimeSeries putRejectedAsCachedInSecHistory;
 
+    private final MeterStats putCoalescedMeter;
+    private final TimeSeries putCoalescedHistory;
+
+    private final CounterStats writeQueueSizeCounter;
+
     private final TimerStats readTimer;
 
     private final CounterStats usedSpaceByteCounter;
@@ -211,6 +218,13 @@ public class PersistentCacheStats extends AnnotatedStandardMBean implements Pers
         putRejectedAsCachedInSecMeter = statisticsProvider.getMeter(statName, StatsOptions.DEFAULT);
         putRejectedAsCachedInSecHistory = getTimeSeries(statName);
 
+        statName = getStatName(PUT_COALESCED, cacheName);
+        putCoalescedMeter = statisticsProvider.getMeter(statName, StatsOptions.DEFAULT);
+        putCoalescedHistory = getTimeSeries(statName);
+
+        statName = getStatName(WRITE_QUEUE_SIZE, cacheName);
+        writeQueueSizeCounter = statisticsProvider.getCounterStats(statName, StatsOptions.DEFAULT);
+
         diskStats = new UsedSpaceTracker(usedSpaceByteCounter);
     }
 
@@ -260,6 +274,20 @@ public class PersistentCacheStats extends AnnotatedStandardMBean implements Pers
         putRejectedByFullQueueMeter.mark();
     }
 
+    // Async write queue
+
+    public void markPutCoalesced() {
+        putCoalescedMeter.mark();
+    }
+
+    public void markWriteQueued() {
+        writeQueueSizeCounter.inc();
+    }
+
+    public void markWriteDequeued() {
+        writeQueueSizeCounter.dec();
+    }
+
     public TimerStats.Context startReadTimer() {
         return this.readTimer.time();
     }
@@ -494,6 +522,52 @@ public class PersistentCacheStats extends AnnotatedStandardMBean implements Pers
         // ignored
     }
 
+    //~--------------------------------------< async write queue
+
+    /**
+     * @return the number of writes (puts and invalidates) currently queued
+     *          for this cache.
+     */
+    @Override
+    public long getWriteQueueSize() {
+        return writeQueueSizeCounter.getCount();
+    }
+
+    /**
+     * @return the number of puts that were coalesced with another put or
+     *          cancelled by an invalidate while queued.
+     */
+    @Override
+    public long getPutCoalescedCount() {
+        return putCoalescedMeter.getCount();
+    }
+
+    /**
+     * @return the ratio of coalesced puts to all puts passed to the write
+     *          queue.
+     */
+    @Override
+    public double getPutCoalesceRate() {
+        long coalesced = putCoalescedMeter.getCount();
+        long puts = putMeter.getCount();
+        return (puts == 0L ? 0L : (double) coalesced / puts);
+    }
+
+    /**
+     * @return the number of writes (puts and invalidates) dropped because
+     *          the write queue was full, or 0 if the rejected puts are not
+     *          counted (system property PersistentCacheStats.rejectedPut).
+     */
+    @Override
+    public long getPutRejectedQueueFullCount() {
+        return putRejectedByFullQueueMeter.getCount();
+    }
+
+    @Override
+    public CompositeData getPutCoalescedRateHistory() {
+        return TimeSeriesStatsUtil.asCompositeData(putCoalescedHistory, "Persistent cache put coalesced");
+    }
+
     Counting getPutRejectedAsCachedInSecCounter() {
         return putRejectedAsCachedInSecMeter;
     }
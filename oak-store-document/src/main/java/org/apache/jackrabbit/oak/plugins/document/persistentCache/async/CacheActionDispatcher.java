@@ -16,6 +16,10 @@
  */
 package org.apache.jackrabbit.oak.plugins.document.persistentCache.async;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -27,6 +31,12 @@ import org.slf4j.LoggerFactory;
  * An asynchronous buffer of the CacheAction objects. The buffer only accepts
  * {@link #MAX_SIZE} number of elements. If the queue is already full, the new
  * elements are dropped.
+ * <p>
+ * Actions are queued in one of two lanes. Actions in the priority lane (e.g.
+ * invalidations) are always executed before actions in the regular lane.
+ * Actions are taken from the queue and executed in batches of at most
+ * {@link #BATCH_SIZE} actions. The puts of a batch to the same map are
+ * written with a single store operation.
  */
 public class CacheActionDispatcher implements Runnable {
 
@@ -42,8 +52,15 @@ public class CacheActionDispatcher implements Runnable {
      */
     static final int MAX_SIZE = 16 * 1024;
 
+    /**
+     * The maximum number of actions taken from the queue at once.
+     */
+    static final int BATCH_SIZE = 256;
+
     final BlockingQueue<CacheAction> queue = new ArrayBlockingQueue<>(MAX_SIZE);
 
+    final BlockingQueue<CacheAction> priorityQueue = new ArrayBlockingQueue<>(MAX_SIZE);
+
     /**
      * The maximum memory for all cache actions currently in the queue.
      */
@@ -71,18 +88,69 @@ public class CacheActionDispatcher implements Runnable {
 
     @Override
     public void run() {
+        List<CacheAction> batch = new ArrayList<>(BATCH_SIZE);
         while (isRunning) {
             try {
-                CacheAction action = queue.poll(10, TimeUnit.MILLISECONDS);
-                if (action != null && isRunning) {
-                    synchronized (monitor) {
-                        memory -= action.getMemory();
+                priorityQueue.drainTo(batch, BATCH_SIZE);
+                if (batch.isEmpty()) {
+                    CacheAction action = queue.poll(10, TimeUnit.MILLISECONDS);
+                    if (action == null) {
+                        continue;
                     }
-                    action.execute();
+                    batch.add(action);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
                 }
+                execute(batch);
             } catch (InterruptedException e) {
                 LOG.debug("Interrupted the queue.poll()", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void execute(List<CacheAction> batch) {
+        // puts are grouped by map, other actions are executed in order,
+        // after the puts that were queued before them
+        Map<CacheWriteQueue<?, ?>, List<PutToCacheAction<?, ?>>> puts = new LinkedHashMap<>();
+        for (CacheAction action : batch) {
+            if (!isRunning) {
+                return;
             }
+            if (action instanceof PutToCacheAction) {
+                PutToCacheAction<?, ?> put = (PutToCacheAction<?, ?>) action;
+                puts.computeIfAbsent(put.getQueue(), q -> new ArrayList<>()).add(put);
+                continue;
+            }
+            executePuts(puts);
+            try {
+                action.execute();
+            } finally {
+                release(action);
+            }
+        }
+        executePuts(puts);
+    }
+
+    private void executePuts(Map<CacheWriteQueue<?, ?>, List<PutToCacheAction<?, ?>>> puts) {
+        for (Map.Entry<CacheWriteQueue<?, ?>, List<PutToCacheAction<?, ?>>> e : puts.entrySet()) {
+            try {
+                e.getKey().executePuts(e.getValue());
+            } finally {
+                for (PutToCacheAction<?, ?> put : e.getValue()) {
+                    release(put);
+                }
+            }
+        }
+        puts.clear();
+    }
+
+    private void release(CacheAction action) {
+        // release memory after execution, the memory of an
+        // action may change while it is queued (coalesced put)
+        int m = action.getMemory();
+        synchronized (monitor) {
+            memory -= m;
         }
     }
 
@@ -99,10 +167,41 @@ public class CacheActionDispatcher implements Runnable {
      * @param action to be added
      */
     boolean add(CacheAction action) {
+        return add(action, queue);
+    }
+
+    /**
+     * Tries to add a new action to the priority lane. Actions in this lane
+     * are executed before actions added with {@link #add(CacheAction)}.
+     *
+     * @param action to be added
+     */
+    boolean addPriority(CacheAction action) {
+        return add(action, priorityQueue);
+    }
+
+    /**
+     * Tries to reserve additional memory for an action that is already
+     * queued.
+     *
+     * @param delta the additional memory (may be negative)
+     * @return whether the memory could be reserved
+     */
+    boolean reserveMemory(int delta) {
+        synchronized (monitor) {
+            if (delta > 0 && memory + delta > maxMemory) {
+                return false;
+            }
+            memory += delta;
+            return true;
+        }
+    }
+
+    private boolean add(CacheAction action, BlockingQueue<CacheAction> lane) {
         int m = action.getMemory();
         synchronized (monitor) {
             // check if the queue reached memory limit and accepts action
-            if (memory + m <= maxMemory && queue.offer(action)) {
+            if (memory + m <= maxMemory && lane.offer(action)) {
                 memory += m;
                 return true;
             }
@@ -18,9 +18,24 @@ package org.apache.jackrabbit.oak.plugins.document.persistentCache.async;
 
 import org.apache.jackrabbit.oak.cache.CacheValue;
 import org.apache.jackrabbit.oak.plugins.document.persistentCache.PersistentCache;
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.PersistentCacheStats;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Queues writes to a persistent cache map. Writes for the same key are
+ * coalesced: a put replaces the value of a put for the same key that is
+ * still queued, and an invalidate cancels a queued put for the same key.
+ * Invalidations are queued in the priority lane of the dispatcher.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
 public class CacheWriteQueue<K extends CacheValue, V extends CacheValue> {
 
     private final CacheActionDispatcher dispatcher;
@@ -29,18 +44,80 @@ public class CacheWriteQueue<K extends CacheValue, V extends CacheValue> {
 
     private final Map<K, V> map;
 
+    @Nullable
+    private final PersistentCacheStats stats;
+
+    /**
+     * Put actions that are queued and not yet executed.
+     */
+    private final ConcurrentMap<K, PutToCacheAction<K, V>> pendingPuts = new ConcurrentHashMap<>();
+
     public CacheWriteQueue(CacheActionDispatcher dispatcher, PersistentCache cache, Map<K, V> map) {
+        this(dispatcher, cache, map, null);
+    }
+
+    public CacheWriteQueue(CacheActionDispatcher dispatcher,
+                           PersistentCache cache,
+                           Map<K, V> map,
+                           @Nullable PersistentCacheStats stats) {
         this.dispatcher = dispatcher;
         this.cache = cache;
         this.map = map;
+        this.stats = stats;
     }
 
     public boolean addPut(K key, V value) {
-        return dispatcher.add(new PutToCacheAction<K, V>(key, value, this));
+        // register the action atomically, so that a concurrent invalidate
+        // is guaranteed to see (and cancel) every pending put for the key
+        PutToCacheAction<K, V>[] created = newActionHolder();
+        pendingPuts.compute(key, (k, pending) -> {
+            if (pending != null) {
+                if (pending.update(value)) {
+                    return pending;
+                }
+                // pending action is already executing or the new value
+                // does not fit into the queue. Cancel the pending action,
+                // the new action will write the most recent value
+                pending.cancel();
+            }
+            created[0] = new PutToCacheAction<K, V>(k, value, this);
+            return created[0];
+        });
+        PutToCacheAction<K, V> action = created[0];
+        if (action == null) {
+            if (stats != null) {
+                stats.markPutCoalesced();
+            }
+            return true;
+        }
+        if (dispatcher.add(action)) {
+            if (stats != null) {
+                stats.markWriteQueued();
+            }
+            return true;
+        }
+        // the caller counts the rejected put
+        pendingPuts.remove(key, action);
+        return false;
     }
 
     public boolean addInvalidate(Iterable<K> keys) {
-        return dispatcher.add(new InvalidateCacheAction<K, V>(keys, this));
+        for (K key : keys) {
+            PutToCacheAction<K, V> pending = pendingPuts.remove(key);
+            if (pending != null && pending.cancel() && stats != null) {
+                stats.markPutCoalesced();
+            }
+        }
+        if (dispatcher.addPriority(new InvalidateCacheAction<K, V>(keys, this))) {
+            if (stats != null) {
+                stats.markWriteQueued();
+            }
+            return true;
+        }
+        if (stats != null) {
+            stats.markPutRejectedQueueFull();
+        }
+        return false;
     }
 
     PersistentCache getCache() {
@@ -50,4 +127,46 @@ public class CacheWriteQueue<K extends CacheValue, V extends CacheValue> {
     Map<K, V> getMap() {
         return map;
     }
+
+    /**
+     * Executes queued puts of this queue. The values are written to the map
+     * with a single {@link Map#putAll(Map)}.
+     *
+     * @param actions the put actions
+     */
+    @SuppressWarnings("unchecked")
+    void executePuts(List<? extends PutToCacheAction<?, ?>> actions) {
+        Map<K, V> entries = new LinkedHashMap<>();
+        for (PutToCacheAction<?, ?> a : actions) {
+            PutToCacheAction<K, V> put = (PutToCacheAction<K, V>) a;
+            V v = put.take();
+            executed(put);
+            if (v != null) {
+                entries.put(put.getKey(), v);
+            }
+        }
+        if (map != null && !entries.isEmpty()) {
+            cache.switchGenerationIfNeeded();
+            map.putAll(entries);
+        }
+    }
+
+    boolean reserveMemory(int delta) {
+        return dispatcher.reserveMemory(delta);
+    }
+
+    @SuppressWarnings("unchecked")
+    private PutToCacheAction<K, V>[] newActionHolder() {
+        return new PutToCacheAction[1];
+    }
+
+    void executed(CacheAction action) {
+        if (action instanceof PutToCacheAction) {
+            PutToCacheAction<?, ?> put = (PutToCacheAction<?, ?>) action;
+            pendingPuts.remove(put.getKey(), put);
+        }
+        if (stats != null) {
+            stats.markWriteDequeued();
+        }
+    }
 }
@@ -32,6 +32,8 @@ import org.apache.jackrabbit.oak.plugins.document.persistentCache.PersistentCach
 class InvalidateCacheAction<K extends CacheValue, V extends CacheValue>
         implements CacheAction {
 
+    private final CacheWriteQueue<K, V> queue;
+
     private final PersistentCache cache;
 
     private final Map<K, V> map;
@@ -42,12 +44,14 @@ class InvalidateCacheAction<K extends CacheValue, V extends CacheValue>
 
     InvalidateCacheAction(Iterable<K> keys, CacheWriteQueue<K, V> queue) {
         this.keys = keys;
+        this.queue = queue;
         this.cache = queue.getCache();
         this.map = queue.getMap();
     }
 
     @Override
     public void execute() {
+        queue.executed(this);
         if (map != null) {
             for (K key : keys) {
                 cache.switchGenerationIfNeeded();
@@ -16,13 +16,15 @@
  */
 package org.apache.jackrabbit.oak.plugins.document.persistentCache.async;
 
-import java.util.Map;
+import java.util.Collections;
 
 import org.apache.jackrabbit.oak.cache.CacheValue;
-import org.apache.jackrabbit.oak.plugins.document.persistentCache.PersistentCache;
 
 /**
- * Put to cache action
+ * Put to cache action. The value of a queued action can be replaced with a
+ * more recent value for the same key ({@link #update(CacheValue)}) or the
+ * action can be cancelled ({@link #cancel()}) as long as it was not executed
+ * yet.
  *
  * @param <K> key type
  * @param <V> value type
@@ -30,31 +32,90 @@ import org.apache.jackrabbit.oak.plugins.document.persistentCache.PersistentCach
 class PutToCacheAction<K extends CacheValue, V extends CacheValue>
         implements CacheAction {
 
-    private final PersistentCache cache;
-
-    private final Map<K, V> map;
+    private final CacheWriteQueue<K, V> queue;
 
     private final K key;
 
-    private final V value;
+    /**
+     * The value to put, or {@code null} if the action was already executed
+     * or cancelled.
+     */
+    private V value;
+
+    private int memory;
 
     PutToCacheAction(K key, V value, CacheWriteQueue<K, V> queue) {
         this.key = key;
         this.value = value;
-        this.cache = queue.getCache();
-        this.map = queue.getMap();
+        this.queue = queue;
+        this.memory = getMemory(key, value);
     }
 
     @Override
     public void execute() {
-        if (map != null) {
-            cache.switchGenerationIfNeeded();
-            map.put(key, value);
-        }
+        queue.executePuts(Collections.singletonList(this));
     }
 
     @Override
-    public int getMemory() {
+    public synchronized int getMemory() {
+        return memory;
+    }
+
+    /**
+     * Replace the value of this pending action.
+     *
+     * @param newValue the new value
+     * @return {@code true} if the value was replaced, {@code false} if the
+     *          action was already executed or cancelled, or if the memory
+     *          for the new value cannot be reserved
+     */
+    synchronized boolean update(V newValue) {
+        if (value == null) {
+            return false;
+        }
+        int newMemory = getMemory(key, newValue);
+        if (!queue.reserveMemory(newMemory - memory)) {
+            return false;
+        }
+        value = newValue;
+        memory = newMemory;
+        return true;
+    }
+
+    /**
+     * Cancel this action if it was not executed yet.
+     *
+     * @return {@code true} if the action was cancelled
+     */
+    synchronized boolean cancel() {
+        if (value == null) {
+            return false;
+        }
+        value = null;
+        return true;
+    }
+
+    K getKey() {
+        return key;
+    }
+
+    CacheWriteQueue<K, V> getQueue() {
+        return queue;
+    }
+
+    /**
+     * Take the value to put, once.
+     *
+     * @return the value, or {@code null} if the action was already executed
+     *          or cancelled
+     */
+    synchronized V take() {
+        V v = value;
+        value = null;
+        return v;
+    }
+
+    private static int getMemory(CacheValue key, CacheValue value) {
         long mem = key.getMemory();
         mem += value.getMemory();
         return (int) Math.min(Integer.MAX_VALUE, mem);
@@ -64,4 +125,4 @@ class PutToCacheAction<K extends CacheValue, V extends CacheValue>
     public String toString() {
         return new StringBuilder("PutToCacheAction[").append(key).append(']').toString();
     }
-}
\ No newline at end of file
+}
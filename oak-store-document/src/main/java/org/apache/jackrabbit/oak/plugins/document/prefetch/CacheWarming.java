@@ -16,15 +16,25 @@
  */
 package org.apache.jackrabbit.oak.plugins.document.prefetch;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
 
+import org.apache.jackrabbit.guava.common.collect.Iterables;
 import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.commons.properties.SystemPropertySupplier;
+import org.apache.jackrabbit.oak.plugins.document.AsyncDocumentStore;
 import org.apache.jackrabbit.oak.plugins.document.Collection;
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeState;
 import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStoreException;
+import org.apache.jackrabbit.oak.plugins.document.Path;
 import org.apache.jackrabbit.oak.plugins.document.util.Utils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,10 +44,30 @@ public class CacheWarming {
 
     private static final Logger LOG = LoggerFactory.getLogger(CacheWarming.class);
 
+    /**
+     * The number of documents prefetched with a single request when
+     * requests are overlapped with an {@link AsyncDocumentStore}.
+     */
+    static final int ASYNC_BATCH_SIZE = SystemPropertySupplier.create(
+            "oak.documentMK.asyncPrefetchBatchSize", 50).loggingTo(LOG).get();
+
     private final DocumentStore store;
 
+    private final AsyncDocumentStore asyncStore;
+
     public CacheWarming(DocumentStore store) {
+        this(store, null);
+    }
+
+    /**
+     * @param store the document store.
+     * @param asyncStore if not {@code null}, used to prefetch larger sets of
+     *          documents with overlapping requests.
+     */
+    public CacheWarming(@NotNull DocumentStore store,
+                        @Nullable AsyncDocumentStore asyncStore) {
         this.store = store;
+        this.asyncStore = asyncStore;
     }
 
     public void prefetch(@NotNull Iterable<String> paths,
@@ -55,7 +85,55 @@ public class CacheWarming {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Prefetch {} nodes", ids.size());
         }
-        store.prefetch(Collection.NODES, ids);
+        prefetch(ids);
+    }
+
+    /**
+     * Prefetch the documents of the given child nodes of {@code parent} that
+     * are not cached yet.
+     *
+     * @param parent the path of the parent node.
+     * @param names the names of the child nodes.
+     * @param isCached returns {@code true} if the node at a given path is
+     *          already cached and does not need to be prefetched.
+     */
+    public void prefetchChildren(@NotNull Path parent,
+                                 @NotNull Iterable<String> names,
+                                 @NotNull Predicate<Path> isCached) {
+        requireNonNull(parent);
+        requireNonNull(names);
+        requireNonNull(isCached);
+
+        List<String> ids = new LinkedList<>();
+        for (String name : names) {
+            Path p = new Path(parent, name);
+            if (!isCached.test(p)) {
+                ids.add(Utils.getIdFromPath(p));
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Prefetch {} child nodes of {}", ids.size(), parent);
+        }
+        prefetch(ids);
+    }
+
+    private void prefetch(List<String> ids) {
+        if (asyncStore == null || ids.size() <= ASYNC_BATCH_SIZE) {
+            store.prefetch(Collection.NODES, ids);
+            return;
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (List<String> batch : Iterables.partition(ids, ASYNC_BATCH_SIZE)) {
+            futures.add(asyncStore.prefetchAsync(Collection.NODES, batch));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw DocumentStoreException.convert(e.getCause());
+        }
     }
 
     private boolean isCached(String path, DocumentNodeState rootState) {
@@ -23,6 +23,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -60,6 +61,11 @@ public enum RDBDocumentStoreDB {
         public String getCurrentTimeStampInSecondsSyntax() {
             return "select unix_timestamp()";
         }
+
+        @Override
+        public boolean supportsIdArrayBinding() {
+            return ARRAYBINDING;
+        }
     },
 
     DERBY("Apache Derby") {
@@ -125,6 +131,11 @@ public enum RDBDocumentStoreDB {
             return RDBJDBCTools.versionCheck(md, 13, 0, 42, 7, description);
         }
 
+        @Override
+        public boolean supportsIdArrayBinding() {
+            return ARRAYBINDING && POSTGRES_ARRAYBINDING;
+        }
+
         @Override
         public String getCurrentTimeStampInSecondsSyntax() {
             return "select extract(epoch from now())::integer";
@@ -623,6 +634,14 @@ public enum RDBDocumentStoreDB {
 
     private static final String SYSPROP_PREFIX = "org.apache.jackrabbit.oak.plugins.document.rdb.RDBDocumentStore";
 
+    // Whether to bind lists of IDs to an array parameter where supported (default: true)
+    private static final boolean ARRAYBINDING = SystemPropertySupplier.create(SYSPROP_PREFIX + ".ARRAYBINDING", Boolean.TRUE)
+            .loggingTo(LOG).get();
+
+    // Whether to bind lists of IDs to an array parameter on PostgreSQL (default: false, only tested with H2 so far)
+    private static final boolean POSTGRES_ARRAYBINDING = SystemPropertySupplier
+            .create(SYSPROP_PREFIX + ".POSTGRES.ARRAYBINDING", Boolean.FALSE).loggingTo(LOG).get();
+
     public enum FETCHFIRSTSYNTAX {
         FETCHFIRST, LIMIT, TOP
     };
@@ -651,6 +670,34 @@ public enum RDBDocumentStoreDB {
         return "";
     }
 
+    /**
+     * Whether the database can bind a list of (non-binary) IDs to a single
+     * array parameter, see {@link #getIdInCondition(Collection, boolean)}.
+     */
+    public boolean supportsIdArrayBinding() {
+        return false;
+    }
+
+    /**
+     * Returns a condition matching any of the given IDs. Databases that
+     * support array binding use {@code ID = ANY(?)}, which keeps the statement
+     * text the same for any number of IDs, so that a prepared statement can
+     * be reused. Otherwise this is a list of placeholders as returned by
+     * {@link RDBJDBCTools#createInStatement(String, Collection, boolean)}.
+     *
+     * @param ids
+     *            the IDs to match
+     * @param binary
+     *            whether the ID column is binary
+     */
+    public PreparedStatementComponent getIdInCondition(Collection<String> ids, boolean binary) {
+        if (!binary && supportsIdArrayBinding()) {
+            return RDBJDBCTools.createArrayInStatement("ID", ids);
+        } else {
+            return RDBJDBCTools.createInStatement("ID", ids, binary);
+        }
+    }
+
     /**
      * Returns the CONCAT function or its equivalent function or sub-query. Note
      * that the function MUST NOT cause a truncated value to be written!
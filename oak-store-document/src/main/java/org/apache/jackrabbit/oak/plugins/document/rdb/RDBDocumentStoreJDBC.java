@@ -141,7 +141,7 @@ public class RDBDocumentStoreJDBC {
 
         for (List<String> ids : CollectionUtils.partitionList(allIds, RDBJDBCTools.MAX_IN_CLAUSE)) {
             PreparedStatement stmt;
-            PreparedStatementComponent inClause = RDBJDBCTools.createInStatement("ID", ids, tmd.isIdBinary());
+            PreparedStatementComponent inClause = this.dbInfo.getIdInCondition(ids, tmd.isIdBinary());
             String sql = "delete from " + tmd.getName() + " where " + inClause.getStatementComponent();
             stmt = connection.prepareStatement(sql);
 
@@ -759,7 +759,7 @@ public class RDBDocumentStoreJDBC {
         for (List<String> keys : Iterables.partition(allKeys, RDBJDBCTools.MAX_IN_CLAUSE)) {
             long pstart = PERFLOG.start(PERFLOG.isDebugEnabled() ? ("reading: " + keys) : null);
 
-            PreparedStatementComponent inClause = RDBJDBCTools.createInStatement("ID", keys, tmd.isIdBinary());
+            PreparedStatementComponent inClause = this.dbInfo.getIdInCondition(keys, tmd.isIdBinary());
             StringBuilder query = new StringBuilder();
             if (tmd.hasSplitDocs()) {
                 query.append("select ID, MODIFIED, MODCOUNT, CMODCOUNT, HASBINARY, DELETEDONCE, VERSION, SDTYPE, SDMAXREVTIME, DATA, BDATA from ");
@@ -773,7 +773,9 @@ public class RDBDocumentStoreJDBC {
 
             PreparedStatement stmt = connection.prepareStatement(query.toString());
             ResultSet rs = null;
-            stmt.setPoolable(false);
+            // the statement text only depends on the number of keys
+            // when they are not bound to an array
+            stmt.setPoolable(this.dbInfo.supportsIdArrayBinding() && !tmd.isIdBinary());
             try {
                 inClause.setParameters(stmt,  1);
                 rs = stmt.executeQuery();
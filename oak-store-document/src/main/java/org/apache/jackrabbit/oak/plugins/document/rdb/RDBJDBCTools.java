@@ -426,6 +426,41 @@ public class RDBJDBCTools {
         };
     }
 
+    /**
+     * Creates the condition {@code field = ANY(?)} with all values bound to a
+     * single array parameter. Unlike {@link #createInStatement(String, Collection, boolean)},
+     * the statement text does not depend on the number of values.
+     *
+     * @param fieldName
+     *            name of the field
+     * @param values
+     *            the values to match
+     */
+    public static PreparedStatementComponent createArrayInStatement(final String fieldName, final Collection<String> values) {
+
+        return new PreparedStatementComponent() {
+
+            @Override
+            public String getStatementComponent() {
+                return fieldName + " = ANY(?)";
+            }
+
+            @Override
+            public int setParameters(PreparedStatement stmt, int startIndex) throws SQLException {
+                for (String value : values) {
+                    if (!UTF8Encoder.canEncode(value)) {
+                        LOG.warn("Invalid ID: " + value);
+                        throw asDocumentStoreException(new IOException("can not encode as valid UTF-8"), "Invalid ID: " + value);
+                    }
+                }
+                // not using Connection.createArrayOf(), the connection of a
+                // pooled statement may be a stale handle
+                stmt.setObject(startIndex++, values.toArray(new String[0]));
+                return startIndex;
+            }
+        };
+    }
+
     private static DocumentStoreException.Type exceptionTypeFor(Exception cause) {
         return (cause instanceof SQLTransientException) ? DocumentStoreException.Type.TRANSIENT : DocumentStoreException.Type.GENERIC;
     }
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.document.secondary;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.stats.MeterStats;
+import org.apache.jackrabbit.oak.stats.StatisticsProvider;
+import org.apache.jackrabbit.oak.stats.StatsOptions;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies changes to the secondary store in the background. Unlike a
+ * {@link org.apache.jackrabbit.oak.spi.commit.BackgroundObserver}, this
+ * observer does not queue each change. It only remembers the most recent root
+ * state of the primary store. A sync diffs the secondary store from the
+ * revision it was last synced to, which is persisted with the meta properties
+ * of its root, against that root state. A burst of commits therefore results
+ * in a single diff and merge, and a secondary store that lags behind catches
+ * up in one step.
+ * <p>
+ * The {@link SecondaryStoreCache} only sees the root states that were synced
+ * and reads of intermediate revisions fall back to the primary store.
+ */
+public class AsyncSecondaryStoreObserver implements Observer, Closeable {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final SecondaryStoreObserver observer;
+    private final Executor executor;
+    private final MeterStats coalesced;
+    private final AtomicReference<Change> pending = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean closed;
+
+    public AsyncSecondaryStoreObserver(SecondaryStoreObserver observer,
+                                       Executor executor,
+                                       StatisticsProvider statisticsProvider) {
+        this.observer = observer;
+        this.executor = executor;
+        this.coalesced = statisticsProvider.getMeter("DOCUMENT_CACHE_SEC_COALESCED", StatsOptions.DEFAULT);
+    }
+
+    @Override
+    public void contentChanged(@NotNull NodeState root, @NotNull CommitInfo info) {
+        if (closed) {
+            return;
+        }
+        if (pending.getAndSet(new Change(root, info)) != null) {
+            coalesced.mark();
+        }
+        scheduleSync();
+    }
+
+    /**
+     * Stops syncing changes. A sync in progress is completed, but pending
+     * changes are discarded.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        pending.set(null);
+    }
+
+    //~----------------------------------------------------< internal >
+
+    private void scheduleSync() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::sync);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                log.warn("Unable to schedule sync of secondary store", e);
+            }
+        }
+    }
+
+    private void sync() {
+        try {
+            Change change;
+            while (!closed && (change = pending.getAndSet(null)) != null) {
+                observer.contentChanged(change.root, change.info);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Sync of secondary store failed", e);
+        } finally {
+            scheduled.set(false);
+        }
+        // a change may have been reported after the loop ended
+        // and before the scheduled flag was reset
+        if (!closed && pending.get() != null) {
+            scheduleSync();
+        }
+    }
+
+    private static final class Change {
+        final NodeState root;
+        final CommitInfo info;
+
+        Change(NodeState root, CommitInfo info) {
+            this.root = root;
+            this.info = info;
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.apache.jackrabbit.oak.plugins.document.secondary;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.apache.jackrabbit.guava.common.collect.ImmutableList;
 import org.apache.jackrabbit.oak.plugins.document.NodeStateDiffer;
@@ -72,4 +73,9 @@ public class SecondaryStoreBuilder {
     public SecondaryStoreObserver buildObserver(SecondaryStoreRootObserver secondaryStoreRootObserver) {
         return new SecondaryStoreObserver(store, metaPropNames, differ, pathFilter, statsProvider, secondaryStoreRootObserver);
     }
+
+    public AsyncSecondaryStoreObserver buildAsyncObserver(SecondaryStoreRootObserver secondaryStoreRootObserver,
+                                                          Executor executor) {
+        return new AsyncSecondaryStoreObserver(buildObserver(secondaryStoreRootObserver), executor, statsProvider);
+    }
 }
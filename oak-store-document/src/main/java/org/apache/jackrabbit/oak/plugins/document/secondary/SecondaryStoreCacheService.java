@@ -21,12 +21,14 @@ package org.apache.jackrabbit.oak.plugins.document.secondary;
 import static java.util.Arrays.asList;
 import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.registerMBean;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.concurrent.Executor;
 
+import org.apache.jackrabbit.guava.common.io.Closer;
 import org.apache.jackrabbit.oak.osgi.OsgiWhiteboard;
 import org.apache.jackrabbit.oak.plugins.document.AbstractDocumentNodeState;
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStateCache;
@@ -85,6 +87,13 @@ public class SecondaryStoreCacheService {
                 description = "Observer queue size. Used if 'enableAsyncObserver' is set to true"
         )
         int observerQueueSize() default BackgroundObserver.DEFAULT_QUEUE_SIZE;
+
+        @AttributeDefinition(
+                name = "Coalesce changes",
+                description = "Sync the secondary store in the background and coalesce changes reported while " +
+                        "a sync is in progress into a single diff. Takes precedence over 'enableAsyncObserver'"
+        )
+        boolean coalesceChanges() default false;
     }
 
     private final Logger log = LoggerFactory.getLogger(getClass());
@@ -115,6 +124,8 @@ public class SecondaryStoreCacheService {
 
     private final List<ServiceRegistration> regs = new ArrayList<>();
 
+    private final Closer closer = Closer.create();
+
     private Whiteboard whiteboard;
 
     private BundleContext bundleContext;
@@ -140,8 +151,19 @@ public class SecondaryStoreCacheService {
                 .statisticsProvider(statisticsProvider)
                 .pathFilter(pathFilter);
         SecondaryStoreCache cache = builder.buildCache();
-        SecondaryStoreObserver observer = builder.buildObserver(cache);
-        registerObserver(observer, config);
+        Observer observer;
+        if (config.coalesceChanges()) {
+            AsyncSecondaryStoreObserver asyncObserver = builder.buildAsyncObserver(cache, executor);
+            closer.register(asyncObserver);
+            observer = asyncObserver;
+            log.info("Configuring the observer for secondary NodeStore to coalesce changes");
+        } else {
+            observer = builder.buildObserver(cache);
+            if (config.enableAsyncObserver()) {
+                observer = createBackgroundObserver(observer, config.observerQueueSize());
+            }
+        }
+        registerObserver(observer);
 
         regs.add(bundleContext.registerService(DocumentNodeStateCache.class.getName(), cache, null));
 
@@ -158,6 +180,11 @@ public class SecondaryStoreCacheService {
         for (ServiceRegistration r : regs){
             r.unregister();
         }
+        try {
+            closer.close();
+        } catch (IOException e) {
+            log.warn("Error closing secondary NodeStore observer", e);
+        }
     }
 
     PathFilter getPathFilter() {
@@ -175,21 +202,19 @@ public class SecondaryStoreCacheService {
 
     //~----------------------------------------------------< internal >
 
-    private void registerObserver(Observer observer, Configuration config) {
-        boolean enableAsyncObserver = config.enableAsyncObserver();
-        int  queueSize = config.observerQueueSize();
-        if (enableAsyncObserver){
-            BackgroundObserver bgObserver = new BackgroundObserver(observer, executor, queueSize);
-            oakRegs.add(registerMBean(whiteboard,
-                    BackgroundObserverMBean.class,
-                    bgObserver.getMBean(),
-                    BackgroundObserverMBean.TYPE,
-                    "Secondary NodeStore observer stats"));
-            observer = bgObserver;
-            log.info("Configuring the observer for secondary NodeStore as " +
-                    "Background Observer with queue size {}", queueSize);
-        }
+    private Observer createBackgroundObserver(Observer observer, int queueSize) {
+        BackgroundObserver bgObserver = new BackgroundObserver(observer, executor, queueSize);
+        oakRegs.add(registerMBean(whiteboard,
+                BackgroundObserverMBean.class,
+                bgObserver.getMBean(),
+                BackgroundObserverMBean.TYPE,
+                "Secondary NodeStore observer stats"));
+        log.info("Configuring the observer for secondary NodeStore as " +
+                "Background Observer with queue size {}", queueSize);
+        return bgObserver;
+    }
 
+    private void registerObserver(Observer observer) {
         //Ensure that our observer comes first in processing
         Hashtable<String, Object> props = new Hashtable<>();
         props.put(Constants.SERVICE_RANKING, 10000);
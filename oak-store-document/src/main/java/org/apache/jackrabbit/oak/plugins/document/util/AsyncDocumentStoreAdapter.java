@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.util;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import org.apache.jackrabbit.oak.plugins.document.AsyncDocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.Collection;
+import org.apache.jackrabbit.oak.plugins.document.Document;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.UpdateOp;
+import org.jetbrains.annotations.NotNull;
+
+import static org.apache.jackrabbit.oak.commons.conditions.Validate.checkArgument;
+
+/**
+ * An {@link AsyncDocumentStore} that runs the blocking methods of a
+ * {@link DocumentStore} with an {@link Executor}. The number of requests in
+ * flight is limited. A request that is rejected by the executor runs in the
+ * calling thread.
+ */
+public class AsyncDocumentStoreAdapter implements AsyncDocumentStore {
+
+    private final DocumentStore store;
+
+    private final Executor executor;
+
+    private final Semaphore inFlight;
+
+    /**
+     * @param store the blocking document store.
+     * @param executor the executor running the requests.
+     * @param maxInFlight the maximum number of requests in flight.
+     */
+    public AsyncDocumentStoreAdapter(@NotNull DocumentStore store,
+                                     @NotNull Executor executor,
+                                     int maxInFlight) {
+        checkArgument(maxInFlight > 0, "maxInFlight must be positive: %s", maxInFlight);
+        this.store = store;
+        this.executor = executor;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    @NotNull
+    @Override
+    public <T extends Document> CompletableFuture<T> findAsync(Collection<T> collection,
+                                                               String key) {
+        return submit(() -> store.find(collection, key));
+    }
+
+    @NotNull
+    @Override
+    public <T extends Document> CompletableFuture<List<T>> queryAsync(Collection<T> collection,
+                                                                      String fromKey,
+                                                                      String toKey,
+                                                                      int limit) {
+        return submit(() -> store.query(collection, fromKey, toKey, limit));
+    }
+
+    @NotNull
+    @Override
+    public <T extends Document> CompletableFuture<List<T>> createOrUpdateAsync(Collection<T> collection,
+                                                                               List<UpdateOp> updateOps) {
+        return submit(() -> store.createOrUpdate(collection, updateOps));
+    }
+
+    @NotNull
+    @Override
+    public <T extends Document> CompletableFuture<T> findAndUpdateAsync(Collection<T> collection,
+                                                                        UpdateOp update) {
+        return submit(() -> store.findAndUpdate(collection, update));
+    }
+
+    @NotNull
+    @Override
+    public <T extends Document> CompletableFuture<Void> prefetchAsync(Collection<T> collection,
+                                                                      Iterable<String> keys) {
+        return submit(() -> {
+            store.prefetch(collection, keys);
+            return null;
+        });
+    }
+
+    /**
+     * @return the number of requests that can be started without waiting.
+     */
+    int getAvailablePermits() {
+        return inFlight.availablePermits();
+    }
+
+    private <R> CompletableFuture<R> submit(Supplier<R> request) {
+        inFlight.acquireUninterruptibly();
+        CompletableFuture<R> future = new CompletableFuture<>();
+        Runnable task = () -> {
+            R result;
+            try {
+                result = request.get();
+            } catch (Throwable t) {
+                inFlight.release();
+                future.completeExceptionally(t);
+                return;
+            }
+            // release before completion, dependent stages may
+            // start new requests
+            inFlight.release();
+            future.complete(result);
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+        return future;
+    }
+}
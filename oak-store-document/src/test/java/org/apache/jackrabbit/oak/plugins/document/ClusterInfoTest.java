@@ -19,11 +19,13 @@
 package org.apache.jackrabbit.oak.plugins.document;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.jackrabbit.oak.plugins.document.ClusterNodeInfo.ClusterNodeState;
 import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
@@ -135,6 +137,69 @@ public class ClusterInfoTest {
         ns.dispose();
     }
 
+    @Test
+    public void renewLeaseSlowUpdates() throws InterruptedException {
+        Clock clock = new Clock.Virtual();
+        clock.waitUntil(System.currentTimeMillis());
+        ClusterNodeInfo.setClock(clock);
+        AtomicLong delay = new AtomicLong();
+        MemoryDocumentStore mem = new MemoryDocumentStore() {
+            @Override
+            public <T extends Document> T findAndUpdate(Collection<T> collection,
+                                                        UpdateOp update) {
+                if (collection == Collection.CLUSTER_NODES) {
+                    try {
+                        clock.waitUntil(clock.getTime() + delay.get());
+                    } catch (InterruptedException e) {
+                        throw new DocumentStoreException(e);
+                    }
+                }
+                return super.findAndUpdate(collection, update);
+            }
+        };
+
+        DocumentNodeStore ns = new DocumentMK.Builder().
+                setDocumentStore(mem).
+                setAsyncDelay(0).
+                setLeaseCheckMode(LeaseCheckMode.DISABLED).
+                getNodeStore();
+
+        ClusterNodeInfo info = ns.getClusterInfo();
+        long interval = ClusterNodeInfo.DEFAULT_LEASE_UPDATE_INTERVAL_MILLIS;
+        assertEquals(interval, info.getEffectiveLeaseUpdateInterval());
+
+        // lease updates exceeding the latency objective shorten the interval
+        delay.set(info.getLeaseUpdateLatencySLO() + 1);
+        clock.waitUntil(clock.getTime() + interval);
+        assertTrue(ns.renewClusterIdLease());
+        assertEquals(interval / 2, info.getEffectiveLeaseUpdateInterval());
+        clock.waitUntil(clock.getTime() + interval / 2);
+        assertTrue(ns.renewClusterIdLease());
+        assertEquals(interval / 4, info.getEffectiveLeaseUpdateInterval());
+
+        // but not below the minimum
+        for (int i = 0; i < ClusterNodeInfo.LEASE_UPDATE_LATENCY_WINDOW; i++) {
+            clock.waitUntil(clock.getTime() + interval);
+            assertTrue(ns.renewClusterIdLease());
+        }
+        assertEquals(ClusterNodeInfo.MIN_LEASE_UPDATE_INTERVAL_MILLIS, info.getEffectiveLeaseUpdateInterval());
+        // fast lease update
+        delay.set(0);
+        clock.waitUntil(clock.getTime() + ClusterNodeInfo.MIN_LEASE_UPDATE_INTERVAL_MILLIS);
+        assertTrue(ns.renewClusterIdLease());
+        clock.waitUntil(clock.getTime() + ClusterNodeInfo.MIN_LEASE_UPDATE_INTERVAL_MILLIS / 2);
+        assertFalse(ns.renewClusterIdLease());
+
+        // interval is restored once recent lease updates are fast again
+        for (int i = 0; i < ClusterNodeInfo.LEASE_UPDATE_LATENCY_WINDOW; i++) {
+            clock.waitUntil(clock.getTime() + interval);
+            assertTrue(ns.renewClusterIdLease());
+        }
+        assertEquals(interval, info.getEffectiveLeaseUpdateInterval());
+
+        ns.dispose();
+    }
+
     private static long getLeaseEndTime(DocumentNodeStore nodeStore) {
         ClusterNodeInfoDocument doc = nodeStore.getDocumentStore().find(
                 Collection.CLUSTER_NODES,
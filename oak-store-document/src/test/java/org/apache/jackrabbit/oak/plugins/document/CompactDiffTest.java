@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.jackrabbit.oak.commons.json.JsopStream;
+import org.apache.jackrabbit.oak.commons.json.JsopWriter;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactDiffTest {
+
+    @Test
+    public void roundTrip() {
+        Map<Path, String> changes = new HashMap<>();
+        JsopWriter w = new JsopStream();
+        w.tag('+').key("a").object().endObject();
+        w.tag('^').key("b").object().endObject();
+        w.tag('-').value("c");
+        changes.put(Path.ROOT, w.toString());
+        w = new JsopStream();
+        w.tag('+').key("a2").object().endObject();
+        changes.put(Path.fromString("/a"), w.toString());
+        changes.put(Path.fromString("/b"), "");
+
+        CompactDiff diff = CompactDiff.encode(changes);
+        assertEquals(changes, diff.decode());
+        for (Map.Entry<Path, String> e : changes.entrySet()) {
+            assertEquals(e.getValue(), diff.get(e.getKey()));
+        }
+        assertNull(diff.get(Path.fromString("/x")));
+        assertEquals(diff, CompactDiff.encode(changes));
+        assertTrue(diff.getMemory() > 0);
+    }
+
+    @Test
+    public void rawFallback() {
+        Map<Path, String> changes = new HashMap<>();
+        // not in the format written by Commit
+        changes.put(Path.ROOT, "+\"qux\"");
+        changes.put(Path.fromString("/foo"), "^\"bar\":{\"p\":1}");
+
+        CompactDiff diff = CompactDiff.encode(changes);
+        assertEquals(changes, diff.decode());
+    }
+
+    @Test
+    public void manyChildren() {
+        Map<Path, String> changes = new HashMap<>();
+        JsopWriter w = new JsopStream();
+        for (int i = 0; i < 1000; i++) {
+            w.tag('+').key("child-" + i).object().endObject();
+            changes.put(Path.fromString("/child-" + i), "");
+        }
+        changes.put(Path.ROOT, w.toString());
+
+        CompactDiff diff = CompactDiff.encode(changes);
+        assertEquals(changes, diff.decode());
+        assertEquals(changes.get(Path.ROOT), diff.get(Path.ROOT));
+    }
+}
@@ -23,6 +23,7 @@ import java.lang.management.ManagementFactory;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
@@ -74,6 +75,17 @@ public class DocumentNodeStoreStatsTest {
         assertEquals(MICROSECONDS.toNanos(50), s.getMean(), 0.01);
     }
 
+    @Test
+    public void leaseRemaining() {
+        stats.leaseRemaining(110000);
+        stats.leaseRemaining(90000);
+        stats.leaseUpdateSLOBreached();
+        Snapshot s = getHistogram(DocumentNodeStoreStats.LEASE_REMAINING).getSnapshot();
+        assertEquals(90000, s.getMin());
+        assertEquals(110000, s.getMax());
+        assertEquals(1, getMeter(DocumentNodeStoreStats.LEASE_UPDATE_SLO_BREACH).getCount());
+    }
+
     @Test
     public void externalChangesLag() {
         BackgroundReadStats readStats = new BackgroundReadStats();
@@ -86,10 +98,25 @@ public class DocumentNodeStoreStatsTest {
         assertEquals(105, m.getCount());
     }
 
+    @Test
+    public void diffCache() {
+        stats.doneDiffCacheRequest(-1);
+        stats.doneDiffCacheRequest(-1);
+        stats.doneDiffCacheRequest(30);
+        assertEquals(3, getMeter(DocumentNodeStoreStats.DIFF_CACHE_REQUEST).getCount());
+        assertEquals(1, getMeter(DocumentNodeStoreStats.DIFF_CACHE_MISS).getCount());
+        Snapshot s = getTimer(DocumentNodeStoreStats.DIFF_CACHE_LOAD_TIME).getSnapshot();
+        assertEquals(MICROSECONDS.toNanos(30), s.getMax());
+    }
+
     private Meter getMeter(String name) {
         return statsProvider.getRegistry().getMeters().get(name);
     }
 
+    private Histogram getHistogram(String name) {
+        return statsProvider.getRegistry().getHistograms().get(name);
+    }
+
     private Timer getTimer(String name) {
         return statsProvider.getRegistry().getTimers().get(name);
     }
@@ -37,6 +37,7 @@ import static org.apache.jackrabbit.oak.plugins.document.Path.ROOT;
 import static org.apache.jackrabbit.oak.plugins.document.util.Utils.isCommitted;
 import static org.hamcrest.CoreMatchers.everyItem;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.greaterThan;
@@ -4168,6 +4169,46 @@ public class DocumentNodeStoreTest {
         }
     }
 
+    @Test
+    public void asyncStoreExecutor() throws Exception {
+        Set<String> threads = Collections.synchronizedSet(new HashSet<>());
+        DocumentStore store = new DocumentStoreWrapper(new MemoryDocumentStore()) {
+            @Override
+            public <T extends Document> void prefetch(Collection<T> collection,
+                                                      Iterable<String> keys) {
+                threads.add(Thread.currentThread().getName());
+                super.prefetch(collection, keys);
+            }
+        };
+        System.setProperty(DocumentNodeStore.SYS_PROP_ASYNC_MAX_IN_FLIGHT, "2");
+        System.setProperty(DocumentNodeStore.SYS_PROP_PREFETCH, "true");
+        try {
+            DocumentNodeStore ns = builderProvider.newBuilder()
+                    .setAsyncDelay(0).setDocumentStore(store).build();
+            NodeBuilder builder = ns.getRoot().builder();
+            List<String> paths = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                builder.child("c-" + i);
+                paths.add("/c-" + i);
+            }
+            merge(ns, builder);
+            ns.getNodeCache().invalidateAll();
+            ns.prefetch(paths, ns.getRoot());
+            // the requests run on threads of the node store, not on the
+            // executor shared with other components
+            assertFalse(threads.isEmpty());
+            assertThat(threads, everyItem(containsString("DocumentNodeStore async store thread")));
+
+            ns.dispose();
+            for (Thread t : Thread.getAllStackTraces().keySet()) {
+                assertThat(t.getName(), not(containsString("DocumentNodeStore async store thread")));
+            }
+        } finally {
+            System.clearProperty(DocumentNodeStore.SYS_PROP_ASYNC_MAX_IN_FLIGHT);
+            System.clearProperty(DocumentNodeStore.SYS_PROP_PREFETCH);
+        }
+    }
+
     // Tests for OAK-9300
     @Test
     public void createCheckpointAfterDispose() {
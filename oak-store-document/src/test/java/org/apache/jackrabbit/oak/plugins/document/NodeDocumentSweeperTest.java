@@ -17,17 +17,24 @@
 package org.apache.jackrabbit.oak.plugins.document;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.jackrabbit.oak.plugins.document.UpdateOp.Key;
 import org.apache.jackrabbit.oak.plugins.document.UpdateOp.Operation;
+import org.apache.jackrabbit.oak.plugins.document.util.Utils;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.stats.Clock;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import static org.apache.jackrabbit.oak.plugins.document.Collection.NODES;
 import static org.apache.jackrabbit.oak.plugins.document.NodeDocument.COMMIT_ROOT;
@@ -39,9 +46,17 @@ import static org.apache.jackrabbit.oak.plugins.document.UpdateOp.Operation.Type
 import static org.apache.jackrabbit.oak.plugins.document.util.Utils.getIdFromPath;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 public class NodeDocumentSweeperTest {
 
+    private static final Logger LOG = LoggerFactory.getLogger(NodeDocumentSweeperTest.class);
+
+    private static final boolean PERF_ENABLED = Boolean.getBoolean(
+            NodeDocumentSweeperTest.class.getSimpleName());
+
     @Rule
     public DocumentMKBuilderProvider builderProvider = new DocumentMKBuilderProvider();
 
@@ -190,6 +205,128 @@ public class NodeDocumentSweeperTest {
         assertEquals(SET_MAP_ENTRY, changes.get(k).type);
     }
 
+    @Test
+    public void parallelSweep() throws Exception {
+        int numNodes = 1050;
+        Revision uncommitted = ns.newRevision();
+        NodeBuilder b = ns.getRoot().builder();
+        for (int i = 0; i < numNodes; i++) {
+            b.child("node-" + i);
+        }
+        merge(ns, b);
+        ns.runBackgroundUpdateOperations();
+        for (int i = 0; i < numNodes; i++) {
+            UpdateOp op = new UpdateOp(getIdFromPath("/node-" + i), false);
+            op.setMapEntry("foo", uncommitted, "value");
+            setCommitRoot(op, uncommitted, 0);
+            setModified(op, uncommitted);
+            assertNotNull(store.findAndUpdate(NODES, op));
+        }
+
+        List<Set<String>> sequential = new ArrayList<>();
+        Revision r1 = sweepBatches(new NodeDocumentSweeper(ns, false, 1), sequential);
+        List<Set<String>> parallel = new ArrayList<>();
+        Revision r2 = sweepBatches(new NodeDocumentSweeper(ns, false, 4), parallel);
+
+        assertEquals(r1, r2);
+        // same batches in the same order
+        assertEquals(sequential, parallel);
+        int numUpdates = 0;
+        for (Set<String> batch : parallel) {
+            assertTrue(batch.size() <= 100);
+            numUpdates += batch.size();
+        }
+        assertEquals(numNodes, numUpdates);
+    }
+
+    @Test
+    public void parallelSweepFailure() throws Exception {
+        NodeBuilder b = ns.getRoot().builder();
+        for (int i = 0; i < 500; i++) {
+            b.child("node-" + i);
+        }
+        merge(ns, b);
+        ns.runBackgroundUpdateOperations();
+
+        RevisionContext context = new RecoveryContext(Utils.getRootDocument(store),
+                clock, ns.getClusterId(), (rev, doc) -> {
+                    throw new DocumentStoreException("failure");
+                });
+        NodeDocumentSweeper sweeper = new NodeDocumentSweeper(context, false, 4);
+        try {
+            sweeper.sweep(seeker.getCandidates(0), updates -> {});
+            fail("must fail with DocumentStoreException");
+        } catch (DocumentStoreException e) {
+            assertEquals("failure", e.getMessage());
+        }
+    }
+
+    /**
+     * Measures the time to sweep a backlog of documents with uncommitted
+     * changes. The lookup of a commit value is simulated with a delay.
+     * Enabled with -DNodeDocumentSweeperTest=true, the number of documents,
+     * the delay and the number of workers are configurable with
+     * -DNodeDocumentSweeperTest.docs, -DNodeDocumentSweeperTest.delayMicros
+     * and -DNodeDocumentSweeperTest.workers.
+     */
+    @Test
+    public void sweepBacklogPerformance() throws Exception {
+        assumeTrue(PERF_ENABLED);
+        int numDocs = Integer.getInteger("NodeDocumentSweeperTest.docs", 100000);
+        long delayNanos = TimeUnit.MICROSECONDS.toNanos(
+                Integer.getInteger("NodeDocumentSweeperTest.delayMicros", 100));
+        int workers = Integer.getInteger("NodeDocumentSweeperTest.workers", 8);
+
+        Revision uncommitted = ns.newRevision();
+        NodeBuilder b = ns.getRoot().builder();
+        b.child("backlog");
+        merge(ns, b);
+        ns.runBackgroundUpdateOperations();
+        List<UpdateOp> ops = new ArrayList<>();
+        for (int i = 0; i < numDocs; i++) {
+            UpdateOp op = new UpdateOp(getIdFromPath("/backlog/node-" + i), true);
+            op.setMapEntry("foo", uncommitted, "value");
+            setCommitRoot(op, uncommitted, 0);
+            setModified(op, uncommitted);
+            ops.add(op);
+            if (ops.size() == 1000) {
+                assertTrue(store.create(NODES, ops));
+                ops.clear();
+            }
+        }
+        assertTrue(store.create(NODES, ops));
+
+        for (int numWorkers : new int[]{1, workers}) {
+            RevisionContext context = new RecoveryContext(Utils.getRootDocument(store),
+                    clock, ns.getClusterId(), (rev, doc) -> {
+                        LockSupport.parkNanos(delayNanos);
+                        return ns.getCommitValue(rev, doc);
+                    });
+            long numUpdates = 0;
+            long time = System.nanoTime();
+            List<Set<String>> batches = new ArrayList<>();
+            sweepBatches(new NodeDocumentSweeper(context, false, numWorkers), batches);
+            time = System.nanoTime() - time;
+            for (Set<String> batch : batches) {
+                numUpdates += batch.size();
+            }
+            LOG.info("Swept {} documents with {} worker(s) in {} ms",
+                    numUpdates, numWorkers, TimeUnit.NANOSECONDS.toMillis(time));
+        }
+    }
+
+    private Revision sweepBatches(NodeDocumentSweeper sweeper,
+                                  List<Set<String>> batches) {
+        Iterable<NodeDocument> docs = seeker.getCandidates(0);
+        return sweeper.sweep(docs, updates -> {
+            Set<String> ids = new HashSet<>();
+            for (UpdateOp op : updates.values()) {
+                ids.add(op.getId());
+            }
+            batches.add(ids);
+        });
+    }
+
     private Revision sweep(final List<UpdateOp> ops) throws Exception {
         NodeDocumentSweeper sweeper = new NodeDocumentSweeper(ns, false);
         Revision startRev = ns.getSweepRevisions().getRevision(ns.getClusterId());
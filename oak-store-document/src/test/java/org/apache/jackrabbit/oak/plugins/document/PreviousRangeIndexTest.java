@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.util.Utils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class PreviousRangeIndexTest {
+
+    private static final boolean BENCHMARK = Boolean.getBoolean(
+            PreviousRangeIndexTest.class.getSimpleName());
+
+    @Test
+    public void including() {
+        List<Revision> revs = new ArrayList<>();
+        NodeDocument doc = createDocument(40, 2, revs);
+        // add a range of height one covering other ranges
+        UpdateOp op = new UpdateOp(doc.getId(), false);
+        NodeDocument.setPrevious(op, new Range(
+                new Revision(2000, 0, 1), new Revision(1000, 0, 1), 1));
+        UpdateUtils.applyChanges(doc, op);
+
+        PreviousRangeIndex index = new PreviousRangeIndex(doc.getPreviousRanges());
+        for (Revision r : revs) {
+            assertEquals(r.toString(), scan(doc, r), index.including(r));
+            Revision br = r.asBranchRevision();
+            assertEquals(br.toString(), scan(doc, br), index.including(br));
+        }
+        assertEquals(0, index.including(new Revision(150, 0, 3)).size());
+    }
+
+    @Test
+    public void previousDocs() {
+        MemoryDocumentStore store = new MemoryDocumentStore();
+        Path path = Path.fromString("/test");
+        String id = Utils.getIdFromPath(path);
+        int numRanges = PreviousRangeIndex.MIN_RANGES + 4;
+        UpdateOp op = new UpdateOp(id, true);
+        List<Revision> revs = new ArrayList<>();
+        List<String> prevIds = new ArrayList<>();
+        // interleaved ranges of two cluster nodes, with a previous
+        // document per range
+        for (int i = 0; i < numRanges; i++) {
+            for (int clusterId = 1; clusterId <= 2; clusterId++) {
+                long t = i * 100 + clusterId;
+                Revision low = new Revision(t, 0, clusterId);
+                Revision mid = new Revision(t + 25, 0, clusterId);
+                Revision high = new Revision(t + 50, 0, clusterId);
+                String prevId = Utils.getPreviousIdFor(path, high, 0);
+                UpdateOp prev = new UpdateOp(prevId, true);
+                for (Revision r : new Revision[]{low, mid, high}) {
+                    prev.setMapEntry("p", r, r.toString());
+                    NodeDocument.setRevision(prev, r, "c");
+                }
+                store.createOrUpdate(Collection.NODES, prev);
+                NodeDocument.setPrevious(op, new Range(high, low, 0));
+                revs.add(mid);
+                prevIds.add(prevId);
+            }
+        }
+        store.createOrUpdate(Collection.NODES, op);
+
+        NodeDocument doc = store.find(Collection.NODES, id);
+        assertNotNull(doc);
+        assertTrue(doc.isSealed());
+        assertTrue(doc.getPreviousRanges().size() >= PreviousRangeIndex.MIN_RANGES);
+        for (int i = 0; i < revs.size(); i++) {
+            // the revision is within a range, but not its high bound, so
+            // the direct lookup fails and the index is used
+            Revision r = revs.get(i);
+            List<String> found = new ArrayList<>();
+            for (NodeDocument prev : doc.getPreviousDocs("p", r)) {
+                found.add(prev.getId());
+            }
+            assertEquals(r.toString(), Collections.singletonList(prevIds.get(i)), found);
+        }
+        assertFalse(doc.getPreviousDocs("p", new Revision(75, 0, 1)).iterator().hasNext());
+    }
+
+    @Test
+    public void benchmark() {
+        assumeTrue(BENCHMARK);
+        for (int numRevisions : new int[]{10, 100, 1000, 10000}) {
+            List<Revision> revs = new ArrayList<>();
+            // one range per NUM_REVS_THRESHOLD revisions and cluster node
+            int numRanges = Math.max(1, numRevisions / NodeDocument.NUM_REVS_THRESHOLD);
+            NodeDocument doc = createDocument(numRanges, 4, revs);
+            PreviousRangeIndex index = new PreviousRangeIndex(doc.getPreviousRanges());
+            int iterations = 10000000 / revs.size();
+            for (int run = 0; run < 3; run++) {
+                long found = 0;
+                long time = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    for (Revision r : revs) {
+                        found += scan(doc, r).size();
+                    }
+                }
+                long scanTime = System.nanoTime() - time;
+                time = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    for (Revision r : revs) {
+                        found += index.including(r).size();
+                    }
+                }
+                long indexTime = System.nanoTime() - time;
+                System.out.println("revisions: " + numRevisions
+                        + ", ranges: " + doc.getPreviousRanges().size()
+                        + ", scan: " + TimeUnit.NANOSECONDS.toMillis(scanTime) + " ms"
+                        + ", index: " + TimeUnit.NANOSECONDS.toMillis(indexTime) + " ms"
+                        + " (" + found + ")");
+            }
+        }
+    }
+
+    private static List<Map.Entry<Revision, Range>> scan(NodeDocument doc,
+                                                         Revision r) {
+        List<Map.Entry<Revision, Range>> ranges = new ArrayList<>();
+        for (Map.Entry<Revision, Range> e : doc.getPreviousRanges().headMap(r).entrySet()) {
+            if (e.getValue().includes(r)) {
+                ranges.add(e);
+            }
+        }
+        return ranges;
+    }
+
+    private static NodeDocument createDocument(int numRanges,
+                                               int numClusterIds,
+                                               List<Revision> revs) {
+        String id = Utils.getIdFromPath("/test");
+        NodeDocument doc = new NodeDocument(new MemoryDocumentStore());
+        doc.put(Document.ID, id);
+        UpdateOp op = new UpdateOp(id, false);
+        // interleaved ranges of multiple cluster nodes
+        for (int i = 0; i < numRanges; i++) {
+            for (int clusterId = 1; clusterId <= numClusterIds; clusterId++) {
+                long t = i * 100 + clusterId;
+                Revision low = new Revision(t, 0, clusterId);
+                Revision high = new Revision(t + 50, 0, clusterId);
+                NodeDocument.setPrevious(op, new Range(high, low, 0));
+                revs.add(low);
+                revs.add(high);
+                revs.add(new Revision(t + 25, 0, clusterId));
+                revs.add(new Revision(t + 75, 0, clusterId));
+            }
+        }
+        UpdateUtils.applyChanges(doc, op);
+        return doc;
+    }
+}
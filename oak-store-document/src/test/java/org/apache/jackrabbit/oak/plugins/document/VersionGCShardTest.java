@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.apache.jackrabbit.oak.plugins.document.VersionGarbageCollector.SETTINGS_COLLECTION_ID;
+import static org.apache.jackrabbit.oak.plugins.document.VersionGarbageCollector.SETTINGS_COLLECTION_SHARD_PROP_PREFIX;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.jackrabbit.oak.plugins.document.RevisionGCStats.ShardStats;
+import org.apache.jackrabbit.oak.plugins.document.VersionGarbageCollector.VersionGCStats;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.util.TimeInterval;
+import org.apache.jackrabbit.oak.plugins.document.util.Utils;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.stats.Clock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class VersionGCShardTest {
+
+    private static final int NUM_NODES = 40;
+
+    @Rule
+    public final DocumentMKBuilderProvider builderProvider = new DocumentMKBuilderProvider();
+
+    private final ThrottledStore store = new ThrottledStore();
+
+    private Clock clock;
+
+    private DocumentNodeStore ns;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new Clock.Virtual();
+        clock.waitUntil(System.currentTimeMillis());
+        Revision.setClock(clock);
+        ns = builderProvider.newBuilder().clock(clock)
+                .setLeaseCheckMode(LeaseCheckMode.LENIENT)
+                .setDocumentStore(store).setAsyncDelay(0).getNodeStore();
+    }
+
+    @After
+    public void tearDown() {
+        Revision.resetClockToDefault();
+    }
+
+    @Test
+    public void splitIntoShards() {
+        List<TimeInterval> shards = VersionGarbageCollector.splitIntoShards(
+                new TimeInterval(100, 200), 4);
+        assertEquals(4, shards.size());
+        assertEquals(new TimeInterval(100, 125), shards.get(0));
+        assertEquals(new TimeInterval(175, 200), shards.get(3));
+
+        shards = VersionGarbageCollector.splitIntoShards(new TimeInterval(100, 102), 4);
+        assertEquals(2, shards.size());
+        assertEquals(new TimeInterval(100, 101), shards.get(0));
+        assertEquals(new TimeInterval(101, 102), shards.get(1));
+    }
+
+    @Test
+    public void subtract() {
+        TimeInterval shard = new TimeInterval(100, 200);
+        List<TimeInterval> remaining = VersionGarbageCollector.subtract(shard, List.of(
+                new TimeInterval(50, 110), new TimeInterval(150, 160)));
+        assertEquals(List.of(new TimeInterval(110, 150), new TimeInterval(160, 200)), remaining);
+
+        assertTrue(VersionGarbageCollector.subtract(shard, List.of(
+                new TimeInterval(0, 300))).isEmpty());
+        assertEquals(List.of(shard), VersionGarbageCollector.subtract(shard, List.of()));
+    }
+
+    @Test
+    public void shardedCollection() throws Exception {
+        createAndDeleteNodes();
+
+        VersionGarbageCollector gc = ns.getVersionGarbageCollector();
+        gc.setOptions(gc.getOptions().withShards(4, 2));
+        VersionGCStats stats = gc.gc(1, HOURS);
+
+        assertEquals(NUM_NODES, stats.deletedDocGCCount);
+        assertEquals(4, stats.shardsCompleted);
+        assertEquals(0, stats.shardsSkipped);
+        for (int i = 0; i < NUM_NODES; i++) {
+            assertNull(store.find(Collection.NODES, Utils.getIdFromPath("/node-" + i)));
+        }
+        Map<Long, ShardStats> shards = gc.getRevisionGCStats().getShardStats();
+        assertEquals(4, shards.size());
+        assertEquals(NUM_NODES, shards.values().stream().mapToLong(s -> s.docsDeleted).sum());
+        assertTrue(store.throttleCalls.get() > 0);
+        assertTrue(getCheckpoints().isEmpty());
+    }
+
+    @Test
+    public void resumeInterruptedRun() throws Exception {
+        createAndDeleteNodes();
+
+        VersionGarbageCollector gc = ns.getVersionGarbageCollector();
+        gc.setOptions(gc.getOptions().withShards(4, 1));
+        // cancel when the second shard is about to remove documents
+        store.onThrottle = () -> {
+            if (store.throttleCalls.get() == 2) {
+                gc.cancel();
+            }
+        };
+        VersionGCStats stats = gc.gc(1, HOURS);
+        assertTrue(stats.canceled);
+        assertEquals(1, stats.shardsCompleted);
+        int deleted = stats.deletedDocGCCount;
+        assertTrue(deleted > 0 && deleted < NUM_NODES);
+        assertEquals(1, getCheckpoints().size());
+
+        store.onThrottle = null;
+        stats = gc.gc(1, HOURS);
+        assertFalse(stats.canceled);
+        assertEquals(NUM_NODES - deleted, stats.deletedDocGCCount);
+        for (int i = 0; i < NUM_NODES; i++) {
+            assertNull(store.find(Collection.NODES, Utils.getIdFromPath("/node-" + i)));
+        }
+        assertTrue(getCheckpoints().isEmpty());
+    }
+
+    @Test
+    public void completedShardsSkipped() throws Exception {
+        createAndDeleteNodes();
+
+        // checkpoint covering any scope
+        UpdateOp op = new UpdateOp(SETTINGS_COLLECTION_ID, true);
+        op.set(SETTINGS_COLLECTION_SHARD_PROP_PREFIX + 0, Long.MAX_VALUE);
+        store.createOrUpdate(Collection.SETTINGS, op);
+
+        VersionGarbageCollector gc = ns.getVersionGarbageCollector();
+        gc.setOptions(gc.getOptions().withShards(3, 3));
+        VersionGCStats stats = gc.gc(1, HOURS);
+        assertEquals(0, stats.deletedDocGCCount);
+        assertEquals(3, stats.shardsSkipped);
+        assertEquals(0, stats.shardsCompleted);
+        assertNotNull(store.find(Collection.NODES, Utils.getIdFromPath("/node-0")));
+        assertTrue(gc.getRevisionGCStats().getShardStats().values().stream().allMatch(s -> s.skipped));
+        assertTrue(getCheckpoints().isEmpty());
+    }
+
+    private void createAndDeleteNodes() throws Exception {
+        NodeBuilder builder = ns.getRoot().builder();
+        for (int i = 0; i < NUM_NODES; i++) {
+            builder.child("node-" + i);
+        }
+        merge(builder);
+        // delete nodes spread over time
+        for (int i = 0; i < NUM_NODES; i++) {
+            clock.waitUntil(clock.getTime() + MINUTES.toMillis(1));
+            builder = ns.getRoot().builder();
+            builder.child("node-" + i).remove();
+            merge(builder);
+        }
+        ns.runBackgroundOperations();
+        clock.waitUntil(clock.getTime() + HOURS.toMillis(2));
+    }
+
+    private void merge(NodeBuilder builder) throws Exception {
+        ns.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    }
+
+    private List<String> getCheckpoints() {
+        Document settings = store.find(Collection.SETTINGS, SETTINGS_COLLECTION_ID);
+        assertNotNull(settings);
+        return settings.keySet().stream()
+                .filter(k -> k.startsWith(SETTINGS_COLLECTION_SHARD_PROP_PREFIX))
+                .collect(Collectors.toList());
+    }
+
+    private static final class ThrottledStore extends MemoryDocumentStore {
+
+        final AtomicInteger throttleCalls = new AtomicInteger();
+
+        volatile Runnable onThrottle;
+
+        @Override
+        public Throttler throttler() {
+            return () -> {
+                throttleCalls.incrementAndGet();
+                Runnable r = onThrottle;
+                if (r != null) {
+                    r.run();
+                }
+                return 1;
+            };
+        }
+    }
+}
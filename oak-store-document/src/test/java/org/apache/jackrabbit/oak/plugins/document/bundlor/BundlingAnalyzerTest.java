@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.document.bundlor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jackrabbit.guava.common.collect.Lists;
+import org.apache.jackrabbit.oak.InitialContent;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.plugins.document.CountingDocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.DocumentMK;
+import org.apache.jackrabbit.oak.plugins.document.DocumentMKBuilderProvider;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.bundlor.BundlingAnalyzer.Mode;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.apache.jackrabbit.JcrConstants.JCR_PRIMARYTYPE;
+import static org.apache.jackrabbit.oak.plugins.document.Collection.NODES;
+import static org.apache.jackrabbit.oak.plugins.document.bundlor.BundlingConfigHandler.CONFIG_PATH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BundlingAnalyzerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BundlingAnalyzerTest.class);
+
+    @Rule
+    public DocumentMKBuilderProvider builderProvider = new DocumentMKBuilderProvider();
+
+    @Test
+    public void propose() throws Exception {
+        DocumentNodeStore store = newNodeStore(new MemoryDocumentStore(), Mode.OFF);
+        BundlingAnalyzer analyzer = new BundlingAnalyzer(store, Mode.PROPOSE, null, 10, 0.9, 10);
+        store.addObserver(analyzer);
+
+        NodeBuilder builder = store.getRoot().builder();
+        for (int i = 0; i < 10; i++) {
+            NodeBuilder index = builder.child("oak:index").child("index-" + i);
+            index.setProperty(JCR_PRIMARYTYPE, "oak:QueryIndexDefinition", Type.NAME);
+            index.child("indexRules").child("nt:base");
+        }
+        merge(store, builder);
+
+        createAssets(store, "a", 9);
+        assertTrue(analyzer.getProposals().isEmpty());
+        createAssets(store, "b", 1);
+
+        Map<String, List<String>> proposals = analyzer.getProposals();
+        assertEquals(List.of("jcr:content", "jcr:content/metadata", "jcr:content/renditions"),
+                proposals.get("app:Asset"));
+        // folders and types of the repository are never proposed
+        assertFalse(proposals.containsKey("nt:unstructured"));
+        assertFalse(proposals.containsKey("oak:QueryIndexDefinition"));
+        // not applied
+        assertFalse(configOf(store).hasChildNode("app:Asset"));
+    }
+
+    @Test
+    public void largeOrRareSubtreesNotProposed() throws Exception {
+        DocumentNodeStore store = newNodeStore(new MemoryDocumentStore(), Mode.OFF);
+        BundlingAnalyzer analyzer = new BundlingAnalyzer(store, Mode.PROPOSE, null, 10, 0.9, 10);
+        store.addObserver(analyzer);
+
+        NodeBuilder builder = store.getRoot().builder();
+        NodeBuilder content = builder.child("content");
+        for (int i = 0; i < 10; i++) {
+            NodeBuilder page = content.child("page-" + i);
+            page.setProperty(JCR_PRIMARYTYPE, "app:Page", Type.NAME);
+            NodeBuilder par = page.child("jcr:content").child("par");
+            for (int j = 0; j < 20; j++) {
+                par.child("item-" + j);
+            }
+            if (i == 0) {
+                page.child("rare");
+            }
+        }
+        merge(store, builder);
+
+        // jcr:content is present on all pages, but too large
+        assertNull(analyzer.getProposals().get("app:Page"));
+    }
+
+    @Test
+    public void existingConfigurationNotChanged() throws Exception {
+        DocumentNodeStore store = newNodeStore(new MemoryDocumentStore(), Mode.OFF);
+        NodeBuilder builder = store.getRoot().builder();
+        NodeBuilder disabled = childBuilder(builder, CONFIG_PATH).child("app:Asset");
+        disabled.setProperty(DocumentBundlor.PROP_PATTERN, List.of("jcr:content"), Type.STRINGS);
+        disabled.setProperty(DocumentBundlor.PROP_DISABLED, true);
+        merge(store, builder);
+
+        BundlingAnalyzer analyzer = new BundlingAnalyzer(store, Mode.APPLY,
+                EmptyHook.INSTANCE, 10, 0.9, 10);
+        store.addObserver(analyzer);
+        createAssets(store, "a", 20);
+
+        assertTrue(analyzer.getProposals().isEmpty());
+        NodeState config = configOf(store).getChildNode("app:Asset");
+        assertTrue(config.getBoolean(DocumentBundlor.PROP_DISABLED));
+    }
+
+    /**
+     * Applies the proposal for an asset structure and compares the number
+     * of find calls to read the subtree of an asset created before and
+     * after the bundling configuration was added.
+     */
+    @Test
+    public void applyReducesFindCalls() throws Exception {
+        CountingDocumentStore ds = new CountingDocumentStore(new MemoryDocumentStore());
+        AtomicInteger hookCalls = new AtomicInteger();
+        DocumentNodeStore store = newNodeStore(ds, Mode.APPLY, (before, after, info) -> {
+            hookCalls.incrementAndGet();
+            return after;
+        });
+        BundlingAnalyzer analyzer = store.getBundlingAnalyzer();
+        assertNotNull(analyzer);
+
+        for (int i = 0; i < BundlingAnalyzer.DEFAULT_MIN_SAMPLES / 10; i++) {
+            createAssets(store, "before-" + i, 10);
+        }
+        long end = System.currentTimeMillis() + 10000;
+        while (!configOf(store).hasChildNode("app:Asset")
+                || !store.getBundlingConfigHandler().getRegistry().getBundlors().containsKey("app:Asset")) {
+            assertTrue("bundling configuration not applied", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+        // the proposals are committed through the given hook
+        assertEquals(1, hookCalls.get());
+        assertEquals(List.of("jcr:content", "jcr:content/metadata", "jcr:content/renditions"),
+                Lists.newArrayList(configOf(store).getChildNode("app:Asset")
+                        .getStrings(DocumentBundlor.PROP_PATTERN)));
+        createAssets(store, "after", 1);
+
+        int before = countFindCalls(store, ds, "/content/before-0/asset-0");
+        int after = countFindCalls(store, ds, "/content/after/asset-0");
+        LOG.info("Find calls to read an asset: {} before, {} after applying the bundling configuration",
+                before, after);
+        assertTrue("before: " + before + ", after: " + after, after < before);
+    }
+
+    @Test
+    public void applyRequiresCommitHook() throws Exception {
+        DocumentNodeStore store = newNodeStore(new MemoryDocumentStore(), Mode.APPLY);
+        for (int i = 0; i < BundlingAnalyzer.DEFAULT_MIN_SAMPLES / 10; i++) {
+            createAssets(store, "a-" + i, 10);
+        }
+        BundlingAnalyzer analyzer = store.getBundlingAnalyzer();
+        long end = System.currentTimeMillis() + 10000;
+        while (analyzer.getProposals().isEmpty()) {
+            assertTrue("no proposal", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+        // without a commit hook the proposals are only logged
+        store.runBackgroundOperations();
+        assertFalse(configOf(store).hasChildNode("app:Asset"));
+    }
+
+    @Test
+    public void notAppliedWhenClosed() throws Exception {
+        DocumentNodeStore store = newNodeStore(new MemoryDocumentStore(), Mode.OFF);
+        BundlingAnalyzer analyzer = new BundlingAnalyzer(store, Mode.APPLY,
+                EmptyHook.INSTANCE, 10, 0.9, 10);
+        store.addObserver(analyzer);
+        analyzer.close();
+        createAssets(store, "a", 20);
+
+        assertFalse(analyzer.getProposals().isEmpty());
+        analyzer.applyProposals();
+        assertFalse(configOf(store).hasChildNode("app:Asset"));
+    }
+
+    private DocumentNodeStore newNodeStore(DocumentStore ds,
+                                           Mode mode) throws CommitFailedException {
+        return newNodeStore(ds, mode, null);
+    }
+
+    private DocumentNodeStore newNodeStore(DocumentStore ds,
+                                           Mode mode,
+                                           CommitHook hook) throws CommitFailedException {
+        DocumentMK.Builder builder = builderProvider.newBuilder()
+                .setDocumentStore(ds)
+                .setAsyncDelay(0)
+                .memoryCacheSize(0)
+                .setAdaptiveBundlingMode(mode);
+        if (hook != null) {
+            builder.setAdaptiveBundlingCommitHook(hook);
+        }
+        DocumentNodeStore store = builder.getNodeStore();
+        NodeBuilder root = store.getRoot().builder();
+        new InitialContent().initialize(root);
+        BundlingConfigInitializer.INSTANCE.initialize(root);
+        merge(store, root);
+        return store;
+    }
+
+    private static void createAssets(DocumentNodeStore store, String folder, int num)
+            throws CommitFailedException {
+        NodeBuilder builder = store.getRoot().builder();
+        NodeBuilder f = builder.child("content").child(folder);
+        f.setProperty(JCR_PRIMARYTYPE, "nt:unstructured", Type.NAME);
+        for (int i = 0; i < num; i++) {
+            NodeBuilder asset = f.child("asset-" + i);
+            asset.setProperty(JCR_PRIMARYTYPE, "app:Asset", Type.NAME);
+            NodeBuilder content = asset.child("jcr:content");
+            content.setProperty("jcr:lastModified", i);
+            content.child("metadata").setProperty("dc:title", "asset " + i);
+            content.child("renditions").child("original").setProperty("size", 1024L * i);
+        }
+        merge(store, builder);
+    }
+
+    private static int countFindCalls(DocumentNodeStore store,
+                                      CountingDocumentStore ds,
+                                      String path) {
+        ds.resetCounters();
+        traverse(NodeStateUtils.getNode(store.getRoot(), path));
+        return ds.getNumFindCalls(NODES);
+    }
+
+    private static void traverse(NodeState state) {
+        for (ChildNodeEntry e : state.getChildNodeEntries()) {
+            traverse(e.getNodeState());
+        }
+    }
+
+    private static NodeState configOf(DocumentNodeStore store) {
+        return NodeStateUtils.getNode(store.getRoot(), CONFIG_PATH);
+    }
+
+    private static NodeBuilder childBuilder(NodeBuilder builder, String path) {
+        for (String name : PathUtils.elements(path)) {
+            builder = builder.getChildNode(name);
+        }
+        return builder;
+    }
+
+    private static void merge(DocumentNodeStore store, NodeBuilder builder)
+            throws CommitFailedException {
+        store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.mongo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jackrabbit.oak.plugins.document.DocumentMK;
+import org.apache.jackrabbit.oak.plugins.document.MongoConnectionFactory;
+import org.apache.jackrabbit.oak.plugins.document.MongoUtils;
+import org.apache.jackrabbit.oak.plugins.document.NodeDocument;
+import org.apache.jackrabbit.oak.plugins.document.UpdateOp;
+import org.apache.jackrabbit.oak.plugins.document.prefetch.CountingMongoDatabase;
+import org.apache.jackrabbit.oak.plugins.document.util.MongoConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.apache.jackrabbit.oak.plugins.document.Collection.NODES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeNotNull;
+
+public class MongoBulkUpdateTest {
+
+    @Rule
+    public MongoConnectionFactory connectionFactory = new MongoConnectionFactory();
+
+    private CountingMongoDatabase db;
+
+    private MongoDocumentStore store;
+
+    @Before
+    public void before() {
+        MongoConnection c = connectionFactory.getConnection();
+        assumeNotNull(c);
+        db = new CountingMongoDatabase(c.getDatabase());
+        MongoUtils.dropCollections(db);
+        store = new MongoDocumentStore(c.getMongoClient(), db, new DocumentMK.Builder());
+    }
+
+    @After
+    public void after() {
+        if (store != null) {
+            store.dispose();
+        }
+    }
+
+    @Test
+    public void singleReadForMissingDocuments() {
+        List<UpdateOp> ops = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            UpdateOp op = new UpdateOp("1:/node-" + i, true);
+            op.set("p", 0);
+            ops.add(op);
+        }
+        store.create(NODES, ops);
+        store.invalidateCache();
+
+        ops = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            UpdateOp op = new UpdateOp("1:/node-" + i, false);
+            op.set("p", 1);
+            ops.add(op);
+        }
+        db.getCachedCountingCollection("nodes").resetFindCounter();
+        List<NodeDocument> oldDocs = store.createOrUpdate(NODES, ops);
+        assertEquals(1, db.getCachedCountingCollection("nodes").getFindCounter());
+        assertEquals(100, oldDocs.size());
+        for (NodeDocument doc : oldDocs) {
+            assertNotNull(doc);
+            assertEquals(0L, doc.get("p"));
+        }
+    }
+
+    @Test
+    public void twoCachedDocuments() {
+        List<UpdateOp> ops = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            UpdateOp op = new UpdateOp("1:/node-" + i, true);
+            op.set("p", 0);
+            ops.add(op);
+        }
+        store.create(NODES, ops);
+
+        ops = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            UpdateOp op = new UpdateOp("1:/node-" + i, false);
+            op.set("p", 1);
+            ops.add(op);
+        }
+        db.getCachedCountingCollection("nodes").resetFindCounter();
+        List<NodeDocument> oldDocs = store.createOrUpdate(NODES, ops);
+        assertEquals(0, db.getCachedCountingCollection("nodes").getFindCounter());
+        for (NodeDocument doc : oldDocs) {
+            assertNotNull(doc);
+            assertEquals(0L, doc.get("p"));
+        }
+        NodeDocument doc = store.find(NODES, "1:/node-1");
+        assertNotNull(doc);
+        assertEquals(1L, doc.get("p"));
+    }
+}
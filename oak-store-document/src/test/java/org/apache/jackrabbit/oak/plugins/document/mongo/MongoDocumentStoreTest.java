@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.oak.plugins.document.mongo;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import com.mongodb.client.MongoCollection;
@@ -27,14 +29,21 @@ import org.apache.jackrabbit.oak.plugins.document.DocumentMK;
 import org.apache.jackrabbit.oak.plugins.document.JournalEntry;
 import org.apache.jackrabbit.oak.plugins.document.MongoUtils;
 import org.apache.jackrabbit.oak.plugins.document.NodeDocument;
+import org.apache.jackrabbit.oak.plugins.document.Path;
+import org.apache.jackrabbit.oak.plugins.document.UpdateOp;
+import org.apache.jackrabbit.oak.plugins.document.util.CloseableIterable;
 import org.apache.jackrabbit.oak.plugins.document.util.MongoConnection;
+import org.apache.jackrabbit.oak.plugins.document.util.Utils;
 import org.junit.Test;
 
+import static java.util.Collections.emptyList;
 import static org.apache.jackrabbit.oak.plugins.document.Collection.NODES;
 import static org.apache.jackrabbit.oak.plugins.document.mongo.MongoUtils.hasIndex;
 import static org.hamcrest.Matchers.hasItem;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -115,6 +124,46 @@ public class MongoDocumentStoreTest extends AbstractMongoConnectionTest {
         assertFalse(hasIndex(mc, NodeDocument.HAS_BINARY_FLAG));
     }
 
+    @Test
+    public void queryAsIterable() throws Exception {
+        List<UpdateOp> ops = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            ops.add(new UpdateOp(Utils.getIdFromPath("/test/node-" + (100 + i)), true));
+        }
+        store.create(NODES, ops);
+        String fromKey = Utils.getKeyLowerLimit(Path.fromString("/test"));
+        String toKey = Utils.getKeyUpperLimit(Path.fromString("/test"));
+
+        // streaming without populating the cache
+        store.invalidateCache();
+        List<String> ids = new ArrayList<>();
+        try (CloseableIterable<NodeDocument> docs = store.queryAsIterable(NODES,
+                fromKey, toKey, null, 0, Integer.MAX_VALUE, emptyList(), 10, false)) {
+            for (NodeDocument doc : docs) {
+                ids.add(doc.getId());
+            }
+        }
+        assertEquals(25, ids.size());
+        assertEquals(Utils.getIdFromPath("/test/node-100"), ids.get(0));
+        assertEquals(Utils.getIdFromPath("/test/node-124"), ids.get(24));
+        for (String id : ids) {
+            assertNull(store.getIfCached(NODES, id));
+        }
+
+        // limit and populating the cache
+        ids.clear();
+        try (CloseableIterable<NodeDocument> docs = store.queryAsIterable(NODES,
+                fromKey, toKey, null, 0, 15, emptyList(), 10, true)) {
+            for (NodeDocument doc : docs) {
+                ids.add(doc.getId());
+            }
+        }
+        assertEquals(15, ids.size());
+        for (String id : ids) {
+            assertNotNull(store.getIfCached(NODES, id));
+        }
+    }
+
     static final class TestStore extends MongoDocumentStore {
         TestStore(MongoConnection c, DocumentMK.Builder builder) {
             super(c.getMongoClient(), c.getDatabase(), builder);
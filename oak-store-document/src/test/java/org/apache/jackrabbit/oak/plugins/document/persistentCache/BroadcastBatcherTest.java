@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.persistentCache;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.guava.common.cache.Cache;
+import org.apache.jackrabbit.oak.cache.CacheLIRS;
+import org.apache.jackrabbit.oak.plugins.document.MemoryDiffCache.Key;
+import org.apache.jackrabbit.oak.plugins.document.Path;
+import org.apache.jackrabbit.oak.plugins.document.RevisionVector;
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.broadcast.Broadcaster;
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.broadcast.InMemoryBroadcaster;
+import org.apache.jackrabbit.oak.plugins.document.util.StringValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests batched broadcast of persistent cache messages with a number of
+ * cluster members connected by the {@link InMemoryBroadcaster}.
+ */
+public class BroadcastBatcherTest {
+
+    private static final int MEMBERS = 8;
+
+    private static final File DIRECTORY = new File("target/broadcastBatcherTest");
+
+    private final List<PersistentCache> members = new ArrayList<>();
+
+    private final AtomicInteger frames = new AtomicInteger();
+
+    private final Broadcaster.Listener frameCounter = buff -> {
+        // length, broadcast id, type
+        if (buff.get(buff.position() + 4 + 16) == BroadcastBatcher.BATCH) {
+            frames.incrementAndGet();
+        }
+    };
+
+    @Before
+    public void before() throws Exception {
+        FileUtils.deleteDirectory(DIRECTORY);
+        DIRECTORY.mkdirs();
+        InMemoryBroadcaster.INSTANCE.addListener(frameCounter);
+    }
+
+    @After
+    public void after() throws Exception {
+        for (PersistentCache pc : members) {
+            pc.close();
+        }
+        InMemoryBroadcaster.INSTANCE.removeListener(frameCounter);
+        FileUtils.deleteDirectory(DIRECTORY);
+    }
+
+    @Test
+    public void encodeDecode() {
+        List<byte[]> messages = new ArrayList<>();
+        messages.add("a".getBytes(StandardCharsets.UTF_8));
+        messages.add(new byte[0]);
+        messages.add("bc".getBytes(StandardCharsets.UTF_8));
+        byte[] frame = BroadcastBatcher.encode(messages);
+        assertEquals(0, frame[0]);
+        assertArrayEquals(messages.toArray(), decode(frame).toArray());
+
+        messages.clear();
+        for (int i = 0; i < 100; i++) {
+            messages.add(("invalidate /content/site/page-" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        frame = BroadcastBatcher.encode(messages);
+        assertEquals(BroadcastBatcher.FLAG_DEFLATED, frame[0]);
+        int size = 0;
+        for (byte[] m : messages) {
+            size += m.length + 4;
+        }
+        assertTrue(frame.length < size / 2);
+        assertArrayEquals(messages.toArray(), decode(frame).toArray());
+    }
+
+    @Test
+    public void coalesce() {
+        List<byte[]> sent = new ArrayList<>();
+        BroadcastBatcher batcher = new BroadcastBatcher(60000, sent::add);
+        try {
+            batcher.add(new byte[]{0, 1, 2, 0}, 3);
+            batcher.add(new byte[]{0, 1, 3, 0}, 3);
+            batcher.add(new byte[]{0, 1, 2, 1, 42}, 3);
+            batcher.flush();
+            assertEquals(1, sent.size());
+            List<byte[]> messages = decode(sent.get(0));
+            assertEquals(2, messages.size());
+            assertArrayEquals(new byte[]{0, 1, 3, 0}, messages.get(0));
+            assertArrayEquals(new byte[]{0, 1, 2, 1, 42}, messages.get(1));
+            assertEquals(3, batcher.getMessageCount());
+            assertEquals(1, batcher.getFrameCount());
+            // nothing pending
+            batcher.flush();
+            assertEquals(1, sent.size());
+        } finally {
+            batcher.close();
+        }
+    }
+
+    @Test
+    public void invalidateAllMembers() {
+        List<Cache<Key, StringValue>> caches = openMembers("broadcastBatch=10");
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(newKey("/test-" + i));
+        }
+        for (Cache<Key, StringValue> c : caches) {
+            for (Key k : keys) {
+                c.put(k, new StringValue("value"));
+            }
+        }
+        flushAll();
+        frames.set(0);
+        Cache<Key, StringValue> c0 = caches.get(0);
+        for (Key k : keys) {
+            c0.invalidate(k);
+        }
+        // the in-memory broadcaster delivers the frames while they are
+        // sent, so all invalidations arrived once the batches are flushed;
+        // reading while they arrive could load the old value again
+        flushAll();
+        for (Cache<Key, StringValue> c : caches) {
+            for (Key k : keys) {
+                assertNull(c.getIfPresent(k));
+            }
+        }
+        // far less frames than invalidations
+        assertTrue("frames: " + frames.get(), frames.get() < keys.size() / 2);
+    }
+
+    @Test
+    public void hotKeys() {
+        List<Cache<Key, StringValue>> caches = openMembers("+asyncDiff,broadcastBatch=10,broadcastHot=2");
+        Cache<Key, StringValue> c0 = caches.get(0);
+        Cache<Key, StringValue> c1 = caches.get(1);
+        Key cold = newKey("/cold");
+        c0.put(cold, new StringValue("cold"));
+        Key hot = newKey("/hot");
+        c0.put(hot, new StringValue("hot"));
+        members.get(0).getBroadcastBatcher().flush();
+        assertNull(c1.getIfPresent(hot));
+        // the value is broadcast when the second read makes it hot
+        c0.getIfPresent(hot);
+        c0.getIfPresent(hot);
+        assertTrue(waitFor(c1, hot, new StringValue("hot")));
+        assertNull(c1.getIfPresent(cold));
+
+        // invalidations are always sent, without a value
+        c1.put(cold, new StringValue("cold"));
+        c0.invalidate(cold);
+        members.get(0).getBroadcastBatcher().flush();
+        assertNull(c1.getIfPresent(cold));
+    }
+
+    @Test
+    public void unknownMessageType() {
+        List<Cache<Key, StringValue>> caches = openMembers("broadcastBatch=10");
+        // a message of a newer version is ignored
+        members.get(0).receive(ByteBuffer.wrap(new byte[]{
+                0, 0, 0, 21, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 100}));
+        Key k = newKey("/test");
+        caches.get(1).put(k, new StringValue("value"));
+        assertTrue(waitFor(caches.get(0), k, new StringValue("value")));
+    }
+
+    private List<Cache<Key, StringValue>> openMembers(String options) {
+        List<Cache<Key, StringValue>> caches = new ArrayList<>();
+        for (int i = 0; i < MEMBERS; i++) {
+            PersistentCache pc = new PersistentCache(DIRECTORY.getPath()
+                    + "/p" + i + ",broadcast=inMemory," + options);
+            members.add(pc);
+            CacheLIRS<Key, StringValue> cache = new CacheLIRS.Builder<Key, StringValue>()
+                    .maximumSize(1000).build();
+            caches.add(pc.wrap(null, null, cache, CacheType.DIFF));
+        }
+        return caches;
+    }
+
+    private void flushAll() {
+        for (PersistentCache pc : members) {
+            pc.getBroadcastBatcher().flush();
+        }
+    }
+
+    private static Key newKey(String path) {
+        return new Key(Path.fromString(path),
+                RevisionVector.fromString("r1-0-1"),
+                RevisionVector.fromString("r2-0-1"));
+    }
+
+    private static <K, V> boolean waitFor(Cache<K, V> cache, K key, V value) {
+        long end = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < end) {
+            V v = cache.getIfPresent(key);
+            if (value == null ? v == null : value.equals(v)) {
+                return true;
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+        return false;
+    }
+
+    private static List<byte[]> decode(byte[] frame) {
+        List<byte[]> messages = new ArrayList<>();
+        BroadcastBatcher.decode(ByteBuffer.wrap(frame), m -> {
+            byte[] data = new byte[m.remaining()];
+            m.get(data);
+            messages.add(data);
+        });
+        return messages;
+    }
+}
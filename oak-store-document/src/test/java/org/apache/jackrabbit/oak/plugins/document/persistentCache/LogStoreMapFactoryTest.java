@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.persistentCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.guava.common.cache.Cache;
+import org.apache.jackrabbit.oak.cache.CacheLIRS;
+import org.apache.jackrabbit.oak.plugins.document.MemoryDiffCache;
+import org.apache.jackrabbit.oak.plugins.document.Path;
+import org.apache.jackrabbit.oak.plugins.document.Revision;
+import org.apache.jackrabbit.oak.plugins.document.RevisionVector;
+import org.apache.jackrabbit.oak.plugins.document.util.StringValue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogStoreMapFactoryTest {
+
+    private static final String DIR = "target/logStoreTest";
+
+    private final AtomicInteger exceptions = new AtomicInteger();
+
+    @Before
+    public void before() throws Exception {
+        FileUtils.deleteDirectory(new File(DIR));
+        new File(DIR).mkdirs();
+    }
+
+    @Test
+    public void putGetRemove() {
+        LogStoreMapFactory f = newFactory(DIR + "/cache-0.log", false);
+        Map<String, String> m = f.openMap("test", null);
+        assertNull(m.get("a"));
+        m.put("a", "1");
+        m.put("b", "2");
+        m.put("a", "3");
+        assertEquals("3", m.get("a"));
+        assertEquals("2", m.get("b"));
+        m.remove("b");
+        assertNull(m.get("b"));
+        assertFalse(m.containsKey("b"));
+        assertTrue(m.containsKey("a"));
+        f.closeStore();
+        assertEquals(0, exceptions.get());
+    }
+
+    @Test
+    public void reopen() {
+        String fileName = DIR + "/cache-0.log";
+        LogStoreMapFactory f = newFactory(fileName, false);
+        Map<String, String> m1 = f.openMap("m1", null);
+        Map<String, String> m2 = f.openMap("m2", null);
+        m1.put("a", "1");
+        m2.put("a", "2");
+        m2.put("b", "3");
+        m2.remove("b");
+        m1.put("c", "4");
+        m1.clear();
+        m1.put("d", "5");
+        f.closeStore();
+
+        f = newFactory(fileName, true);
+        m1 = f.openMap("m1", null);
+        m2 = f.openMap("m2", null);
+        assertNull(m1.get("a"));
+        assertNull(m1.get("c"));
+        assertEquals("5", m1.get("d"));
+        assertEquals("2", m2.get("a"));
+        assertNull(m2.get("b"));
+        f.closeStore();
+        assertEquals(0, exceptions.get());
+    }
+
+    @Test
+    public void truncatedRecord() throws Exception {
+        String fileName = DIR + "/cache-0.log";
+        LogStoreMapFactory f = newFactory(fileName, false);
+        Map<String, String> m = f.openMap("test", null);
+        m.put("a", "1");
+        long size = f.getFileSize();
+        m.put("b", "2");
+        f.closeStore();
+
+        // simulate a crash in the middle of writing the last record
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+            file.setLength(file.length() - 2);
+        }
+
+        f = newFactory(fileName, false);
+        assertEquals(size, f.getFileSize());
+        m = f.openMap("test", null);
+        assertEquals("1", m.get("a"));
+        assertNull(m.get("b"));
+        m.put("b", "3");
+        assertEquals("3", m.get("b"));
+        f.closeStore();
+    }
+
+    @Test
+    public void unknownFormat() throws Exception {
+        String fileName = DIR + "/cache-0.log";
+        try (FileOutputStream out = new FileOutputStream(fileName)) {
+            out.write("corrupt".getBytes());
+        }
+        LogStoreMapFactory f = newFactory(fileName, false);
+        Map<String, String> m = f.openMap("test", null);
+        assertNull(m.get("a"));
+        m.put("a", "1");
+        assertEquals("1", m.get("a"));
+        f.closeStore();
+    }
+
+    @Test
+    public void largeValue() {
+        LogStoreMapFactory f = newFactory(null, false);
+        Map<String, String> m = f.openMap("test", null);
+        // longer than the maximum length of a value stored inline in the index
+        char[] chars = new char[(1 << 24) + 1024];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+        m.put("a", large);
+        m.put("b", "small");
+        assertEquals(large, m.get("a"));
+        assertEquals("small", m.get("b"));
+        f.closeStore();
+    }
+
+    @Test
+    public void putAll() {
+        String fileName = DIR + "/cache-0.log";
+        LogStoreMapFactory f = newFactory(fileName, false);
+        Map<String, String> m = f.openMap("test", null);
+        m.put("a", "0");
+        char[] chars = new char[(1 << 24) + 1024];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("a", "1");
+        entries.put("b", large);
+        entries.put("c", "3");
+        m.putAll(entries);
+        assertEquals(entries, new HashMap<>(m));
+        f.closeStore();
+
+        // the records are the same as if written one by one
+        f = newFactory(fileName, true);
+        m = f.openMap("test", null);
+        assertEquals(entries, new HashMap<>(m));
+        f.closeStore();
+        assertEquals(0, exceptions.get());
+    }
+
+    @Test
+    public void entrySet() {
+        LogStoreMapFactory f = newFactory(null, false);
+        Map<String, String> m = f.openMap("test", null);
+        m.put("a", "1");
+        m.put("b", "2");
+        m.put("a", "3");
+        m.put("c", "4");
+        m.remove("c");
+        Map<String, String> expected = new HashMap<>();
+        expected.put("a", "3");
+        expected.put("b", "2");
+        assertEquals(expected, new HashMap<>(m));
+        assertEquals(expected.keySet(), m.keySet());
+
+        m.keySet().removeIf("a"::equals);
+        assertNull(m.get("a"));
+        assertEquals(1, m.size());
+        assertEquals(0, exceptions.get());
+        f.closeStore();
+    }
+
+    @Test
+    public void persistentCache() throws Exception {
+        PersistentCache pCache = new PersistentCache(DIR + ",store=log");
+        CacheLIRS<MemoryDiffCache.Key, StringValue> cache = new CacheLIRS.Builder<MemoryDiffCache.Key, StringValue>().
+                maximumSize(1).build();
+        Cache<MemoryDiffCache.Key, StringValue> map = pCache.wrap(null, null, cache, CacheType.DIFF);
+        MemoryDiffCache.Key k = new MemoryDiffCache.Key(Path.fromString("/foo"),
+                new RevisionVector(new Revision(0, 0, 1)),
+                new RevisionVector(new Revision(1, 0, 1)));
+        map.put(k, new StringValue("bar"));
+        pCache.close();
+
+        pCache = new PersistentCache(DIR + ",store=log");
+        cache = new CacheLIRS.Builder<MemoryDiffCache.Key, StringValue>().maximumSize(1).build();
+        map = pCache.wrap(null, null, cache, CacheType.DIFF);
+        assertEquals("bar", map.getIfPresent(k).toString());
+        assertEquals(0, pCache.getExceptionCount());
+        pCache.close();
+    }
+
+    @Test
+    public void otherStoreTypeIgnored() throws Exception {
+        MemoryDiffCache.Key k = new MemoryDiffCache.Key(Path.fromString("/foo"),
+                new RevisionVector(new Revision(0, 0, 1)),
+                new RevisionVector(new Revision(1, 0, 1)));
+        PersistentCache pCache = new PersistentCache(DIR);
+        Cache<MemoryDiffCache.Key, StringValue> map = wrapDiffCache(pCache);
+        map.put(k, new StringValue("mvstore"));
+        pCache.close();
+        File mvStoreFile = new File(DIR, "cache-0.data");
+        assertTrue(mvStoreFile.exists());
+        long mvStoreLength = mvStoreFile.length();
+
+        // the log store uses its own file and leaves the MVStore file alone
+        pCache = new PersistentCache(DIR + ",store=log");
+        map = wrapDiffCache(pCache);
+        assertNull(map.getIfPresent(k));
+        map.put(k, new StringValue("log"));
+        pCache.close();
+        assertTrue(new File(DIR, "cache-0.log").exists());
+        assertEquals(mvStoreLength, mvStoreFile.length());
+
+        pCache = new PersistentCache(DIR);
+        map = wrapDiffCache(pCache);
+        assertEquals("mvstore", map.getIfPresent(k).toString());
+        assertEquals(0, pCache.getExceptionCount());
+        pCache.close();
+    }
+
+    private static Cache<MemoryDiffCache.Key, StringValue> wrapDiffCache(PersistentCache pCache) {
+        CacheLIRS<MemoryDiffCache.Key, StringValue> cache = new CacheLIRS.Builder<MemoryDiffCache.Key, StringValue>().
+                maximumSize(1).build();
+        return pCache.wrap(null, null, cache, CacheType.DIFF);
+    }
+
+    private LogStoreMapFactory newFactory(String fileName, boolean readOnly) {
+        LogStoreMapFactory f = new LogStoreMapFactory(fileName, readOnly, exceptions::incrementAndGet);
+        f.openStore();
+        return f;
+    }
+}
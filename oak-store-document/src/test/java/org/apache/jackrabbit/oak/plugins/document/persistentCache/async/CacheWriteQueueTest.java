@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.persistentCache.async;
+
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.CacheType;
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.PersistentCache;
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.PersistentCacheStats;
+import org.apache.jackrabbit.oak.plugins.document.util.StringValue;
+import org.apache.jackrabbit.oak.commons.concurrent.ExecutorCloser;
+import org.apache.jackrabbit.oak.stats.DefaultStatisticsProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheWriteQueueTest {
+
+    private static final StringValue KEY = new StringValue("key");
+
+    private final Map<StringValue, StringValue> map = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    private PersistentCache cache;
+
+    private CacheActionDispatcher dispatcher;
+
+    private PersistentCacheStats stats;
+
+    private CacheWriteQueue<StringValue, StringValue> queue;
+
+    @Before
+    public void before() {
+        cache = new PersistentCache("");
+        dispatcher = new CacheActionDispatcher();
+        stats = new PersistentCacheStats(CacheType.NODE, new DefaultStatisticsProvider(executor));
+        queue = new CacheWriteQueue<>(dispatcher, cache, map, stats);
+    }
+
+    @After
+    public void after() {
+        dispatcher.stop();
+        new ExecutorCloser(executor).close();
+    }
+
+    @Test
+    public void coalescePuts() throws Exception {
+        assertTrue(queue.addPut(KEY, new StringValue("v1")));
+        assertTrue(queue.addPut(KEY, new StringValue("v2")));
+        assertTrue(queue.addPut(KEY, new StringValue("v3")));
+        assertEquals(1, dispatcher.queue.size());
+        assertEquals(2, stats.getPutCoalescedCount());
+        assertEquals(1, stats.getWriteQueueSize());
+
+        drain();
+        assertEquals("v3", map.get(KEY).asString());
+        assertEquals(0, stats.getWriteQueueSize());
+        assertEquals(0, dispatcher.getMemory());
+    }
+
+    @Test
+    public void invalidateCancelsPut() throws Exception {
+        map.put(KEY, new StringValue("old"));
+        assertTrue(queue.addPut(KEY, new StringValue("v1")));
+        assertTrue(queue.addInvalidate(singleton(KEY)));
+        assertEquals(1, dispatcher.queue.size());
+        assertEquals(1, dispatcher.priorityQueue.size());
+        assertEquals(1, stats.getPutCoalescedCount());
+
+        drain();
+        assertFalse(map.containsKey(KEY));
+    }
+
+    @Test
+    public void putAfterInvalidate() throws Exception {
+        map.put(KEY, new StringValue("old"));
+        assertTrue(queue.addInvalidate(singleton(KEY)));
+        assertTrue(queue.addPut(KEY, new StringValue("new")));
+
+        drain();
+        assertEquals("new", map.get(KEY).asString());
+    }
+
+    @Test
+    public void putAfterExecutedPut() throws Exception {
+        assertTrue(queue.addPut(KEY, new StringValue("v1")));
+        drain();
+        assertTrue(queue.addPut(KEY, new StringValue("v2")));
+        assertEquals(0, stats.getPutCoalescedCount());
+        drain();
+        assertEquals("v2", map.get(KEY).asString());
+    }
+
+    @Test
+    public void batchWrittenWithPutAll() throws Exception {
+        AtomicInteger putAllCalls = new AtomicInteger();
+        Map<StringValue, StringValue> m = new ConcurrentHashMap<StringValue, StringValue>() {
+            @Override
+            public void putAll(Map<? extends StringValue, ? extends StringValue> entries) {
+                putAllCalls.incrementAndGet();
+                super.putAll(entries);
+            }
+        };
+        queue = new CacheWriteQueue<>(dispatcher, cache, m, stats);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.addPut(new StringValue("k" + i), new StringValue("v" + i)));
+        }
+        drain();
+        assertEquals(10, m.size());
+        assertEquals(1, putAllCalls.get());
+    }
+
+    @Test
+    public void dropWhenFull() {
+        CacheActionDispatcher small = new CacheActionDispatcher(1);
+        CacheWriteQueue<StringValue, StringValue> q = new CacheWriteQueue<>(small, cache, map, stats);
+        // a rejected put is counted by the caller
+        assertFalse(q.addPut(KEY, new StringValue("v1")));
+        assertEquals(0, stats.getPutRejectedQueueFullCount());
+        assertFalse(q.addInvalidate(singleton(KEY)));
+        // only counted if rejected puts are counted
+        int rejected = Boolean.getBoolean("PersistentCacheStats.rejectedPut") ? 1 : 0;
+        assertEquals(rejected, stats.getPutRejectedQueueFullCount());
+        assertEquals(0, stats.getWriteQueueSize());
+    }
+
+    private void drain() throws InterruptedException {
+        CacheActionDispatcher d = dispatcher;
+        Thread t = new Thread(d);
+        t.start();
+        for (int i = 0; i < 100 && stats.getWriteQueueSize() > 0; i++) {
+            Thread.sleep(20);
+        }
+        d.stop();
+        t.join();
+        // the stopped dispatcher cannot be restarted
+        dispatcher = new CacheActionDispatcher();
+        queue = new CacheWriteQueue<>(dispatcher, cache, map, stats);
+    }
+}
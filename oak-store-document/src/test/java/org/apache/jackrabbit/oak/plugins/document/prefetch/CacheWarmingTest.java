@@ -30,11 +30,14 @@ import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.commons.junit.TemporarySystemProperty;
 import org.apache.jackrabbit.oak.plugins.document.Collection;
 import org.apache.jackrabbit.oak.plugins.document.CountingDocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.Document;
 import org.apache.jackrabbit.oak.plugins.document.DocumentMK;
 import org.apache.jackrabbit.oak.plugins.document.DocumentMKBuilderProvider;
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeState;
@@ -45,6 +48,7 @@ import org.apache.jackrabbit.oak.plugins.document.MongoUtils;
 import org.apache.jackrabbit.oak.plugins.document.Path;
 import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
 import org.apache.jackrabbit.oak.plugins.document.mongo.MongoDocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.util.AsyncDocumentStoreAdapter;
 import org.apache.jackrabbit.oak.plugins.document.util.MongoConnection;
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
@@ -172,6 +176,76 @@ public class CacheWarmingTest {
         assertEquals(0, getRawFindCalls() - numRawFindCalls);
     }
 
+    @Test
+    public void prefetchChildren() throws Exception {
+        List<String> prefetched = new ArrayList<>();
+        DocumentStore ds = new MemoryDocumentStore() {
+            @Override
+            public <T extends Document> void prefetch(Collection<T> collection,
+                                                      Iterable<String> keys) {
+                keys.forEach(prefetched::add);
+            }
+        };
+        DocumentNodeStore store = builderProvider.newBuilder().setAsyncDelay(0)
+                .setDocumentStore(ds).getNodeStore();
+        NodeBuilder builder = store.getRoot().builder();
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            builder.child("parent").child("c" + i);
+            ids.add(getIdFromPath("/parent/c" + i));
+        }
+        store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+        // populate the children cache, then drop the child nodes only
+        DocumentNodeState parent = (DocumentNodeState) store.getRoot().getChildNode("parent");
+        parent.getChildNodeEntries().forEach(e -> e.getNodeState());
+        store.getNodeCache().invalidateAll();
+        prefetched.clear();
+
+        parent = (DocumentNodeState) store.getRoot().getChildNode("parent");
+        parent.getChildNodeEntries().forEach(e -> e.getNodeState());
+        assertEquals(ids, new HashSet<>(prefetched));
+
+        // all child nodes cached now -> nothing to prefetch
+        prefetched.clear();
+        parent.getChildNodeEntries().forEach(e -> e.getNodeState());
+        assertTrue(prefetched.isEmpty());
+    }
+
+    @Test
+    public void asyncPrefetchChildren() {
+        List<List<String>> batches = new ArrayList<>();
+        DocumentStore ds = new MemoryDocumentStore() {
+            @Override
+            public <T extends Document> void prefetch(Collection<T> collection,
+                                                      Iterable<String> keys) {
+                List<String> batch = new ArrayList<>();
+                keys.forEach(batch::add);
+                synchronized (batches) {
+                    batches.add(batch);
+                }
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CacheWarming cw = new CacheWarming(ds,
+                    new AsyncDocumentStoreAdapter(ds, executor, 4));
+            List<String> names = new ArrayList<>();
+            Set<String> ids = new HashSet<>();
+            for (int i = 0; i < CacheWarming.ASYNC_BATCH_SIZE * 3; i++) {
+                names.add("c" + i);
+                ids.add(getIdFromPath("/parent/c" + i));
+            }
+            cw.prefetchChildren(Path.fromString("/parent"), names, p -> false);
+            assertEquals(3, batches.size());
+            Set<String> prefetched = new HashSet<>();
+            batches.forEach(prefetched::addAll);
+            assertEquals(ids, prefetched);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     private void doSimple(boolean cleanCaches, boolean prefetch)
             throws InterruptedException, CommitFailedException {
         LOG.info("=== doSimple( cleanCaches = " + cleanCaches + ", prefetch = " + prefetch + " )");
@@ -119,6 +119,45 @@ public class RDBDocumentStoreJDBCTest extends AbstractDocumentStoreTest {
         }
     }
 
+    @Test
+    public void readMultiple() throws SQLException {
+        List<String> ids = new ArrayList<>();
+        List<UpdateOp> ops = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            String id = this.getClass().getName() + ".readMultiple-" + i;
+            super.ds.remove(Collection.NODES, id);
+            UpdateOp op = new UpdateOp(id, true);
+            op.set("_modified", 1L);
+            ops.add(op);
+            ids.add(id);
+            removeMe.add(id);
+        }
+        assertTrue(super.ds.create(Collection.NODES, ops));
+
+        RDBTableMetaData tmd = ((RDBDocumentStore) super.ds).getTable(Collection.NODES);
+        if (dbInfo.supportsIdArrayBinding() && !tmd.isIdBinary()) {
+            // statement text does not depend on the number of keys
+            assertEquals(dbInfo.getIdInCondition(ids.subList(0, 1), false).getStatementComponent(),
+                    dbInfo.getIdInCondition(ids, false).getStatementComponent());
+        }
+
+        Set<String> keys = new HashSet<>(ids);
+        keys.add(this.getClass().getName() + ".readMultiple-missing");
+        Connection con = super.rdbDataSource.getConnection();
+        con.setReadOnly(true);
+        try {
+            List<RDBRow> rows = jdbc.read(con, tmd, keys);
+            assertEquals(ids.size(), rows.size());
+            Set<String> read = new HashSet<>();
+            for (RDBRow row : rows) {
+                read.add(row.getId());
+            }
+            assertEquals(new HashSet<>(ids), read);
+        } finally {
+            con.close();
+        }
+    }
+
     @Test
     public void batchUpdateResult() throws SQLException {
 
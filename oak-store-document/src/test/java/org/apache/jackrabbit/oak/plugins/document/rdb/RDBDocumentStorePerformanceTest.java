@@ -26,10 +26,16 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.function.Function;
 
 import org.apache.jackrabbit.oak.plugins.document.AbstractDocumentStoreTest;
+import org.apache.jackrabbit.oak.plugins.document.Collection;
 import org.apache.jackrabbit.oak.plugins.document.DocumentStoreFixture;
+import org.apache.jackrabbit.oak.plugins.document.UpdateOp;
+import org.apache.jackrabbit.oak.plugins.document.rdb.RDBJDBCTools.PreparedStatementComponent;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -78,6 +84,71 @@ public class RDBDocumentStorePerformanceTest extends AbstractDocumentStoreTest {
         internalTestPerfUpdateLimit("testPerfUpdateGrowingDoc", "raw row update (string + blob)", 4);
     }
 
+    @Test
+    public void testPerfReadMultiple() throws SQLException {
+        RDBDocumentStore rds = (RDBDocumentStore) super.ds;
+        RDBDocumentStoreDB dbInfo = RDBDocumentStoreDB.getValue(rds.getMetadata().get("db"));
+        RDBDocumentStore.RDBTableMetaData tmd = rds.getTable(Collection.NODES);
+
+        List<String> ids = new ArrayList<>();
+        List<UpdateOp> ops = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String id = this.getClass().getName() + ".testPerfReadMultiple-" + i;
+            UpdateOp up = new UpdateOp(id, true);
+            ops.add(up);
+            ids.add(id);
+            removeMe.add(id);
+        }
+        super.ds.remove(Collection.NODES, ids);
+        assertTrue(super.ds.create(Collection.NODES, ops));
+
+        internalTestPerfReadMultiple("raw multi-key read (in list)", tmd, ids,
+                keys -> RDBJDBCTools.createInStatement("ID", keys, tmd.isIdBinary()), false);
+        if (!tmd.isIdBinary() && (dbInfo == RDBDocumentStoreDB.H2 || dbInfo == RDBDocumentStoreDB.POSTGRES)) {
+            internalTestPerfReadMultiple("raw multi-key read (array)", tmd, ids,
+                    keys -> RDBJDBCTools.createArrayInStatement("ID", keys), true);
+        }
+    }
+
+    private void internalTestPerfReadMultiple(String desc, RDBDocumentStore.RDBTableMetaData tmd, List<String> ids,
+            Function<List<String>, PreparedStatementComponent> condition, boolean poolable) throws SQLException {
+        long duration = 1000;
+        long end = System.currentTimeMillis() + duration;
+        long cnt = 0;
+
+        Connection connection = super.rdbDataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            while (System.currentTimeMillis() < end) {
+                // vary the number of keys, so that in lists need different statements
+                List<String> keys = ids.subList(0, 1 + (int) (cnt % ids.size()));
+                PreparedStatementComponent inClause = condition.apply(keys);
+                PreparedStatement stmt = connection.prepareStatement("select ID, MODCOUNT from " + tmd.getName() + " where "
+                        + inClause.getStatementComponent());
+                ResultSet rs = null;
+                try {
+                    stmt.setPoolable(poolable);
+                    inClause.setParameters(stmt, 1);
+                    rs = stmt.executeQuery();
+                    int rows = 0;
+                    while (rs.next()) {
+                        rows += 1;
+                    }
+                    assertEquals(keys.size(), rows);
+                    connection.commit();
+                } finally {
+                    rs = close(rs);
+                    stmt = close(stmt);
+                }
+                cnt += 1;
+            }
+        } finally {
+            connection = close(connection);
+        }
+
+        LOG.info(desc + " for " + super.dsname + " was " + cnt + " in " + duration + "ms (" + (cnt / (duration / 1000f)) + "/s)");
+    }
+
     private void internalTestPerfUpdateLimit(String name, String desc, int mode) throws SQLException {
         String key = name;
         Connection connection = null;
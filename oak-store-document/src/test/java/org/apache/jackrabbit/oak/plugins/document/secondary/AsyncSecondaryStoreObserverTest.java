@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.document.secondary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jackrabbit.oak.plugins.document.DocumentMKBuilderProvider;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
+import org.apache.jackrabbit.oak.plugins.document.NodeStateDiffer;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.filter.PathFilter;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateUtils;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.apache.jackrabbit.guava.common.collect.ImmutableList.of;
+import static org.apache.jackrabbit.oak.plugins.document.secondary.SecondaryStoreObserverTest.create;
+import static org.apache.jackrabbit.oak.plugins.document.secondary.SecondaryStoreObserverTest.documentState;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncSecondaryStoreObserverTest {
+    private final List<String> empty = Collections.emptyList();
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    @Rule
+    public DocumentMKBuilderProvider builderProvider = new DocumentMKBuilderProvider();
+
+    private DocumentNodeStore primary;
+    private NodeStore secondary;
+
+    @Before
+    public void setUp() {
+        primary = builderProvider.newBuilder().getNodeStore();
+        secondary = new MemoryNodeStore();
+    }
+
+    @Test
+    public void coalesceChanges() throws Exception {
+        AsyncSecondaryStoreObserver observer = createObserver();
+        primary.addObserver(observer);
+
+        for (String path : of("/a/b", "/a/c", "/a/d")) {
+            NodeBuilder nb = primary.getRoot().builder();
+            create(nb, path);
+            primary.merge(nb, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        }
+        assertFalse(secondary.getRoot().hasChildNode("a"));
+
+        // a single sync for all changes
+        assertEquals(1, tasks.size());
+        runTasks();
+        assertEquals(secondaryRoot().getChildNode("a"),
+                primary.getRoot().getChildNode("a"));
+        assertEquals(documentState(primary.getRoot(), "/a").getLastRevision(),
+                documentState(secondaryRoot(), "/a").getLastRevision());
+    }
+
+    @Test
+    public void catchUpFromSyncedRevision() throws Exception {
+        AsyncSecondaryStoreObserver observer = createObserver();
+        primary.addObserver(observer);
+
+        NodeBuilder nb = primary.getRoot().builder();
+        create(nb, "/a/b", "/a/c");
+        primary.merge(nb, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        runTasks();
+
+        nb = primary.getRoot().builder();
+        nb.child("a").child("b").remove();
+        create(nb, "/a/d");
+        primary.merge(nb, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        nb = primary.getRoot().builder();
+        nb.child("a").child("d").setProperty("p", "v");
+        primary.merge(nb, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        runTasks();
+
+        assertFalse(NodeStateUtils.getNode(secondaryRoot(), "/a/b").exists());
+        assertEquals("v", NodeStateUtils.getNode(secondaryRoot(), "/a/d").getString("p"));
+        assertEquals(primary.getRoot().getChildNode("a"), secondaryRoot().getChildNode("a"));
+    }
+
+    @Test
+    public void close() throws Exception {
+        AsyncSecondaryStoreObserver observer = createObserver();
+        primary.addObserver(observer);
+        runTasks();
+
+        observer.close();
+        NodeBuilder nb = primary.getRoot().builder();
+        create(nb, "/a/b");
+        primary.merge(nb, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        assertTrue(tasks.isEmpty());
+        assertFalse(secondary.getRoot().hasChildNode("a"));
+    }
+
+    private AsyncSecondaryStoreObserver createObserver() {
+        return new SecondaryStoreBuilder(secondary)
+                .pathFilter(new PathFilter(of("/a"), empty))
+                .buildAsyncObserver(SecondaryStoreRootObserver.NOOP, tasks::add);
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    private NodeState secondaryRoot() {
+        return DelegatingDocumentNodeState.wrap(secondary.getRoot(), NodeStateDiffer.DEFAULT_DIFFER);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jackrabbit.oak.plugins.document.Collection;
+import org.apache.jackrabbit.oak.plugins.document.Document;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStoreException;
+import org.apache.jackrabbit.oak.plugins.document.NodeDocument;
+import org.apache.jackrabbit.oak.plugins.document.UpdateOp;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.apache.jackrabbit.oak.plugins.document.Collection.NODES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncDocumentStoreAdapterTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void operations() {
+        MemoryDocumentStore store = new MemoryDocumentStore();
+        AsyncDocumentStoreAdapter async = new AsyncDocumentStoreAdapter(store, executor, 2);
+
+        UpdateOp op = new UpdateOp("0:/", true);
+        op.set("p", 1);
+        List<NodeDocument> old = async.createOrUpdateAsync(NODES,
+                Collections.singletonList(op)).join();
+        assertEquals(1, old.size());
+        assertNull(old.get(0));
+
+        NodeDocument doc = async.findAsync(NODES, "0:/").join();
+        assertNotNull(doc);
+        assertEquals(1L, doc.get("p"));
+
+        op = new UpdateOp("0:/", false);
+        op.set("p", 2);
+        doc = async.findAndUpdateAsync(NODES, op).join();
+        assertNotNull(doc);
+        assertEquals(1L, doc.get("p"));
+
+        assertEquals(1, async.queryAsync(NODES, "0", "1", 10).join().size());
+        async.prefetchAsync(NODES, Collections.singletonList("0:/")).join();
+        assertEquals(2, async.getAvailablePermits());
+    }
+
+    @Test
+    public void exception() {
+        MemoryDocumentStore store = new MemoryDocumentStore() {
+            @Override
+            public <T extends Document> T find(Collection<T> collection,
+                                               String key) {
+                throw new DocumentStoreException("failure");
+            }
+        };
+        AsyncDocumentStoreAdapter async = new AsyncDocumentStoreAdapter(store, executor, 1);
+        try {
+            async.findAsync(NODES, "0:/").join();
+            fail("must fail with CompletionException");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof DocumentStoreException);
+        }
+        // permit is released
+        assertEquals(1, async.getAvailablePermits());
+    }
+
+    @Test
+    public void maxInFlight() throws Exception {
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        CountDownLatch proceed = new CountDownLatch(1);
+        MemoryDocumentStore store = new MemoryDocumentStore() {
+            @Override
+            public <T extends Document> T find(Collection<T> collection,
+                                               String key) {
+                max.accumulateAndGet(current.incrementAndGet(), Math::max);
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    throw new DocumentStoreException(e);
+                } finally {
+                    current.decrementAndGet();
+                }
+                return super.find(collection, key);
+            }
+        };
+        AsyncDocumentStoreAdapter async = new AsyncDocumentStoreAdapter(store, executor, 3);
+        List<CompletableFuture<NodeDocument>> futures = Collections.synchronizedList(new ArrayList<>());
+        Thread t = new Thread(() -> {
+            for (int i = 0; i < 10; i++) {
+                futures.add(async.findAsync(NODES, "0:/"));
+            }
+        });
+        t.start();
+        while (current.get() < 3) {
+            Thread.sleep(1);
+        }
+        // caller waits for a permit
+        Thread.sleep(100);
+        assertEquals(3, futures.size());
+        proceed.countDown();
+        t.join();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        assertEquals(10, futures.size());
+        assertEquals(3, max.get());
+    }
+
+    @Test
+    public void rejected() {
+        ExecutorService shutdown = Executors.newSingleThreadExecutor();
+        shutdown.shutdown();
+        MemoryDocumentStore store = new MemoryDocumentStore();
+        AsyncDocumentStoreAdapter async = new AsyncDocumentStoreAdapter(store, shutdown, 1);
+        CompletableFuture<NodeDocument> f = async.findAsync(NODES, "0:/");
+        assertTrue(f.isDone());
+        assertNull(f.join());
+        assertEquals(1, async.getAvailablePermits());
+    }
+}